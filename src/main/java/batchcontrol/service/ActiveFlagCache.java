@@ -0,0 +1,96 @@
+package batchcontrol.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Caches batch active flags read from database. All flags of the host are refreshed
+ * with a single query once they are older than the time-to-live, so a change made
+ * directly in database takes effect within <code>ttl</code> milliseconds.
+ * <p>
+ * While one thread refreshes the flags other threads keep reading the previous values.
+ */
+class ActiveFlagCache {
+	private static final Logger log = Logger.getLogger(ActiveFlagCache.class);
+
+	private final BatchControlImpl service;
+	private final long ttl;
+	private final ReentrantLock refreshLock = new ReentrantLock();
+	private volatile Map<String, Integer> flags = new ConcurrentHashMap<String, Integer>();
+	private volatile long refreshed;
+
+	/**
+	 * @param service service that reads flags from database
+	 * @param ttl time-to-live of the cached flags in milliseconds, 0 disables the cache
+	 */
+	ActiveFlagCache(BatchControlImpl service, long ttl) {
+		this.service = service;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Returns batch active flag.
+	 *
+	 * @param batchClassName
+	 *            fully qualified task class name.
+	 * @return batch active flag 1 or 0, or -1 if the batch was not found.
+	 * @throws Exception
+	 *             if database error occurs.
+	 */
+	int get(String batchClassName) throws Exception {
+		if (ttl <= 0) {
+			return service.readActive(batchClassName);
+		}
+		if (System.currentTimeMillis() - refreshed > ttl) {
+			refresh();
+		}
+		Integer active = flags.get(batchClassName);
+		if (active == null) {
+			// batch is not assigned to this host any more
+			return service.readActive(batchClassName);
+		}
+		return active.intValue();
+	}
+
+	/**
+	 * Updates the cached flag after it was changed by the service.
+	 */
+	void put(String batchClassName, int active) {
+		flags.put(batchClassName, Integer.valueOf(active));
+	}
+
+	/**
+	 * Forces the flags to be reloaded on next read.
+	 */
+	void invalidate() {
+		refreshed = 0;
+	}
+
+	private void refresh() throws Exception {
+		boolean hasFlags = refreshed != 0;
+		if (hasFlags) {
+			// somebody is already refreshing, use previous values
+			if (!refreshLock.tryLock()) {
+				return;
+			}
+		} else {
+			refreshLock.lock();
+		}
+		try {
+			if (System.currentTimeMillis() - refreshed > ttl) {
+				Map<String, Integer> loaded = new ConcurrentHashMap<String, Integer>(service.readActiveFlags());
+				// changes not written to database yet take precedence
+				loaded.putAll(service.getPendingActiveFlags());
+				flags = loaded;
+				refreshed = System.currentTimeMillis();
+				log.debug("Active flags refreshed: " + flags.size() + " batches.");
+			}
+		} finally {
+			refreshLock.unlock();
+		}
+	}
+
+}
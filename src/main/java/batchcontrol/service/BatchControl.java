@@ -1,5 +1,7 @@
 package batchcontrol.service;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.Map;
 
 public interface BatchControl {
@@ -7,10 +9,22 @@ public interface BatchControl {
 	public void stopBatch(String name) throws Exception;
 	public void processStopped();
 	public void startBatch(String taskClassName, boolean runOnce) throws Exception;
+	public int runOnce(Collection<String> taskClassNames) throws Exception;
 	public void setActive(String batchClassName, int active) throws Exception;
+	/**
+	 * @deprecated use {@link #getSnapshot()}.
+	 */
+	@Deprecated
 	public Map<String, DefaultBatch> getAllBatches();
+	/**
+	 * @deprecated use {@link BatchControlSnapshot#getBatch(String)} of {@link #getSnapshot()}.
+	 */
+	@Deprecated
 	public DefaultBatch getBatch(String batchId);
+	public BatchControlSnapshot getSnapshot();
+	public Forecast forecast(Date from, Date to);
 	public void processStarted();
 	public void startService() throws Exception;
 	public void stopService() throws Exception;
+	public boolean awaitQuiescence(long timeoutMillis) throws InterruptedException;
 }
@@ -5,35 +5,52 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.TreeMap;
-
-import javax.naming.Context;
-import javax.naming.InitialContext;
-import javax.sql.DataSource;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
-import batchcontrol.service.iterators.DailyIterator;
-import batchcontrol.service.iterators.FirstBusinessDayOfMonthIterator;
-import batchcontrol.service.iterators.HourlyIterator;
-import batchcontrol.service.iterators.MinuteIterator;
-import batchcontrol.service.iterators.MonthlyIterator;
-import batchcontrol.service.iterators.RestrictedDailyIterator;
+import batchcontrol.service.calendar.BusinessCalendar;
+import batchcontrol.service.calendar.BusinessCalendars;
+import batchcontrol.service.calendar.HolidayLoader;
+import batchcontrol.service.engine.RunOnceExecutor;
+import batchcontrol.service.engine.SchedulingEngine;
+import batchcontrol.service.engine.TaskExecutor;
+import batchcontrol.service.engine.TimerSchedulingEngine;
+import batchcontrol.service.engine.TimingWheelEngine;
+import batchcontrol.service.jdbc.ConnectionProvider;
+import batchcontrol.service.jdbc.JndiConnectionProvider;
+import batchcontrol.service.jdbc.PooledConnectionProvider;
 import batchcontrol.service.iterators.SchedulerIterator;
+import batchcontrol.service.iterators.ZoneTransitions;
 
 public class BatchControlImpl implements BatchControl {
 	private static final Logger log = Logger.getLogger(BatchControlImpl.class);
 
-	private boolean running;
-	private int numOfProcesses;
-	private Map<String, DefaultBatch> batches = new Hashtable<String, DefaultBatch>();
+	private final DrainBarrier processes = new DrainBarrier();
+	private Map<String, DefaultBatch> batches = new ConcurrentHashMap<String, DefaultBatch>();
 	private final String host;
 
 	/** Scheduler types */
@@ -42,11 +59,67 @@ public class BatchControlImpl implements BatchControl {
 	public static final String RESTRICTED_DAILY_TYPE = "R";
 	public static final String MINUTE_TYPE = "M";
 	public static final String MONTHLY_TYPE = "O";
+	/** business day types use the calendar named in the s_calendar column, or the default calendar */
 	public static final String FIRST_BUSINESS_DAY_OF_MONTH_TYPE = "F";
+	public static final String NTH_BUSINESS_DAY_OF_MONTH_TYPE = "N";
+	public static final String LAST_BUSINESS_DAY_OF_MONTH_TYPE = "L";
+	/** cron expression in the s_expression column (or in s_days if the schema has no such column) */
+	public static final String CRON_TYPE = "C";
+
+	/** How often waiting for running tasks is logged, in milliseconds */
+	private static final long WAIT_LOG_INTERVAL = 10000;
 
 	private static final String PROPERTY_FILE = "/modasolutions/conf/backendsystem.properties";
 	private static final String HOST_PROPERTY = "batches_host_name";
 	private static final String JNDI_DB_PROPERTY = "batches_modadb_jndi_name";
+	private static final String SCHEDULER_ENGINE_PROPERTY = "batches_scheduler_engine";
+	private static final String SCHEDULER_WORKERS_PROPERTY = "batches_scheduler_workers";
+	private static final String SCHEDULER_TICK_PROPERTY = "batches_scheduler_tick";
+	private static final String RUN_ONCE_THREADS_PROPERTY = "batches_run_once_threads";
+	private static final String RUN_ONCE_QUEUE_PROPERTY = "batches_run_once_queue";
+	private static final String ACTIVE_CACHE_TTL_PROPERTY = "batches_active_cache_ttl";
+	private static final String STARTUP_THREADS_PROPERTY = "batches_startup_threads";
+	private static final String INCREMENTAL_RELOAD_PROPERTY = "batches_incremental_reload";
+	private static final String STATUS_FLUSH_INTERVAL_PROPERTY = "batches_status_flush_interval";
+	private static final String DB_URL_PROPERTY = "batches_db_url";
+	private static final String DB_USER_PROPERTY = "batches_db_user";
+	private static final String DB_PASSWORD_PROPERTY = "batches_db_password";
+	private static final String DB_POOL_SIZE_PROPERTY = "batches_db_pool_size";
+	private static final String DB_POOL_TIMEOUT_PROPERTY = "batches_db_pool_timeout";
+	private static final String HOLIDAYS_FILE_PROPERTY = "batches_holidays_file";
+	private static final String HOLIDAYS_TABLE_PROPERTY = "batches_holidays_table";
+	private static final String SMEAR_WINDOW_PROPERTY = "batches_smear_window";
+	private static final String SMEAR_MODE_PROPERTY = "batches_smear_mode";
+	private static final String MISFIRE_POLICY_PROPERTY = "batches_misfire_policy";
+	private static final String MISFIRE_THRESHOLD_PROPERTY = "batches_misfire_threshold";
+	private static final String TIME_ZONE_PROPERTY = "batches_time_zone";
+	private static final String FIRE_JOURNAL_PROPERTY = "batches_fire_journal";
+	private static final String EXECUTION_MODE_PROPERTY = "batches_execution_mode";
+	private static final String SLOW_RUN_THRESHOLD_PROPERTY = "batches_slow_run_threshold";
+	private static final String TRACE_PINNED_THREADS_PROPERTY = "batches_trace_pinned_threads";
+	private static final String PLATFORM_THREADS_PROPERTY = "batches_platform_threads";
+	private static final String MAX_CONCURRENT_PROPERTY = "batches_max_concurrent";
+	private static final String EXECUTION_GROUPS_PROPERTY = "batches_execution_groups";
+	private static final String EXECUTION_GROUP_PROPERTY_PREFIX = "batches_execution_group_";
+	private static final String DEFAULT_DEADLINE_PROPERTY = "batches_default_deadline";
+	private static final String PRIORITY_AGING_PROPERTY = "batches_priority_aging";
+	private static final String PARTITION_PARALLELISM_PROPERTY = "batches_partition_parallelism";
+	private static final String CHECKPOINT_STORE_PROPERTY = "batches_checkpoint_store";
+	private static final String CHECKPOINT_TABLE_PROPERTY = "batches_checkpoint_table";
+	private static final String CHECKPOINT_DIR_PROPERTY = "batches_checkpoint_dir";
+	private static final String CHECKPOINT_INTERVAL_PROPERTY = "batches_checkpoint_interval";
+
+	/** Scheduler engines */
+	public static final String TIMING_WHEEL_ENGINE = "wheel";
+	public static final String TIMER_ENGINE = "timer";
+	/** Execution modes: on the engine threads, or on virtual threads with the engine doing timing only */
+	public static final String ENGINE_EXECUTION = "engine";
+	public static final String VIRTUAL_EXECUTION = "virtual";
+	/** Checkpoint stores: a database table or a local directory */
+	public static final String DATABASE_CHECKPOINTS = "database";
+	public static final String FILE_CHECKPOINTS = "file";
+	public static final String SMEAR_BY_HASH = "hash";
+	public static final String SMEAR_BY_LOAD = "load";
 
 	private static String JNDI_DB_NAME;
 	
@@ -54,6 +127,29 @@ public class BatchControlImpl implements BatchControl {
 	
 	private static BatchControlImpl instance;
 
+	private final Properties properties = new Properties();
+	private SchedulingEngine schedulingEngine;
+	private RunOnceExecutor runOnceExecutor;
+	private TaskExecutor taskExecutor;
+	// built by startService, read by every task execution
+	private volatile ExecutionGroups executionGroups;
+	// resolved by startService, read by every task execution
+	private volatile CheckpointStore checkpointStore;
+	private volatile long checkpointInterval;
+	private volatile boolean checkpointStoreCreated;
+	private final ActiveFlagCache activeFlags;
+	private final StatusJournal statusJournal;
+	private volatile FireJournal fireJournal;
+	private volatile ConnectionProvider connectionProvider;
+	private final Map<String, Long> startupTimes = new ConcurrentHashMap<String, Long>();
+	// incremental reload: latest update time seen, the batches updated at that time, and 
+	// the number of scheduler rows of each batch, which reveals deleted rows
+	private long reloadWatermark;
+	private Set<String> reloadedAtWatermark = new HashSet<String>();
+	private Map<String, Integer> schedulerCounts = new HashMap<String, Integer>();
+	private final Object snapshotLock = new Object();
+	private volatile BatchControlSnapshot snapshot = BatchControlSnapshot.EMPTY;
+
 	/**
 	 * Returns instance of this service.
 	 * 
@@ -73,6 +169,21 @@ public class BatchControlImpl implements BatchControl {
 		return instance;
 	}
 
+	/**
+	 * Replaces the instance of this service with one configured by the given properties 
+	 * instead of the property file, which gets its connections from the given provider; 
+	 * for example in tests with an embedded database.
+	 * 
+	 * @param properties service properties
+	 * @param connectionProvider provider of the database connections
+	 * @return new instance.
+	 */
+	static synchronized BatchControlImpl createInstance(Properties properties, ConnectionProvider connectionProvider) {
+		instance = new BatchControlImpl(properties);
+		instance.setConnectionProvider(connectionProvider);
+		return instance;
+	}
+
 	/**
 	 * Private constructor.
 	 * 
@@ -80,47 +191,436 @@ public class BatchControlImpl implements BatchControl {
 	 *             if errors occur when reading properties.
 	 */
 	private BatchControlImpl() throws Exception {
+		this(readProperties());
+	}
+
+	private BatchControlImpl(Properties properties) {
+		this.properties.putAll(properties);
+		host = properties.getProperty(HOST_PROPERTY);
+		JNDI_DB_NAME = properties.getProperty(JNDI_DB_PROPERTY);
+		activeFlags = new ActiveFlagCache(this, getIntProperty(ACTIVE_CACHE_TTL_PROPERTY, 10000));
+		connectionProvider = createConnectionProvider();
+		statusJournal = new StatusJournal(this, getIntProperty(STATUS_FLUSH_INTERVAL_PROPERTY, 0));
+	}
+
+	private static Properties readProperties() throws IOException {
+		Properties properties = new Properties();
 		FileInputStream fis = null;
 		try {
-			Properties prop = new Properties();
 			fis = new FileInputStream(PROPERTY_FILE);
-			prop.load(fis);
-			host = prop.getProperty(HOST_PROPERTY);
-			JNDI_DB_NAME = prop.getProperty(JNDI_DB_PROPERTY);
-		} catch (Exception e) {
-			throw e;
+			properties.load(fis);
 		} finally {
-			try {
-				if (fis != null) 
-					fis.close();
-			} catch (IOException e) {
-				throw e;
-			}
+			if (fis != null) 
+				fis.close();
+		}
+		return properties;
+	}
+
+	/**
+	 * Creates connection provider: a lightweight pool if batches_db_url is set 
+	 * (sized by batches_db_pool_size, default 10), the container DataSource 
+	 * batches_modadb_jndi_name otherwise.
+	 */
+	private ConnectionProvider createConnectionProvider() {
+		String url = properties.getProperty(DB_URL_PROPERTY);
+		if (url != null && url.trim().length() > 0) {
+			log.info("Using connection pool: " + url);
+			return new PooledConnectionProvider(url.trim(), properties.getProperty(DB_USER_PROPERTY), 
+					properties.getProperty(DB_PASSWORD_PROPERTY), getIntProperty(DB_POOL_SIZE_PROPERTY, 10), 
+					getIntProperty(DB_POOL_TIMEOUT_PROPERTY, 30000));
 		}
+		return new JndiConnectionProvider(JNDI_DB_NAME);
+	}
+
+	/**
+	 * Replaces the connection provider, for example with an embedded database in tests.
+	 * The previous provider is closed.
+	 */
+	public void setConnectionProvider(ConnectionProvider connectionProvider) {
+		ConnectionProvider previous = this.connectionProvider;
+		this.connectionProvider = connectionProvider;
+		if (previous != null && previous != connectionProvider) {
+			previous.close();
+		}
+	}
+
+	/**
+	 * @return connection provider; its metrics include connection acquisition latency.
+	 */
+	public ConnectionProvider getConnectionProvider() {
+		return connectionProvider;
 	}
 	
+	/**
+	 * Returns integer property from the service property file.
+	 * 
+	 * @param name property name
+	 * @param defaultValue value returned when the property is not set
+	 * @return property value
+	 */
+	int getIntProperty(String name, int defaultValue) {
+		String value = properties.getProperty(name);
+		return value == null || value.trim().length() == 0 ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * Returns the engine shared by all batch schedulers. The engine is created on first 
+	 * use and is configured by the properties:
+	 * <ul>
+	 * <li>batches_scheduler_engine - "wheel" (default) for a shared timing wheel, 
+	 * "timer" for a single shared <code>java.util.Timer</code> that only does timing; 
+	 * the executions run concurrently on a cached thread pool, one thread per running 
+	 * execution as before the shared engine</li>
+	 * <li>batches_scheduler_workers - number of threads running tasks on the wheel (default 16)</li>
+	 * <li>batches_scheduler_tick - wheel resolution in milliseconds (default 10)</li>
+	 * </ul>
+	 * 
+	 * @return scheduling engine.
+	 */
+	synchronized SchedulingEngine getSchedulingEngine() {
+		if (schedulingEngine == null) {
+			String type = properties.getProperty(SCHEDULER_ENGINE_PROPERTY, TIMING_WHEEL_ENGINE).trim();
+			if (type.equals(TIMER_ENGINE)) {
+				schedulingEngine = new TimerSchedulingEngine(true);
+			} else {
+				schedulingEngine = new TimingWheelEngine(getIntProperty(SCHEDULER_TICK_PROPERTY, 10), 512,
+						getIntProperty(SCHEDULER_WORKERS_PROPERTY, 16));
+			}
+			log.info("Scheduling engine created: " + type);
+		}
+		return schedulingEngine;
+	}
+
+	/**
+	 * Returns the executor shared by all one-time batch executions. The executor is 
+	 * created on first use and is configured by the properties:
+	 * <ul>
+	 * <li>batches_run_once_threads - number of one-time executions running at once (default 4)</li>
+	 * <li>batches_run_once_queue - number of one-time executions waiting for a thread (default 1000)</li>
+	 * </ul>
+	 * 
+	 * @return run-once executor.
+	 */
+	public synchronized RunOnceExecutor getRunOnceExecutor() {
+		if (runOnceExecutor == null) {
+			runOnceExecutor = new RunOnceExecutor(getIntProperty(RUN_ONCE_THREADS_PROPERTY, 4), 
+					getIntProperty(RUN_ONCE_QUEUE_PROPERTY, 1000));
+		}
+		return runOnceExecutor;
+	}
+
+	/**
+	 * Returns the executor of scheduled executions if batches_execution_mode is 
+	 * "virtual": executions run on virtual threads and the engine threads only do 
+	 * timing. Returns null in the default "engine" mode, where executions run on the 
+	 * engine threads. The executor is created on first use and is configured by the 
+	 * properties:
+	 * <ul>
+	 * <li>batches_slow_run_threshold - executions running longer are logged with their 
+	 * stack, in milliseconds (default 0, disabled)</li>
+	 * <li>batches_platform_threads - executions running at once before Java 21, which 
+	 * has no virtual threads; further executions wait (default 64)</li>
+	 * </ul>
+	 * To have the JDK print virtual threads blocked while pinned to their carrier 
+	 * thread, start the JVM with <code>-Djdk.tracePinnedThreads=short</code> (or 
+	 * <code>full</code>); batches_trace_pinned_threads is no longer applied.
+	 * 
+	 * @return task executor, or null.
+	 */
+	synchronized TaskExecutor getTaskExecutor() {
+		if (taskExecutor == null) {
+			String mode = properties.getProperty(EXECUTION_MODE_PROPERTY, ENGINE_EXECUTION).trim();
+			if (!mode.equals(VIRTUAL_EXECUTION)) {
+				return null;
+			}
+			if (properties.getProperty(TRACE_PINNED_THREADS_PROPERTY) != null) {
+				log.warn(TRACE_PINNED_THREADS_PROPERTY + " is ignored: start the JVM with -Djdk.tracePinnedThreads=" 
+						+ properties.getProperty(TRACE_PINNED_THREADS_PROPERTY).trim() + " instead.");
+			}
+			taskExecutor = new TaskExecutor(getIntProperty(SLOW_RUN_THRESHOLD_PROPERTY, 0), 
+					getIntProperty(PLATFORM_THREADS_PROPERTY, 64));
+			log.info("Task executor created: " + taskExecutor);
+		}
+		return taskExecutor;
+	}
+
+	/**
+	 * Returns the concurrency limits of the task executions. The limits are created by 
+	 * {@link #startService()}, or on first use while the service is stopped, and are 
+	 * configured by the properties:
+	 * <ul>
+	 * <li>batches_max_concurrent - executions of all batches running at once (default 0, 
+	 * no limit)</li>
+	 * <li>batches_execution_groups - comma-separated names of the execution groups; a 
+	 * batch is assigned to a group by the execution_group column of the batches table, 
+	 * batches without a group belong to the "default" group</li>
+	 * <li>batches_execution_group_&lt;name&gt;_max - executions of the group running at 
+	 * once (default 0, no limit of the group)</li>
+	 * <li>batches_execution_group_&lt;name&gt;_queue - executions of the group waiting 
+	 * for a permit; more are rejected (default 100)</li>
+	 * <li>batches_execution_group_&lt;name&gt;_reserved - permits of the global limit 
+	 * that only the group can use (default 0); groups reserve in the order they are 
+	 * listed, the default group last</li>
+	 * <li>batches_default_deadline - milliseconds after the fire a waiting execution is 
+	 * due if its batch has no deadline column (default 3600000)</li>
+	 * <li>batches_priority_aging - milliseconds a priority level of the batch moves the 
+	 * due time of a waiting execution forward (default 60000)</li>
+	 * </ul>
+	 * Waiting executions are admitted earliest due time first, see {@link ExecutionGroups}.
+	 * A waiting execution does not occupy a thread: when a permit is free it continues 
+	 * on the task executor in "virtual" execution mode, otherwise on the engine threads.
+	 * 
+	 * @return execution groups.
+	 */
+	public ExecutionGroups getExecutionGroups() {
+		ExecutionGroups groups = executionGroups;
+		return groups != null ? groups : createExecutionGroups();
+	}
+
+	private synchronized ExecutionGroups createExecutionGroups() {
+		if (executionGroups == null) {
+			ExecutionGroups groups = new ExecutionGroups(getIntProperty(MAX_CONCURRENT_PROPERTY, 0), 
+					getIntProperty(DEFAULT_DEADLINE_PROPERTY, 3600000), getIntProperty(PRIORITY_AGING_PROPERTY, 60000), 
+					new Executor() {
+						public void execute(Runnable continuation) {
+							TaskExecutor executor = getTaskExecutor();
+							if (executor != null) {
+								executor.execute(continuation);
+							} else {
+								getSchedulingEngine().schedule(continuation, System.currentTimeMillis());
+							}
+						}
+					});
+			String names = properties.getProperty(EXECUTION_GROUPS_PROPERTY, "");
+			for (String name : names.split(",")) {
+				name = name.trim();
+				if (name.length() > 0 && groups.getGroup(name) == null) {
+					addExecutionGroup(groups, name);
+				}
+			}
+			if (groups.getGroup(ExecutionGroups.DEFAULT_GROUP) == null) {
+				addExecutionGroup(groups, ExecutionGroups.DEFAULT_GROUP);
+			}
+			executionGroups = groups;
+			log.info("Execution groups created: " + executionGroups);
+		}
+		return executionGroups;
+	}
+
+	private void addExecutionGroup(ExecutionGroups groups, String name) {
+		String prefix = EXECUTION_GROUP_PROPERTY_PREFIX + name;
+		groups.add(name, getIntProperty(prefix + "_max", 0), getIntProperty(prefix + "_queue", 100), 
+				getIntProperty(prefix + "_reserved", 0));
+	}
+
+	/**
+	 * @return number of partitions a {@link PartitionedSchedulerTask} processes at once: 
+	 * the batches_partition_parallelism property, by default the number of processors.
+	 */
+	int getPartitionParallelism() {
+		return getIntProperty(PARTITION_PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Returns the store of the checkpoints of task runs, see 
+	 * {@link SchedulerTask#checkpoint(String)}. The store is created by 
+	 * {@link #startService()}, or on first use while the service is stopped, and is 
+	 * configured by the properties:
+	 * <ul>
+	 * <li>batches_checkpoint_store - "database" for a table, "file" for a local 
+	 * directory; checkpoints are not kept if not set</li>
+	 * <li>batches_checkpoint_table - table of the database store (default 
+	 * batch_checkpoints)</li>
+	 * <li>batches_checkpoint_dir - directory of the file store</li>
+	 * <li>batches_checkpoint_interval - minimum milliseconds between two writes of the 
+	 * checkpoint of a run (default 10000)</li>
+	 * </ul>
+	 * A store that cannot be created is logged and not used.
+	 * 
+	 * @return checkpoint store, or null.
+	 */
+	CheckpointStore getCheckpointStore() {
+		if (!checkpointStoreCreated) {
+			createCheckpointStore();
+		}
+		return checkpointStore;
+	}
+
+	/**
+	 * @return minimum milliseconds between two writes of the checkpoint of a run.
+	 */
+	long getCheckpointInterval() {
+		if (!checkpointStoreCreated) {
+			createCheckpointStore();
+		}
+		return checkpointInterval;
+	}
+
+	private synchronized void createCheckpointStore() {
+		if (!checkpointStoreCreated) {
+			checkpointInterval = getIntProperty(CHECKPOINT_INTERVAL_PROPERTY, 10000);
+			String type = properties.getProperty(CHECKPOINT_STORE_PROPERTY, "").trim();
+			if (type.equals(DATABASE_CHECKPOINTS)) {
+				checkpointStore = new JdbcCheckpointStore(this, 
+						properties.getProperty(CHECKPOINT_TABLE_PROPERTY, "batch_checkpoints").trim());
+			} else if (type.equals(FILE_CHECKPOINTS)) {
+				String dir = properties.getProperty(CHECKPOINT_DIR_PROPERTY);
+				try {
+					if (dir == null || dir.trim().length() == 0) {
+						throw new IOException(CHECKPOINT_DIR_PROPERTY + " is not set");
+					}
+					checkpointStore = new FileCheckpointStore(dir.trim());
+				} catch (IOException e) {
+					log.error("Checkpoint store is not used: " + e.getMessage());
+				}
+			} else if (type.length() > 0) {
+				log.error("Property " + CHECKPOINT_STORE_PROPERTY + " is ignored: unknown store " + type);
+			}
+			if (checkpointStore != null) {
+				log.info("Checkpoint store created: " + checkpointStore);
+			}
+			checkpointStoreCreated = true;
+		}
+	}
+
+	/**
+	 * @return the loaded batch itself rather than a copy, or null if it is not loaded.
+	 */
+	DefaultBatch getLoadedBatch(String taskClassName) {
+		return batches.get(taskClassName);
+	}
+
+	/**
+	 * @return execution group of the batch, the default group if the batch is null.
+	 */
+	ExecutionGroup getExecutionGroup(DefaultBatch batch) {
+		ExecutionGroups groups = getExecutionGroups();
+		ExecutionGroup group = batch == null ? null : groups.getGroup(batch.getExecutionGroup());
+		return group == null ? groups.getGroup(ExecutionGroups.DEFAULT_GROUP) : group;
+	}
+
+	private synchronized void shutdownSchedulingEngine() {
+		if (schedulingEngine != null) {
+			schedulingEngine.shutdown();
+			schedulingEngine = null;
+			log.debug("Scheduling engine shut down.");
+		}
+		if (runOnceExecutor != null) {
+			log.info("Run-once executor shut down: " + runOnceExecutor);
+			runOnceExecutor.shutdown();
+			runOnceExecutor = null;
+		}
+		if (taskExecutor != null) {
+			log.info("Task executor shut down: " + taskExecutor);
+			taskExecutor.shutdown();
+			taskExecutor = null;
+		}
+	}
+
 	public void startService() throws Exception {
 		log.info("Starting service...");
 		try {
+			loadHolidays();
+			openFireJournal();
+			createExecutionGroups();
+			createCheckpointStore();
 			loadAllBatches();
+			long start = System.currentTimeMillis();
 			int countStarted = 0;
-			for (Iterator<DefaultBatch> i = batches.values().iterator(); i.hasNext();) {
-				DefaultBatch batch = (DefaultBatch) i.next();
-				try {
-					if (batch.start()) {
-						countStarted++;
+			// status changes of all batches are written in a single transaction
+			statusJournal.defer();
+			try {
+				countStarted = startBatches(new ArrayList<DefaultBatch>(batches.values()));
+			} finally {
+				statusJournal.resume();
+				publishAll();
+			}
+			if (fireJournal != null) {
+				// batches not started now must not catch up when they are started later
+				for (DefaultBatch batch : batches.values()) {
+					if (batch.getStatus() != 1) {
+						fireJournal.forget(batch.getSchedulerIterators());
 					}
-				} catch (Exception e) {
-					log.error("Batch " + batch.getName() + " failed to start: " + e, e);
 				}
 			}
-			log.info("Service started: " + countStarted + " of " + batches.size() + " batches started.");
+			log.info("Service started: " + countStarted + " of " + batches.size() + " batches started in " 
+					+ (System.currentTimeMillis() - start) + " ms.");
 		} catch (Exception e) {
 			log.fatal("Service failed to start: " + e, e);
 			throw new Exception("Service failed to start: " + e);
 		}
 	}
 	
+	/**
+	 * Starts the batches one after another, or concurrently on a pool of 
+	 * batches_startup_threads threads (default 1). Startup time of each batch 
+	 * is recorded. A batch that fails to start does not prevent the others from starting.
+	 * 
+	 * @param startBatches batches to start
+	 * @return number of batches started.
+	 * @throws InterruptedException if interrupted while waiting for the batches to start.
+	 */
+	private int startBatches(List<DefaultBatch> startBatches) throws InterruptedException {
+		startupTimes.clear();
+		int threads = Math.min(getIntProperty(STARTUP_THREADS_PROPERTY, 1), startBatches.size());
+		int countStarted = 0;
+		if (threads <= 1) {
+			for (DefaultBatch batch : startBatches) {
+				if (startTimed(batch)) {
+					countStarted++;
+				}
+			}
+			return countStarted;
+		}
+		log.debug("Starting " + startBatches.size() + " batches on " + threads + " threads...");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Boolean>> starts = new ArrayList<Callable<Boolean>>();
+			for (final DefaultBatch batch : startBatches) {
+				starts.add(new Callable<Boolean>() {
+					public Boolean call() {
+						return Boolean.valueOf(startTimed(batch));
+					}
+				});
+			}
+			for (Future<Boolean> result : pool.invokeAll(starts)) {
+				try {
+					if (result.get().booleanValue()) {
+						countStarted++;
+					}
+				} catch (ExecutionException e) {
+					log.error("Batch failed to start: " + e.getCause(), e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return countStarted;
+	}
+
+	private boolean startTimed(DefaultBatch batch) {
+		long start = System.currentTimeMillis();
+		try {
+			return batch.start();
+		} catch (Exception e) {
+			log.error("Batch " + batch.getName() + " failed to start: " + e, e);
+			return false;
+		} finally {
+			long time = System.currentTimeMillis() - start;
+			startupTimes.put(batch.getName(), Long.valueOf(time));
+			log.debug("Batch " + batch.getName() + " startup took " + time + " ms.");
+		}
+	}
+
+	/**
+	 * Returns startup time of each batch started by the last {@link #startService()}.
+	 * 
+	 * @return Map of startup times in milliseconds mapped to the batch name.
+	 */
+	public Map<String, Long> getStartupTimes() {
+		return new TreeMap<String, Long>(startupTimes);
+	}
+
 	public void stopService() throws Exception {
 		log.info("Stopping service...");
 
@@ -131,27 +631,61 @@ public class BatchControlImpl implements BatchControl {
 		}
 
 		// wait for all tasks to finish
-		while (running) {
-			log.info("Stopping service: waiting for all tasks to complete...");
-			notifyListenersToWait();
+		while (!processes.awaitQuiescence(WAIT_LOG_INTERVAL, TimeUnit.MILLISECONDS)) {
+			log.info("Stopping service: waiting for " + processes.getCount() + " task(s) to complete...");
 		}
 
 		// stop all timers
 		log.debug("Stopping service: cancelling all batches...");
-		for (Iterator<DefaultBatch> i = batches.values().iterator(); i.hasNext();) {
-			(i.next()).cancel();
+		try {
+			statusJournal.defer();
+			try {
+				for (Iterator<DefaultBatch> i = batches.values().iterator(); i.hasNext();) {
+					(i.next()).cancel();
+				}
+			} finally {
+				// synchronous flush: no status change is lost on shutdown
+				statusJournal.resume();
+				publishAll();
+			}
+		} finally {
+			// the engine threads are shut down even if the status could not be written
+			shutdownSchedulingEngine();
+			executionGroups = null;
+			checkpointStoreCreated = false;
+			checkpointStore = null;
+			if (fireJournal != null) {
+				fireJournal.close();
+				fireJournal = null;
+			}
 		}
-		log.info("Service stopped.");
+		log.info("Service stopped: " + connectionProvider);
 	}
 
 	public void setProcessListeners(List<ProcessListener> processListeners) {
 		this.processListeners = processListeners;
 	}
 	
+	/**
+	 * Reloads batches from database. 
+	 * <p>
+	 * If batches_incremental_reload is true only the batches changed since the last 
+	 * reload are loaded and applied to the live batches; see {@link #reloadChangedBatches()}. 
+	 * Otherwise all batches are reloaded, which is allowed only when no batch is active, 
+	 * scheduled or running.
+	 * 
+	 * @throws Exception
+	 *             if the service is active or database error occurs.
+	 */
 	public void reloadBatches() throws Exception {
-		if (running == true) {
-			log.info("Service is active: " + numOfProcesses + " process(es) running.");
-			throw new Exception("Service is active: " + numOfProcesses + " process(es) running.");
+		loadHolidays();
+		if (isIncrementalReload()) {
+			reloadChangedBatches();
+			return;
+		}
+		if (processes.getCount() > 0) {
+			log.info("Service is active: " + processes.getCount() + " process(es) running.");
+			throw new Exception("Service is active: " + processes.getCount() + " process(es) running.");
 		}
 		for (Iterator<DefaultBatch> i = batches.values().iterator(); i.hasNext();) {
 			DefaultBatch batch = i.next();
@@ -162,8 +696,432 @@ public class BatchControlImpl implements BatchControl {
 		}
 		// nothing is running, we can reload
 		log.debug("Reloading all batches...");
+		activeFlags.invalidate();
 		batches.clear();
-		loadAllBatches();
+		try {
+			loadAllBatches();
+		} finally {
+			publishAll();
+		}
+	}
+
+	private boolean isIncrementalReload() {
+		return Boolean.valueOf(properties.getProperty(INCREMENTAL_RELOAD_PROPERTY, "false").trim()).booleanValue();
+	}
+
+	/**
+	 * Applies database changes made since the last reload to the live batches without 
+	 * stopping the unaffected ones. 
+	 * <p>
+	 * Changes are found with the <code>updated</code> timestamp columns of the batches 
+	 * and schedulers tables, which must be set on every change: only the rows updated 
+	 * since the latest update time seen by the previous reload are read. Deleted rows 
+	 * have no update time, so they are found by comparing the number of batch and 
+	 * scheduler rows of the host with the numbers known to the service; only if they 
+	 * differ are the rows of all batches counted. Without the <code>updated</code> 
+	 * columns every batch of the host is loaded, and still only the differences are 
+	 * applied.
+	 * <p>
+	 * Only changed batches are loaded: new batches are added and started like at service 
+	 * start, i.e. if they are active; changed schedules are marked NEW/UPDATED/DELETED 
+	 * and a scheduled batch is rescheduled with the new schedule. Batches removed from 
+	 * database (or moved to another server) are stopped and removed.
+	 * 
+	 * @throws Exception
+	 *             if database error occurs.
+	 */
+	private void reloadChangedBatches() throws Exception {
+		Set<String> changed = new HashSet<String>();
+		Map<String, Integer> counts;
+		long watermark = reloadWatermark;
+		Set<String> atWatermark = new HashSet<String>();
+		if (hasUpdatedColumns()) {
+			Map<String, Long> updated = readUpdateTimes(reloadWatermark);
+			for (Map.Entry<String, Long> entry : updated.entrySet()) {
+				watermark = Math.max(watermark, entry.getValue().longValue());
+			}
+			for (Map.Entry<String, Long> entry : updated.entrySet()) {
+				long time = entry.getValue().longValue();
+				if (time == watermark) {
+					atWatermark.add(entry.getKey());
+				}
+				// rows updated at the previous watermark are read again, but were applied already
+				if (time != reloadWatermark || !reloadedAtWatermark.contains(entry.getKey())) {
+					changed.add(entry.getKey());
+				}
+			}
+			counts = new HashMap<String, Integer>(schedulerCounts);
+			counts.keySet().removeAll(changed);
+			counts.putAll(readSchedulerCounts(changed));
+			int schedulers = 0;
+			for (Integer count : counts.values()) {
+				schedulers += count.intValue();
+			}
+			int[] totals = readTotals();
+			if (totals[0] != counts.size() || totals[1] != schedulers) {
+				// rows were deleted, or moved to another server
+				Map<String, Integer> all = readSchedulerCounts(null);
+				for (Map.Entry<String, Integer> entry : all.entrySet()) {
+					if (!entry.getValue().equals(counts.get(entry.getKey()))) {
+						changed.add(entry.getKey());
+					}
+				}
+				counts = all;
+			}
+		} else {
+			log.warn("RELOAD: batches or schedulers table has no updated column: all batches are loaded.");
+			counts = readSchedulerCounts(null);
+			changed.addAll(counts.keySet());
+		}
+		for (String className : new ArrayList<String>(batches.keySet())) {
+			if (!counts.containsKey(className)) {
+				stopBatch(className);
+				batches.remove(className);
+				unpublish(className);
+				log.info("RELOAD: Batch removed: " + className);
+			}
+		}
+		for (DefaultBatch batch : batches.values()) {
+			if (!changed.contains(batch.getTaskClassName()) && hasChangedCalendar(batch)) {
+				// the holidays were reloaded: the schedule of the batch is loaded again
+				changed.add(batch.getTaskClassName());
+			}
+		}
+		if (!changed.isEmpty()) {
+			Map<String, DefaultBatch> loaded = new HashMap<String, DefaultBatch>();
+			loadBatches(changed, loaded);
+			List<DefaultBatch> affected = new ArrayList<DefaultBatch>();
+			Set<DefaultBatch> added = new HashSet<DefaultBatch>();
+			Map<DefaultBatch, Boolean> scheduleChanged = new HashMap<DefaultBatch, Boolean>();
+			Map<DefaultBatch, Long> offsets = new HashMap<DefaultBatch, Long>();
+			for (DefaultBatch fresh : loaded.values()) {
+				String className = fresh.getTaskClassName();
+				DefaultBatch batch = batches.get(className);
+				if (batch == null) {
+					batches.put(className, fresh);
+					affected.add(fresh);
+					added.add(fresh);
+					log.info("RELOAD: Batch added: " + className);
+					continue;
+				}
+				batch.setServer(fresh.getServer());
+				batch.setActive(fresh.getActive());
+				batch.setSmearWindow(fresh.getSmearWindow());
+				batch.setMisfirePolicy(fresh.getMisfirePolicy(), fresh.getMisfireThreshold());
+				batch.setExecutionGroup(fresh.getExecutionGroup());
+				batch.setAdmission(fresh.getPriority(), fresh.getDeadline());
+				activeFlags.put(className, fresh.getActive());
+				affected.add(batch);
+				offsets.put(batch, Long.valueOf(batch.getSmearOffset()));
+				scheduleChanged.put(batch, Boolean.valueOf(batch.applySchedule(fresh.getSchedulerIterators())));
+			}
+			smear(affected);
+			for (DefaultBatch batch : affected) {
+				try {
+					Long offset = offsets.get(batch);
+					boolean offsetChanged = offset != null && offset.longValue() != batch.getSmearOffset();
+					if (added.contains(batch)) {
+						if (startTimed(batch)) {
+							log.info("RELOAD: Batch started: " + batch.getTaskClassName());
+						}
+					} else if (Boolean.TRUE.equals(scheduleChanged.get(batch)) || offsetChanged) {
+						batch.reschedule();
+						log.info("RELOAD: Batch schedule changed: " + batch.getTaskClassName());
+					}
+				} finally {
+					publish(batch);
+				}
+			}
+		}
+		reloadWatermark = watermark;
+		reloadedAtWatermark = atWatermark;
+		schedulerCounts = counts;
+		log.info("RELOAD: " + changed.size() + " of " + counts.size() + " batches changed.");
+	}
+
+	/**
+	 * @return true if a scheduler of the batch uses a business calendar that has been
+	 *         replaced by a calendar with other days, or removed.
+	 */
+	private static boolean hasChangedCalendar(DefaultBatch batch) {
+		for (SchedulerIterator iterator : batch.getSchedulerIterators()) {
+			BusinessCalendar calendar = iterator.getCalendar();
+			if (calendar != null) {
+				BusinessCalendar current = BusinessCalendars.get(calendar.getName());
+				if (current == null || !current.sameDays(calendar)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Records the state of database the next incremental reload starts from. Read 
+	 * before the batches are loaded, so that changes made while loading are found by 
+	 * the next reload.
+	 * 
+	 * @throws Exception
+	 *             if database error occurs.
+	 */
+	private void seedIncrementalReload() throws Exception {
+		long watermark = 0;
+		Set<String> atWatermark = new HashSet<String>();
+		if (hasUpdatedColumns()) {
+			Map<String, Long> updated = readUpdateTimes(0);
+			for (Long time : updated.values()) {
+				watermark = Math.max(watermark, time.longValue());
+			}
+			for (Map.Entry<String, Long> entry : updated.entrySet()) {
+				if (entry.getValue().longValue() == watermark) {
+					atWatermark.add(entry.getKey());
+				}
+			}
+		}
+		schedulerCounts = readSchedulerCounts(null);
+		reloadWatermark = watermark;
+		reloadedAtWatermark = atWatermark;
+	}
+
+	/**
+	 * Checks for the optional <code>updated</code> columns of the batches and schedulers 
+	 * tables, so that incremental reload works with schemas that do not have them yet.
+	 * 
+	 * @throws Exception
+	 *             if database error occurs.
+	 */
+	private boolean hasUpdatedColumns() throws Exception {
+		Connection con = null;
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			con = getConnection();
+			stmt = con.createStatement();
+			rs = stmt.executeQuery("select * from batches where 1=0");
+			boolean batchesUpdated = hasColumn(rs, "updated");
+			rs.close();
+			rs = stmt.executeQuery("select * from schedulers where 1=0");
+			return batchesUpdated && hasColumn(rs, "updated");
+		} catch (Exception e) {
+			log.error("Error reading batch columns: " + e, e);
+			throw new Exception("Error reading batch columns: " + e);
+		} finally {
+			try {
+				if (rs != null)
+					rs.close();
+				if (stmt != null)
+					stmt.close();
+				if (con != null)
+					con.close();
+			} catch (Exception e) {
+				log.error("hasUpdatedColumns: error closing database objects: " + e, e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the latest update time of each batch of this host whose row or scheduler 
+	 * rows were updated at or after the given time.
+	 * 
+	 * @param since update time in milliseconds, 0 for all batches
+	 * @return Map of update times in milliseconds mapped to the task class name.
+	 * @throws Exception
+	 *             if database error occurs.
+	 */
+	private Map<String, Long> readUpdateTimes(long since) throws Exception {
+		Connection con = null;
+		ResultSet rs = null;
+		PreparedStatement stmt = null;
+		Map<String, Long> updated = new HashMap<String, Long>();
+		try {
+			con = getConnection();
+			String sql = "select b.classname, b.updated as b_updated, s.updated as s_updated "
+					+ "from batches b left join schedulers s on b.id=s.batch_id where b.server=?";
+			if (since > 0) {
+				sql += " and (b.updated>=? or s.updated>=?)";
+			}
+			stmt = con.prepareStatement(sql);
+			stmt.setString(1, host);
+			if (since > 0) {
+				stmt.setTimestamp(2, new java.sql.Timestamp(since));
+				stmt.setTimestamp(3, new java.sql.Timestamp(since));
+			}
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				String className = rs.getString("classname");
+				long time = Math.max(millis(rs.getTimestamp("b_updated")), millis(rs.getTimestamp("s_updated")));
+				Long previous = updated.get(className);
+				updated.put(className, Long.valueOf(previous == null ? time : Math.max(time, previous.longValue())));
+			}
+		} catch (Exception e) {
+			log.error("Error reading batch update times: " + e, e);
+			throw new Exception("Error reading batch update times: " + e);
+		} finally {
+			try {
+				if (rs != null)
+					rs.close();
+				if (stmt != null)
+					stmt.close();
+				if (con != null)
+					con.close();
+			} catch (Exception e) {
+				log.error("readUpdateTimes: error closing database objects: " + e, e);
+			}
+		}
+		return updated;
+	}
+
+	private static long millis(java.sql.Timestamp timestamp) {
+		return timestamp == null ? 0 : timestamp.getTime();
+	}
+
+	/**
+	 * Counts the scheduler rows of batches of this host.
+	 * 
+	 * @param taskClassNames fully qualified task class names, or null to count all batches.
+	 * @return Map of numbers of scheduler rows mapped to the task class name; batches 
+	 *         not found are not mapped.
+	 * @throws Exception
+	 *             if database error occurs.
+	 */
+	private Map<String, Integer> readSchedulerCounts(Collection<String> taskClassNames) throws Exception {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		if (taskClassNames != null && taskClassNames.isEmpty()) {
+			return counts;
+		}
+		Connection con = null;
+		ResultSet rs = null;
+		PreparedStatement stmt = null;
+		try {
+			con = getConnection();
+			String sql = "select b.classname, count(s.id) as schedulers "
+					+ "from batches b left join schedulers s on b.id=s.batch_id where b.server=?";
+			if (taskClassNames != null) {
+				StringBuilder names = new StringBuilder();
+				for (int i = 0; i < taskClassNames.size(); i++) {
+					names.append(i == 0 ? "?" : ",?");
+				}
+				sql += " and b.classname in (" + names + ")";
+			}
+			stmt = con.prepareStatement(sql + " group by b.classname");
+			stmt.setString(1, host);
+			if (taskClassNames != null) {
+				int index = 2;
+				for (String taskClassName : taskClassNames) {
+					stmt.setString(index++, taskClassName);
+				}
+			}
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				counts.put(rs.getString("classname"), Integer.valueOf(rs.getInt("schedulers")));
+			}
+		} catch (Exception e) {
+			log.error("Error counting schedulers: " + e, e);
+			throw new Exception("Error counting schedulers: " + e);
+		} finally {
+			try {
+				if (rs != null)
+					rs.close();
+				if (stmt != null)
+					stmt.close();
+				if (con != null)
+					con.close();
+			} catch (Exception e) {
+				log.error("readSchedulerCounts: error closing database objects: " + e, e);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * @return number of batch rows and number of scheduler rows of this host.
+	 * @throws Exception
+	 *             if database error occurs.
+	 */
+	private int[] readTotals() throws Exception {
+		Connection con = null;
+		ResultSet rs = null;
+		PreparedStatement stmt = null;
+		try {
+			con = getConnection();
+			stmt = con.prepareStatement("select count(distinct b.classname), count(s.id) "
+					+ "from batches b left join schedulers s on b.id=s.batch_id where b.server=?");
+			stmt.setString(1, host);
+			rs = stmt.executeQuery();
+			rs.next();
+			return new int[] { rs.getInt(1), rs.getInt(2) };
+		} catch (Exception e) {
+			log.error("Error counting batches: " + e, e);
+			throw new Exception("Error counting batches: " + e);
+		} finally {
+			try {
+				if (rs != null)
+					rs.close();
+				if (stmt != null)
+					stmt.close();
+				if (con != null)
+					con.close();
+			} catch (Exception e) {
+				log.error("readTotals: error closing database objects: " + e, e);
+			}
+		}
+	}
+
+	/**
+	 * Loads holidays of the business calendars from the file batches_holidays_file 
+	 * and, if batches_holidays_table is true, from the holidays table. Calendars 
+	 * are replaced only if all sources were read. Iterators created before keep 
+	 * their calendars.
+	 * 
+	 * @throws Exception
+	 *             if the file or the table could not be read.
+	 */
+	private void loadHolidays() throws Exception {
+		String file = properties.getProperty(HOLIDAYS_FILE_PROPERTY);
+		boolean table = Boolean.valueOf(properties.getProperty(HOLIDAYS_TABLE_PROPERTY, "false").trim()).booleanValue();
+		if ((file == null || file.trim().length() == 0) && !table) {
+			return;
+		}
+		HolidayLoader loader = new HolidayLoader();
+		if (file != null && file.trim().length() > 0) {
+			loader.readFile(file.trim());
+		}
+		if (table) {
+			Connection con = getConnection();
+			try {
+				loader.readTable(con);
+			} finally {
+				con.close();
+			}
+		}
+		BusinessCalendars.registerAll(loader.getCalendars());
+		log.info("Business calendars loaded: " + BusinessCalendars.getAll());
+	}
+
+	/**
+	 * Opens the journal of the last and next fire of each scheduler at the path of 
+	 * batches_fire_journal, if set. Schedulers found in the journal resume after their 
+	 * last fire, so that times missed while the service was down are handled by the 
+	 * misfire policy; with a journal the default policy is fire_now_once rather than 
+	 * catch_up_all. A journal that cannot be opened is logged and not used.
+	 */
+	private void openFireJournal() {
+		String path = properties.getProperty(FIRE_JOURNAL_PROPERTY);
+		if (fireJournal != null || path == null || path.trim().length() == 0) {
+			return;
+		}
+		try {
+			fireJournal = FireJournal.open(path.trim());
+		} catch (IOException e) {
+			log.error("Fire journal " + path + " is not used: " + e, e);
+		}
+	}
+
+	/**
+	 * @return journal of the fires, or null if the service has none.
+	 */
+	FireJournal getFireJournal() {
+		return fireJournal;
 	}
 
 	/**
@@ -173,10 +1131,27 @@ public class BatchControlImpl implements BatchControl {
 	 *             if database error occurs during operation.
 	 */
 	private void loadAllBatches() throws Exception {
-		loadBatch(null);
+		if (isIncrementalReload()) {
+			seedIncrementalReload();
+		}
+		loadBatches(null);
+		smear(batches.values());
 		log.debug("All batches are loaded.");
 	}
 
+	/**
+	 * Chooses smear offsets of the batches with a smear window: from a hash of the 
+	 * task class name, or away from crowded seconds if batches_smear_mode is "load". 
+	 * The window is the smear_window column of the batch in milliseconds, or 
+	 * batches_smear_window (default 0) if the column is null or missing.
+	 * 
+	 * @param planned batches whose offsets are chosen; other batches keep their offsets
+	 */
+	private void smear(Collection<DefaultBatch> planned) {
+		boolean loadAware = SMEAR_BY_LOAD.equals(properties.getProperty(SMEAR_MODE_PROPERTY, SMEAR_BY_HASH).trim());
+		SmearPlanner.plan(new ArrayList<DefaultBatch>(batches.values()), planned, loadAware);
+	}
+
 	/**
 	 * Loads all iterators from database. All previous iterators are removed.
 	 * 
@@ -184,26 +1159,84 @@ public class BatchControlImpl implements BatchControl {
 	 * @throws Exception
 	 */
 	private void loadBatch(String taskClassName) throws Exception {
+		loadBatches(Collections.singletonList(taskClassName));
+	}
+
+	/**
+	 * Loads iterators of the batches from database in a single query.
+	 * 
+	 * @param taskClassNames fully qualified task class names, or null to load all batches.
+	 * @throws Exception
+	 */
+	private void loadBatches(Collection<String> taskClassNames) throws Exception {
+		loadBatches(taskClassNames, batches);
+	}
+
+	/**
+	 * Loads batches and their iterators from database in a single query.
+	 * 
+	 * @param taskClassNames fully qualified task class names, or null to load all batches.
+	 * @param target batches the iterators are added to; batches not found are created
+	 * @throws Exception
+	 */
+	private void loadBatches(Collection<String> taskClassNames, Map<String, DefaultBatch> target) throws Exception {
 		Connection con = null;
 		Statement stmt = null;
 		ResultSet rs = null;
 		try {
 			con = getConnection();
 			stmt = con.createStatement();
-			String sql = "select b.name, b.status, b.classname, b.active, b.server, "
-					+ "s.id as s_id, s.s_type, s.s_hour, s.s_minute, s.s_second, s.s_days "
+			String sql = "select b.*, s.id as s_id, s.* "
 					+ "from batches b left join schedulers s on b.id=s.batch_id " + "where b.server='" + host + "'";
-			if (taskClassName != null) {
-				sql += " and b.classname='" + taskClassName + "'";
+			if (taskClassNames != null) {
+				String names = "";
+				for (String taskClassName : taskClassNames) {
+					names += (names.length() == 0 ? "'" : ",'") + taskClassName.replace("'", "''") + "'";
+				}
+				sql += " and b.classname in (" + names + ")";
 			}
 
 			rs = stmt.executeQuery(sql);
+			boolean hasExpression = hasColumn(rs, "s_expression");
+			boolean hasSmearWindow = hasColumn(rs, "smear_window");
+			long defaultSmearWindow = getIntProperty(SMEAR_WINDOW_PROPERTY, 0);
+			boolean hasMisfirePolicy = hasColumn(rs, "misfire_policy");
+			// with a fire journal the missed times of an outage are not replayed one by one
+			MisfirePolicy defaultMisfirePolicy = getMisfirePolicy(properties.getProperty(MISFIRE_POLICY_PROPERTY), 
+					fireJournal != null ? MisfirePolicy.JOURNAL_DEFAULT : MisfirePolicy.DEFAULT, 
+					"property " + MISFIRE_POLICY_PROPERTY);
+			long misfireThreshold = getIntProperty(MISFIRE_THRESHOLD_PROPERTY, (int) Scheduler.DEFAULT_MISFIRE_THRESHOLD);
+			boolean hasZone = hasColumn(rs, "s_zone");
+			boolean hasCalendar = hasColumn(rs, "s_calendar");
+			boolean hasExecutionGroup = hasColumn(rs, "execution_group");
+			boolean hasPriority = hasColumn(rs, "priority");
+			boolean hasDeadline = hasColumn(rs, "deadline");
+			ExecutionGroups groups = getExecutionGroups();
+			TimeZone defaultZone = getDefaultZone();
+			FireJournal journal = fireJournal;
+			int restored = 0;
+			Date now = new Date();
 			while (rs.next()) {
 				String name = rs.getString("name");
 				String className = rs.getString("classname");
-				DefaultBatch batch = (DefaultBatch) batches.get(className);
+				DefaultBatch batch = target.get(className);
 				if (batch == null) {
 					batch = initBatch(className, name, rs.getInt("active"));
+					long smearWindow = hasSmearWindow ? rs.getLong("smear_window") : 0;
+					batch.setSmearWindow(hasSmearWindow && !rs.wasNull() ? smearWindow : defaultSmearWindow);
+					batch.setMisfirePolicy(getMisfirePolicy(hasMisfirePolicy ? rs.getString("misfire_policy") : null, 
+							defaultMisfirePolicy, name + " batch"), misfireThreshold);
+					String group = hasExecutionGroup ? rs.getString("execution_group") : null;
+					if (group != null && group.trim().length() > 0) {
+						if (groups.getGroup(group.trim()) != null) {
+							batch.setExecutionGroup(group.trim());
+						} else {
+							log.error("Execution group " + group + " of " + name + " batch is not configured: "
+									+ "the batch runs in the default group.");
+						}
+					}
+					batch.setAdmission(hasPriority ? rs.getInt("priority") : 0, hasDeadline ? rs.getLong("deadline") : 0);
+					target.put(className, batch);
 				}
 				// server can be changed manually in database during runtime
 				batch.setServer(rs.getString("server"));
@@ -216,32 +1249,39 @@ public class BatchControlImpl implements BatchControl {
 					int minute = rs.getInt("s_minute");
 					int second = rs.getInt("s_second");
 					String s_days = rs.getString("s_days");
-					s_days = (s_days == null ? "" : s_days.trim());
-					int[] days = new int[s_days.length()];
-					for (int i = 0; i < s_days.length(); i++) {
-						days[i] = Integer.parseInt(String.valueOf(s_days.charAt(i)));
+					if (schedulerType.equals(CRON_TYPE) && hasExpression && rs.getString("s_expression") != null) {
+						s_days = rs.getString("s_expression");
 					}
 
-					SchedulerIterator iterator = null;
-					if (schedulerType.equals(DAILY_TYPE)) {
-						iterator = new DailyIterator(hour, minute, second, id);
-					} else if (schedulerType.equals(HOURLY_TYPE)) {
-						iterator = new HourlyIterator(minute, second, id);
-					} else if (schedulerType.equals(RESTRICTED_DAILY_TYPE)) {
-						iterator = new RestrictedDailyIterator(hour, minute, second, days, id);
-					} else if (schedulerType.equals(MINUTE_TYPE)) {
-						iterator = new MinuteIterator(second, id);
-					} else if (schedulerType.equals(MONTHLY_TYPE)) {
-						iterator = new MonthlyIterator(days[0], hour, minute, second, id);
-					} else if (schedulerType.equals(FIRST_BUSINESS_DAY_OF_MONTH_TYPE)) {
-						iterator = new FirstBusinessDayOfMonthIterator(hour, minute, second, id);
+					String s_zone = hasZone ? rs.getString("s_zone") : null;
+					String s_calendar = hasCalendar ? rs.getString("s_calendar") : null;
+
+					SchedulerIterator iterator;
+					try {
+						TimeZone zone = s_zone == null || s_zone.trim().length() == 0 ? defaultZone 
+								: ZoneTransitions.getZone(s_zone);
+						iterator = SchedulerIteratorFactory.create(schedulerType, id, hour, minute, second, s_days, zone, s_calendar, now);
+						FireJournal.Entry fired = journal == null ? null : journal.get(iterator);
+						if (fired != null && fired.lastFire + 1 < now.getTime()) {
+							// resume after the last fire; the misfire policy handles the missed times
+							iterator = SchedulerIteratorFactory.create(schedulerType, id, hour, minute, second, s_days, zone, 
+									s_calendar, new Date(fired.lastFire + 1));
+							restored++;
+							log.debug("Scheduler " + id + " of " + name + " batch resumes after the last fire " + fired);
+						}
+					} catch (IllegalArgumentException e) {
+						log.error("Scheduler " + id + " of " + name + " batch is ignored: " + e.getMessage());
+						continue;
 					}
 					batch.addSchedulerIterator(iterator);
 					log.debug("Iterator was added to " + name + " batch: " + iterator);
 				}
 			}
-			if (taskClassName != null) {
-				log.debug("Batch loaded: " + taskClassName);
+			if (restored > 0) {
+				log.info("Schedulers resumed from the fire journal: " + restored);
+			}
+			if (taskClassNames != null) {
+				log.debug("Batches loaded: " + taskClassNames);
 			}
 		} catch (Exception e) {
 			log.error("Error loading batches: " + e, e);
@@ -260,12 +1300,56 @@ public class BatchControlImpl implements BatchControl {
 		}
 	}
 
-	private Connection getConnection() throws Exception {
+	/**
+	 * @return zone of the schedulers without a zone of their own: the zone of the 
+	 * time zone property, or the default zone of the JVM.
+	 */
+	private TimeZone getDefaultZone() {
+		String zone = properties.getProperty(TIME_ZONE_PROPERTY);
+		if (zone == null || zone.trim().length() == 0) {
+			return TimeZone.getDefault();
+		}
+		try {
+			return ZoneTransitions.getZone(zone);
+		} catch (IllegalArgumentException e) {
+			log.error("Property " + TIME_ZONE_PROPERTY + " is ignored: " + e.getMessage());
+			return TimeZone.getDefault();
+		}
+	}
+
+	/**
+	 * Parses misfire policy; an invalid policy is logged and the default is used.
+	 */
+	private static MisfirePolicy getMisfirePolicy(String policy, MisfirePolicy defaultPolicy, String source) {
+		if (policy == null || policy.trim().length() == 0) {
+			return defaultPolicy;
+		}
+		try {
+			return MisfirePolicy.parse(policy);
+		} catch (IllegalArgumentException e) {
+			log.error("Misfire policy of " + source + " is ignored: " + e.getMessage());
+			return defaultPolicy;
+		}
+	}
+
+	/**
+	 * Checks for an optional column, so that the service runs with schemas that do 
+	 * not have it yet.
+	 */
+	private static boolean hasColumn(ResultSet rs, String column) throws SQLException {
+		ResultSetMetaData metaData = rs.getMetaData();
+		for (int i = 1; i <= metaData.getColumnCount(); i++) {
+			if (column.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	Connection getConnection() throws Exception {
 		Connection con = null;
 		try {
-			Context ctx = new InitialContext();
-			DataSource ds = (DataSource) ctx.lookup(JNDI_DB_NAME);
-			con = ds.getConnection();
+			con = connectionProvider.getConnection();
 		} catch (Exception e) {
 			log.error(e.toString());
 			throw new Exception("Error getting database connection: " + e, e);
@@ -274,7 +1358,7 @@ public class BatchControlImpl implements BatchControl {
 	}
 
 	/**
-	 * Creates new batch and adds it to the service.
+	 * Creates new batch.
 	 * 
 	 * @param className
 	 *            fully qualified task class name,
@@ -289,7 +1373,6 @@ public class BatchControlImpl implements BatchControl {
 	private DefaultBatch initBatch(String className, String batchName, int active) {
 		DefaultBatch batch = new DefaultBatch(batchName, host, className);
 		batch.setActive(active);
-		batches.put(className, batch);
 		return batch;
 	}
 
@@ -307,19 +1390,47 @@ public class BatchControlImpl implements BatchControl {
 		DefaultBatch batch = (DefaultBatch) batches.get(name);
 		if (batch.getStatus() == 1) {
 			batch.stopTask();
-			while (batch.getTaskState() == SchedulerTask.BUSY) {
+			while (!processes.awaitBatch(name, WAIT_LOG_INTERVAL, TimeUnit.MILLISECONDS)) {
 				log.info("STOP: Stopping batch " + name + ": waiting for task to complete...");
-				notifyListenersToWait();
 			}
-			batch.cancel();
+			try {
+				batch.cancel();
+			} finally {
+				publish(batch);
+			}
+			if (fireJournal != null) {
+				fireJournal.forget(batch.getSchedulerIterators());
+			}
 			log.info("STOP: Batch stopped: " + name);
 		}
 	}
 	
-	private void notifyListenersToWait() throws Exception {
-		for (ProcessListener l : processListeners) {
-			l.waitForBusyTask();
-		}
+	/**
+	 * Waits until no task is running.
+	 * 
+	 * @param timeoutMillis
+	 *            maximum time to wait in milliseconds.
+	 * @return true if all tasks finished, false if the timeout elapsed.
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting.
+	 */
+	public boolean awaitQuiescence(long timeoutMillis) throws InterruptedException {
+		return processes.awaitQuiescence(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Waits until no task of the batch is running.
+	 * 
+	 * @param taskClassName
+	 *            fully qualified task class name.
+	 * @param timeoutMillis
+	 *            maximum time to wait in milliseconds.
+	 * @return true if all tasks of the batch finished, false if the timeout elapsed.
+	 * @throws InterruptedException
+	 *             if the current thread was interrupted while waiting.
+	 */
+	public boolean awaitBatch(String taskClassName, long timeoutMillis) throws InterruptedException {
+		return processes.awaitBatch(taskClassName, timeoutMillis, TimeUnit.MILLISECONDS);
 	}
 
 	/**
@@ -327,12 +1438,21 @@ public class BatchControlImpl implements BatchControl {
 	 * has finished its single run. It decreases process count by one.
 	 */
 	public void processStopped() {
-		numOfProcesses--;
-		if (numOfProcesses == 0) {
-			running = false;
+		processStopped(null);
+	}
+
+	/**
+	 * Decreases process count of the batch by one.
+	 * 
+	 * @param taskClassName
+	 *            fully qualified task class name.
+	 */
+	void processStopped(String taskClassName) {
+		int count = processes.depart(taskClassName);
+		if (count == 0) {
 			notifyListenersProcessStopped();
 		}
-		log.debug("Process stopped: number of processes " + numOfProcesses + ", running=" + running);
+		log.debug("Process stopped: number of processes " + count + ", running=" + (count > 0));
 	}
 	
 	private void notifyListenersProcessStopped() {
@@ -364,9 +1484,59 @@ public class BatchControlImpl implements BatchControl {
 		} catch (Exception e) {
 			log.error("START: Batch " + batch.getName() + " failed to start: " + e, e);
 			throw new Exception("Batch " + batch.getName() + " failed to start: " + e);
+		} finally {
+			publish(batch);
 		}
 	}
 
+	/**
+	 * Starts the batches for one-time immediate execution. Batch schedulers are reloaded
+	 * with a single query and the executions are submitted to the run-once executor.
+	 * A batch that fails to start does not prevent the others from starting.
+	 * 
+	 * @param taskClassNames
+	 *            fully qualified task class names.
+	 * @return number of batches submitted for execution.
+	 * @throws Exception
+	 *             if batches could not be loaded.
+	 */
+	public int runOnce(Collection<String> taskClassNames) throws Exception {
+		List<DefaultBatch> runBatches = new ArrayList<DefaultBatch>();
+		// the known batches only: the iterators are loaded into them, and nothing is added 
+		// to the live batches that the snapshot does not show
+		Map<String, DefaultBatch> known = new HashMap<String, DefaultBatch>();
+		for (String taskClassName : taskClassNames) {
+			DefaultBatch batch = (DefaultBatch) batches.get(taskClassName);
+			if (batch == null) {
+				log.error("START: Batch " + taskClassName + " not found.");
+			} else {
+				batch.clearIterators();
+				runBatches.add(batch);
+				known.put(taskClassName, batch);
+			}
+		}
+		if (runBatches.isEmpty()) {
+			return 0;
+		}
+		loadBatches(new ArrayList<String>(known.keySet()), known);
+		int countStarted = 0;
+		for (DefaultBatch batch : runBatches) {
+			try {
+				batch.setRunOnce(true);
+				if (batch.start()) {
+					countStarted++;
+				}
+			} catch (Exception e) {
+				log.error("START: Batch " + batch.getName() + " failed to start: " + e, e);
+			} finally {
+				publish(batch);
+			}
+		}
+		log.info("START: " + countStarted + " of " + taskClassNames.size() + " batches started for one-time execution, "
+				+ getRunOnceExecutor());
+		return countStarted;
+	}
+
 	/**
 	 * Updates batch active status in database and in the service. Setting active to
 	 * 0 makes batch ineligible to run.
@@ -379,39 +1549,80 @@ public class BatchControlImpl implements BatchControl {
 	 *             if database error occurs.
 	 */
 	public void setActive(String batchClassName, int active) throws Exception {
-		Connection con = null;
-		PreparedStatement stmt = null;
 		try {
-			con = getConnection();
-			String sql = "update batches set active=? where classname=?";
-			stmt = con.prepareStatement(sql);
-			stmt.setInt(1, active);
-			stmt.setString(2, batchClassName);
-			stmt.execute();
+			statusJournal.recordActive(batchClassName, active);
+			activeFlags.put(batchClassName, active);
 			DefaultBatch batch = (DefaultBatch) batches.get(batchClassName);
 			batch.setActive(active);
+			publish(batch);
 			log.info(batchClassName + ": active=" + active);
 		} catch (Exception e) {
 			log.error("Error setting batch active field: " + e, e);
 			throw new Exception("Error setting batch active field: " + e);
-		} finally {
-			try {
-				if (stmt != null)
-					stmt.close();
-				if (con != null)
-					con.close();
-			} catch (Exception e) {
-				log.error("setActive: error closing database objects: " + e, e);
-			}
 		}
 	}
 	
+	/**
+	 * Returns the latest snapshot of all batches. Snapshots are immutable and 
+	 * published when a batch changes, so this method does not allocate.
+	 * 
+	 * @return snapshot of all batches.
+	 */
+	public BatchControlSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns fire times of the scheduled, active batches between the dates. The forecast is computed 
+	 * from the current snapshot when it is iterated and does not change the schedules.
+	 * 
+	 * @param from start of the window, inclusive
+	 * @param to end of the window, exclusive
+	 */
+	public Forecast forecast(Date from, Date to) {
+		return new Forecast(getSnapshot(), from.getTime(), to.getTime());
+	}
+
+	/**
+	 * Publishes a new snapshot with the current state of the batch.
+	 */
+	private void publish(DefaultBatch batch) {
+		if (batch == null) {
+			return;
+		}
+		synchronized (snapshotLock) {
+			snapshot = snapshot.with(new BatchSnapshot(batch));
+		}
+	}
+
+	private void unpublish(String taskClassName) {
+		synchronized (snapshotLock) {
+			snapshot = snapshot.without(taskClassName);
+		}
+	}
+
+	/**
+	 * Publishes a new snapshot with the current state of all batches.
+	 */
+	private void publishAll() {
+		synchronized (snapshotLock) {
+			List<BatchSnapshot> all = new ArrayList<BatchSnapshot>(batches.size());
+			for (DefaultBatch batch : batches.values()) {
+				all.add(new BatchSnapshot(batch));
+			}
+			snapshot = BatchControlSnapshot.of(snapshot.getVersion() + 1, all);
+		}
+	}
+
 	/**
 	 * Returns Map that contains copies of all batches. Each batch is mapped to the
-	 * task class name.
+	 * task class name. Every call deep-copies all batches and their iterators.
 	 * 
 	 * @return Map of copies of all batches.
+	 * @deprecated use {@link #getSnapshot()}, which returns the published immutable
+	 *             snapshot without copying.
 	 */
+	@Deprecated
 	public Map<String, DefaultBatch> getAllBatches() {
 		Map<String, DefaultBatch> copy = new TreeMap<String, DefaultBatch>();
 		for (Iterator<String> i = batches.keySet().iterator(); i.hasNext();) {
@@ -429,7 +1640,9 @@ public class BatchControlImpl implements BatchControl {
 	 * @param batchId
 	 *            fully qualified class name of a batch
 	 * @return Copy of batch.
+	 * @deprecated use {@link BatchControlSnapshot#getBatch(String)} of {@link #getSnapshot()}.
 	 */
+	@Deprecated
 	public DefaultBatch getBatch(String batchId) {
 		return (DefaultBatch) ((DefaultBatch) batches.get(batchId)).clone();
 	}
@@ -439,13 +1652,24 @@ public class BatchControlImpl implements BatchControl {
 	 * is started. It increases process count by one.
 	 */
 	public void processStarted() {
-		running = true;
-		numOfProcesses++;
-		log.debug("Process started: number of processes " + numOfProcesses);
+		processStarted(null);
 	}
 
 	/**
-	 * Changes batch schedule status in database.
+	 * Increases process count of the batch by one.
+	 * 
+	 * @param taskClassName
+	 *            fully qualified task class name.
+	 */
+	void processStarted(String taskClassName) {
+		int count = processes.arrive(taskClassName);
+		log.debug("Process started: number of processes " + count);
+	}
+
+	/**
+	 * Changes batch schedule status in database. The change goes through the status 
+	 * journal: it is written immediately unless the journal is deferred or 
+	 * batches_status_flush_interval is set.
 	 * 
 	 * @param batchName
 	 *            batch short name
@@ -455,33 +1679,72 @@ public class BatchControlImpl implements BatchControl {
 	 *             if database error occurs.
 	 */
 	void updateBatchStatus(String batchName, int status) throws Exception {
+		statusJournal.recordStatus(batchName, status);
+	}
+
+	/**
+	 * @return active flags changed by the service but not written to database yet.
+	 */
+	Map<String, Integer> getPendingActiveFlags() {
+		return statusJournal.getPendingActives();
+	}
+	
+	/**
+	 * Returns batch active flag. The active flag can be changed directly in database 
+	 * by anyone, the flags are cached for batches_active_cache_ttl milliseconds 
+	 * (default 10000, 0 reads database on every call).
+	 * 
+	 * @param batchClassName
+	 *            fully qualified task class name.
+	 * @return batch active flag 1 or 0, or -1 if there was an error.
+	 * @throws Exception
+	 *             if database error occurs.
+	 */
+	int getActive(String batchClassName) throws Exception {
+		return activeFlags.get(batchClassName);
+	}
+
+	/**
+	 * Reads active flags of all batches of this host from database.
+	 * 
+	 * @return Map of active flags mapped to the task class name.
+	 * @throws Exception
+	 *             if database error occurs.
+	 */
+	Map<String, Integer> readActiveFlags() throws Exception {
 		Connection con = null;
+		ResultSet rs = null;
 		PreparedStatement stmt = null;
+		Map<String, Integer> flags = new HashMap<String, Integer>();
 		try {
 			con = getConnection();
-			String sql = "update batches set status=? where name=?";
+			String sql = "select classname, active from batches where server=?";
 			stmt = con.prepareStatement(sql);
-			stmt.setInt(1, status);
-			stmt.setString(2, batchName);
-			stmt.execute();
+			stmt.setString(1, host);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				flags.put(rs.getString("classname"), Integer.valueOf(rs.getInt("active")));
+			}
 		} catch (Exception e) {
-			log.error("Error updating batch status: " + e, e);
-			throw new Exception("Error updating batch status: " + e);
+			log.error("Error getting batch active fields: " + e, e);
+			throw new Exception("Error getting batch active fields: " + e);
 		} finally {
 			try {
+				if (rs != null)
+					rs.close();
 				if (stmt != null)
 					stmt.close();
 				if (con != null)
 					con.close();
 			} catch (Exception e) {
-				log.error("updateBatchStatus: error closing database objects: " + e, e);
+				log.error("readActiveFlags: error closing database objects: " + e, e);
 			}
 		}
+		return flags;
 	}
-	
+
 	/**
-	 * Reads batch active flag from database. The active flag can be changed
-	 * directly in database by anyone.
+	 * Reads batch active flag from database.
 	 * 
 	 * @param batchClassName
 	 *            fully qualified task class name.
@@ -489,7 +1752,7 @@ public class BatchControlImpl implements BatchControl {
 	 * @throws Exception
 	 *             if database error occurs.
 	 */
-	int getActive(String batchClassName) throws Exception {
+	int readActive(String batchClassName) throws Exception {
 		Connection con = null;
 		ResultSet rs = null;
 		PreparedStatement stmt = null;
@@ -503,7 +1766,7 @@ public class BatchControlImpl implements BatchControl {
 			while (rs.next()) {
 				active = rs.getInt("active");
 			}
-			log.debug("getActive: " + batchClassName + ": active=" + active);
+			log.debug("readActive: " + batchClassName + ": active=" + active);
 		} catch (Exception e) {
 			log.error("Error getting batch active field: " + e, e);
 			throw new Exception("Error getting batch active field: " + e);
@@ -516,7 +1779,7 @@ public class BatchControlImpl implements BatchControl {
 				if (con != null)
 					con.close();
 			} catch (Exception e) {
-				log.error("getActive: error closing database objects: " + e, e);
+				log.error("readActive: error closing database objects: " + e, e);
 			}
 		}
 		return active;
@@ -1,85 +1,172 @@
 package batchcontrol.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
-
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Serializes calls to the {@link BatchControl}.
+ * <p>
+ * Operations on a single batch (start, stop, setActive) take the lock of the batch
+ * stripe, so operations on unrelated batches do not block each other. Whole-service
+ * operations (reload, start and stop of the service) take an exclusive lock. Queries
+ * and process bookkeeping are not locked.
+ */
 public class BatchControlScheduleSupport implements BatchControl, ProcessListener {
-	private final Object monitor = new Object();
+	private static final int STRIPES = 32;
+
+	private final Object processMonitor = new Object();
+	private final ReentrantReadWriteLock serviceLock = new ReentrantReadWriteLock();
+	private final Lock[] stripes = new Lock[STRIPES];
 	private final BatchControl subject;
 
 	public BatchControlScheduleSupport(BatchControl subject) {
 		this.subject = subject;
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new ReentrantLock();
+		}
 	}
 
-	public synchronized void reloadBatches() throws Exception {
-		synchronized (monitor) {
+	public void reloadBatches() throws Exception {
+		serviceLock.writeLock().lock();
+		try {
 			subject.reloadBatches();
+		} finally {
+			serviceLock.writeLock().unlock();
 		}
 	}
 
 	public void stopBatch(String name) throws Exception {
-		synchronized (monitor) {
+		Lock stripe = lockBatch(name);
+		try {
 			subject.stopBatch(name);
+		} finally {
+			unlockBatch(stripe);
 		}
 	}
 
 	public void processStopped() {
-		synchronized (monitor) {
-			subject.processStopped();
-		}
+		subject.processStopped();
 	}
 
 	public void startBatch(String taskClassName, boolean runOnce) throws Exception {
-		synchronized (monitor) {
+		Lock stripe = lockBatch(taskClassName);
+		try {
 			subject.startBatch(taskClassName, runOnce);
+		} finally {
+			unlockBatch(stripe);
+		}
+	}
+
+	public int runOnce(Collection<String> taskClassNames) throws Exception {
+		// stripes are always locked in the same order
+		TreeSet<Integer> indexes = new TreeSet<Integer>();
+		for (String taskClassName : taskClassNames) {
+			indexes.add(Integer.valueOf(stripeIndex(taskClassName)));
+		}
+		List<Lock> locked = new ArrayList<Lock>();
+		serviceLock.readLock().lock();
+		try {
+			for (Integer index : indexes) {
+				stripes[index.intValue()].lock();
+				locked.add(stripes[index.intValue()]);
+			}
+			return subject.runOnce(taskClassNames);
+		} finally {
+			for (Lock stripe : locked) {
+				stripe.unlock();
+			}
+			serviceLock.readLock().unlock();
 		}
 	}
 
-	public synchronized void setActive(String batchClassName, int active) throws Exception {
-		synchronized (monitor) {
+	public void setActive(String batchClassName, int active) throws Exception {
+		Lock stripe = lockBatch(batchClassName);
+		try {
 			subject.setActive(batchClassName, active);
+		} finally {
+			unlockBatch(stripe);
 		}
 	}
 
+	@Deprecated
 	public Map<String, DefaultBatch> getAllBatches() {
-		synchronized (monitor) {
-			return subject.getAllBatches();
-		}
+		return subject.getAllBatches();
 	}
 
+	@Deprecated
 	public DefaultBatch getBatch(String batchId) {
-		synchronized (monitor) {
-			return subject.getBatch(batchId);
-		}
+		return subject.getBatch(batchId);
+	}
+
+	public BatchControlSnapshot getSnapshot() {
+		return subject.getSnapshot();
+	}
+
+	public Forecast forecast(Date from, Date to) {
+		return subject.forecast(from, to);
 	}
 
 	public void processStarted() {
-		synchronized (monitor) {
-			subject.processStarted();
-		}
+		subject.processStarted();
+	}
+
+	public boolean awaitQuiescence(long timeoutMillis) throws InterruptedException {
+		return subject.awaitQuiescence(timeoutMillis);
 	}
 
 	public void waitForBusyTask() throws Exception {
-		synchronized (monitor) {
-			monitor.wait();
+		synchronized (processMonitor) {
+			processMonitor.wait();
 		}
 	}
 
 	public void notifyProcessStopped() {
-		synchronized (monitor) {
-			monitor.notifyAll();
+		synchronized (processMonitor) {
+			processMonitor.notifyAll();
 		}
 	}
 
 	public void startService() throws Exception {
-		synchronized (monitor) {
+		serviceLock.writeLock().lock();
+		try {
 			subject.startService();
+		} finally {
+			serviceLock.writeLock().unlock();
 		}
 	}
 
 	public void stopService() throws Exception {
-		synchronized (monitor) {
+		serviceLock.writeLock().lock();
+		try {
 			subject.stopService();
+		} finally {
+			serviceLock.writeLock().unlock();
 		}
 	}
 
+	private Lock lockBatch(String name) {
+		serviceLock.readLock().lock();
+		Lock stripe = stripes[stripeIndex(name)];
+		stripe.lock();
+		return stripe;
+	}
+
+	private void unlockBatch(Lock stripe) {
+		stripe.unlock();
+		serviceLock.readLock().unlock();
+	}
+
+	private static int stripeIndex(String name) {
+		int h = name == null ? 0 : name.hashCode();
+		h ^= (h >>> 16);
+		return h & (STRIPES - 1);
+	}
+
 }
@@ -0,0 +1,79 @@
+package batchcontrol.service;
+
+import java.util.Collection;
+import java.util.SortedMap;
+
+/**
+ * Immutable, consistent view of all batches. A new snapshot with a higher version 
+ * is published every time a batch changes; reading a snapshot does not allocate.
+ * Consecutive snapshots share all batches that did not change, so publishing a 
+ * change copies O(log n) map nodes instead of the whole map.
+ */
+public final class BatchControlSnapshot {
+	static final BatchControlSnapshot EMPTY = new BatchControlSnapshot(0, PersistentTreeMap.<String, BatchSnapshot> empty());
+
+	private final long version;
+	private final long time;
+	private final PersistentTreeMap<String, BatchSnapshot> batches;
+
+	private BatchControlSnapshot(long version, PersistentTreeMap<String, BatchSnapshot> batches) {
+		this.version = version;
+		this.time = System.currentTimeMillis();
+		this.batches = batches;
+	}
+
+	/**
+	 * Returns snapshot of the batches.
+	 */
+	static BatchControlSnapshot of(long version, Collection<BatchSnapshot> batches) {
+		PersistentTreeMap<String, BatchSnapshot> map = PersistentTreeMap.empty();
+		for (BatchSnapshot batch : batches) {
+			map = map.plus(batch.getTaskClassName(), batch);
+		}
+		return new BatchControlSnapshot(version, map);
+	}
+
+	/**
+	 * @return version of the snapshot, incremented on every change.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return time the snapshot was published, in the format returned by <code>Date.getTime()</code>.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return unmodifiable Map of all batches mapped to the task class name.
+	 */
+	public SortedMap<String, BatchSnapshot> getBatches() {
+		return batches;
+	}
+
+	/**
+	 * @param taskClassName fully qualified task class name
+	 * @return batch, or null if not found.
+	 */
+	public BatchSnapshot getBatch(String taskClassName) {
+		return batches.get(taskClassName);
+	}
+
+	/**
+	 * Returns snapshot with the batch added or replaced.
+	 */
+	BatchControlSnapshot with(BatchSnapshot batch) {
+		return new BatchControlSnapshot(version + 1, batches.plus(batch.getTaskClassName(), batch));
+	}
+
+	/**
+	 * Returns snapshot with the batch removed.
+	 */
+	BatchControlSnapshot without(String taskClassName) {
+		return new BatchControlSnapshot(version + 1, batches.minus(taskClassName));
+	}
+
+}
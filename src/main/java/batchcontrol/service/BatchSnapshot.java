@@ -0,0 +1,77 @@
+package batchcontrol.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import batchcontrol.service.iterators.SchedulerIterator;
+
+/**
+ * Immutable state of a {@link DefaultBatch} at the time of a {@link BatchControlSnapshot}.
+ */
+public final class BatchSnapshot {
+	private final String name;
+	private final String taskClassName;
+	private final int status;
+	private final int active;
+	private final String msg;
+	private final String server;
+	private final long smearOffset;
+	private final List<SchedulerSnapshot> schedulers;
+
+	BatchSnapshot(DefaultBatch batch) {
+		this.name = batch.getName();
+		this.taskClassName = batch.getTaskClassName();
+		this.status = batch.getStatus();
+		this.active = batch.getActive();
+		this.msg = batch.getMsg();
+		this.server = batch.getServer();
+		this.smearOffset = batch.getSmearOffset();
+		List<SchedulerSnapshot> schedulers = new ArrayList<SchedulerSnapshot>();
+		for (SchedulerIterator iterator : batch.getSchedulerIterators()) {
+			schedulers.add(new SchedulerSnapshot(iterator));
+		}
+		this.schedulers = Collections.unmodifiableList(schedulers);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getTaskClassName() {
+		return taskClassName;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public int getActive() {
+		return active;
+	}
+
+	public String getMsg() {
+		return msg;
+	}
+
+	public String getServer() {
+		return server;
+	}
+
+	/**
+	 * @return offset added to the scheduled times in milliseconds.
+	 */
+	public long getSmearOffset() {
+		return smearOffset;
+	}
+
+	public List<SchedulerSnapshot> getSchedulers() {
+		return schedulers;
+	}
+
+	public String toString() {
+		return "[" + name + ": status=" + status + ", active=" + active + ", server=" + server + ", schedulers="
+				+ schedulers + "]";
+	}
+
+}
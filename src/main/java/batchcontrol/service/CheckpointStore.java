@@ -0,0 +1,30 @@
+package batchcontrol.service;
+
+/**
+ * Stores the progress cursor of an interrupted run of a batch, see
+ * {@link SchedulerTask#checkpoint(String)}. The cursor is an opaque string chosen by
+ * the task, e.g. the last processed id; at most one is kept per batch.
+ */
+interface CheckpointStore {
+
+	/**
+	 * @return cursor of the batch, or null if the batch has none.
+	 * @throws Exception if the store cannot be read.
+	 */
+	String load(String taskClassName) throws Exception;
+
+	/**
+	 * Replaces the cursor of the batch.
+	 *
+	 * @throws Exception if the store cannot be written.
+	 */
+	void save(String taskClassName, String cursor) throws Exception;
+
+	/**
+	 * Removes the cursor of the batch, e.g. when a run completed.
+	 *
+	 * @throws Exception if the store cannot be written.
+	 */
+	void clear(String taskClassName) throws Exception;
+
+}
@@ -1,21 +1,26 @@
 package batchcontrol.service;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
 
+import batchcontrol.service.calendar.BusinessCalendar;
 import batchcontrol.service.iterators.CompositeIterator;
 import batchcontrol.service.iterators.SchedulerIterator;
+import batchcontrol.service.iterators.SmearIterator;
 
 public class DefaultBatch {
 	
 	private static final Logger log = Logger.getLogger(DefaultBatch.class);
 
 	private Scheduler scheduler;
-	private Vector<SchedulerIterator> schedulerIterators = new Vector<SchedulerIterator>();
+	// copy on write: the snapshot and copy methods iterate it without a lock while it is reloaded
+	private volatile List<SchedulerIterator> schedulerIterators = new CopyOnWriteArrayList<SchedulerIterator>();
 	private SchedulerTask task;
 	private int status;
 	private int active;
@@ -26,6 +31,15 @@ public class DefaultBatch {
 	
 	private final String taskClassName;
 	private boolean runOnce;
+	private long smearWindow;
+	private volatile long smearOffset;
+	private MisfirePolicy misfirePolicy = MisfirePolicy.DEFAULT;
+	private long misfireThreshold = Scheduler.DEFAULT_MISFIRE_THRESHOLD;
+	private final MisfireStatistics misfireStatistics = new MisfireStatistics();
+	private volatile String executionGroup = ExecutionGroups.DEFAULT_GROUP;
+	private volatile int priority;
+	private volatile long deadline;
+	private final QueueStatistics queueStatistics = new QueueStatistics();
 
 	DefaultBatch(String name, String host, String taskClassName) {
 		this.taskClassName = taskClassName;
@@ -38,7 +52,10 @@ public class DefaultBatch {
 			Class<?> taskClass = Class.forName(taskClassName);
 			task = (SchedulerTask)taskClass.newInstance();
 			task.setService(BatchControlImpl.getInstance());
-			scheduler = new Scheduler();
+			scheduler = new Scheduler(BatchControlImpl.getInstance().getSchedulingEngine(), 
+					BatchControlImpl.getInstance().getRunOnceExecutor(), BatchControlImpl.getInstance().getTaskExecutor());
+			scheduler.setMisfirePolicy(misfirePolicy, misfireThreshold);
+			scheduler.setStatistics(misfireStatistics);
 		} catch (Exception e) {
 			throw new Exception("Failed to create task: " + e);
 		}
@@ -52,6 +69,100 @@ public class DefaultBatch {
 		this.server = server;
 	}
 	
+	/**
+	 * @return window in milliseconds the scheduled times are spread over, 0 if not smeared.
+	 */
+	public long getSmearWindow() {
+		return smearWindow;
+	}
+
+	void setSmearWindow(long smearWindow) {
+		this.smearWindow = smearWindow;
+	}
+
+	/**
+	 * @return offset added to the scheduled times in milliseconds.
+	 */
+	public long getSmearOffset() {
+		return smearOffset;
+	}
+
+	/**
+	 * Sets the offset; it takes effect when the batch is scheduled next time.
+	 */
+	void setSmearOffset(long smearOffset) {
+		this.smearOffset = smearOffset;
+	}
+
+	public MisfirePolicy getMisfirePolicy() {
+		return misfirePolicy;
+	}
+
+	/**
+	 * Sets the misfire policy; it takes effect when the batch is scheduled next time.
+	 * 
+	 * @param misfireThreshold milliseconds a time may be late before it is missed
+	 */
+	void setMisfirePolicy(MisfirePolicy misfirePolicy, long misfireThreshold) {
+		this.misfirePolicy = misfirePolicy;
+		this.misfireThreshold = misfireThreshold;
+	}
+
+	long getMisfireThreshold() {
+		return misfireThreshold;
+	}
+
+	/**
+	 * @return executions, missed times and lateness of the batch since it was loaded.
+	 */
+	public MisfireStatistics getMisfireStatistics() {
+		return misfireStatistics;
+	}
+
+	/**
+	 * @return name of the execution group that limits the concurrent executions of the batch.
+	 */
+	public String getExecutionGroup() {
+		return executionGroup;
+	}
+
+	/**
+	 * Sets the execution group; it takes effect with the next execution.
+	 */
+	void setExecutionGroup(String executionGroup) {
+		this.executionGroup = executionGroup;
+	}
+
+	/**
+	 * @return priority of the executions waiting in the execution group, higher goes first.
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @return milliseconds after the fire an execution waiting in the execution group is 
+	 * due, 0 for the default deadline.
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Sets the priority and deadline; they take effect with the next execution.
+	 */
+	void setAdmission(int priority, long deadline) {
+		this.priority = priority;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @return queue residence times of the batch since it was loaded.
+	 */
+	public QueueStatistics getQueueStatistics() {
+		return queueStatistics;
+	}
+
 	int getTaskState() {
 		return task.getState();
 	}
@@ -60,6 +171,10 @@ public class DefaultBatch {
 		return name;
 	}
 
+	public String getTaskClassName() {
+		return taskClassName;
+	}
+
 	public String getMsg() {
 		return msg;
 	}
@@ -159,7 +274,7 @@ public class DefaultBatch {
 					result = true;
 					msg = "START: started " + name + " for one-time execution.";
 				} else {
-					if(scheduler.schedule(task, getIterator())) {
+					if(scheduleTask(false)) {
 						updateStatus(1);
 						task.setStop(false);
 						result = true;
@@ -199,19 +314,134 @@ public class DefaultBatch {
 		}
 	}
 	
+	/**
+	 * Schedules the task with the current iterators; the fires are recorded in the 
+	 * fire journal if the service has one.
+	 * 
+	 * @param replace true to replace the schedule of the scheduled task
+	 */
+	private boolean scheduleTask(boolean replace) throws Exception {
+		SchedulerIterator iterator = getIterator();
+		FireJournal journal = BatchControlImpl.getInstance().getFireJournal();
+		if (journal != null) {
+			journal.recordScheduled(schedulerIterators);
+			long offset = iterator instanceof SmearIterator ? ((SmearIterator) iterator).getOffset() : 0;
+			scheduler.setFireJournal(journal, schedulerIterators.toArray(new SchedulerIterator[0]), offset);
+		}
+		return replace ? scheduler.reschedule(task, iterator) : scheduler.schedule(task, iterator);
+	}
+
 	private SchedulerIterator getIterator() {
 		SchedulerIterator iterator = null;
-		if(schedulerIterators.size()==1) {
-			iterator = (SchedulerIterator)schedulerIterators.get(0);
+		SchedulerIterator[] iterators = schedulerIterators.toArray(new SchedulerIterator[0]);
+		if(iterators.length==1) {
+			iterator = iterators[0];
 			log.debug(name + ": returning single iterator: " + iterator);
 		} else {
-			iterator = new CompositeIterator(
-					(SchedulerIterator[])schedulerIterators.toArray(new SchedulerIterator[0]));
-			log.debug(name + ": returning composite iterator: " + iterator + ", size="+schedulerIterators.size());
+			iterator = new CompositeIterator(iterators);
+			log.debug(name + ": returning composite iterator: " + iterator + ", size="+iterators.length);
+		}
+		if (smearOffset != 0) {
+			iterator = new SmearIterator(iterator, smearOffset);
 		}
 		return iterator;
 	}
 	
+	/**
+	 * Replaces the schedule with iterators loaded from database if it changed. 
+	 * Iterators are compared by id: new ones are marked {@link SchedulerIterator#NEW}, 
+	 * changed ones {@link SchedulerIterator#UPDATED} and the rest {@link SchedulerIterator#ACTIVE}; 
+	 * removed ones are marked {@link SchedulerIterator#DELETED} and dropped.
+	 * 
+	 * @param loaded iterators loaded from database
+	 * @return true if the schedule changed.
+	 */
+	synchronized boolean applySchedule(List<SchedulerIterator> loaded) {
+		Map<Integer, SchedulerIterator> current = new HashMap<Integer, SchedulerIterator>();
+		for (SchedulerIterator iterator : schedulerIterators) {
+			current.put(Integer.valueOf(iterator.getId()), iterator);
+		}
+		boolean changed = false;
+		for (SchedulerIterator iterator : loaded) {
+			SchedulerIterator previous = current.remove(Integer.valueOf(iterator.getId()));
+			if (previous == null) {
+				iterator.setState(SchedulerIterator.NEW);
+				changed = true;
+			} else if (!sameSchedule(previous, iterator)) {
+				iterator.setState(SchedulerIterator.UPDATED);
+				changed = true;
+			}
+		}
+		for (SchedulerIterator iterator : current.values()) {
+			iterator.setState(SchedulerIterator.DELETED);
+			log.debug(name + ": iterator deleted " + iterator);
+			changed = true;
+		}
+		if (changed) {
+			// the current iterators have been advanced by the scheduler, so all are replaced
+			schedulerIterators = new CopyOnWriteArrayList<SchedulerIterator>(loaded);
+			log.debug(name + ": schedule changed, size=" + schedulerIterators.size());
+		}
+		return changed;
+	}
+
+	private static boolean sameSchedule(SchedulerIterator a, SchedulerIterator b) {
+		return a.getType().equals(b.getType()) && a.getHour() == b.getHour() && a.getMinute() == b.getMinute()
+				&& a.getSecond() == b.getSecond() 
+				&& (a.getDays() == null ? b.getDays() == null : a.getDays().equals(b.getDays()))
+				&& a.getZone().getID().equals(b.getZone().getID()) && sameCalendar(a.getCalendar(), b.getCalendar());
+	}
+
+	/**
+	 * Calendars are the same if they have the same name and days, so that a reload of
+	 * the holidays reschedules the batches of the changed calendars.
+	 */
+	private static boolean sameCalendar(BusinessCalendar a, BusinessCalendar b) {
+		if (a == null || b == null) {
+			return a == b;
+		}
+		return a.getName().equals(b.getName()) && a.sameDays(b);
+	}
+
+	/**
+	 * Reschedules a scheduled batch with the current iterators. The task is kept and 
+	 * only its schedule is replaced: a running or queued task execution is not 
+	 * interrupted, and the new schedule takes effect when it ends, so executions of 
+	 * the batch do not overlap.
+	 * 
+	 * @throws Exception if task could not be created.
+	 */
+	synchronized void reschedule() throws Exception {
+		try {
+			MDC.put(SchedulerTask.LOGGER_KEY, "BATCH_STATUS");
+			if (task == null || status != 1 || runOnce) {
+				return;
+			}
+			scheduler.setMisfirePolicy(misfirePolicy, misfireThreshold);
+			boolean scheduled;
+			try {
+				scheduled = scheduleTask(true);
+			} catch (IllegalStateException e) {
+				// the previous schedule ran out of times, so no execution is in progress
+				scheduler.cancel();
+				createTask();
+				scheduled = scheduleTask(false);
+			}
+			if (scheduled) {
+				task.setStop(false);
+				msg = "RESCHEDULE: rescheduled " + name;
+			} else {
+				scheduler.cancel();
+				task = null;
+				updateStatus(0);
+				msg = "RESCHEDULE: NOT scheduled " + name + ": no schedule.";
+			}
+			log.info(msg);
+		} finally {
+			MDC.remove(SchedulerTask.LOGGER_KEY);
+		}
+	}
+
 	public void clearIterators() {
 		schedulerIterators.clear();
 		log.debug(name + ": all iterators removed.");
@@ -228,11 +458,19 @@ public class DefaultBatch {
 		copy.status = this.status;
 		copy.runOnce = this.runOnce;
 		copy.msg = this.msg;
+		copy.smearWindow = this.smearWindow;
+		copy.smearOffset = this.smearOffset;
+		copy.misfirePolicy = this.misfirePolicy;
+		copy.misfireThreshold = this.misfireThreshold;
+		copy.executionGroup = this.executionGroup;
+		copy.priority = this.priority;
+		copy.deadline = this.deadline;
 		for(Iterator<SchedulerIterator> i = this.schedulerIterators.iterator(); i.hasNext(); ) {
 			SchedulerIterator schedulerIterator = i.next();
 			Object schedulerIteratorCopy;
 			try {
 				schedulerIteratorCopy = schedulerIterator.clone();
+				((SchedulerIterator)schedulerIteratorCopy).setState(schedulerIterator.getState());
 				copy.addSchedulerIterator((SchedulerIterator)schedulerIteratorCopy);
 			} catch (CloneNotSupportedException e) {
 				log.error("Clone not supported for " + schedulerIterator, e);
@@ -0,0 +1,121 @@
+package batchcontrol.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts running processes, in total and per batch, and lets threads wait until
+ * they drain.
+ * <p>
+ * Counting is lock-free; the lock is taken only to wake up waiting threads when a
+ * count drops to zero. Waiting threads re-check the count under the same lock, so a
+ * notification can not be missed.
+ */
+class DrainBarrier {
+	private final AtomicInteger processes = new AtomicInteger();
+	private final ConcurrentMap<String, AtomicInteger> batchProcesses = new ConcurrentHashMap<String, AtomicInteger>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition drained = lock.newCondition();
+
+	/**
+	 * Registers a started process.
+	 *
+	 * @param batchClassName fully qualified task class name, or null if not known
+	 * @return number of running processes.
+	 */
+	int arrive(String batchClassName) {
+		if (batchClassName != null) {
+			counter(batchClassName).incrementAndGet();
+		}
+		return processes.incrementAndGet();
+	}
+
+	/**
+	 * Registers a finished process.
+	 *
+	 * @param batchClassName fully qualified task class name, or null if not known
+	 * @return number of running processes.
+	 */
+	int depart(String batchClassName) {
+		boolean signal = false;
+		if (batchClassName != null) {
+			signal = counter(batchClassName).decrementAndGet() == 0;
+		}
+		int count = processes.decrementAndGet();
+		if (signal || count == 0) {
+			lock.lock();
+			try {
+				drained.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of running processes.
+	 */
+	int getCount() {
+		return processes.get();
+	}
+
+	/**
+	 * @return number of running processes of the batch.
+	 */
+	int getCount(String batchClassName) {
+		AtomicInteger counter = batchProcesses.get(batchClassName);
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 * Waits until no process is running.
+	 *
+	 * @return true if all processes finished, false if the timeout elapsed.
+	 */
+	boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+		return await(processes, timeout, unit);
+	}
+
+	/**
+	 * Waits until no process of the batch is running.
+	 *
+	 * @return true if all processes of the batch finished, false if the timeout elapsed.
+	 */
+	boolean awaitBatch(String batchClassName, long timeout, TimeUnit unit) throws InterruptedException {
+		return await(counter(batchClassName), timeout, unit);
+	}
+
+	private boolean await(AtomicInteger counter, long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (counter.get() > 0) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = drained.awaitNanos(nanos);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private AtomicInteger counter(String batchClassName) {
+		AtomicInteger counter = batchProcesses.get(batchClassName);
+		if (counter == null) {
+			AtomicInteger created = new AtomicInteger();
+			counter = batchProcesses.putIfAbsent(batchClassName, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+}
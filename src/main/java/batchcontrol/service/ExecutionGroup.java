@@ -0,0 +1,113 @@
+package batchcontrol.service;
+
+/**
+ * A named group of batches that share a concurrency limit, see {@link ExecutionGroups}.
+ * Holds the limits of the group and counts its executions and the time they waited
+ * for a permit.
+ * <p>
+ * The counters are written by {@link ExecutionGroups} under its lock and can be read
+ * from any thread.
+ */
+public class ExecutionGroup {
+	private final String name;
+	private final int maxConcurrent;
+	private final int queueSize;
+	private final int reserved;
+
+	volatile int running;
+	volatile int waiting;
+	volatile int peakWaiting;
+	volatile long admitted;
+	volatile long rejected;
+	volatile long totalWaitMillis;
+	volatile long maxWaitMillis;
+
+	/**
+	 * @param maxConcurrent executions of the group running at once, 0 for no limit of the group
+	 * @param queueSize executions of the group waiting for a permit; more are rejected
+	 * @param reserved permits of the global limit that only the group can use
+	 */
+	ExecutionGroup(String name, int maxConcurrent, int queueSize, int reserved) {
+		this.name = name;
+		this.maxConcurrent = maxConcurrent;
+		this.queueSize = queueSize;
+		this.reserved = reserved;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return executions of the group running at once, 0 if the group has no limit of its own.
+	 */
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	/**
+	 * @return executions of the group that may wait for a permit.
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * @return permits of the global limit that other groups cannot take.
+	 */
+	public int getReserved() {
+		return reserved;
+	}
+
+	public int getRunning() {
+		return running;
+	}
+
+	public int getWaiting() {
+		return waiting;
+	}
+
+	/**
+	 * @return highest number of executions that waited at once.
+	 */
+	public int getPeakWaiting() {
+		return peakWaiting;
+	}
+
+	/**
+	 * @return number of executions that got a permit.
+	 */
+	public long getAdmitted() {
+		return admitted;
+	}
+
+	/**
+	 * @return number of executions that did not run because the queue was full.
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return average milliseconds an admitted execution waited for its permit.
+	 */
+	public long getAverageWaitMillis() {
+		long admitted = this.admitted;
+		return admitted == 0 ? 0 : totalWaitMillis / admitted;
+	}
+
+	/**
+	 * @return longest wait for a permit in milliseconds.
+	 */
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	public String toString() {
+		return "[" + name + ": max=" + (maxConcurrent == 0 ? "-" : String.valueOf(maxConcurrent)) + ", reserved="
+				+ reserved + ", queue=" + queueSize + ", running=" + running + ", waiting=" + waiting + ", peakWaiting="
+				+ peakWaiting + ", admitted=" + admitted + ", rejected=" + rejected + ", avgWait="
+				+ getAverageWaitMillis() + "ms, maxWait=" + maxWaitMillis + "ms]";
+	}
+
+}
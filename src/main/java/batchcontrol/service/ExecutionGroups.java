@@ -0,0 +1,381 @@
+package batchcontrol.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Concurrency limits (bulkheads) of the running task executions: a global limit of
+ * executions running at once, and named {@link ExecutionGroup}s with a limit of their
+ * own and a bounded queue of executions waiting for a permit. Every batch belongs to
+ * one group, the {@link #DEFAULT_GROUP} unless configured otherwise. This is the
+ * admission scheduler in front of {@link SchedulerTask#run()}.
+ * <p>
+ * A group can reserve permits of the global limit. Reserved permits are only used by
+ * the group, so that a critical group, e.g. billing, still runs when the other
+ * permits are taken by a bulk group, e.g. reporting. Permits above the reserved ones
+ * are shared by all groups.
+ * <p>
+ * Waiting executions are admitted earliest due time first, within a group and across
+ * groups, except that an execution of a group at its own limit does not hold up
+ * executions of other groups. The due time of an execution is
+ * <pre>
+ * arrival + deadline - priority * agingMillis
+ * </pre>
+ * where the deadline of the batch defaults to <code>defaultDeadline</code>. So a
+ * batch with a shorter deadline or a higher priority goes first, and executions of
+ * equal batches are admitted in the order they arrived. As the due time of a waiting
+ * execution is fixed while new executions arrive later, a low priority execution is
+ * aged: it goes before a newly arrived execution one priority level higher after
+ * waiting <code>agingMillis</code>, and is never starved.
+ * <p>
+ * An execution whose group queue is full is rejected. Waiting does not occupy a
+ * thread: a queued execution leaves a {@link Continuation} that is handed to the
+ * executor of the groups when a released permit admits it, so executions waiting for
+ * a bulk group cannot take the threads a reserved group needs. A queued execution
+ * is cancelled when its task is stopped.
+ */
+public class ExecutionGroups {
+	private static final Logger log = Logger.getLogger(ExecutionGroups.class);
+
+	public static final String DEFAULT_GROUP = "default";
+
+	/** Results of {@link #acquire} */
+	static final int ADMITTED = 0;
+	static final int QUEUED = 1;
+	static final int REJECTED = 2;
+
+	private final int maxConcurrent;
+	private final long defaultDeadline;
+	private final long agingMillis;
+	private final Map<String, ExecutionGroup> groups = new LinkedHashMap<String, ExecutionGroup>();
+	private final Executor executor;
+	private final ReentrantLock lock = new ReentrantLock();
+	/** waiting executions of all groups, ordered by due time */
+	private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+	private int reserved;
+	private int running;
+	/** running executions that do not use a reserved permit of their group */
+	private int sharedRunning;
+
+	/**
+	 * The rest of an execution queued by {@link ExecutionGroups#acquire}.
+	 */
+	interface Continuation {
+		/**
+		 * Runs the execution, which has been admitted; it must call {@link ExecutionGroups#release}.
+		 */
+		void admitted();
+
+		/**
+		 * Ends the execution without running it, as its task was stopped while waiting.
+		 */
+		void cancelled();
+	}
+
+	/**
+	 * An execution waiting for a permit.
+	 */
+	private static final class Waiter {
+		final ExecutionGroup group;
+		final SchedulerTask task;
+		final Continuation continuation;
+		final long since;
+		final long due;
+
+		Waiter(ExecutionGroup group, SchedulerTask task, Continuation continuation, long since, long due) {
+			this.group = group;
+			this.task = task;
+			this.continuation = continuation;
+			this.since = since;
+			this.due = due;
+		}
+	}
+
+	/**
+	 * @param maxConcurrent executions running at once, 0 for no global limit
+	 * @param defaultDeadline milliseconds after arrival an execution of a batch without a 
+	 *        deadline is due
+	 * @param agingMillis milliseconds a priority level moves the due time forward
+	 * @param executor runs the continuations of the admitted queued executions
+	 */
+	ExecutionGroups(int maxConcurrent, long defaultDeadline, long agingMillis, Executor executor) {
+		this.maxConcurrent = maxConcurrent;
+		this.defaultDeadline = defaultDeadline;
+		this.agingMillis = agingMillis;
+		this.executor = executor;
+	}
+
+	/**
+	 * Adds a group. The reserved permits are reduced if they exceed the limit of the
+	 * group or the permits of the global limit not reserved by the groups added before.
+	 *
+	 * @param maxConcurrent executions of the group running at once, 0 for no limit of the group
+	 * @param queueSize executions of the group waiting for a permit
+	 * @param reserved permits of the global limit only the group can use
+	 * @return the group.
+	 */
+	ExecutionGroup add(String name, int maxConcurrent, int queueSize, int reserved) {
+		int granted = Math.max(reserved, 0);
+		if (maxConcurrent > 0) {
+			granted = Math.min(granted, maxConcurrent);
+		}
+		if (this.maxConcurrent > 0) {
+			granted = Math.min(granted, this.maxConcurrent - this.reserved);
+		} else {
+			// without a global limit nothing needs to be reserved
+			granted = 0;
+		}
+		if (granted != reserved && reserved > 0) {
+			log.warn("Execution group " + name + " reserves " + granted + " instead of " + reserved + " permits.");
+		}
+		ExecutionGroup group = new ExecutionGroup(name, Math.max(maxConcurrent, 0), Math.max(queueSize, 0), granted);
+		this.reserved += granted;
+		groups.put(name, group);
+		return group;
+	}
+
+	/**
+	 * @return the group, or null if there is no group with the name.
+	 */
+	public ExecutionGroup getGroup(String name) {
+		return groups.get(name);
+	}
+
+	/**
+	 * @return all groups in the order they were configured.
+	 */
+	public Collection<ExecutionGroup> getGroups() {
+		return Collections.unmodifiableCollection(groups.values());
+	}
+
+	/**
+	 * @return executions running at once, 0 if there is no global limit.
+	 */
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	/**
+	 * @return milliseconds after arrival an execution of a batch without a deadline is due.
+	 */
+	public long getDefaultDeadline() {
+		return defaultDeadline;
+	}
+
+	/**
+	 * @return milliseconds a priority level moves the due time forward.
+	 */
+	public long getAgingMillis() {
+		return agingMillis;
+	}
+
+	public int getRunning() {
+		lock.lock();
+		try {
+			return running;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getWaiting() {
+		lock.lock();
+		try {
+			return waiters.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Admits an execution of the task, or queues it without waiting.
+	 *
+	 * @param priority priority of the batch, higher goes first
+	 * @param deadline milliseconds after arrival the execution is due, 0 for the default deadline
+	 * @param continuation rest of the execution if it is queued
+	 * @return {@link #ADMITTED} if the execution may run now; it must then call
+	 *         {@link #release}. {@link #QUEUED} if the continuation is run on the executor
+	 *         once a permit is free, or ended when the task is stopped before.
+	 *         {@link #REJECTED} if the queue of the group is full.
+	 */
+	int acquire(ExecutionGroup group, SchedulerTask task, int priority, long deadline, Continuation continuation) {
+		lock.lock();
+		try {
+			if (group.waiting == 0 && isAdmissible(group)) {
+				admit(group, 0);
+				return ADMITTED;
+			}
+			if (group.waiting >= group.getQueueSize()) {
+				group.rejected++;
+				return REJECTED;
+			}
+			long now = System.currentTimeMillis();
+			enqueue(new Waiter(group, task, continuation, now, now + (deadline > 0 ? deadline : defaultDeadline)
+					- priority * agingMillis));
+			group.waiting++;
+			group.peakWaiting = Math.max(group.peakWaiting, group.waiting);
+			return QUEUED;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the permit of an execution that ended, and hands the executions it admits
+	 * to the executor.
+	 */
+	void release(ExecutionGroup group) {
+		List<Waiter> admitted;
+		lock.lock();
+		try {
+			group.running--;
+			running--;
+			if (group.running >= group.getReserved()) {
+				sharedRunning--;
+			}
+			admitted = dispatch();
+		} finally {
+			lock.unlock();
+		}
+		continueAdmitted(admitted);
+	}
+
+	/**
+	 * Cancels the queued executions of the task, e.g. when it is stopped, and ends them
+	 * on the calling thread.
+	 */
+	void cancel(SchedulerTask task) {
+		List<Waiter> cancelled = new ArrayList<Waiter>();
+		List<Waiter> admitted;
+		lock.lock();
+		try {
+			for (Iterator<Waiter> i = waiters.iterator(); i.hasNext();) {
+				Waiter waiter = i.next();
+				if (waiter.task == task) {
+					i.remove();
+					waiter.group.waiting--;
+					cancelled.add(waiter);
+				}
+			}
+			// the executions behind them in their groups may be admissible now
+			admitted = cancelled.isEmpty() ? Collections.<Waiter> emptyList() : dispatch();
+		} finally {
+			lock.unlock();
+		}
+		for (Waiter waiter : cancelled) {
+			try {
+				waiter.continuation.cancelled();
+			} catch (RuntimeException e) {
+				log.error("Cancelling a queued execution of " + task + " failed: " + e, e);
+			}
+		}
+		continueAdmitted(admitted);
+	}
+
+	/**
+	 * Runs the continuations of admitted executions on the executor, or on the calling
+	 * thread if the executor does not take them, e.g. while the service shuts down.
+	 */
+	private void continueAdmitted(List<Waiter> admitted) {
+		for (final Waiter waiter : admitted) {
+			Runnable continuation = new Runnable() {
+				public void run() {
+					waiter.continuation.admitted();
+				}
+			};
+			try {
+				executor.execute(continuation);
+			} catch (RuntimeException e) {
+				log.error("Queued execution of " + waiter.task + " was not taken by the executor: running it on "
+						+ "the releasing thread.", e);
+				continuation.run();
+			}
+		}
+	}
+
+	/**
+	 * Inserts the waiter after the waiters due at the same time or earlier.
+	 */
+	private void enqueue(Waiter waiter) {
+		ListIterator<Waiter> i = waiters.listIterator(waiters.size());
+		while (i.hasPrevious()) {
+			if (i.previous().due <= waiter.due) {
+				i.next();
+				break;
+			}
+		}
+		i.add(waiter);
+	}
+
+	private boolean isAdmissible(ExecutionGroup group) {
+		if (group.getMaxConcurrent() > 0 && group.running >= group.getMaxConcurrent()) {
+			return false;
+		}
+		return maxConcurrent == 0 || group.running < group.getReserved() || sharedRunning < maxConcurrent - reserved;
+	}
+
+	private void admit(ExecutionGroup group, long waitMillis) {
+		if (group.running >= group.getReserved()) {
+			sharedRunning++;
+		}
+		group.running++;
+		running++;
+		group.admitted++;
+		group.totalWaitMillis += waitMillis;
+		group.maxWaitMillis = Math.max(group.maxWaitMillis, waitMillis);
+	}
+
+	/**
+	 * Admits waiting executions in the order of their due time while there are permits.
+	 * A group that cannot be admitted keeps its later executions waiting.
+	 *
+	 * @return executions admitted, to be continued once the lock is released.
+	 */
+	private List<Waiter> dispatch() {
+		if (waiters.isEmpty()) {
+			return Collections.emptyList();
+		}
+		long now = System.currentTimeMillis();
+		Set<ExecutionGroup> blocked = new HashSet<ExecutionGroup>();
+		List<Waiter> admitted = new ArrayList<Waiter>();
+		for (Iterator<Waiter> i = waiters.iterator(); i.hasNext() && blocked.size() < groups.size();) {
+			Waiter waiter = i.next();
+			if (blocked.contains(waiter.group)) {
+				continue;
+			}
+			if (isAdmissible(waiter.group)) {
+				i.remove();
+				waiter.group.waiting--;
+				admit(waiter.group, now - waiter.since);
+				admitted.add(waiter);
+			} else {
+				blocked.add(waiter.group);
+			}
+		}
+		return admitted;
+	}
+
+	public String toString() {
+		lock.lock();
+		try {
+			return "[ExecutionGroups: max=" + (maxConcurrent == 0 ? "-" : String.valueOf(maxConcurrent)) + ", deadline="
+					+ defaultDeadline + "ms, aging=" + agingMillis + "ms, running=" + running + ", waiting=" + waiters.size() + ", groups=" + groups.values() + "]";
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
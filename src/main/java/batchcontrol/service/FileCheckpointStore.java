@@ -0,0 +1,74 @@
+package batchcontrol.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps the cursor of each batch in a file of its own in a local directory. A cursor
+ * is written to a temporary file which then replaces the file of the batch
+ * atomically, so a crash leaves either the previous or the new cursor.
+ */
+class FileCheckpointStore implements CheckpointStore {
+	private final File directory;
+
+	/**
+	 * @throws IOException if the directory does not exist and cannot be created.
+	 */
+	FileCheckpointStore(String directory) throws IOException {
+		this.directory = new File(directory);
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("Cannot create checkpoint directory " + directory);
+		}
+	}
+
+	public String load(String taskClassName) throws IOException {
+		File file = file(taskClassName);
+		if (!file.exists()) {
+			return null;
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+				bytes.write(buffer, 0, n);
+			}
+			return new String(bytes.toByteArray(), "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	public void save(String taskClassName, String cursor) throws IOException {
+		File file = file(taskClassName);
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write(cursor.getBytes("UTF-8"));
+			// the cursor must survive a crash of the machine, not only of the service
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public void clear(String taskClassName) throws IOException {
+		Files.deleteIfExists(file(taskClassName).toPath());
+	}
+
+	private File file(String taskClassName) {
+		return new File(directory, taskClassName.replaceAll("[^A-Za-z0-9._-]", "_") + ".checkpoint");
+	}
+
+	public String toString() {
+		return "[FileCheckpointStore: " + directory + "]";
+	}
+
+}
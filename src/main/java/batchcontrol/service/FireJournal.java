@@ -0,0 +1,327 @@
+package batchcontrol.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import batchcontrol.service.iterators.SchedulerIterator;
+
+/**
+ * An append-only local journal of the last and the next planned fire time of each
+ * scheduler, so that a restarted service resumes the schedules where they stopped
+ * instead of starting them from the current time. Times missed while the service was
+ * down are then handled by the misfire policy of the batch.
+ * <p>
+ * Each record is one line: <code>F id last next schedule</code> for a fire and
+ * <code>D id</code> when the scheduler is forgotten, with tab-separated fields. The
+ * latest record of a scheduler wins. The journal is compacted when it is opened and
+ * when it holds many more records than schedulers. A record of a different schedule
+ * (the scheduler row was changed) is not restored.
+ * <p>
+ * Records are flushed to the operating system on every write, so they survive a crash
+ * of the service but not necessarily of the machine. A torn last line, one that does
+ * not end with a line break, is ignored, so it does not replace the previous record of
+ * its scheduler.
+ * <p>
+ * Writes are guarded by a lock rather than <code>synchronized</code>, so that a virtual
+ * thread writing a fire is not pinned to its carrier thread during the file I/O.
+ */
+class FireJournal {
+	private static final Logger log = Logger.getLogger(FireJournal.class);
+
+	private static final String FIRE = "F";
+	private static final String DELETE = "D";
+	/** records written before the journal is compacted, unless there are more schedulers */
+	private static final int COMPACT_RECORDS = 10000;
+
+	/**
+	 * Last and next fire of a scheduler.
+	 */
+	static final class Entry {
+		final long lastFire;
+		final long nextFire;
+		final String schedule;
+
+		Entry(long lastFire, long nextFire, String schedule) {
+			this.lastFire = lastFire;
+			this.nextFire = nextFire;
+			this.schedule = schedule;
+		}
+
+		public String toString() {
+			return "[last=" + new Date(lastFire) + ", next="
+					+ (nextFire == SchedulerIterator.NO_TIME ? "none" : new Date(nextFire).toString()) + "]";
+		}
+	}
+
+	private final File file;
+	private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private Writer writer;
+	private boolean closed;
+	private int records;
+
+	private FireJournal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Reads and compacts the journal; the file is created if it does not exist.
+	 *
+	 * @param path journal file
+	 * @throws IOException if the journal cannot be read or written.
+	 */
+	static FireJournal open(String path) throws IOException {
+		FireJournal journal = new FireJournal(new File(path));
+		journal.read();
+		journal.compact();
+		log.info("Fire journal opened: " + path + ", " + journal.entries.size() + " scheduler(s).");
+		return journal;
+	}
+
+	private void read() throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		boolean terminated = endsWithLineBreak();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line = reader.readLine();
+			int lineNumber = 0;
+			while (line != null) {
+				String next = reader.readLine();
+				lineNumber++;
+				if (next == null && !terminated) {
+					log.warn("Fire journal " + file + ": torn line " + lineNumber + " is ignored: " + line);
+					break;
+				}
+				String[] fields = line.split("\t", 5);
+				try {
+					if (fields[0].equals(FIRE) && fields.length == 5) {
+						entries.put(Integer.valueOf(fields[1]),
+								new Entry(Long.parseLong(fields[2]), Long.parseLong(fields[3]), fields[4]));
+					} else if (fields[0].equals(DELETE) && fields.length == 2) {
+						entries.remove(Integer.valueOf(fields[1]));
+					} else {
+						log.warn("Fire journal " + file + ": line " + lineNumber + " is ignored: " + line);
+					}
+				} catch (NumberFormatException e) {
+					log.warn("Fire journal " + file + ": line " + lineNumber + " is ignored: " + line);
+				}
+				line = next;
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private boolean endsWithLineBreak() throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			if (in.length() == 0) {
+				return true;
+			}
+			in.seek(in.length() - 1);
+			return in.read() == '\n';
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Rewrites the journal with the latest record of each scheduler and replaces the
+	 * file atomically. The journal is reopened for appending also if it could not be
+	 * rewritten; the next compaction is tried after as many records again.
+	 */
+	private void compact() throws IOException {
+		try {
+			if (writer != null) {
+				writer.close();
+			}
+			File compacted = new File(file.getPath() + ".tmp");
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(compacted), "UTF-8"));
+			try {
+				for (Map.Entry<Integer, Entry> entry : entries.entrySet()) {
+					Entry value = entry.getValue();
+					out.write(fireRecord(entry.getKey().intValue(), value.lastFire, value.nextFire, value.schedule));
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			records = entries.size();
+			writer = null;
+			writer = openWriter();
+		}
+	}
+
+	private Writer openWriter() throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+	}
+
+	/**
+	 * Returns the record of a scheduler if it was written for the same schedule.
+	 *
+	 * @return last and next fire, or null if the scheduler is unknown or was changed.
+	 */
+	Entry get(SchedulerIterator scheduler) {
+		lock.lock();
+		try {
+			Entry entry = entries.get(Integer.valueOf(scheduler.getId()));
+			return entry == null || !entry.schedule.equals(schedule(scheduler)) ? null : entry;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records that the schedulers are scheduled. Schedulers without a record of their
+	 * schedule are recorded as handled up to now, so that a restart later resumes
+	 * them; the records of the others are kept, as their missed times are still to run.
+	 */
+	void recordScheduled(List<SchedulerIterator> schedulers) {
+		lock.lock();
+		try {
+			long now = System.currentTimeMillis();
+			for (SchedulerIterator scheduler : schedulers) {
+				if (get(scheduler) == null) {
+					write(scheduler.getId(), new Entry(now - 1, SchedulerIterator.NO_TIME, schedule(scheduler)));
+				}
+			}
+			flush();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Records a fire of the schedulers of a batch.
+	 *
+	 * @param lastFire latest schedule time the execution stands for
+	 * @param nextFire next planned schedule time, or NO_TIME
+	 */
+	void recordFire(SchedulerIterator[] schedulers, long lastFire, long nextFire) {
+		lock.lock();
+		try {
+			for (int i = 0; i < schedulers.length; i++) {
+				write(schedulers[i].getId(), new Entry(lastFire, nextFire, schedule(schedulers[i])));
+			}
+			flush();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Forgets the schedulers, e.g. when the batch is stopped, so that a restart does not
+	 * run the times missed while it was stopped.
+	 */
+	void forget(List<SchedulerIterator> schedulers) {
+		lock.lock();
+		try {
+			boolean written = false;
+			for (SchedulerIterator scheduler : schedulers) {
+				if (entries.remove(Integer.valueOf(scheduler.getId())) != null) {
+					append(DELETE + "\t" + scheduler.getId() + "\n");
+					written = true;
+				}
+			}
+			if (written) {
+				flush();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			if (writer == null) {
+				return;
+			}
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.error("Error closing fire journal " + file + ": " + e, e);
+			}
+			writer = null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void write(int id, Entry entry) {
+		entries.put(Integer.valueOf(id), entry);
+		append(fireRecord(id, entry.lastFire, entry.nextFire, entry.schedule));
+	}
+
+	private void append(String record) {
+		if (closed) {
+			return;
+		}
+		try {
+			if (writer == null) {
+				// a previous write failed to reopen the journal
+				writer = openWriter();
+			}
+			writer.write(record);
+			if (++records > Math.max(COMPACT_RECORDS, 4 * entries.size())) {
+				compact();
+			}
+		} catch (IOException e) {
+			// the schedule must not stop because of the journal; it is compacted on restart
+			log.error("Error writing fire journal " + file + ": " + e, e);
+		}
+	}
+
+	private void flush() {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.flush();
+		} catch (IOException e) {
+			log.error("Error writing fire journal " + file + ": " + e, e);
+		}
+	}
+
+	private static String fireRecord(int id, long lastFire, long nextFire, String schedule) {
+		return FIRE + "\t" + id + "\t" + lastFire + "\t" + nextFire + "\t" + schedule + "\n";
+	}
+
+	/**
+	 * @return description of the schedule of a scheduler, which changes when its row or the
+	 *         holidays of its business calendar change.
+	 */
+	static String schedule(SchedulerIterator scheduler) {
+		String schedule = scheduler.getType() + " " + scheduler.getHour() + ":" + scheduler.getMinute() + ":"
+				+ scheduler.getSecond() + " " + scheduler.getDays() + " " + scheduler.getZone().getID()
+				+ (scheduler.getCalendar() == null ? "" : " " + scheduler.getCalendar().getSignature());
+		return schedule.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	public String toString() {
+		return "[FireJournal: " + file + ", schedulers=" + entries.size() + "]";
+	}
+
+}
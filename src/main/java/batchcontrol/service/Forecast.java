@@ -0,0 +1,331 @@
+package batchcontrol.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+
+import batchcontrol.service.iterators.CompositeIterator;
+import batchcontrol.service.iterators.SchedulerIterator;
+import batchcontrol.service.iterators.SmearIterator;
+import batchcontrol.service.iterators.ZoneTransitions;
+
+/**
+ * Fire times of all batches of a {@link BatchControlSnapshot} in a time window, in
+ * time order. By default only batches that are scheduled and active are forecast,
+ * as stopped and inactive batches do not run.
+ * <p>
+ * The forecast has no side effects: every {@link #iterator()} creates fresh iterators
+ * from the scheduler descriptions of the snapshot, so the live schedules are not
+ * consumed. The schedules of all batches are merged lazily with a binary heap; a fire
+ * time is computed only when it is requested.
+ */
+public final class Forecast implements Iterable<Forecast.Fire> {
+	private static final Logger log = Logger.getLogger(Forecast.class);
+
+	private final BatchControlSnapshot snapshot;
+	private final long from;
+	private final long to;
+	private final boolean smeared;
+	private final boolean scheduledOnly;
+
+	/**
+	 * @param from start of the window, inclusive
+	 * @param to end of the window, exclusive
+	 */
+	Forecast(BatchControlSnapshot snapshot, long from, long to) {
+		this(snapshot, from, to, true, true);
+	}
+
+	/**
+	 * @param smeared false to ignore the smear offsets of the batches
+	 * @param scheduledOnly false to forecast all batches of the snapshot, also the ones 
+	 *        that are not scheduled or not active
+	 */
+	Forecast(BatchControlSnapshot snapshot, long from, long to, boolean smeared, boolean scheduledOnly) {
+		this.snapshot = snapshot;
+		this.from = from;
+		this.to = to;
+		this.smeared = smeared;
+		this.scheduledOnly = scheduledOnly;
+	}
+
+	public Date getFrom() {
+		return new Date(from);
+	}
+
+	public Date getTo() {
+		return new Date(to);
+	}
+
+	/**
+	 * @return new iterator over the fire times of the window.
+	 */
+	public Iterator<Fire> iterator() {
+		return new Merge();
+	}
+
+	/**
+	 * Returns all fire times of the window.
+	 */
+	public List<Fire> toList() {
+		List<Fire> fires = new ArrayList<Fire>();
+		for (Iterator<Fire> i = iterator(); i.hasNext();) {
+			fires.add(i.next());
+		}
+		return fires;
+	}
+
+	/**
+	 * Returns the instants where at least <code>minBatches</code> batches fire at
+	 * once, the biggest collisions first.
+	 */
+	public List<HotSpot> getHotSpots(int minBatches) {
+		List<HotSpot> hotSpots = new ArrayList<HotSpot>();
+		Merge merge = new Merge();
+		List<BatchSnapshot> batches = new ArrayList<BatchSnapshot>();
+		long time = 0;
+		while (merge.hasNext()) {
+			Fire fire = merge.next();
+			if (fire.time != time) {
+				if (batches.size() >= minBatches) {
+					hotSpots.add(new HotSpot(time, batches));
+				}
+				batches = new ArrayList<BatchSnapshot>();
+				time = fire.time;
+			}
+			batches.add(fire.batch);
+		}
+		if (!batches.isEmpty() && batches.size() >= minBatches) {
+			hotSpots.add(new HotSpot(time, batches));
+		}
+		Collections.sort(hotSpots, new Comparator<HotSpot>() {
+			public int compare(HotSpot a, HotSpot b) {
+				if (a.batches.size() != b.batches.size()) {
+					return b.batches.size() - a.batches.size();
+				}
+				return a.time < b.time ? -1 : (a.time == b.time ? 0 : 1);
+			}
+		});
+		return hotSpots;
+	}
+
+	public String toString() {
+		return "[Forecast: from=" + getFrom() + ", to=" + getTo() + ", batches=" + snapshot.getBatches().size() + "]";
+	}
+
+	/**
+	 * K-way merge of the schedules of all batches. Each batch contributes one
+	 * {@link CompositeIterator}, so a batch fires once per instant as it does when
+	 * scheduled.
+	 */
+	private final class Merge implements Iterator<Fire> {
+		private final long[] times;
+		private final SchedulerIterator[] iterators;
+		private final BatchSnapshot[] batches;
+		/** position of the batch in the snapshot, which is sorted by task class name */
+		private final int[] positions;
+		private int size;
+
+		Merge() {
+			int n = snapshot.getBatches().size();
+			times = new long[n];
+			iterators = new SchedulerIterator[n];
+			batches = new BatchSnapshot[n];
+			positions = new int[n];
+			// iterators return times after the start, the window includes from
+			Date start = new Date(from - 1);
+			int position = 0;
+			for (BatchSnapshot batch : snapshot.getBatches().values()) {
+				position++;
+				if (scheduledOnly && (batch.getStatus() != 1 || batch.getActive() != 1)) {
+					continue;
+				}
+				List<SchedulerIterator> schedule = new ArrayList<SchedulerIterator>();
+				for (SchedulerSnapshot scheduler : batch.getSchedulers()) {
+					if (SchedulerIterator.DELETED.equals(scheduler.getState())) {
+						continue;
+					}
+					try {
+						schedule.add(SchedulerIteratorFactory.create(scheduler.getType(), scheduler.getId(),
+								scheduler.getHour(), scheduler.getMinute(), scheduler.getSecond(), scheduler.getDays(), 
+								ZoneTransitions.getZone(scheduler.getZone()), scheduler.getCalendar(), start));
+					} catch (IllegalArgumentException e) {
+						log.warn("Scheduler " + scheduler + " of " + batch.getName() + " is not forecast: " + e.getMessage());
+					}
+				}
+				if (schedule.isEmpty()) {
+					continue;
+				}
+				SchedulerIterator iterator = new CompositeIterator(schedule.toArray(new SchedulerIterator[schedule.size()]));
+				if (smeared && batch.getSmearOffset() != 0) {
+					iterator = new SmearIterator(iterator, batch.getSmearOffset());
+				}
+				long time = nextTime(iterator);
+				if (time != SchedulerIterator.NO_TIME) {
+					times[size] = time;
+					iterators[size] = iterator;
+					batches[size] = batch;
+					positions[size] = position;
+					siftUp(size++);
+				}
+			}
+		}
+
+		/**
+		 * @return next time of the iterator within the window, or NO_TIME.
+		 */
+		private long nextTime(SchedulerIterator iterator) {
+			long time;
+			do {
+				time = iterator.nextEpochMillis();
+			} while (time != SchedulerIterator.NO_TIME && time < from);
+			return time == SchedulerIterator.NO_TIME || time >= to ? SchedulerIterator.NO_TIME : time;
+		}
+
+		public boolean hasNext() {
+			return size > 0;
+		}
+
+		public Fire next() {
+			if (size == 0) {
+				throw new NoSuchElementException();
+			}
+			Fire fire = new Fire(times[0], batches[0]);
+			long time = nextTime(iterators[0]);
+			if (time == SchedulerIterator.NO_TIME) {
+				size--;
+				times[0] = times[size];
+				iterators[0] = iterators[size];
+				batches[0] = batches[size];
+				positions[0] = positions[size];
+				iterators[size] = null;
+				batches[size] = null;
+			} else {
+				times[0] = time;
+			}
+			if (size > 0) {
+				siftDown(0);
+			}
+			return fire;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private void siftUp(int index) {
+			while (index > 0) {
+				int parent = (index - 1) >>> 1;
+				if (!less(index, parent)) {
+					break;
+				}
+				swap(index, parent);
+				index = parent;
+			}
+		}
+
+		private void siftDown(int index) {
+			int half = size >>> 1;
+			while (index < half) {
+				int child = 2 * index + 1;
+				int right = child + 1;
+				if (right < size && less(right, child)) {
+					child = right;
+				}
+				if (!less(child, index)) {
+					break;
+				}
+				swap(index, child);
+				index = child;
+			}
+		}
+
+		/**
+		 * Orders by time, then by task class name, so the forecast is deterministic.
+		 */
+		private boolean less(int a, int b) {
+			if (times[a] != times[b]) {
+				return times[a] < times[b];
+			}
+			return positions[a] < positions[b];
+		}
+
+		private void swap(int a, int b) {
+			long time = times[a];
+			times[a] = times[b];
+			times[b] = time;
+			SchedulerIterator iterator = iterators[a];
+			iterators[a] = iterators[b];
+			iterators[b] = iterator;
+			BatchSnapshot batch = batches[a];
+			batches[a] = batches[b];
+			batches[b] = batch;
+			int position = positions[a];
+			positions[a] = positions[b];
+			positions[b] = position;
+		}
+	}
+
+	/**
+	 * A batch firing at a time.
+	 */
+	public static final class Fire {
+		private final long time;
+		private final BatchSnapshot batch;
+
+		Fire(long time, BatchSnapshot batch) {
+			this.time = time;
+			this.batch = batch;
+		}
+
+		/**
+		 * @return fire time in the format returned by <code>Date.getTime()</code>.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public BatchSnapshot getBatch() {
+			return batch;
+		}
+
+		public String toString() {
+			return new Date(time) + " " + batch.getName();
+		}
+	}
+
+	/**
+	 * An instant where several batches fire at once.
+	 */
+	public static final class HotSpot {
+		private final long time;
+		private final List<BatchSnapshot> batches;
+
+		HotSpot(long time, List<BatchSnapshot> batches) {
+			this.time = time;
+			this.batches = Collections.unmodifiableList(batches);
+		}
+
+		/**
+		 * @return time in the format returned by <code>Date.getTime()</code>.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public List<BatchSnapshot> getBatches() {
+			return batches;
+		}
+
+		public String toString() {
+			return new Date(time) + ": " + batches.size() + " batches";
+		}
+	}
+
+}
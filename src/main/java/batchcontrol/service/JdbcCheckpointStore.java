@@ -0,0 +1,103 @@
+package batchcontrol.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps the cursor of each batch in a database table:
+ * <pre>
+ * create table batch_checkpoints (
+ *   classname    varchar(255) primary key,
+ *   cursor_value varchar(4000) not null,
+ *   updated      timestamp not null
+ * )
+ * </pre>
+ */
+class JdbcCheckpointStore implements CheckpointStore {
+	private static final Logger log = Logger.getLogger(JdbcCheckpointStore.class);
+
+	private final BatchControlImpl service;
+	private final String table;
+
+	/**
+	 * @param service service that provides database connections
+	 * @param table name of the checkpoint table
+	 */
+	JdbcCheckpointStore(BatchControlImpl service, String table) {
+		this.service = service;
+		this.table = table;
+	}
+
+	public String load(String taskClassName) throws Exception {
+		Connection con = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			con = service.getConnection();
+			stmt = con.prepareStatement("select cursor_value from " + table + " where classname=?");
+			stmt.setString(1, taskClassName);
+			rs = stmt.executeQuery();
+			return rs.next() ? rs.getString(1) : null;
+		} finally {
+			close(con, stmt, rs);
+		}
+	}
+
+	public void save(String taskClassName, String cursor) throws Exception {
+		Connection con = null;
+		PreparedStatement stmt = null;
+		try {
+			con = service.getConnection();
+			Timestamp now = new Timestamp(System.currentTimeMillis());
+			stmt = con.prepareStatement("update " + table + " set cursor_value=?, updated=? where classname=?");
+			stmt.setString(1, cursor);
+			stmt.setTimestamp(2, now);
+			stmt.setString(3, taskClassName);
+			if (stmt.executeUpdate() == 0) {
+				stmt.close();
+				stmt = con.prepareStatement("insert into " + table + " (classname, cursor_value, updated) values (?, ?, ?)");
+				stmt.setString(1, taskClassName);
+				stmt.setString(2, cursor);
+				stmt.setTimestamp(3, now);
+				stmt.executeUpdate();
+			}
+		} finally {
+			close(con, stmt, null);
+		}
+	}
+
+	public void clear(String taskClassName) throws Exception {
+		Connection con = null;
+		PreparedStatement stmt = null;
+		try {
+			con = service.getConnection();
+			stmt = con.prepareStatement("delete from " + table + " where classname=?");
+			stmt.setString(1, taskClassName);
+			stmt.executeUpdate();
+		} finally {
+			close(con, stmt, null);
+		}
+	}
+
+	private static void close(Connection con, PreparedStatement stmt, ResultSet rs) {
+		try {
+			if (rs != null)
+				rs.close();
+			if (stmt != null)
+				stmt.close();
+			if (con != null)
+				con.close();
+		} catch (Exception e) {
+			log.error("Checkpoint store: error closing database objects: " + e, e);
+		}
+	}
+
+	public String toString() {
+		return "[JdbcCheckpointStore: " + table + "]";
+	}
+
+}
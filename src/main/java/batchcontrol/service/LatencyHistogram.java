@@ -0,0 +1,54 @@
+package batchcontrol.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in milliseconds with power-of-two buckets: bucket 0 counts
+ * durations of 0 ms or less, bucket <code>i</code> durations of 2<sup>i-1</sup> to
+ * 2<sup>i</sup>-1 ms; the last bucket also counts all longer durations.
+ * <p>
+ * Recording is lock-free.
+ */
+public class LatencyHistogram {
+	public static final int BUCKETS = 40;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	void record(long millis) {
+		counts.incrementAndGet(bucket(millis));
+	}
+
+	static int bucket(long millis) {
+		if (millis <= 0) {
+			return 0;
+		}
+		return Math.min(64 - Long.numberOfLeadingZeros(millis), BUCKETS - 1);
+	}
+
+	/**
+	 * @return copy of the counts of the buckets.
+	 */
+	public long[] getCounts() {
+		long[] histogram = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			histogram[i] = counts.get(i);
+		}
+		return histogram;
+	}
+
+	/**
+	 * @return the non-empty buckets, e.g. <code>{0=12, &lt;4ms=3}</code>.
+	 */
+	public String toString() {
+		StringBuilder histogram = new StringBuilder();
+		for (int i = 0; i < BUCKETS; i++) {
+			long count = counts.get(i);
+			if (count > 0) {
+				histogram.append(histogram.length() == 0 ? "" : ", ").append(i == 0 ? "0" : "<" + (1L << i))
+						.append("ms=").append(count);
+			}
+		}
+		return "{" + histogram + "}";
+	}
+
+}
@@ -0,0 +1,97 @@
+package batchcontrol.service;
+
+/**
+ * What a {@link Scheduler} does with scheduled times that passed while the previous
+ * execution was still running or the service was down. A time is missed when it is
+ * older than the misfire threshold at the moment the task is rescheduled.
+ * <ul>
+ * <li><code>catch_up_all</code> - every missed time runs, back-to-back (default without a
+ * fire journal)</li>
+ * <li><code>fire_now_once</code> - one execution now for all missed times (default with a
+ * fire journal)</li>
+ * <li><code>skip_to_next</code> - missed times are dropped, the task waits for the next time</li>
+ * <li><code>catch_up:N</code> - the latest N missed times run back-to-back, older ones are
+ * dropped; N is at most {@link #MAX_CATCH_UP}</li>
+ * <li><code>coalesce</code> - the missed times are folded into the next regular execution,
+ * which runs at its scheduled time and stands for them as well; if the schedule has no
+ * next time, the latest missed time runs now</li>
+ * </ul>
+ * With a fire journal the missed times include the ones of a service outage, which
+ * for a frequent schedule can be thousands, so the default is then
+ * {@link #JOURNAL_DEFAULT}.
+ */
+public final class MisfirePolicy {
+	public static final int CATCH_UP_ALL = 0;
+	public static final int FIRE_NOW_ONCE = 1;
+	public static final int SKIP_TO_NEXT = 2;
+	public static final int CATCH_UP = 3;
+	public static final int COALESCE = 4;
+
+	/** largest N of catch_up:N */
+	public static final int MAX_CATCH_UP = 1024;
+
+	private static final String[] NAMES = { "catch_up_all", "fire_now_once", "skip_to_next", "catch_up", "coalesce" };
+
+	public static final MisfirePolicy DEFAULT = new MisfirePolicy(CATCH_UP_ALL, Integer.MAX_VALUE);
+	/** default when the service keeps a fire journal */
+	public static final MisfirePolicy JOURNAL_DEFAULT = new MisfirePolicy(FIRE_NOW_ONCE, 1);
+
+	private final int type;
+	private final int limit;
+
+	private MisfirePolicy(int type, int limit) {
+		this.type = type;
+		this.limit = limit;
+	}
+
+	/**
+	 * @param policy policy name, see the class description; case is ignored
+	 * @return policy.
+	 * @throws IllegalArgumentException if the policy is unknown, or N of catch_up:N is
+	 *         negative or larger than {@link #MAX_CATCH_UP}.
+	 */
+	public static MisfirePolicy parse(String policy) {
+		String value = policy.trim().toLowerCase();
+		if (value.startsWith(NAMES[CATCH_UP] + ":")) {
+			int limit;
+			try {
+				limit = Integer.parseInt(value.substring(NAMES[CATCH_UP].length() + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid misfire policy: " + policy);
+			}
+			if (limit < 0) {
+				throw new IllegalArgumentException("Invalid misfire policy: " + policy);
+			}
+			if (limit > MAX_CATCH_UP) {
+				throw new IllegalArgumentException("Invalid misfire policy: " + policy + ", at most " + MAX_CATCH_UP
+						+ " missed times can be caught up.");
+			}
+			return new MisfirePolicy(CATCH_UP, limit);
+		}
+		for (int i = 0; i < NAMES.length; i++) {
+			if (i != CATCH_UP && NAMES[i].equals(value)) {
+				return i == CATCH_UP_ALL ? DEFAULT : new MisfirePolicy(i, 1);
+			}
+		}
+		throw new IllegalArgumentException("Unknown misfire policy: " + policy);
+	}
+
+	/**
+	 * @return one of the type constants.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return number of missed times that run for catch_up:N.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	public String toString() {
+		return type == CATCH_UP ? NAMES[type] + ":" + limit : NAMES[type];
+	}
+
+}
@@ -0,0 +1,66 @@
+package batchcontrol.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts executions and missed times of a batch, and keeps a histogram of how late
+ * executions started, see {@link LatencyHistogram}.
+ * <p>
+ * Recording is lock-free.
+ */
+public class MisfireStatistics {
+	public static final int BUCKETS = LatencyHistogram.BUCKETS;
+
+	private final AtomicLong executions = new AtomicLong();
+	private final AtomicLong missed = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final LatencyHistogram lateness = new LatencyHistogram();
+
+	/**
+	 * Records an execution that started <code>latenessMillis</code> after its scheduled time.
+	 */
+	void recordExecution(long latenessMillis) {
+		executions.incrementAndGet();
+		lateness.record(latenessMillis);
+	}
+
+	/**
+	 * @param missed number of times found in the past when the task was rescheduled
+	 * @param skipped number of the missed times that will not run
+	 */
+	void recordMissed(int missed, int skipped) {
+		this.missed.addAndGet(missed);
+		this.skipped.addAndGet(skipped);
+	}
+
+	public long getExecutions() {
+		return executions.get();
+	}
+
+	/**
+	 * @return number of scheduled times that were missed, including the ones run late.
+	 */
+	public long getMissed() {
+		return missed.get();
+	}
+
+	/**
+	 * @return number of missed times that were not run.
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * @return copy of the lateness histogram.
+	 */
+	public long[] getLatenessHistogram() {
+		return lateness.getCounts();
+	}
+
+	public String toString() {
+		return "[executions=" + executions.get() + ", missed=" + missed.get() + ", skipped=" + skipped.get()
+				+ ", lateness=" + lateness + "]";
+	}
+
+}
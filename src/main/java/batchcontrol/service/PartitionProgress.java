@@ -0,0 +1,122 @@
+package batchcontrol.service;
+
+/**
+ * Progress of one partition of a {@link PartitionedSchedulerTask} run. The partition
+ * reports the items it processed; the task records when it started and ended and
+ * whether it failed. Can be read from any thread while the run is in progress.
+ */
+public class PartitionProgress {
+	public static final int PENDING = 0;
+	public static final int RUNNING = 1;
+	public static final int DONE = 2;
+	public static final int FAILED = 3;
+	/** not started because the task was stopped */
+	public static final int SKIPPED = 4;
+
+	private final int index;
+	private final String name;
+	private volatile int state = PENDING;
+	private volatile long processed;
+	private volatile long total = -1;
+	private volatile long started;
+	private volatile long ended;
+	private volatile Throwable failure;
+
+	PartitionProgress(int index, String name) {
+		this.index = index;
+		this.name = name;
+	}
+
+	/**
+	 * @return position of the partition in the list of partitions of the run.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * @return items processed so far, as reported by the partition.
+	 */
+	public long getProcessed() {
+		return processed;
+	}
+
+	/**
+	 * Reports the items processed so far.
+	 */
+	public void setProcessed(long processed) {
+		this.processed = processed;
+	}
+
+	/**
+	 * Adds to the items processed; the partition is processed by a single thread.
+	 */
+	public void addProcessed(long count) {
+		this.processed += count;
+	}
+
+	/**
+	 * @return items of the partition, -1 if unknown.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	public void setTotal(long total) {
+		this.total = total;
+	}
+
+	/**
+	 * @return processing time in milliseconds, up to now if the partition is running.
+	 */
+	public long getElapsedMillis() {
+		long started = this.started;
+		if (started == 0) {
+			return 0;
+		}
+		long ended = this.ended;
+		return (ended == 0 ? System.currentTimeMillis() : ended) - started;
+	}
+
+	/**
+	 * @return exception that failed the partition, or null.
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	void start() {
+		started = System.currentTimeMillis();
+		state = RUNNING;
+	}
+
+	void done() {
+		ended = System.currentTimeMillis();
+		state = DONE;
+	}
+
+	void fail(Throwable failure) {
+		ended = System.currentTimeMillis();
+		this.failure = failure;
+		state = FAILED;
+	}
+
+	void skip() {
+		state = SKIPPED;
+	}
+
+	public String toString() {
+		String[] states = { "pending", "running", "done", "failed", "skipped" };
+		return "[" + name + ": " + states[state] + ", processed=" + processed + (total < 0 ? "" : "/" + total)
+				+ ", elapsed=" + getElapsedMillis() + "ms" + (failure == null ? "" : ", failure=" + failure) + "]";
+	}
+
+}
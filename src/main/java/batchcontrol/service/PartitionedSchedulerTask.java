@@ -0,0 +1,194 @@
+package batchcontrol.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+
+/**
+ * A {@link SchedulerTask} whose work is split into partitions, e.g. ranges of customer
+ * ids, that are processed in parallel. Each run calls {@link #partition()} and
+ * processes the partitions on a fork-join pool of {@link #getParallelism()} threads,
+ * so one batch can use several threads instead of one.
+ * <p>
+ * The run is accounted for like any other: the service counts it as one process from
+ * start to end of all partitions, and a stopped task does not run. When the task is
+ * stopped during a run, partitions not started yet are skipped; a running partition
+ * should check {@link #isStopped()} between items. A failed partition does not stop
+ * the others unless {@link #isFailFast()}; the run fails when a partition failed.
+ * Partitions run on pool threads and cannot call {@link #checkpoint(String)}; they
+ * report their progress to their {@link PartitionProgress}.
+ * <p>
+ * The progress of each partition is available from {@link #getPartitionProgress()}
+ * while the run is in progress, and each finished partition is logged.
+ *
+ * @param <P> type of the partition descriptor
+ */
+public abstract class PartitionedSchedulerTask<P> extends SchedulerTask {
+	private static final Logger log = Logger.getLogger(PartitionedSchedulerTask.class);
+
+	private volatile List<PartitionProgress> progress = Collections.emptyList();
+
+	/**
+	 * Returns the partitions of a run. Called once at the start of every run.
+	 *
+	 * @return partitions, processed in parallel.
+	 */
+	protected abstract List<P> partition();
+
+	/**
+	 * Processes one partition. Called by a pool thread, with the same log context as
+	 * {@link #process()}.
+	 *
+	 * @param progress progress of the partition, to report the items processed
+	 * @throws Exception if the partition fails; the other partitions continue.
+	 */
+	protected abstract void processPartition(P partition, PartitionProgress progress) throws Exception;
+
+	/**
+	 * @return name of the partition in the progress and the log.
+	 */
+	protected String getPartitionName(P partition) {
+		return String.valueOf(partition);
+	}
+
+	/**
+	 * Returns the number of partitions processed at once; by default the
+	 * batches_partition_parallelism property of the service.
+	 */
+	protected int getParallelism() {
+		return service.getPartitionParallelism();
+	}
+
+	/**
+	 * @return true to skip the partitions not started yet when a partition fails.
+	 */
+	protected boolean isFailFast() {
+		return false;
+	}
+
+	/**
+	 * @return progress of the partitions of the current run, or of the last run if no
+	 *         run is in progress.
+	 */
+	public List<PartitionProgress> getPartitionProgress() {
+		return progress;
+	}
+
+	protected final void process() {
+		final List<P> partitions = partition();
+		List<PartitionProgress> progress = new ArrayList<PartitionProgress>(partitions.size());
+		for (int i = 0; i < partitions.size(); i++) {
+			progress.add(new PartitionProgress(i, getPartitionName(partitions.get(i))));
+		}
+		this.progress = Collections.unmodifiableList(progress);
+		if (partitions.isEmpty()) {
+			log.info("Running task " + getName() + ": no partitions.");
+			return;
+		}
+		int parallelism = Math.max(1, Math.min(getParallelism(), partitions.size()));
+		log.info("Running task " + getName() + ": " + partitions.size() + " partitions, parallelism " + parallelism + ".");
+		long start = System.currentTimeMillis();
+		final String name = getName();
+		ForkJoinPool pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName(name + "-partition-" + thread.getPoolIndex());
+				return thread;
+			}
+		}, null, false);
+		Run run = new Run(partitions, progress);
+		try {
+			pool.invoke(run.new PartitionAction(0, partitions.size()));
+		} finally {
+			pool.shutdown();
+		}
+		int done = 0, failed = 0, skipped = 0;
+		Throwable failure = null;
+		for (PartitionProgress partition : progress) {
+			if (partition.getState() == PartitionProgress.DONE) {
+				done++;
+			} else if (partition.getState() == PartitionProgress.FAILED) {
+				failed++;
+				failure = failure == null ? partition.getFailure() : failure;
+			} else {
+				skipped++;
+			}
+		}
+		String summary = "Running task " + getName() + ": partitions done=" + done + ", failed=" + failed + ", skipped="
+				+ skipped + " in " + (System.currentTimeMillis() - start) + " ms.";
+		if (failed > 0) {
+			throw new RuntimeException(summary, failure);
+		}
+		log.info(summary);
+	}
+
+	/**
+	 * State of one run shared by its partition actions.
+	 */
+	private final class Run {
+		final List<P> partitions;
+		final List<PartitionProgress> progress;
+		final AtomicInteger finished = new AtomicInteger();
+		volatile boolean failed;
+
+		Run(List<P> partitions, List<PartitionProgress> progress) {
+			this.partitions = partitions;
+			this.progress = progress;
+		}
+
+		/**
+		 * Splits a range of partitions in halves until each action has one partition.
+		 */
+		final class PartitionAction extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+
+			private final int from;
+			private final int to;
+
+			PartitionAction(int from, int to) {
+				this.from = from;
+				this.to = to;
+			}
+
+			protected void compute() {
+				if (to - from == 1) {
+					processPartition(from);
+				} else {
+					int middle = (from + to) >>> 1;
+					invokeAll(new PartitionAction(from, middle), new PartitionAction(middle, to));
+				}
+			}
+		}
+
+		void processPartition(int index) {
+			PartitionProgress partition = progress.get(index);
+			if (isStopped() || (failed && isFailFast())) {
+				partition.skip();
+				return;
+			}
+			MDC.put(LOGGER_KEY, getName());
+			try {
+				partition.start();
+				PartitionedSchedulerTask.this.processPartition(partitions.get(index), partition);
+				partition.done();
+				log.info("Partition " + partition.getName() + " done (" + finished.incrementAndGet() + " of "
+						+ partitions.size() + "): " + partition);
+			} catch (Throwable e) {
+				failed = true;
+				partition.fail(e);
+				log.error("Partition " + partition.getName() + " failed (" + finished.incrementAndGet() + " of "
+						+ partitions.size() + "): " + e, e);
+			} finally {
+				MDC.remove(LOGGER_KEY);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,287 @@
+package batchcontrol.service;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An immutable sorted map that shares structure with the map it was derived from.
+ * {@link #plus(Comparable, Object)} and {@link #minus(Comparable)} return a new map
+ * and copy only the path from the root to the changed key of a balanced (AVL) tree,
+ * so a change costs O(log n) time and space however large the map is. Reading never
+ * allocates except for iterators.
+ * <p>
+ * Keys are ordered by their natural ordering and must not be null. The sub-map views
+ * are copies.
+ */
+final class PersistentTreeMap<K extends Comparable<K>, V> extends AbstractMap<K, V> implements SortedMap<K, V> {
+	@SuppressWarnings("rawtypes")
+	private static final PersistentTreeMap EMPTY = new PersistentTreeMap(null, 0);
+
+	private final Node<K, V> root;
+	private final int size;
+	private transient Set<Map.Entry<K, V>> entrySet;
+
+	private static final class Node<K, V> implements Map.Entry<K, V> {
+		final K key;
+		final V value;
+		final Node<K, V> left;
+		final Node<K, V> right;
+		final int height;
+
+		Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+			this.key = key;
+			this.value = value;
+			this.left = left;
+			this.right = right;
+			this.height = Math.max(height(left), height(right)) + 1;
+		}
+
+		public K getKey() {
+			return key;
+		}
+
+		public V getValue() {
+			return value;
+		}
+
+		public V setValue(V value) {
+			throw new UnsupportedOperationException();
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return key.equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		public int hashCode() {
+			return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+
+	private PersistentTreeMap(Node<K, V> root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * @return the empty map.
+	 */
+	@SuppressWarnings("unchecked")
+	static <K extends Comparable<K>, V> PersistentTreeMap<K, V> empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * @return map with the key mapped to the value, this map if it already was.
+	 */
+	PersistentTreeMap<K, V> plus(K key, V value) {
+		Node<K, V> node = find(key);
+		if (node != null && node.value == value) {
+			return this;
+		}
+		return new PersistentTreeMap<K, V>(put(root, key, value), node == null ? size + 1 : size);
+	}
+
+	/**
+	 * @return map without the key, this map if it was not mapped.
+	 */
+	PersistentTreeMap<K, V> minus(K key) {
+		if (find(key) == null) {
+			return this;
+		}
+		return new PersistentTreeMap<K, V>(remove(root, key), size - 1);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		Node<K, V> node = key instanceof Comparable ? find((K) key) : null;
+		return node == null ? null : node.value;
+	}
+
+	@SuppressWarnings("unchecked")
+	public boolean containsKey(Object key) {
+		return key instanceof Comparable && find((K) key) != null;
+	}
+
+	public Set<Map.Entry<K, V>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Map.Entry<K, V>>() {
+				public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntryIterator<K, V>(root);
+				}
+
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	public Comparator<? super K> comparator() {
+		return null;
+	}
+
+	public K firstKey() {
+		if (root == null) {
+			throw new NoSuchElementException();
+		}
+		Node<K, V> node = root;
+		while (node.left != null) {
+			node = node.left;
+		}
+		return node.key;
+	}
+
+	public K lastKey() {
+		if (root == null) {
+			throw new NoSuchElementException();
+		}
+		Node<K, V> node = root;
+		while (node.right != null) {
+			node = node.right;
+		}
+		return node.key;
+	}
+
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		return Collections.unmodifiableSortedMap(new TreeMap<K, V>(this).subMap(fromKey, toKey));
+	}
+
+	public SortedMap<K, V> headMap(K toKey) {
+		return Collections.unmodifiableSortedMap(new TreeMap<K, V>(this).headMap(toKey));
+	}
+
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return Collections.unmodifiableSortedMap(new TreeMap<K, V>(this).tailMap(fromKey));
+	}
+
+	private Node<K, V> find(K key) {
+		Node<K, V> node = root;
+		while (node != null) {
+			int c = key.compareTo(node.key);
+			if (c == 0) {
+				return node;
+			}
+			node = c < 0 ? node.left : node.right;
+		}
+		return null;
+	}
+
+	private static int height(Node<?, ?> node) {
+		return node == null ? 0 : node.height;
+	}
+
+	private static <K extends Comparable<K>, V> Node<K, V> put(Node<K, V> node, K key, V value) {
+		if (node == null) {
+			return new Node<K, V>(key, value, null, null);
+		}
+		int c = key.compareTo(node.key);
+		if (c == 0) {
+			return new Node<K, V>(key, value, node.left, node.right);
+		} else if (c < 0) {
+			return balance(node.key, node.value, put(node.left, key, value), node.right);
+		}
+		return balance(node.key, node.value, node.left, put(node.right, key, value));
+	}
+
+	private static <K extends Comparable<K>, V> Node<K, V> remove(Node<K, V> node, K key) {
+		int c = key.compareTo(node.key);
+		if (c < 0) {
+			return balance(node.key, node.value, remove(node.left, key), node.right);
+		} else if (c > 0) {
+			return balance(node.key, node.value, node.left, remove(node.right, key));
+		} else if (node.left == null) {
+			return node.right;
+		} else if (node.right == null) {
+			return node.left;
+		}
+		// replaced by the smallest node of the right subtree
+		Node<K, V> next = node.right;
+		while (next.left != null) {
+			next = next.left;
+		}
+		return balance(next.key, next.value, node.left, remove(node.right, next.key));
+	}
+
+	/**
+	 * @return node with the subtrees, rotated if their heights differ by more than one.
+	 */
+	private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+		int difference = height(left) - height(right);
+		if (difference > 1) {
+			if (height(left.left) >= height(left.right)) {
+				return new Node<K, V>(left.key, left.value, left.left, new Node<K, V>(key, value, left.right, right));
+			}
+			return new Node<K, V>(left.right.key, left.right.value, new Node<K, V>(left.key, left.value, left.left,
+					left.right.left), new Node<K, V>(key, value, left.right.right, right));
+		} else if (difference < -1) {
+			if (height(right.right) >= height(right.left)) {
+				return new Node<K, V>(right.key, right.value, new Node<K, V>(key, value, left, right.left), right.right);
+			}
+			return new Node<K, V>(right.left.key, right.left.value, new Node<K, V>(key, value, left, right.left.left),
+					new Node<K, V>(right.key, right.value, right.left.right, right.right));
+		}
+		return new Node<K, V>(key, value, left, right);
+	}
+
+	/**
+	 * In-order iterator over the nodes.
+	 */
+	private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+		private final Deque<Node<K, V>> path = new ArrayDeque<Node<K, V>>();
+
+		EntryIterator(Node<K, V> root) {
+			descend(root);
+		}
+
+		private void descend(Node<K, V> node) {
+			for (; node != null; node = node.left) {
+				path.push(node);
+			}
+		}
+
+		public boolean hasNext() {
+			return !path.isEmpty();
+		}
+
+		public Map.Entry<K, V> next() {
+			if (path.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			Node<K, V> node = path.pop();
+			descend(node.right);
+			return node;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
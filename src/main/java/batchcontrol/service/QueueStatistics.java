@@ -0,0 +1,75 @@
+package batchcontrol.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the executions of a batch admitted by its {@link ExecutionGroups} and keeps a
+ * histogram of their queue residence time, the time between the fire and the permit,
+ * see {@link LatencyHistogram}.
+ * <p>
+ * Recording is lock-free.
+ */
+public class QueueStatistics {
+	public static final int BUCKETS = LatencyHistogram.BUCKETS;
+
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong overdue = new AtomicLong();
+	private final AtomicLong totalResidence = new AtomicLong();
+	private final AtomicLong maxResidence = new AtomicLong();
+	private final LatencyHistogram residence = new LatencyHistogram();
+
+	/**
+	 * Records an execution admitted after waiting <code>residenceMillis</code>.
+	 *
+	 * @param overdue true if it waited past the deadline of the batch
+	 */
+	void recordAdmitted(long residenceMillis, boolean overdue) {
+		admitted.incrementAndGet();
+		if (overdue) {
+			this.overdue.incrementAndGet();
+		}
+		totalResidence.addAndGet(residenceMillis);
+		long max = maxResidence.get();
+		while (residenceMillis > max && !maxResidence.compareAndSet(max, residenceMillis)) {
+			max = maxResidence.get();
+		}
+		residence.record(residenceMillis);
+	}
+
+	public long getAdmitted() {
+		return admitted.get();
+	}
+
+	/**
+	 * @return number of executions that waited past the deadline of the batch.
+	 */
+	public long getOverdue() {
+		return overdue.get();
+	}
+
+	/**
+	 * @return average queue residence time in milliseconds.
+	 */
+	public long getAverageResidenceMillis() {
+		long admitted = this.admitted.get();
+		return admitted == 0 ? 0 : totalResidence.get() / admitted;
+	}
+
+	public long getMaxResidenceMillis() {
+		return maxResidence.get();
+	}
+
+	/**
+	 * @return copy of the residence time histogram.
+	 */
+	public long[] getResidenceHistogram() {
+		return residence.getCounts();
+	}
+
+	public String toString() {
+		return "[admitted=" + admitted.get() + ", overdue=" + overdue.get() + ", avgResidence="
+				+ getAverageResidenceMillis() + "ms, maxResidence=" + maxResidence.get() + "ms, residence=" + residence
+				+ "]";
+	}
+
+}
@@ -1,11 +1,14 @@
 package batchcontrol.service;
 
 import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.log4j.Logger;
 
+import batchcontrol.service.engine.RunOnceExecutor;
+import batchcontrol.service.engine.SchedulingEngine;
+import batchcontrol.service.engine.TaskExecutor;
+import batchcontrol.service.engine.TimerSchedulingEngine;
 import batchcontrol.service.iterators.SchedulerIterator;
 
 
@@ -16,38 +19,182 @@ import batchcontrol.service.iterators.SchedulerIterator;
  * This class is thread-safe: multiple threads can share a single <code>Scheduler</code> object 
  * without the need for external synchronization.
  * <p>
- * Implementation note: internally <code>Scheduler</code> uses a <code>java.util.Timer</code> 
- * to schedule tasks.
+ * Implementation note: internally <code>Scheduler</code> uses a {@link SchedulingEngine} 
+ * to schedule tasks. The engine can be shared by many schedulers; a scheduler created 
+ * without an engine uses its own <code>java.util.Timer</code>. Executions run on the 
+ * engine threads, or on the threads of a {@link TaskExecutor} if the scheduler has one, 
+ * in which case the engine threads only do timing. Either way the task is rescheduled 
+ * when its execution ends, so executions of a task do not overlap.
  */
 public class Scheduler {
 	private static final Logger log = Logger.getLogger(Scheduler.class);
 
-	class SchedulerTimerTask extends TimerTask {
-		private SchedulerTask schedulerTask;
-		private SchedulerIterator iterator;
+	class SchedulerTimerTask implements Runnable {
+		private final SchedulerTask schedulerTask;
+		private final Schedule schedule;
+		private final long scheduledTime;
+		private final long fireTime;
+		private final int fires;
 
-		public SchedulerTimerTask(SchedulerTask schedulerTask, SchedulerIterator iterator) {
+		public SchedulerTimerTask(SchedulerTask schedulerTask, Schedule schedule) {
 			this.schedulerTask = schedulerTask;
-			this.iterator = iterator;
+			this.schedule = schedule;
+			this.scheduledTime = schedule.scheduledTime;
+			this.fireTime = schedule.fireTime;
+			this.fires = schedule.fires;
 		}
 
 		public void run() {
-			schedulerTask.run();
-			reschedule(schedulerTask, iterator);
+			synchronized(schedulerTask.lock) {
+				if (current != this) {
+					// the schedule was replaced after this execution had been timed out
+					return;
+				}
+				executing = true;
+			}
+			if (taskExecutor == null) {
+				execute();
+				return;
+			}
+			try {
+				taskExecutor.execute(new Runnable() {
+					public void run() {
+						execute();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				if (cancelled) {
+					log.info("Execution of " + schedulerTask + " is dropped: the scheduler is cancelled.");
+					return;
+				}
+				// the task must not stop firing: run it on the engine thread, which reschedules it
+				log.error("Execution of " + schedulerTask + " was rejected by " + taskExecutor 
+						+ ": running it on the engine thread.", e);
+				execute();
+			}
+		}
+
+		private void execute() {
+			statistics.recordExecution(System.currentTimeMillis() - scheduledTime);
+			if (journal != null) {
+				long next = schedule.nextPlanned();
+				journal.recordFire(journaled, fireTime - journalOffset, 
+						next == SchedulerIterator.NO_TIME ? next : next - journalOffset);
+			}
+			schedulerTask.fires = fires;
+			// an execution queued by its execution group is rescheduled when it ends
+			schedulerTask.run(new Runnable() {
+				public void run() {
+					executed(schedulerTask, schedule);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Times of a scheduled task: the iterator, a time read ahead while looking for 
+	 * missed times, and missed times waiting to be caught up. Used by one execution 
+	 * at a time.
+	 */
+	static class Schedule {
+		private final SchedulerIterator iterator;
+		private long ahead;
+		private boolean hasAhead;
+		private long[] catchUp = new long[0];
+		private int catchUpIndex;
+		/** time of the next execution the statistics compare the start with */
+		long scheduledTime;
+		/** latest scheduled time the next execution stands for */
+		long fireTime;
+		/** number of scheduled times the next execution stands for */
+		int fires;
+
+		Schedule(SchedulerIterator iterator) {
+			this.iterator = iterator;
+		}
+
+		long peek() {
+			if (!hasAhead) {
+				ahead = iterator.nextEpochMillis();
+				hasAhead = true;
+			}
+			return ahead;
+		}
+
+		long poll() {
+			long time = peek();
+			hasAhead = false;
+			return time;
+		}
+
+		/**
+		 * @return scheduled time of the execution after the current one, or NO_TIME.
+		 */
+		long nextPlanned() {
+			return catchUpIndex < catchUp.length ? catchUp[catchUpIndex] : peek();
 		}
 	}
 
-	private final Timer timer = new Timer();
+	private final SchedulingEngine engine;
+	private final RunOnceExecutor runOnceExecutor;
+	private final TaskExecutor taskExecutor;
+	private final boolean ownsEngine;
+	private volatile boolean cancelled;
 	protected boolean stopTask;
+	private MisfirePolicy misfirePolicy = MisfirePolicy.DEFAULT;
+	private long misfireThreshold = DEFAULT_MISFIRE_THRESHOLD;
+	private MisfireStatistics statistics = new MisfireStatistics();
+	private FireJournal journal;
+	private SchedulerIterator[] journaled;
+	private long journalOffset;
+	// guarded by the lock of the task: the timed out execution that may run, whether 
+	// it is running, and the schedule that replaces the current one when it ends
+	private SchedulerTimerTask current;
+	private boolean executing;
+	private Schedule replacement;
+
+	/** milliseconds a time may be late before it is missed */
+	public static final long DEFAULT_MISFIRE_THRESHOLD = 60000;
 
+	/**
+	 * Creates a scheduler with its own timer thread.
+	 */
 	public Scheduler() {
+		this(new TimerSchedulingEngine(), null, null, true);
+	}
+
+	/**
+	 * Creates a scheduler that uses the shared engine and runs one-time executions
+	 * on the shared executor.
+	 */
+	public Scheduler(SchedulingEngine engine, RunOnceExecutor runOnceExecutor) {
+		this(engine, runOnceExecutor, null, false);
+	}
+
+	/**
+	 * Creates a scheduler that uses the shared engine for timing only and runs the 
+	 * executions on the task executor.
+	 * 
+	 * @param taskExecutor executor of the scheduled executions, or null to run them on 
+	 *        the engine threads
+	 */
+	public Scheduler(SchedulingEngine engine, RunOnceExecutor runOnceExecutor, TaskExecutor taskExecutor) {
+		this(engine, runOnceExecutor, taskExecutor, false);
+	}
+
+	private Scheduler(SchedulingEngine engine, RunOnceExecutor runOnceExecutor, TaskExecutor taskExecutor, 
+			boolean ownsEngine) {
+		this.engine = engine;
+		this.runOnceExecutor = runOnceExecutor;
+		this.taskExecutor = taskExecutor;
+		this.ownsEngine = ownsEngine;
 	}
 
 	/**
-	 * Terminates this <code>Scheduler</code>, discarding any currently scheduled tasks. 
+	 * Terminates this <code>Scheduler</code>: tasks are no longer rescheduled. 
 	 * Does not interfere with a currently executing task (if it exists). Once a scheduler 
-	 * has been terminated, its execution thread terminates gracefully, and no more tasks 
-	 * may be scheduled on it.
+	 * has been terminated no more tasks may be scheduled on it. If the scheduler owns 
+	 * its engine, the engine is shut down as well.
 	 * <p>
 	 * Note that calling this method from within the run method of a scheduler task that 
 	 * was invoked by this scheduler absolutely guarantees that the ongoing task execution 
@@ -56,9 +203,51 @@ public class Scheduler {
 	 * This method may be called repeatedly; the second and subsequent calls have no effect.
 	 */
 	public void cancel() {
-		timer.cancel();
+		cancelled = true;
+		if (ownsEngine) {
+			engine.shutdown();
+		}
 	}
 	
+	/**
+	 * Sets the policy for times missed while the task was running or the service was down.
+	 * 
+	 * @param misfirePolicy policy
+	 * @param misfireThreshold milliseconds a time may be late before it is missed
+	 */
+	public void setMisfirePolicy(MisfirePolicy misfirePolicy, long misfireThreshold) {
+		this.misfirePolicy = misfirePolicy;
+		this.misfireThreshold = misfireThreshold;
+	}
+
+	public MisfirePolicy getMisfirePolicy() {
+		return misfirePolicy;
+	}
+
+	/**
+	 * Sets the statistics the executions are recorded in, for example to keep them 
+	 * across schedulers of the same batch.
+	 */
+	public void setStatistics(MisfireStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	public MisfireStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Sets the journal the fires of the schedulers are recorded in.
+	 * 
+	 * @param schedulers schedulers the schedule iterator was built from
+	 * @param offset smear offset added to the times of the schedulers
+	 */
+	void setFireJournal(FireJournal journal, SchedulerIterator[] schedulers, long offset) {
+		this.journal = journal;
+		this.journaled = schedulers;
+		this.journalOffset = offset;
+	}
+
 	protected void stopTask() {
 		stopTask = true;
 	}
@@ -66,7 +255,7 @@ public class Scheduler {
 	/**
 	 * Schedules the specified task for execution according to the specified schedule. 
 	 * If times specified by the <code>ScheduleIterator</code> are in the past they are 
-	 * scheduled for immediate execution.
+	 * handled by the misfire policy; by default they are scheduled for immediate execution.
 	 * <p>
 	 * @param schedulerTask task to be scheduled
 	 * @param iterator iterator that describes the schedule
@@ -74,48 +263,211 @@ public class Scheduler {
 	 *         scheduler was cancelled, or scheduler thread terminated.
 	 */
 	public boolean schedule(SchedulerTask schedulerTask, SchedulerIterator iterator) {
-		Date time = iterator.next();
+		Schedule schedule = new Schedule(iterator);
+		long time = nextExecution(schedule);
 		boolean result = true;
-		if (time == null) {
+		if (time == SchedulerIterator.NO_TIME) {
 			schedulerTask.cancel();
 			result = false;
 			log.debug("SCHEDULE: cancelled " + schedulerTask + " - scheduler returned no time.");
 		} else {
 			synchronized(schedulerTask.lock) {
+				if (cancelled) {
+					throw new IllegalStateException("Scheduler cancelled");
+				}
 				if (schedulerTask.state != SchedulerTask.VIRGIN) {
 					throw new IllegalStateException("Task already scheduled or cancelled");
 				}
 				schedulerTask.state = SchedulerTask.SCHEDULED;
-				schedulerTask.timerTask = new SchedulerTimerTask(schedulerTask, iterator);
-				timer.schedule(schedulerTask.timerTask, time);
+				timeout(schedulerTask, schedule, time);
 				log.debug("SCHEDULE: scheduled " + schedulerTask);
 			}
 		}
 		return result;
 	}
+
+	/**
+	 * Replaces the schedule of a task scheduled by this scheduler. An execution in 
+	 * progress is not interrupted and the task is not executed again before it ends: 
+	 * the new schedule takes effect when it ends, so executions of the task do not 
+	 * overlap.
+	 * 
+	 * @param schedulerTask task scheduled with {@link #schedule}
+	 * @param iterator iterator that describes the new schedule
+	 * @return false if the task is cancelled because the new schedule has no time.
+	 * @throws IllegalStateException if the task or the scheduler was cancelled.
+	 */
+	public boolean reschedule(SchedulerTask schedulerTask, SchedulerIterator iterator) {
+		Schedule schedule = new Schedule(iterator);
+		synchronized(schedulerTask.lock) {
+			if (cancelled || schedulerTask.state == SchedulerTask.CANCELLED) {
+				throw new IllegalStateException("Task or scheduler cancelled");
+			}
+			if (executing) {
+				replacement = schedule;
+				log.debug("SCHEDULE: schedule of " + schedulerTask + " is replaced when its execution ends.");
+				return true;
+			}
+			if (schedulerTask.timeout != null) {
+				schedulerTask.timeout.cancel();
+			}
+			current = null;
+			long time = nextExecution(schedule);
+			if (time == SchedulerIterator.NO_TIME) {
+				schedulerTask.state = SchedulerTask.CANCELLED;
+				log.debug("SCHEDULE: cancelled " + schedulerTask + " - scheduler returned no time.");
+				return false;
+			}
+			timeout(schedulerTask, schedule, time);
+			log.debug("SCHEDULE: rescheduled " + schedulerTask);
+			return true;
+		}
+	}
+
+	private void timeout(SchedulerTask schedulerTask, Schedule schedule, long time) {
+		current = new SchedulerTimerTask(schedulerTask, schedule);
+		schedulerTask.timeout = engine.schedule(current, time);
+	}
 	
+	/**
+	 * Schedules the specified task for one-time immediate execution. The task runs on the 
+	 * run-once executor, or on the scheduler engine if the scheduler has no executor.
+	 * 
+	 * @param schedulerTask task to be executed
+	 * @throws java.util.concurrent.RejectedExecutionException if the run-once queue is full.
+	 */
 	public void scheduleOnce(final SchedulerTask schedulerTask) {
-		new Timer().schedule(new TimerTask() {
+		Runnable runnable = new Runnable() {
 			public void run() {
 				schedulerTask.run();
 			}
-		}, new Date());
+		};
+		if (runOnceExecutor != null) {
+			runOnceExecutor.execute(runnable);
+		} else {
+			engine.schedule(runnable, System.currentTimeMillis());
+		}
 	}
 
-	private void reschedule(SchedulerTask schedulerTask, SchedulerIterator iterator) {
-		Date time = iterator.next();
-		if (time == null) {
-			schedulerTask.cancel();
-		} else {
-			synchronized(schedulerTask.lock) {
-				if (schedulerTask.state != SchedulerTask.CANCELLED) {
-					schedulerTask.timerTask = new SchedulerTimerTask(schedulerTask, iterator);
-					timer.schedule(schedulerTask.timerTask, time);
-					log.debug("Rescheduled " + schedulerTask);
-				}
+	/**
+	 * Schedules the next execution when an execution ended, with the replacement 
+	 * schedule if the schedule was replaced meanwhile.
+	 */
+	private void executed(SchedulerTask schedulerTask, Schedule schedule) {
+		synchronized(schedulerTask.lock) {
+			executing = false;
+			current = null;
+			if (replacement != null) {
+				schedule = replacement;
+				replacement = null;
+			}
+			if (cancelled || schedulerTask.state == SchedulerTask.CANCELLED) {
+				return;
+			}
+			long time = nextExecution(schedule);
+			if (time == SchedulerIterator.NO_TIME) {
+				schedulerTask.state = SchedulerTask.CANCELLED;
+				log.debug("Cancelled " + schedulerTask + " - scheduler returned no time.");
+			} else {
+				timeout(schedulerTask, schedule, time);
+				log.debug("Rescheduled " + schedulerTask);
 			}
 		}
 	}
 
-}
+	/**
+	 * Takes the next execution time from the schedule, applying the misfire policy to 
+	 * times older than the misfire threshold. Sets the scheduled time and the number of 
+	 * fires of the execution in the schedule.
+	 * 
+	 * @return time to run the execution at, or NO_TIME if the schedule has no more times.
+	 */
+	private long nextExecution(Schedule schedule) {
+		schedule.fires = 1;
+		if (schedule.catchUpIndex < schedule.catchUp.length) {
+			schedule.scheduledTime = schedule.catchUp[schedule.catchUpIndex++];
+			schedule.fireTime = schedule.scheduledTime;
+			return schedule.scheduledTime;
+		}
+		long time = schedule.poll();
+		long now = System.currentTimeMillis();
+		schedule.fireTime = time;
+		if (time == SchedulerIterator.NO_TIME || time + misfireThreshold >= now) {
+			schedule.scheduledTime = time;
+			return time;
+		}
+		if (misfirePolicy.getType() == MisfirePolicy.CATCH_UP_ALL) {
+			statistics.recordMissed(1, 0);
+			schedule.scheduledTime = time;
+			return time;
+		}
+
+		// collect all missed times; the latest ones are kept for catch_up:N
+		int limit = Math.max(misfirePolicy.getType() == MisfirePolicy.CATCH_UP ? misfirePolicy.getLimit() : 1, 1);
+		long[] latest = new long[limit];
+		int missed = 0;
+		long first = time;
+		while (true) {
+			latest[missed % latest.length] = time;
+			missed++;
+			long next = schedule.peek();
+			if (next == SchedulerIterator.NO_TIME || next + misfireThreshold >= now) {
+				break;
+			}
+			time = schedule.poll();
+		}
+		log.info("MISFIRE: " + missed + " time(s) missed since " + new Date(first) + ", policy " + misfirePolicy);
 
+		switch (misfirePolicy.getType()) {
+		case MisfirePolicy.SKIP_TO_NEXT:
+			statistics.recordMissed(missed, missed);
+			time = schedule.poll();
+			schedule.scheduledTime = time;
+			schedule.fireTime = time;
+			return time;
+		case MisfirePolicy.CATCH_UP:
+			if (misfirePolicy.getLimit() == 0) {
+				statistics.recordMissed(missed, missed);
+				time = schedule.poll();
+				schedule.scheduledTime = time;
+				schedule.fireTime = time;
+				return time;
+			}
+			int count = Math.min(missed, latest.length);
+			statistics.recordMissed(missed, missed - count);
+			long[] catchUp = new long[count];
+			for (int i = 0; i < count; i++) {
+				catchUp[i] = latest[(missed - count + i) % latest.length];
+			}
+			schedule.catchUp = catchUp;
+			schedule.catchUpIndex = 1;
+			schedule.scheduledTime = catchUp[0];
+			schedule.fireTime = catchUp[0];
+			return catchUp[0];
+		case MisfirePolicy.COALESCE:
+			long next = schedule.poll();
+			if (next == SchedulerIterator.NO_TIME) {
+				// no regular time left to fold the missed times into, run as the latest one
+				statistics.recordMissed(missed, missed - 1);
+				schedule.fires = missed;
+				schedule.scheduledTime = first;
+				schedule.fireTime = time;
+				return time;
+			}
+			// the missed times do not run, the next regular execution stands for them
+			statistics.recordMissed(missed, missed);
+			schedule.fires = missed + 1;
+			schedule.scheduledTime = next;
+			schedule.fireTime = next;
+			return next;
+		default:
+			// fire now once
+			statistics.recordMissed(missed, missed - 1);
+			schedule.fires = missed;
+			schedule.scheduledTime = first;
+			schedule.fireTime = time;
+			return now;
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package batchcontrol.service;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import batchcontrol.service.calendar.BusinessCalendar;
+import batchcontrol.service.calendar.BusinessCalendars;
+import batchcontrol.service.iterators.CronExpression;
+import batchcontrol.service.iterators.CronIterator;
+import batchcontrol.service.iterators.DailyIterator;
+import batchcontrol.service.iterators.FirstBusinessDayOfMonthIterator;
+import batchcontrol.service.iterators.HourlyIterator;
+import batchcontrol.service.iterators.LastBusinessDayOfMonthIterator;
+import batchcontrol.service.iterators.MinuteIterator;
+import batchcontrol.service.iterators.MonthlyIterator;
+import batchcontrol.service.iterators.NthBusinessDayOfMonthIterator;
+import batchcontrol.service.iterators.RestrictedDailyIterator;
+import batchcontrol.service.iterators.SchedulerIterator;
+
+/**
+ * Creates {@link SchedulerIterator}s from the columns of a schedulers table row.
+ */
+final class SchedulerIteratorFactory {
+
+	private SchedulerIteratorFactory() {
+	}
+
+	/**
+	 * @param type scheduler type, see the <code>*_TYPE</code> constants of {@link BatchControlImpl}
+	 * @param id scheduler id
+	 * @param days s_days column: days of week of a restricted daily schedule, day of month
+	 *        of a monthly schedule, n of a n-th business day schedule, the expression
+	 *        of a cron schedule
+	 * @param zone zone in which the times of the schedule are interpreted
+	 * @param calendar name of the business calendar of a business day schedule, null for 
+	 *        the default calendar
+	 * @param start the first time returned is not before this date
+	 * @return iterator.
+	 * @throws IllegalArgumentException if the type or calendar is unknown or days are malformed.
+	 */
+	static SchedulerIterator create(String type, int id, int hour, int minute, int second, String days, TimeZone zone, 
+			String calendar, Date start) {
+		days = (days == null ? "" : days.trim());
+		if (type.equals(BatchControlImpl.DAILY_TYPE)) {
+			return new DailyIterator(hour, minute, second, start, zone, id);
+		} else if (type.equals(BatchControlImpl.HOURLY_TYPE)) {
+			return new HourlyIterator(minute, second, start, zone, id);
+		} else if (type.equals(BatchControlImpl.RESTRICTED_DAILY_TYPE)) {
+			return new RestrictedDailyIterator(hour, minute, second, parseDays(days), start, zone, id);
+		} else if (type.equals(BatchControlImpl.MINUTE_TYPE)) {
+			return new MinuteIterator(second, start, zone, id);
+		} else if (type.equals(BatchControlImpl.MONTHLY_TYPE)) {
+			return new MonthlyIterator(Integer.parseInt(days), hour, minute, second, start, zone, id);
+		} else if (type.equals(BatchControlImpl.FIRST_BUSINESS_DAY_OF_MONTH_TYPE)) {
+			return new FirstBusinessDayOfMonthIterator(hour, minute, second, start, calendar(calendar), zone, id);
+		} else if (type.equals(BatchControlImpl.NTH_BUSINESS_DAY_OF_MONTH_TYPE)) {
+			return new NthBusinessDayOfMonthIterator(Integer.parseInt(days), hour, minute, second, start, 
+					calendar(calendar), zone, id);
+		} else if (type.equals(BatchControlImpl.LAST_BUSINESS_DAY_OF_MONTH_TYPE)) {
+			return new LastBusinessDayOfMonthIterator(hour, minute, second, start, calendar(calendar), zone, id);
+		} else if (type.equals(BatchControlImpl.CRON_TYPE)) {
+			return new CronIterator(new CronExpression(days), start, zone, id);
+		}
+		throw new IllegalArgumentException("Unknown scheduler type: " + type);
+	}
+
+	/**
+	 * @return the registered calendar with the name, the default calendar if no name is given.
+	 * @throws IllegalArgumentException if no calendar is registered with the name.
+	 */
+	private static BusinessCalendar calendar(String name) {
+		if (name == null || name.trim().length() == 0) {
+			return BusinessCalendars.getDefault();
+		}
+		BusinessCalendar calendar = BusinessCalendars.get(name.trim());
+		if (calendar == null) {
+			throw new IllegalArgumentException("Unknown business calendar: " + name);
+		}
+		return calendar;
+	}
+
+	/**
+	 * @return digits of the days, e.g. days of week of a restricted daily schedule.
+	 */
+	private static int[] parseDays(String days) {
+		int[] result = new int[days.length()];
+		for (int i = 0; i < days.length(); i++) {
+			result[i] = Integer.parseInt(String.valueOf(days.charAt(i)));
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,78 @@
+package batchcontrol.service;
+
+import batchcontrol.service.iterators.SchedulerIterator;
+
+/**
+ * Immutable description of a batch scheduler at the time of a {@link BatchControlSnapshot}.
+ */
+public final class SchedulerSnapshot {
+	private final int id;
+	private final String type;
+	private final int hour;
+	private final int minute;
+	private final int second;
+	private final String days;
+	private final String state;
+	private final String zone;
+	private final String calendar;
+
+	SchedulerSnapshot(SchedulerIterator iterator) {
+		this.id = iterator.getId();
+		this.type = iterator.getType();
+		this.hour = iterator.getHour();
+		this.minute = iterator.getMinute();
+		this.second = iterator.getSecond();
+		this.days = iterator.getDays();
+		this.state = iterator.getState();
+		this.zone = iterator.getZone().getID();
+		this.calendar = iterator.getCalendar() == null ? null : iterator.getCalendar().getName();
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public int getHour() {
+		return hour;
+	}
+
+	public int getMinute() {
+		return minute;
+	}
+
+	public int getSecond() {
+		return second;
+	}
+
+	public String getDays() {
+		return days;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * @return id of the zone in which the times of the schedule are interpreted.
+	 */
+	public String getZone() {
+		return zone;
+	}
+
+	/**
+	 * @return name of the business calendar of a business day schedule, otherwise null.
+	 */
+	public String getCalendar() {
+		return calendar;
+	}
+
+	public String toString() {
+		return "[" + type + ": id=" + id + ", h=" + hour + ", m=" + minute + ", s=" + second + ", days=" + days + ", zone=" + zone
+				+ (calendar == null ? "" : ", calendar=" + calendar) + "]";
+	}
+
+}
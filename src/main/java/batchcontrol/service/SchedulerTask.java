@@ -1,10 +1,10 @@
 package batchcontrol.service;
 
-import java.util.TimerTask;
-
 import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
 
+import batchcontrol.service.engine.ScheduledTimeout;
+
 /**
  * A task that can be scheduled for recurring execution by a {@link Scheduler}.
  */
@@ -22,7 +22,7 @@ public abstract class SchedulerTask implements Runnable {
 	public final static String LOGGER_KEY = "ApplicationName";
 
 	// If true, run() method will exit.
-	private boolean stop;
+	private volatile boolean stop;
 
 	protected BatchControlImpl service;
 
@@ -30,7 +30,22 @@ public abstract class SchedulerTask implements Runnable {
 		this.service = service;
 	}
 
-	TimerTask timerTask;
+	ScheduledTimeout timeout;
+	volatile int fires = 1;
+
+	// checkpoint of the interrupted run the current run resumes from, or null
+	private String checkpoint;
+	// store and write interval of the checkpoints of the current run
+	private CheckpointStore checkpointStore;
+	private long checkpointInterval;
+	// latest cursor of the current run, and the one written to the checkpoint store
+	private String cursor;
+	private String savedCursor;
+	private long savedTime;
+	// thread running process(), the only one that may record checkpoints
+	private volatile Thread runThread;
+	// true if the current run was told to return early by checkpoint() or isStopped()
+	private volatile boolean cutShort;
 
 	/**
 	 * Creates a new scheduler task.
@@ -39,9 +54,21 @@ public abstract class SchedulerTask implements Runnable {
 	}
 
 	public void run() {
+		run(null);
+	}
+
+	/**
+	 * Runs an execution of the task once its execution group admits it. An execution 
+	 * that has to wait for a permit does not hold the calling thread: it is queued and 
+	 * continued on the executor of the {@link ExecutionGroups} when a permit is free.
+	 * 
+	 * @param done run when the execution ended, was rejected or was stopped, on the 
+	 *        thread that ended it; or null
+	 */
+	void run(final Runnable done) {
+		final String className = this.getClass().getName();
 		// active flag can be changed directly in database after the batch has started
 		try {
-			String className = this.getClass().getName();
 			if(service.getActive(className) == 0) {
 				log.info("Batch " + className + " is not active: stopping...");
 				service.stopBatch(className);
@@ -52,23 +79,89 @@ public abstract class SchedulerTask implements Runnable {
 		
 		if(stop) {
 			log.info("Running task " + getName() + ": task stopped.");
+			done(done);
 			return;
 		}
-		
+
+		final ExecutionGroups groups = service.getExecutionGroups();
+		final DefaultBatch batch = service.getLoadedBatch(className);
+		final ExecutionGroup group = service.getExecutionGroup(batch);
+		int priority = batch == null ? 0 : batch.getPriority();
+		final long deadline = batch == null || batch.getDeadline() <= 0 ? groups.getDefaultDeadline() : batch.getDeadline();
+		final long fired = System.currentTimeMillis();
+		int admission = groups.acquire(group, this, priority, deadline, new ExecutionGroups.Continuation() {
+			public void admitted() {
+				runAdmitted(className, groups, group, batch, fired, deadline, done);
+			}
+
+			public void cancelled() {
+				log.info("Running task " + getName() + ": task stopped while waiting in execution group " 
+						+ group.getName() + ".");
+				done(done);
+			}
+		});
+		if (admission == ExecutionGroups.ADMITTED) {
+			runAdmitted(className, groups, group, batch, fired, deadline, done);
+		} else if (admission == ExecutionGroups.REJECTED) {
+			log.warn("Running task " + getName() + ": REJECTED, queue of execution group " + group.getName() 
+					+ " is full: " + group);
+			done(done);
+		} else {
+			log.debug("Running task " + getName() + ": waiting in execution group " + group.getName() + ".");
+		}
+	}
+
+	private void runAdmitted(String className, ExecutionGroups groups, ExecutionGroup group, DefaultBatch batch, 
+			long fired, long deadline, Runnable done) {
+		try {
+			if (batch != null) {
+				long residence = System.currentTimeMillis() - fired;
+				batch.getQueueStatistics().recordAdmitted(residence, residence > deadline);
+			}
+			try {
+				if (stop) {
+					log.info("Running task " + getName() + ": task stopped.");
+					return;
+				}
+				execute(className);
+			} finally {
+				groups.release(group);
+			}
+		} finally {
+			done(done);
+		}
+	}
+
+	private void done(Runnable done) {
+		if (done != null) {
+			done.run();
+		}
+	}
+
+	private void execute(String className) {
 		// Inform the service that process has started.
-		service.processStarted();
+		service.processStarted(className);
 		MDC.put(LOGGER_KEY, "BATCH_STATUS");
 		log.info("Running task " + getName() + ": started.");
 		MDC.remove(LOGGER_KEY);
+		CheckpointStore store = service.getCheckpointStore();
+		boolean completed = false;
 		try {
 			MDC.put(LOGGER_KEY, getName());
+			loadCheckpoint(store, className);
+			cutShort = false;
+			runThread = Thread.currentThread();
 			state = BUSY;
 			process();
+			// a run that returned because it was stopped has not completed
+			completed = !cutShort;
 		} catch (Throwable e) {
 			log.error("Running task " + getName() + ": " + e, e);
 		} finally {
 			state = IDLE;
-			service.processStopped();
+			runThread = null;
+			endCheckpoint(store, className, completed);
+			service.processStopped(className);
 			MDC.remove(LOGGER_KEY);
 		}
 		MDC.put(LOGGER_KEY, "BATCH_STATUS");
@@ -76,6 +169,102 @@ public abstract class SchedulerTask implements Runnable {
 		MDC.remove(LOGGER_KEY);
 	}
 	
+	private void loadCheckpoint(CheckpointStore store, String className) {
+		checkpoint = null;
+		cursor = null;
+		savedCursor = null;
+		savedTime = System.currentTimeMillis();
+		checkpointStore = store;
+		if (store == null) {
+			return;
+		}
+		checkpointInterval = service.getCheckpointInterval();
+		try {
+			checkpoint = store.load(className);
+			savedCursor = checkpoint;
+			if (checkpoint != null) {
+				log.info("Running task " + getName() + ": resuming from checkpoint " + checkpoint);
+			}
+		} catch (Exception e) {
+			log.error("Running task " + getName() + ": checkpoint not loaded, the run starts from the beginning: " + e, e);
+		}
+	}
+
+	/**
+	 * Clears the checkpoint of a completed run; a stopped or failed run keeps its 
+	 * latest cursor for the next run.
+	 */
+	private void endCheckpoint(CheckpointStore store, String className, boolean completed) {
+		if (store == null) {
+			return;
+		}
+		try {
+			if (completed) {
+				if (savedCursor != null) {
+					store.clear(className);
+				}
+			} else if (cursor != null && !cursor.equals(savedCursor)) {
+				store.save(className, cursor);
+				log.info("Running task " + getName() + ": interrupted at checkpoint " + cursor);
+			}
+		} catch (Exception e) {
+			log.error("Running task " + getName() + ": error writing checkpoint: " + e, e);
+		}
+	}
+
+	/**
+	 * Returns the cursor the previous run of the batch recorded before it was stopped, 
+	 * failed or was killed, so that {@link #process()} resumes after it instead of 
+	 * starting over.
+	 * 
+	 * @return cursor recorded with {@link #checkpoint(String)}, or null if the previous 
+	 *         run completed or no checkpoint store is configured.
+	 */
+	protected String getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * Records the progress of the run as an opaque cursor, e.g. the last processed id. 
+	 * The cursor is written to the checkpoint store of the service at most every 
+	 * batches_checkpoint_interval milliseconds, and when the run ends without 
+	 * completing. The run has completed, and the checkpoint is cleared, when 
+	 * {@link #process()} returns normally without having been told to stop, i.e. 
+	 * neither this method returned false nor {@link #isStopped()} returned true.
+	 * <p>
+	 * Must be called by the thread running {@link #process()}, after the work up to 
+	 * the cursor is committed; the partitions of a {@link PartitionedSchedulerTask} 
+	 * run on other threads and cannot record checkpoints. A long run should call it 
+	 * between units of work and return when it returns false, so that stopping the 
+	 * batch or the service does not wait for the whole run.
+	 * 
+	 * @return false if the task was stopped and {@link #process()} should return.
+	 * @throws IllegalStateException if not called by the thread running {@link #process()}.
+	 */
+	protected boolean checkpoint(String cursor) {
+		if (Thread.currentThread() != runThread) {
+			throw new IllegalStateException("Running task " + getName() 
+					+ ": checkpoint() must be called by the thread running process()");
+		}
+		this.cursor = cursor;
+		CheckpointStore store = checkpointStore;
+		long now = System.currentTimeMillis();
+		if (store != null && !stop && now - savedTime >= checkpointInterval) {
+			try {
+				store.save(this.getClass().getName(), cursor);
+				savedCursor = cursor;
+			} catch (Exception e) {
+				log.error("Running task " + getName() + ": error writing checkpoint: " + e, e);
+			}
+			savedTime = now;
+		}
+		if (stop) {
+			cutShort = true;
+			return false;
+		}
+		return true;
+	}
+
 	protected abstract String getName();
 
 	/**
@@ -85,6 +274,23 @@ public abstract class SchedulerTask implements Runnable {
 
 	public void setStop(boolean stop) {
 		this.stop = stop;
+		if (stop && service != null) {
+			// queued executions give up waiting for a permit
+			service.getExecutionGroups().cancel(this);
+		}
+	}
+
+	/**
+	 * @return true if the task was stopped; a long-running {@link #process()} should 
+	 * check it between units of work and return early. The run then does not count 
+	 * as completed.
+	 */
+	protected boolean isStopped() {
+		if (stop) {
+			cutShort = true;
+			return true;
+		}
+		return false;
 	}
 
 	/**
@@ -96,8 +302,8 @@ public abstract class SchedulerTask implements Runnable {
 	 */
 	public boolean cancel() {
 		synchronized(lock) {
-			if (timerTask != null) {
-				timerTask.cancel();
+			if (timeout != null) {
+				timeout.cancel();
 			}
 			boolean result = (state == SCHEDULED);
 			state = CANCELLED;
@@ -117,10 +323,21 @@ public abstract class SchedulerTask implements Runnable {
 	 */
 	public long scheduledExecutionTime() {
 		synchronized(lock) {
-			return timerTask == null ? 0 : timerTask.scheduledExecutionTime();
+			return timeout == null ? 0 : timeout.scheduledExecutionTime();
 		}
 	}
 	
+	/**
+	 * Returns the number of scheduled times the current execution stands for. It is 
+	 * more than 1 when missed times were coalesced into one execution by the 
+	 * {@link MisfirePolicy}.
+	 * 
+	 * @return number of scheduled times, 1 for a regular execution.
+	 */
+	public int getFires() {
+		return fires;
+	}
+
 	public int getState() {
 		return state;
 	}
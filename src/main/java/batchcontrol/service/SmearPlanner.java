@@ -0,0 +1,157 @@
+package batchcontrol.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses smear offsets of batches within their smear windows.
+ * <p>
+ * By default the offset is derived from a hash of the task class name, so it does not
+ * change between restarts and does not depend on other batches. In the load-aware mode
+ * the batches are placed one after another, most frequent first, at the offset where
+ * the forecast of the next day shows the fewest starts in the same second.
+ */
+final class SmearPlanner {
+	private static final long HORIZON = 24 * 60 * 60 * 1000L;
+	private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+	/** candidate offsets in load-aware mode, one per second of the window */
+	private static final int MAX_CANDIDATES = 3600;
+
+	private SmearPlanner() {
+	}
+
+	/**
+	 * @return offset within the window, from 0 inclusive to window exclusive.
+	 */
+	static long hashOffset(String taskClassName, long window) {
+		if (window <= 0) {
+			return 0;
+		}
+		// spread similar names: finalizer of the 32-bit MurmurHash3
+		int h = taskClassName.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return ((h & 0xFFFFFFFFL) * window) >>> 32;
+	}
+
+	/**
+	 * Sets smear offsets of the batches to plan.
+	 *
+	 * @param all all batches; batches not planned keep their offsets, and count as load 
+	 *        if they are scheduled and active
+	 * @param planned batches whose offsets are chosen
+	 * @param loadAware true to place batches away from crowded seconds, false to use
+	 *        the hash offset
+	 */
+	static void plan(Collection<DefaultBatch> all, Collection<DefaultBatch> planned, boolean loadAware) {
+		if (!loadAware) {
+			for (DefaultBatch batch : planned) {
+				batch.setSmearOffset(hashOffset(batch.getTaskClassName(), batch.getSmearWindow()));
+			}
+			return;
+		}
+		Set<DefaultBatch> toPlan = new HashSet<DefaultBatch>(planned);
+		// the planned batches are about to be scheduled; stopped and inactive batches do not run
+		List<DefaultBatch> running = new ArrayList<DefaultBatch>();
+		for (DefaultBatch batch : all) {
+			if (batch.getActive() == 1 && (batch.getStatus() == 1 || toPlan.contains(batch))) {
+				running.add(batch);
+			} else if (toPlan.contains(batch)) {
+				batch.setSmearOffset(hashOffset(batch.getTaskClassName(), batch.getSmearWindow()));
+			}
+		}
+		Map<String, int[]> seconds = forecastSeconds(running);
+		int[] load = new int[SECONDS_PER_DAY];
+		List<DefaultBatch> ordered = new ArrayList<DefaultBatch>();
+		for (DefaultBatch batch : running) {
+			if (toPlan.contains(batch) && batch.getSmearWindow() >= 1000) {
+				ordered.add(batch);
+			} else {
+				if (toPlan.contains(batch)) {
+					batch.setSmearOffset(hashOffset(batch.getTaskClassName(), batch.getSmearWindow()));
+				}
+				add(load, seconds.get(batch.getTaskClassName()), (int) (batch.getSmearOffset() / 1000));
+			}
+		}
+		final Map<String, int[]> fires = seconds;
+		Collections.sort(ordered, new Comparator<DefaultBatch>() {
+			public int compare(DefaultBatch a, DefaultBatch b) {
+				int countA = fires.get(a.getTaskClassName()).length;
+				int countB = fires.get(b.getTaskClassName()).length;
+				if (countA != countB) {
+					return countB - countA;
+				}
+				return a.getTaskClassName().compareTo(b.getTaskClassName());
+			}
+		});
+		for (DefaultBatch batch : ordered) {
+			int[] times = fires.get(batch.getTaskClassName());
+			int candidates = (int) Math.min(batch.getSmearWindow() / 1000, MAX_CANDIDATES);
+			// start the search at the hash offset, so that ties are spread as well
+			int first = (int) (hashOffset(batch.getTaskClassName(), batch.getSmearWindow()) / 1000) % candidates;
+			int best = first;
+			long bestCost = Long.MAX_VALUE;
+			for (int i = 0; i < candidates && bestCost > 0; i++) {
+				int offset = (first + i) % candidates;
+				long cost = 0;
+				for (int j = 0; j < times.length && cost < bestCost; j++) {
+					cost += load[(times[j] + offset) % SECONDS_PER_DAY];
+				}
+				if (cost < bestCost) {
+					bestCost = cost;
+					best = offset;
+				}
+			}
+			batch.setSmearOffset(best * 1000L);
+			add(load, times, best);
+		}
+	}
+
+	private static void add(int[] load, int[] times, int offset) {
+		if (times == null) {
+			return;
+		}
+		for (int i = 0; i < times.length; i++) {
+			load[(times[i] + offset) % SECONDS_PER_DAY]++;
+		}
+	}
+
+	/**
+	 * @return unsmeared fire times of the next day as second of day, mapped to the task class name.
+	 */
+	private static Map<String, int[]> forecastSeconds(Collection<DefaultBatch> batches) {
+		List<BatchSnapshot> snapshots = new ArrayList<BatchSnapshot>();
+		Map<String, List<Integer>> times = new HashMap<String, List<Integer>>();
+		for (DefaultBatch batch : batches) {
+			snapshots.add(new BatchSnapshot(batch));
+			times.put(batch.getTaskClassName(), new ArrayList<Integer>());
+		}
+		long now = System.currentTimeMillis();
+		Forecast forecast = new Forecast(BatchControlSnapshot.of(0, snapshots), now, now + HORIZON, false, false);
+		for (Iterator<Forecast.Fire> i = forecast.iterator(); i.hasNext();) {
+			Forecast.Fire fire = i.next();
+			times.get(fire.getBatch().getTaskClassName()).add(Integer.valueOf((int) ((fire.getTime() / 1000) % SECONDS_PER_DAY)));
+		}
+		Map<String, int[]> seconds = new HashMap<String, int[]>();
+		for (Map.Entry<String, List<Integer>> entry : times.entrySet()) {
+			int[] array = new int[entry.getValue().size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = entry.getValue().get(i).intValue();
+			}
+			seconds.put(entry.getKey(), array);
+		}
+		return seconds;
+	}
+
+}
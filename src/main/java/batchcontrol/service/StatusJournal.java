@@ -0,0 +1,201 @@
+package batchcontrol.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A write-behind journal of batch status and active flag changes. Changes are
+ * coalesced per batch, so only the last value is written, and flushed as JDBC batch
+ * updates in a single transaction.
+ * <p>
+ * Changes are written through immediately unless the journal is deferred with
+ * {@link #defer()} (e.g. while all batches are started or stopped) or a flush
+ * interval is set, in which case they are written by a background thread.
+ */
+class StatusJournal {
+	private static final Logger log = Logger.getLogger(StatusJournal.class);
+
+	private final BatchControlImpl service;
+	private final Map<String, Integer> statuses = new LinkedHashMap<String, Integer>();
+	private final Map<String, Integer> actives = new LinkedHashMap<String, Integer>();
+	private final long flushInterval;
+	private int deferred;
+
+	/**
+	 * @param service service that provides database connections
+	 * @param flushInterval background flush interval in milliseconds, 0 to write changes through
+	 */
+	StatusJournal(BatchControlImpl service, long flushInterval) {
+		this.service = service;
+		this.flushInterval = flushInterval;
+		if (flushInterval > 0) {
+			ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "StatusJournal-flusher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			flusher.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						flush();
+					} catch (Exception e) {
+						// changes are kept and written on next flush
+					}
+				}
+			}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Records batch schedule status.
+	 *
+	 * @param batchName batch short name
+	 * @param status batch schedule status (1 or 0)
+	 * @throws Exception if the change was written through and database error occurred.
+	 */
+	synchronized void recordStatus(String batchName, int status) throws Exception {
+		Integer previous = statuses.put(batchName, Integer.valueOf(status));
+		if (!isDeferred()) {
+			try {
+				flush();
+			} catch (Exception e) {
+				restore(statuses, batchName, previous);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Records batch active flag.
+	 *
+	 * @param batchClassName fully qualified task class name
+	 * @param active active flag: 1 or 0
+	 * @throws Exception if the change was written through and database error occurred.
+	 */
+	synchronized void recordActive(String batchClassName, int active) throws Exception {
+		Integer previous = actives.put(batchClassName, Integer.valueOf(active));
+		if (!isDeferred()) {
+			try {
+				flush();
+			} catch (Exception e) {
+				restore(actives, batchClassName, previous);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Defers writing of changes until the matching {@link #resume()}. Calls can be nested.
+	 */
+	synchronized void defer() {
+		deferred++;
+	}
+
+	/**
+	 * Ends deferral started with {@link #defer()}; the outermost call flushes all changes.
+	 *
+	 * @throws Exception if database error occurs.
+	 */
+	synchronized void resume() throws Exception {
+		if (deferred > 0) {
+			deferred--;
+		}
+		if (deferred == 0) {
+			flush();
+		}
+	}
+
+	/**
+	 * @return active flags recorded but not written yet, mapped to the task class name.
+	 */
+	synchronized Map<String, Integer> getPendingActives() {
+		return new HashMap<String, Integer>(actives);
+	}
+
+	/**
+	 * Writes all recorded changes in a single transaction. If the transaction fails
+	 * the changes are kept for the next flush.
+	 *
+	 * @throws Exception if database error occurs.
+	 */
+	synchronized void flush() throws Exception {
+		if (statuses.isEmpty() && actives.isEmpty()) {
+			return;
+		}
+		Connection con = null;
+		PreparedStatement statusStmt = null;
+		PreparedStatement activeStmt = null;
+		try {
+			con = service.getConnection();
+			con.setAutoCommit(false);
+			if (!statuses.isEmpty()) {
+				statusStmt = con.prepareStatement("update batches set status=? where name=?");
+				for (Map.Entry<String, Integer> entry : statuses.entrySet()) {
+					statusStmt.setInt(1, entry.getValue().intValue());
+					statusStmt.setString(2, entry.getKey());
+					statusStmt.addBatch();
+				}
+				statusStmt.executeBatch();
+			}
+			if (!actives.isEmpty()) {
+				activeStmt = con.prepareStatement("update batches set active=? where classname=?");
+				for (Map.Entry<String, Integer> entry : actives.entrySet()) {
+					activeStmt.setInt(1, entry.getValue().intValue());
+					activeStmt.setString(2, entry.getKey());
+					activeStmt.addBatch();
+				}
+				activeStmt.executeBatch();
+			}
+			con.commit();
+			log.debug("Flushed " + statuses.size() + " status and " + actives.size() + " active change(s).");
+			statuses.clear();
+			actives.clear();
+		} catch (Exception e) {
+			try {
+				if (con != null)
+					con.rollback();
+			} catch (Exception re) {
+				log.error("flush: error rolling back: " + re, re);
+			}
+			log.error("Error updating batch status: " + e, e);
+			throw new Exception("Error updating batch status: " + e);
+		} finally {
+			try {
+				if (statusStmt != null)
+					statusStmt.close();
+				if (activeStmt != null)
+					activeStmt.close();
+				if (con != null) {
+					con.setAutoCommit(true);
+					con.close();
+				}
+			} catch (Exception e) {
+				log.error("flush: error closing database objects: " + e, e);
+			}
+		}
+	}
+
+	private boolean isDeferred() {
+		return deferred > 0 || flushInterval > 0;
+	}
+
+	private void restore(Map<String, Integer> changes, String key, Integer previous) {
+		if (previous == null) {
+			changes.remove(key);
+		} else {
+			changes.put(key, previous);
+		}
+	}
+
+}
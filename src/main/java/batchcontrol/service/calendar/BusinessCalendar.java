@@ -0,0 +1,143 @@
+package batchcontrol.service.calendar;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import batchcontrol.service.iterators.CalendarMath;
+
+/**
+ * A <code>BusinessCalendar</code> tells business days from weekends and holidays.
+ * <p>
+ * Days are epoch days as returned by {@link CalendarMath#epochDay(int, int, int)}.
+ * The business days of each year are precomputed into a {@link BusinessYear} on
+ * first use, so all queries take constant time. Calendars are immutable; holiday
+ * changes are applied by registering a new calendar in {@link BusinessCalendars}.
+ */
+public class BusinessCalendar {
+
+	/** Returned when the requested business day does not exist */
+	public static final long NO_DAY = Long.MIN_VALUE;
+
+	/** Saturday and Sunday */
+	public static final int[] WEEKEND = { Calendar.SATURDAY, Calendar.SUNDAY };
+
+	private final String name;
+	private final int weekendMask;
+	private final long[] holidays;
+	private final ConcurrentMap<Integer, BusinessYear> years = new ConcurrentHashMap<Integer, BusinessYear>();
+
+	/**
+	 * Creates calendar without holidays, Saturday and Sunday are not business days.
+	 */
+	public BusinessCalendar(String name) {
+		this(name, WEEKEND, new long[0]);
+	}
+
+	/**
+	 * @param name calendar name
+	 * @param weekend days of week that are not business days, 1 (Sunday) to 7 (Saturday)
+	 * @param holidays epoch days that are not business days
+	 */
+	public BusinessCalendar(String name, int[] weekend, long[] holidays) {
+		int mask = 0;
+		for (int i = 0; i < weekend.length; i++) {
+			if (weekend[i] < Calendar.SUNDAY || weekend[i] > Calendar.SATURDAY) {
+				throw new IllegalArgumentException("Invalid day of week in weekend of calendar " + name + ": " + weekend[i]);
+			}
+			mask |= 1 << (weekend[i] - 1);
+		}
+		if (mask == 0x7F) {
+			throw new IllegalArgumentException("Calendar " + name + " has no business days.");
+		}
+		this.name = name;
+		this.weekendMask = mask;
+		this.holidays = holidays.clone();
+		Arrays.sort(this.holidays);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return number of holidays of the calendar.
+	 */
+	public int getHolidayCount() {
+		return holidays.length;
+	}
+
+	public boolean isBusinessDay(long epochDay) {
+		int ymd = CalendarMath.yearMonthDay(epochDay);
+		return year(CalendarMath.year(ymd)).isBusinessDay(epochDay);
+	}
+
+	/**
+	 * Returns the n-th business day of the month.
+	 *
+	 * @param month month of year, 1 to 12
+	 * @param n 1 for the first business day, -1 for the last business day
+	 * @return epoch day, or {@link #NO_DAY} if the month has less than |n| business days.
+	 */
+	public long nthBusinessDayOfMonth(int year, int month, int n) {
+		return year(year).nthBusinessDayOfMonth(month, n);
+	}
+
+	/**
+	 * @param month month of year, 1 to 12
+	 * @return number of business days in the month.
+	 */
+	public int getBusinessDays(int year, int month) {
+		return year(year).getBusinessDays(month);
+	}
+
+	/**
+	 * @return the first business day after the epoch day.
+	 */
+	public long nextBusinessDay(long epochDay) {
+		int year = CalendarMath.year(CalendarMath.yearMonthDay(epochDay + 1));
+		long day = year(year).firstBusinessDayFrom(epochDay + 1);
+		while (day == NO_DAY) {
+			// the rest of the year is holidays
+			year++;
+			day = year(year).firstBusinessDayFrom(CalendarMath.epochDay(year, 1, 1));
+		}
+		return day;
+	}
+
+	private BusinessYear year(int year) {
+		Integer key = Integer.valueOf(year);
+		BusinessYear businessYear = years.get(key);
+		if (businessYear == null) {
+			businessYear = new BusinessYear(year, weekendMask, holidays);
+			BusinessYear previous = years.putIfAbsent(key, businessYear);
+			if (previous != null) {
+				businessYear = previous;
+			}
+		}
+		return businessYear;
+	}
+
+	/**
+	 * @return true if the calendar has the same weekend and holidays as the other
+	 *         calendar, whatever their names.
+	 */
+	public boolean sameDays(BusinessCalendar other) {
+		return weekendMask == other.weekendMask && Arrays.equals(holidays, other.holidays);
+	}
+
+	/**
+	 * Returns the name and a hash of the weekend and holidays, which changes when
+	 * holidays are added or removed, e.g. to tell whether a recorded schedule still
+	 * uses the same days.
+	 */
+	public String getSignature() {
+		return name + "#" + Integer.toHexString(31 * weekendMask + Arrays.hashCode(holidays));
+	}
+
+	public String toString() {
+		return "[BusinessCalendar: name=" + name + ", holidays=" + holidays.length + "]";
+	}
+
+}
@@ -0,0 +1,77 @@
+package batchcontrol.service.calendar;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the business calendars known to the service. The calendar named
+ * {@link #DEFAULT} is used by iterators that do not name a calendar; until holidays
+ * are loaded it has only Saturday and Sunday as non-business days.
+ */
+public final class BusinessCalendars {
+
+	public static final String DEFAULT = "default";
+
+	private static final ConcurrentMap<String, BusinessCalendar> calendars = new ConcurrentHashMap<String, BusinessCalendar>();
+
+	static {
+		register(new BusinessCalendar(DEFAULT));
+	}
+
+	private BusinessCalendars() {
+	}
+
+	public static BusinessCalendar getDefault() {
+		return calendars.get(DEFAULT);
+	}
+
+	/**
+	 * @return calendar, or null if no calendar is registered with the name.
+	 */
+	public static BusinessCalendar get(String name) {
+		return calendars.get(name);
+	}
+
+	/**
+	 * Registers the calendar, replacing the calendar with the same name. Iterators
+	 * created before keep using the replaced calendar.
+	 */
+	public static void register(BusinessCalendar calendar) {
+		calendars.put(calendar.getName(), calendar);
+	}
+
+	/**
+	 * Replaces all calendars. If the new calendars have no default calendar the
+	 * default calendar is reset to weekends only.
+	 */
+	public static synchronized void registerAll(Collection<BusinessCalendar> replacement) {
+		Set<String> names = new HashSet<String>();
+		names.add(DEFAULT);
+		for (BusinessCalendar calendar : replacement) {
+			register(calendar);
+			names.add(calendar.getName());
+		}
+		if (!containsDefault(replacement)) {
+			register(new BusinessCalendar(DEFAULT));
+		}
+		calendars.keySet().retainAll(names);
+	}
+
+	private static boolean containsDefault(Collection<BusinessCalendar> calendars) {
+		for (BusinessCalendar calendar : calendars) {
+			if (DEFAULT.equals(calendar.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static Collection<BusinessCalendar> getAll() {
+		return Collections.unmodifiableCollection(calendars.values());
+	}
+
+}
@@ -0,0 +1,102 @@
+package batchcontrol.service.calendar;
+
+import java.util.Arrays;
+
+import batchcontrol.service.iterators.CalendarMath;
+
+/**
+ * Business days of one year.
+ * <p>
+ * Days are kept as a bitset indexed by day of year, with the number of business
+ * days before each 64-bit word, and as the list of business days with the index of
+ * the first business day of each month. Both lookups are constant time.
+ */
+final class BusinessYear {
+	private final long firstDay;
+	private final long[] bits;
+	/** number of business days before each word of bits */
+	private final int[] rank;
+	/** day of year (0 based) of each business day */
+	private final short[] days;
+	/** index in days of the first business day of each month, plus the end index */
+	private final int[] monthIndex = new int[13];
+
+	BusinessYear(int year, int weekendMask, long[] holidays) {
+		firstDay = CalendarMath.epochDay(year, 1, 1);
+		int length = (int) (CalendarMath.epochDay(year + 1, 1, 1) - firstDay);
+		bits = new long[(length + 63) >>> 6];
+		rank = new int[bits.length];
+
+		for (int dayOfYear = 0; dayOfYear < length; dayOfYear++) {
+			int dayOfWeek = CalendarMath.dayOfWeek(firstDay + dayOfYear);
+			if ((weekendMask & (1 << (dayOfWeek - 1))) == 0) {
+				bits[dayOfYear >>> 6] |= 1L << dayOfYear;
+			}
+		}
+		int from = Arrays.binarySearch(holidays, firstDay);
+		from = from < 0 ? -from - 1 : from;
+		for (int i = from; i < holidays.length && holidays[i] < firstDay + length; i++) {
+			int dayOfYear = (int) (holidays[i] - firstDay);
+			bits[dayOfYear >>> 6] &= ~(1L << dayOfYear);
+		}
+
+		int count = 0;
+		for (int i = 0; i < bits.length; i++) {
+			rank[i] = count;
+			count += Long.bitCount(bits[i]);
+		}
+		days = new short[count];
+		int index = 0;
+		int month = 0;
+		long nextMonth = firstDay;
+		for (int dayOfYear = 0; dayOfYear < length; dayOfYear++) {
+			while (month < 12 && firstDay + dayOfYear == nextMonth) {
+				monthIndex[month++] = index;
+				nextMonth = month < 12 ? CalendarMath.epochDay(year, month + 1, 1) : nextMonth;
+			}
+			if (isSet(dayOfYear)) {
+				days[index++] = (short) dayOfYear;
+			}
+		}
+		monthIndex[12] = count;
+	}
+
+	boolean isBusinessDay(long epochDay) {
+		return isSet((int) (epochDay - firstDay));
+	}
+
+	/**
+	 * @param month month of year, 1 to 12
+	 * @param n 1 for the first business day, -1 for the last business day
+	 */
+	long nthBusinessDayOfMonth(int month, int n) {
+		int from = monthIndex[month - 1];
+		int to = monthIndex[month];
+		int index = n > 0 ? from + n - 1 : to + n;
+		if (n == 0 || index < from || index >= to) {
+			return BusinessCalendar.NO_DAY;
+		}
+		return firstDay + days[index];
+	}
+
+	int getBusinessDays(int month) {
+		return monthIndex[month] - monthIndex[month - 1];
+	}
+
+	/**
+	 * @return the first business day on or after the epoch day in this year, or
+	 * {@link BusinessCalendar#NO_DAY}.
+	 */
+	long firstBusinessDayFrom(long epochDay) {
+		int dayOfYear = (int) (epochDay - firstDay);
+		int word = dayOfYear >>> 6;
+		// business days before the day
+		int index = rank[word] + Long.bitCount(bits[word] & ((1L << dayOfYear) - 1));
+		return index < days.length ? firstDay + days[index] : BusinessCalendar.NO_DAY;
+	}
+
+	private boolean isSet(int dayOfYear) {
+		return (bits[dayOfYear >>> 6] & (1L << dayOfYear)) != 0;
+	}
+
+}
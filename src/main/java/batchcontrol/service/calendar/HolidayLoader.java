@@ -0,0 +1,131 @@
+package batchcontrol.service.calendar;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import batchcontrol.service.iterators.CalendarMath;
+
+/**
+ * Collects holidays from files and database and builds {@link BusinessCalendar}s
+ * from them.
+ * <p>
+ * A holiday file has one holiday per line: the date as <code>yyyy-MM-dd</code>,
+ * optionally followed by the calendar name; the {@link BusinessCalendars#DEFAULT}
+ * calendar is used when the name is omitted. Empty lines and lines starting with
+ * <code>#</code> are ignored.
+ * <p>
+ * The holiday table has the columns <code>calendar</code> (may be null for the
+ * default calendar) and <code>holiday_date</code>.
+ */
+public class HolidayLoader {
+	public static final String HOLIDAY_TABLE = "holidays";
+
+	private final Map<String, List<Long>> holidays = new TreeMap<String, List<Long>>();
+
+	/**
+	 * Reads holidays from the file.
+	 *
+	 * @throws IOException if the file could not be read or has a malformed line.
+	 */
+	public void readFile(String path) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				try {
+					add(fields.length > 1 ? fields[1] : null, parseDate(fields[0]));
+				} catch (IllegalArgumentException e) {
+					throw new IOException("Invalid holiday at " + path + ":" + lineNumber + ": " + e.getMessage());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads holidays from the holiday table.
+	 */
+	public void readTable(Connection con) throws SQLException {
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = con.createStatement();
+			rs = stmt.executeQuery("select calendar, holiday_date from " + HOLIDAY_TABLE);
+			Calendar calendar = Calendar.getInstance();
+			while (rs.next()) {
+				calendar.setTime(rs.getDate("holiday_date"));
+				add(rs.getString("calendar"), CalendarMath.epochDay(calendar.get(Calendar.YEAR),
+						calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH)));
+			}
+		} finally {
+			if (rs != null)
+				rs.close();
+			if (stmt != null)
+				stmt.close();
+		}
+	}
+
+	/**
+	 * @param calendarName calendar name, or null for the default calendar
+	 * @param epochDay holiday
+	 */
+	public void add(String calendarName, long epochDay) {
+		String name = calendarName == null || calendarName.trim().length() == 0 ? BusinessCalendars.DEFAULT
+				: calendarName.trim();
+		List<Long> days = holidays.get(name);
+		if (days == null) {
+			days = new ArrayList<Long>();
+			holidays.put(name, days);
+		}
+		days.add(Long.valueOf(epochDay));
+	}
+
+	/**
+	 * @return calendars with the holidays read so far.
+	 */
+	public List<BusinessCalendar> getCalendars() {
+		List<BusinessCalendar> calendars = new ArrayList<BusinessCalendar>();
+		for (Map.Entry<String, List<Long>> entry : holidays.entrySet()) {
+			List<Long> days = entry.getValue();
+			long[] epochDays = new long[days.size()];
+			for (int i = 0; i < epochDays.length; i++) {
+				epochDays[i] = days.get(i).longValue();
+			}
+			calendars.add(new BusinessCalendar(entry.getKey(), BusinessCalendar.WEEKEND, epochDays));
+		}
+		return calendars;
+	}
+
+	private static long parseDate(String date) {
+		String[] fields = date.split("-");
+		if (fields.length != 3) {
+			throw new IllegalArgumentException("date must be yyyy-MM-dd: " + date);
+		}
+		int year = Integer.parseInt(fields[0]);
+		int month = Integer.parseInt(fields[1]);
+		int day = Integer.parseInt(fields[2]);
+		if (month < 1 || month > 12 || day < 1 || day > CalendarMath.lengthOfMonth(year, month)) {
+			throw new IllegalArgumentException("invalid date: " + date);
+		}
+		return CalendarMath.epochDay(year, month, day);
+	}
+
+}
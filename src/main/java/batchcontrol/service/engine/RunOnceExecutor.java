@@ -0,0 +1,103 @@
+package batchcontrol.service.engine;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A bounded, reusable executor for one-time task executions. At most 
+ * <code>threads</code> tasks run at once and at most <code>queueSize</code> 
+ * tasks wait; further submissions are rejected.
+ */
+public class RunOnceExecutor {
+	private static final Logger log = Logger.getLogger(RunOnceExecutor.class);
+
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	public RunOnceExecutor(int threads, int queueSize) {
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+					private final AtomicInteger threadCount = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						return new Thread(r, "RunOnceExecutor-" + threadCount.incrementAndGet());
+					}
+				}, new RejectedExecutionHandler() {
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						if (executor.isShutdown()) {
+							throw new RejectedExecutionException("Run-once executor was shut down.");
+						}
+						rejectedCount.incrementAndGet();
+						throw new RejectedExecutionException("Run-once queue is full: " + executor.getQueue().size()
+								+ " task(s) waiting.");
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Submits the task for immediate execution.
+	 * 
+	 * @throws RejectedExecutionException if the queue is full or the executor was shut down.
+	 */
+	public void execute(final Runnable task) {
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} catch (Throwable e) {
+					log.error("Task " + task + " failed: " + e, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops accepting tasks. Tasks already submitted are allowed to finish.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * @return number of tasks waiting for a thread.
+	 */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * @return number of tasks currently running.
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return number of tasks rejected because the queue was full.
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * @return number of completed tasks.
+	 */
+	public long getCompletedCount() {
+		return executor.getCompletedTaskCount();
+	}
+
+	public String toString() {
+		return "[RunOnceExecutor: active=" + getActiveCount() + ", queued=" + getQueueDepth() + ", completed="
+				+ getCompletedCount() + ", rejected=" + getRejectedCount() + "]";
+	}
+
+}
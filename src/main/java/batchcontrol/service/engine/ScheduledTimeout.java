@@ -0,0 +1,21 @@
+package batchcontrol.service.engine;
+
+/**
+ * A handle of a single task execution scheduled with a {@link SchedulingEngine}.
+ */
+public interface ScheduledTimeout {
+
+	/**
+	 * Cancels the execution. Does not interfere with the execution if it has already started.
+	 * 
+	 * @return true if the execution was prevented by this call
+	 */
+	public boolean cancel();
+
+	/**
+	 * @return the time the execution is scheduled for, in the format returned by 
+	 * <code>Date.getTime()</code>.
+	 */
+	public long scheduledExecutionTime();
+
+}
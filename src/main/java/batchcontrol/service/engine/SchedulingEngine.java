@@ -0,0 +1,28 @@
+package batchcontrol.service.engine;
+
+/**
+ * A <code>SchedulingEngine</code> runs tasks at a given wall-clock time. 
+ * A single engine can be shared by any number of {@link batchcontrol.service.Scheduler}s.
+ */
+public interface SchedulingEngine {
+
+	/**
+	 * Schedules the task for execution at the specified time. If the time is in 
+	 * the past the task is scheduled for immediate execution.
+	 * 
+	 * @param task task to be executed
+	 * @param time execution time in the format returned by <code>Date.getTime()</code>
+	 * @return handle that can be used to cancel the execution
+	 * @throws IllegalStateException if the engine was shut down.
+	 */
+	public ScheduledTimeout schedule(Runnable task, long time);
+
+	/**
+	 * Discards all scheduled tasks and releases the engine threads. Does not 
+	 * interfere with currently executing tasks.
+	 * <p>
+	 * This method may be called repeatedly; the second and subsequent calls have no effect.
+	 */
+	public void shutdown();
+
+}
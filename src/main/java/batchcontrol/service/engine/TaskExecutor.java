@@ -0,0 +1,216 @@
+package batchcontrol.service.engine;
+
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+
+/**
+ * Runs task executions off the threads of the {@link SchedulingEngine}, so that the
+ * engine threads only do timing. Each execution gets a virtual thread of its own when
+ * the runtime has them (Java 21 or later), so thousands of executions blocked on I/O do
+ * not need an operating system thread each. Older runtimes fall back to a pool with a
+ * bounded number of platform threads; further executions wait in its queue.
+ * <p>
+ * The log4j MDC of the submitting thread is copied to the execution and cleared when
+ * the execution ends, so no context leaks between executions sharing a thread.
+ * <p>
+ * Pinning diagnostics: the JDK prints the stack of a virtual thread that blocks while
+ * pinned to its carrier thread (inside a <code>synchronized</code> block or a native
+ * frame) if the JVM is started with <code>-Djdk.tracePinnedThreads=short</code> or
+ * <code>full</code>. The flag is read once by the JDK and applies to the whole JVM, so
+ * it is not set here. Independently, executions that run longer than the slow-run
+ * threshold are logged once with their current stack, which shows where a blocked
+ * execution waits.
+ */
+public class TaskExecutor {
+	private static final Logger log = Logger.getLogger(TaskExecutor.class);
+
+	private static final AtomicInteger executorCount = new AtomicInteger();
+
+	private final ExecutorService executor;
+	private final boolean virtual;
+	private final long slowRunMillis;
+	private final ScheduledExecutorService watchdog;
+	private final Map<Thread, Execution> running = new ConcurrentHashMap<Thread, Execution>();
+	private final AtomicLong executed = new AtomicLong();
+	private final AtomicLong slowRuns = new AtomicLong();
+
+	/**
+	 * An execution in progress.
+	 */
+	private static final class Execution {
+		final long start = System.currentTimeMillis();
+		volatile boolean reported;
+	}
+
+	/**
+	 * @param slowRunMillis executions running longer are logged with their stack, 0 to disable
+	 * @param platformThreads executions running at once without virtual threads
+	 */
+	public TaskExecutor(long slowRunMillis, int platformThreads) {
+		if (platformThreads < 1) {
+			throw new IllegalArgumentException("Task executor needs at least one platform thread: " + platformThreads);
+		}
+		final int executorId = executorCount.incrementAndGet();
+		ExecutorService virtualExecutor = newVirtualThreadExecutor("TaskExecutor-" + executorId + "-");
+		this.virtual = virtualExecutor != null;
+		if (virtual) {
+			this.executor = virtualExecutor;
+		} else {
+			log.warn("Virtual threads are not available in Java " + System.getProperty("java.version")
+					+ ": task executions run on a pool of " + platformThreads + " platform threads.");
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(platformThreads, platformThreads, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						private final AtomicInteger threadCount = new AtomicInteger();
+
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "TaskExecutor-" + executorId + "-" + threadCount.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			pool.allowCoreThreadTimeOut(true);
+			this.executor = pool;
+		}
+		this.slowRunMillis = slowRunMillis;
+		if (slowRunMillis > 0) {
+			watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TaskExecutor-" + executorId + "-watchdog");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			long period = Math.max(slowRunMillis / 2, 100);
+			watchdog.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					reportSlowRuns();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		} else {
+			watchdog = null;
+		}
+	}
+
+	/**
+	 * @return executor that starts a named virtual thread per task, or null if the
+	 *         runtime has no virtual threads.
+	 */
+	private static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+		try {
+			// Thread.ofVirtual().name(prefix, 1).factory(), compiled against older runtimes
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, Long.valueOf(1));
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Runs the task on a thread of its own, or, without virtual threads, on a pool
+	 * thread as soon as one is free.
+	 *
+	 * @throws java.util.concurrent.RejectedExecutionException if the executor was shut down.
+	 */
+	@SuppressWarnings("unchecked")
+	public void execute(final Runnable task) {
+		Hashtable<String, Object> context = MDC.getContext();
+		final Hashtable<String, Object> mdc = context == null ? null : new Hashtable<String, Object>(context);
+		executor.execute(new Runnable() {
+			public void run() {
+				Thread thread = Thread.currentThread();
+				MDC.clear();
+				if (mdc != null) {
+					for (Map.Entry<String, Object> entry : mdc.entrySet()) {
+						MDC.put(entry.getKey(), entry.getValue());
+					}
+				}
+				running.put(thread, new Execution());
+				try {
+					task.run();
+				} finally {
+					running.remove(thread);
+					executed.incrementAndGet();
+					MDC.clear();
+				}
+			}
+		});
+	}
+
+	private void reportSlowRuns() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Map.Entry<Thread, Execution>> i = running.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<Thread, Execution> entry = i.next();
+			Execution execution = entry.getValue();
+			if (!execution.reported && now - execution.start > slowRunMillis) {
+				execution.reported = true;
+				slowRuns.incrementAndGet();
+				Thread thread = entry.getKey();
+				StringBuilder stack = new StringBuilder();
+				for (StackTraceElement element : thread.getStackTrace()) {
+					stack.append("\n\tat ").append(element);
+				}
+				log.warn("SLOW RUN: " + thread.getName() + " running for " + (now - execution.start) + " ms, state "
+						+ thread.getState() + stack);
+			}
+		}
+	}
+
+	/**
+	 * @return true if executions run on virtual threads.
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * @return number of executions in progress.
+	 */
+	public int getRunning() {
+		return running.size();
+	}
+
+	public long getExecutedCount() {
+		return executed.get();
+	}
+
+	/**
+	 * @return number of executions that ran longer than the slow-run threshold.
+	 */
+	public long getSlowRunCount() {
+		return slowRuns.get();
+	}
+
+	/**
+	 * Stops accepting executions. Does not interfere with executions in progress.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		if (watchdog != null) {
+			watchdog.shutdown();
+		}
+	}
+
+	public String toString() {
+		return "[TaskExecutor: " + (virtual ? "virtual" : "platform") + " threads, running=" + running.size()
+				+ ", executed=" + executed.get() + ", slowRuns=" + slowRuns.get() + "]";
+	}
+
+}
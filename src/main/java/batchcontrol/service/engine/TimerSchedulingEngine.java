@@ -0,0 +1,92 @@
+package batchcontrol.service.engine;
+
+import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link SchedulingEngine} backed by a single <code>java.util.Timer</code>.
+ * <p>
+ * By default tasks are executed on the timer thread one after another, which suits
+ * an engine owned by a single scheduler. An engine shared by many schedulers must be
+ * created <code>concurrent</code>: the timer thread then only does timing and each
+ * task runs on a thread of a cached pool, so that a long task does not hold up the
+ * tasks of the other schedulers. The pool grows to the number of tasks running at
+ * once, at most one per scheduler as a scheduler does not overlap its runs.
+ */
+public class TimerSchedulingEngine implements SchedulingEngine {
+	private static final AtomicInteger engineCount = new AtomicInteger();
+
+	private final Timer timer = new Timer();
+	private final ExecutorService executor;
+
+	/**
+	 * Creates an engine that runs the tasks on the timer thread.
+	 */
+	public TimerSchedulingEngine() {
+		this(false);
+	}
+
+	/**
+	 * @param concurrent true to run the tasks on pooled threads, false to run them on
+	 *        the timer thread one after another
+	 */
+	public TimerSchedulingEngine(boolean concurrent) {
+		if (concurrent) {
+			final int engineId = engineCount.incrementAndGet();
+			executor = Executors.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger threadCount = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TimerSchedulingEngine-" + engineId + "-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		} else {
+			executor = null;
+		}
+	}
+
+	public ScheduledTimeout schedule(final Runnable task, long time) {
+		final TimerTask timerTask = new TimerTask() {
+			public void run() {
+				if (executor == null) {
+					task.run();
+					return;
+				}
+				try {
+					executor.execute(task);
+				} catch (RejectedExecutionException e) {
+					// the engine was shut down
+				}
+			}
+		};
+		timer.schedule(timerTask, new Date(time));
+		return new ScheduledTimeout() {
+			public boolean cancel() {
+				return timerTask.cancel();
+			}
+
+			public long scheduledExecutionTime() {
+				return timerTask.scheduledExecutionTime();
+			}
+		};
+	}
+
+	/**
+	 * Stops the timer. Does not interfere with tasks in progress.
+	 */
+	public void shutdown() {
+		timer.cancel();
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,337 @@
+package batchcontrol.service.engine;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A {@link SchedulingEngine} based on a hashed hierarchical timing wheel.
+ * <p>
+ * Scheduled tasks are hashed into the buckets of a wheel of <code>wheelSize</code>
+ * buckets each spanning <code>tickMillis</code>. Tasks that do not fit into the
+ * wheel interval go to an overflow wheel whose tick is the interval of the wheel
+ * below it, and so on. Only non-empty buckets are kept in a delay queue, so the
+ * ticker thread sleeps until the next bucket expires and the cost of scheduling
+ * and cancelling a task is O(1) regardless of the number of scheduled tasks.
+ * <p>
+ * Expired tasks are executed on a fixed pool of worker threads. The number of
+ * threads used by the engine is <code>workerThreads + 1</code> no matter how
+ * many tasks are scheduled.
+ */
+public class TimingWheelEngine implements SchedulingEngine {
+	private static final Logger log = Logger.getLogger(TimingWheelEngine.class);
+
+	private static final AtomicInteger engineCount = new AtomicInteger();
+
+	private final long tickMillis;
+	private final ExecutorService workers;
+	private final DelayQueue<Bucket> delayQueue = new DelayQueue<Bucket>();
+	private final AtomicInteger taskCounter = new AtomicInteger();
+	private final TimingWheel timingWheel;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Thread ticker;
+	private volatile boolean shutdown;
+
+	/**
+	 * @param tickMillis duration of a single bucket of the lowest wheel
+	 * @param wheelSize number of buckets in each wheel
+	 * @param workerThreads number of threads executing expired tasks
+	 */
+	public TimingWheelEngine(long tickMillis, int wheelSize, int workerThreads) {
+		if (tickMillis < 1 || wheelSize < 1 || workerThreads < 1) {
+			throw new IllegalArgumentException("tickMillis, wheelSize and workerThreads must be positive.");
+		}
+		final int engineId = engineCount.incrementAndGet();
+		this.tickMillis = tickMillis;
+		this.timingWheel = new TimingWheel(tickMillis, wheelSize, monotonicMillis());
+		this.workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+			private final AtomicInteger threadCount = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "TimingWheelEngine-" + engineId + "-worker-" + threadCount.incrementAndGet());
+			}
+		});
+		this.ticker = new Thread("TimingWheelEngine-" + engineId + "-ticker") {
+			public void run() {
+				try {
+					while (!shutdown) {
+						advanceClock(200);
+					}
+				} catch (InterruptedException e) {
+					// shutdown
+				}
+			}
+		};
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	public ScheduledTimeout schedule(Runnable task, long time) {
+		if (shutdown) {
+			throw new IllegalStateException("Engine was shut down.");
+		}
+		// round up to the tick so that tasks never run before their time; one more
+		// millisecond as the two clocks are truncated to milliseconds
+		long expiration = monotonicMillis() + time - System.currentTimeMillis() + 1;
+		expiration = ((expiration + tickMillis - 1) / tickMillis) * tickMillis;
+		WheelTimeout timeout = new WheelTimeout(task, time, expiration);
+		lock.readLock().lock();
+		try {
+			addTimeout(timeout);
+		} finally {
+			lock.readLock().unlock();
+		}
+		return timeout;
+	}
+
+	public void shutdown() {
+		shutdown = true;
+		ticker.interrupt();
+		workers.shutdown();
+	}
+
+	/**
+	 * @return number of tasks waiting in the wheel.
+	 */
+	public int size() {
+		return taskCounter.get();
+	}
+
+	private void addTimeout(WheelTimeout timeout) {
+		if (!timingWheel.add(timeout)) {
+			// already expired or cancelled
+			if (!timeout.cancelled) {
+				workers.execute(timeout);
+			}
+		}
+	}
+
+	private void advanceClock(long timeoutMillis) throws InterruptedException {
+		Bucket bucket = delayQueue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+		if (bucket != null) {
+			lock.writeLock().lock();
+			try {
+				while (bucket != null) {
+					timingWheel.advanceClock(bucket.getExpiration());
+					bucket.flush(this);
+					bucket = delayQueue.poll();
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	private static long monotonicMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	/**
+	 * A single wheel of the hierarchy. Not thread-safe: adding is guarded by
+	 * the engine read lock and advancing the clock by the engine write lock.
+	 */
+	private class TimingWheel {
+		private final long tickMillis;
+		private final int wheelSize;
+		private final long interval;
+		private final Bucket[] buckets;
+		private long currentTime;
+		private volatile TimingWheel overflowWheel;
+
+		TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+			this.tickMillis = tickMillis;
+			this.wheelSize = wheelSize;
+			this.interval = tickMillis * wheelSize;
+			this.buckets = new Bucket[wheelSize];
+			for (int i = 0; i < wheelSize; i++) {
+				buckets[i] = new Bucket();
+			}
+			this.currentTime = startMillis - (startMillis % tickMillis);
+		}
+
+		/**
+		 * @return false if the timeout is already expired or cancelled.
+		 */
+		boolean add(WheelTimeout timeout) {
+			long expiration = timeout.expiration;
+			if (timeout.cancelled) {
+				return false;
+			} else if (expiration < currentTime + tickMillis) {
+				return false;
+			} else if (expiration < currentTime + interval) {
+				long virtualId = expiration / tickMillis;
+				Bucket bucket = buckets[(int) (virtualId % wheelSize)];
+				bucket.add(timeout);
+				// the bucket is queued only when its expiration changes
+				if (bucket.setExpiration(virtualId * tickMillis)) {
+					delayQueue.offer(bucket);
+				}
+				return true;
+			} else {
+				if (overflowWheel == null) {
+					addOverflowWheel();
+				}
+				return overflowWheel.add(timeout);
+			}
+		}
+
+		void advanceClock(long time) {
+			if (time >= currentTime + tickMillis) {
+				currentTime = time - (time % tickMillis);
+				if (overflowWheel != null) {
+					overflowWheel.advanceClock(currentTime);
+				}
+			}
+		}
+
+		private synchronized void addOverflowWheel() {
+			if (overflowWheel == null) {
+				overflowWheel = new TimingWheel(interval, wheelSize, currentTime);
+			}
+		}
+	}
+
+	/**
+	 * A doubly linked list of timeouts that expire within the same tick.
+	 */
+	private class Bucket implements Delayed {
+		private final WheelTimeout root = new WheelTimeout(null, -1, -1);
+		private final AtomicLong expiration = new AtomicLong(-1);
+
+		Bucket() {
+			root.next = root;
+			root.prev = root;
+		}
+
+		/**
+		 * @return true if the expiration was changed.
+		 */
+		boolean setExpiration(long expirationMillis) {
+			return expiration.getAndSet(expirationMillis) != expirationMillis;
+		}
+
+		long getExpiration() {
+			return expiration.get();
+		}
+
+		void add(WheelTimeout timeout) {
+			boolean done = false;
+			while (!done) {
+				// remove the timeout from another bucket it may be still linked to
+				timeout.unlink();
+				synchronized (this) {
+					synchronized (timeout) {
+						if (timeout.bucket == null) {
+							WheelTimeout tail = root.prev;
+							timeout.next = root;
+							timeout.prev = tail;
+							timeout.bucket = this;
+							tail.next = timeout;
+							root.prev = timeout;
+							taskCounter.incrementAndGet();
+							done = true;
+						}
+					}
+				}
+			}
+		}
+
+		synchronized void remove(WheelTimeout timeout) {
+			synchronized (timeout) {
+				if (timeout.bucket == this) {
+					timeout.next.prev = timeout.prev;
+					timeout.prev.next = timeout.next;
+					timeout.next = null;
+					timeout.prev = null;
+					timeout.bucket = null;
+					taskCounter.decrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * Removes all timeouts and re-adds them to the engine: they either move
+		 * to a lower wheel or get executed.
+		 */
+		synchronized void flush(TimingWheelEngine engine) {
+			WheelTimeout head = root.next;
+			while (head != root) {
+				remove(head);
+				engine.addTimeout(head);
+				head = root.next;
+			}
+			expiration.set(-1);
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(Math.max(getExpiration() - monotonicMillis(), 0), TimeUnit.MILLISECONDS);
+		}
+
+		public int compareTo(Delayed o) {
+			Bucket other = (Bucket) o;
+			return getExpiration() < other.getExpiration() ? -1 : (getExpiration() > other.getExpiration() ? 1 : 0);
+		}
+	}
+
+	private class WheelTimeout implements ScheduledTimeout, Runnable {
+		private final Runnable task;
+		private final long time;
+		private final long expiration;
+		private volatile Bucket bucket;
+		private volatile boolean cancelled;
+		private volatile boolean started;
+		private WheelTimeout next, prev;
+
+		WheelTimeout(Runnable task, long time, long expiration) {
+			this.task = task;
+			this.time = time;
+			this.expiration = expiration;
+		}
+
+		void unlink() {
+			Bucket current = bucket;
+			while (current != null) {
+				current.remove(this);
+				current = bucket;
+			}
+		}
+
+		public boolean cancel() {
+			synchronized (this) {
+				if (cancelled || started) {
+					return false;
+				}
+				cancelled = true;
+			}
+			unlink();
+			return true;
+		}
+
+		public long scheduledExecutionTime() {
+			return time;
+		}
+
+		public void run() {
+			synchronized (this) {
+				if (cancelled) {
+					return;
+				}
+				started = true;
+			}
+			try {
+				task.run();
+			} catch (Throwable e) {
+				log.error("Task " + task + " failed: " + e, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package batchcontrol.service.iterators;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import batchcontrol.service.calendar.BusinessCalendar;
+
+/**
+ * Base class of the iterators that compute their schedule with {@link CalendarMath}. 
+ * Subclasses implement {@link #nextEpochMillis()}; {@link #next()} adapts it to 
+ * <code>java.util.Date</code>.
+ * <p>
+ * Local times are converted in the zone of the iterator with its {@link ZoneTransitions}.
+ */
+public abstract class AbstractSchedulerIterator implements SchedulerIterator {
+	protected final int id;
+	protected final TimeZone zone;
+	private final ZoneTransitions transitions;
+	private String state = SchedulerIterator.ACTIVE;
+
+	protected AbstractSchedulerIterator(int id, TimeZone zone) {
+		this.id = id;
+		this.zone = zone;
+		this.transitions = ZoneTransitions.of(zone);
+	}
+
+	public Date next() {
+		long time = nextEpochMillis();
+		return time == NO_TIME ? null : new Date(time);
+	}
+
+	public abstract Object clone();
+
+	public int getId() {
+		return id;
+	}
+
+	public TimeZone getZone() {
+		return zone;
+	}
+
+	public BusinessCalendar getCalendar() {
+		return null;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	public void setState(String state) {
+		this.state = state;
+	}
+
+	/**
+	 * @return local time of the instant in the iterator zone.
+	 */
+	protected long toLocalMillis(long epochMillis) {
+		return transitions.toLocalMillis(epochMillis);
+	}
+
+	/**
+	 * @return instant of the local time in the iterator zone.
+	 */
+	protected long toEpochMillis(long localMillis) {
+		return transitions.toEpochMillis(localMillis);
+	}
+
+	/**
+	 * @return instant of the time of day on the epoch day in the iterator zone.
+	 */
+	protected long toEpochMillis(long epochDay, int hourOfDay, int minute, int second) {
+		return toEpochMillis(CalendarMath.localMillis(epochDay, hourOfDay, minute, second));
+	}
+
+}
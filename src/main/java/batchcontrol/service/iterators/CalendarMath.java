@@ -0,0 +1,146 @@
+package batchcontrol.service.iterators;
+
+import java.util.TimeZone;
+
+/**
+ * Allocation-free calendar arithmetic on epoch days and epoch milliseconds in the
+ * proleptic Gregorian calendar.
+ * <p>
+ * A <i>local</i> time is expressed as milliseconds since 1970-01-01T00:00 of the
+ * wall clock, i.e. as if the zone was UTC. Dates are packed into a single int by
+ * {@link #yearMonthDay(long)}.
+ * <p>
+ * <code>java.time</code> is used for the zone rules, see {@link ZoneTransitions}, and
+ * as the reference in the daylight saving tests, but not for the date arithmetic of the
+ * iterators: <code>LocalDate</code> and <code>LocalDateTime</code> allocate an object
+ * per step, while these methods work on primitives and are called on every fire of
+ * every scheduler.
+ */
+public final class CalendarMath {
+
+	public static final long MILLIS_PER_SECOND = 1000L;
+	public static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+	public static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+	public static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+	private static final int[] DAYS_IN_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+	private CalendarMath() {
+	}
+
+	/**
+	 * @param month month of year, 1 to 12
+	 * @return number of days since 1970-01-01.
+	 */
+	public static long epochDay(int year, int month, int dayOfMonth) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + dayOfMonth - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * Converts epoch day to year, month and day packed into an int; see
+	 * {@link #year(int)}, {@link #month(int)} and {@link #day(int)}.
+	 */
+	public static int yearMonthDay(long epochDay) {
+		long z = epochDay + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+		return (year << 9) | (month << 5) | day;
+	}
+
+	public static int year(int yearMonthDay) {
+		return yearMonthDay >> 9;
+	}
+
+	/**
+	 * @return month of year, 1 to 12.
+	 */
+	public static int month(int yearMonthDay) {
+		return (yearMonthDay >> 5) & 0xF;
+	}
+
+	public static int day(int yearMonthDay) {
+		return yearMonthDay & 0x1F;
+	}
+
+	/**
+	 * @return day of week as in <code>java.util.Calendar</code>: 1 (Sunday) to 7 (Saturday).
+	 */
+	public static int dayOfWeek(long epochDay) {
+		// 1970-01-01 was Thursday
+		return Math.floorMod(epochDay + 4, 7) + 1;
+	}
+
+	public static boolean isLeapYear(int year) {
+		return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	/**
+	 * @param month month of year, 1 to 12
+	 */
+	public static int lengthOfMonth(int year, int month) {
+		return month == 2 && isLeapYear(year) ? 29 : DAYS_IN_MONTH[month - 1];
+	}
+
+	/**
+	 * @return local time of the day in milliseconds since 1970-01-01T00:00.
+	 */
+	public static long localMillis(long epochDay, int hourOfDay, int minute, int second) {
+		return epochDay * MILLIS_PER_DAY + hourOfDay * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE
+				+ second * MILLIS_PER_SECOND;
+	}
+
+	/**
+	 * @return epoch day of the local time.
+	 */
+	public static long epochDay(long localMillis) {
+		return Math.floorDiv(localMillis, MILLIS_PER_DAY);
+	}
+
+	/**
+	 * @return local time of the instant in the zone.
+	 */
+	public static long toLocalMillis(TimeZone zone, long epochMillis) {
+		return epochMillis + zone.getOffset(epochMillis);
+	}
+
+	/**
+	 * Converts local time to an instant in the zone.
+	 * <p>
+	 * A local time that occurs twice (when clocks go back) is mapped to the earlier
+	 * instant. A local time that does not exist (when clocks go forward) is moved
+	 * forward by the length of the gap, as <code>java.util.Calendar</code> does.
+	 *
+	 * @return epoch milliseconds.
+	 */
+	public static long toEpochMillis(TimeZone zone, long localMillis) {
+		long guess = localMillis - zone.getRawOffset();
+		int before = zone.getOffset(guess - MILLIS_PER_DAY);
+		int after = zone.getOffset(guess + MILLIS_PER_DAY);
+		if (before == after) {
+			return localMillis - before;
+		}
+		long early = localMillis - before;
+		long late = localMillis - after;
+		boolean earlyValid = zone.getOffset(early) == before;
+		boolean lateValid = zone.getOffset(late) == after;
+		if (earlyValid && lateValid) {
+			return Math.min(early, late);
+		} else if (lateValid) {
+			return late;
+		}
+		// gap or no transition at all: the offset before the transition moves the time forward
+		return early;
+	}
+
+}
@@ -1,49 +1,114 @@
 package batchcontrol.service.iterators;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Date;
+import java.util.TimeZone;
+
+import batchcontrol.service.calendar.BusinessCalendar;
 
 
 
 /**
  * A <code>CompositeIterator</code> combines a number of {@link SchedulerIterator}s
  * into a single {@link SchedulerIterator}. Duplicate dates are removed.
+ * <p>
+ * The next time of each iterator is kept in a binary min-heap of epoch milliseconds,
+ * so <code>next()</code> costs O(log n) per iterator that fires at that time.
  */
 public class CompositeIterator implements SchedulerIterator {
 
-	private List<Date> orderedTimes = new ArrayList<Date>();
-	private List<SchedulerIterator> orderedIterators = new ArrayList<SchedulerIterator>();
+	private long[] times;
+	private SchedulerIterator[] iterators;
+	private int size;
 
 	public CompositeIterator(SchedulerIterator[] scheduleIterators) {
+		times = new long[scheduleIterators.length];
+		iterators = new SchedulerIterator[scheduleIterators.length];
 		for (int i = 0; i < scheduleIterators.length; i++) {
 			insert(scheduleIterators[i]);
 		}
 	}
 
 	private void insert(SchedulerIterator scheduleIterator) {
-		Date time = scheduleIterator.next();
-		if (time == null) {
+		long time = scheduleIterator.nextEpochMillis();
+		if (time == NO_TIME) {
 			return;
 		}
-		int index = Collections.binarySearch(orderedTimes, time);
-		if (index < 0) { // time was not found
-			index = -index - 1;
-		}
-		orderedTimes.add(index, time);
-		orderedIterators.add(index, scheduleIterator);
+		times[size] = time;
+		iterators[size] = scheduleIterator;
+		siftUp(size++);
+	}
+
+	public Date next() {
+		long time = nextEpochMillis();
+		return time == NO_TIME ? null : new Date(time);
 	}
 
-	public synchronized Date next() {
-		Date next = null;
-		while ( !orderedTimes.isEmpty() && (next == null || next.equals((Date) orderedTimes.get(0))) ) {
-			next = (Date) orderedTimes.remove(0);
-			insert((SchedulerIterator) orderedIterators.remove(0));
+	public synchronized long nextEpochMillis() {
+		if (size == 0) {
+			return NO_TIME;
+		}
+		long next = times[0];
+		while (size > 0 && times[0] == next) {
+			advanceFirst();
 		}
 		return next;
 	}
 
+	/**
+	 * Moves the earliest iterator to its next time, or removes it if it has no more times.
+	 */
+	private void advanceFirst() {
+		long time = iterators[0].nextEpochMillis();
+		if (time == NO_TIME) {
+			size--;
+			times[0] = times[size];
+			iterators[0] = iterators[size];
+			iterators[size] = null;
+		} else {
+			times[0] = time;
+		}
+		if (size > 0) {
+			siftDown(0);
+		}
+	}
+
+	private void siftUp(int index) {
+		long time = times[index];
+		SchedulerIterator iterator = iterators[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (times[parent] <= time) {
+				break;
+			}
+			times[index] = times[parent];
+			iterators[index] = iterators[parent];
+			index = parent;
+		}
+		times[index] = time;
+		iterators[index] = iterator;
+	}
+
+	private void siftDown(int index) {
+		long time = times[index];
+		SchedulerIterator iterator = iterators[index];
+		int half = size >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			int right = child + 1;
+			if (right < size && times[right] < times[child]) {
+				child = right;
+			}
+			if (time <= times[child]) {
+				break;
+			}
+			times[index] = times[child];
+			iterators[index] = iterators[child];
+			index = child;
+		}
+		times[index] = time;
+		iterators[index] = iterator;
+	}
+
 	public String getDays() {
 		throw new UnsupportedOperationException();
 	}
@@ -63,7 +128,15 @@ public class CompositeIterator implements SchedulerIterator {
 	public String getType() {
 		throw new UnsupportedOperationException();
 	}
-	
+
+	public TimeZone getZone() {
+		throw new UnsupportedOperationException();
+	}
+
+	public BusinessCalendar getCalendar() {
+		throw new UnsupportedOperationException();
+	}
+
 	public Object clone() throws CloneNotSupportedException {
 		throw new CloneNotSupportedException();
 	}
@@ -0,0 +1,266 @@
+package batchcontrol.service.iterators;
+
+/**
+ * A cron expression compiled into one bitset per field.
+ * <p>
+ * The expression has six fields: second, minute, hour, day of month, month and day
+ * of week; a five-field expression starts with the minute and fires at second 0.
+ * Each field is <code>*</code>, <code>?</code> or a comma-separated list of values,
+ * ranges <code>a-b</code> and steps <code>*&#47;n</code> or <code>a-b/n</code>. Months
+ * and days of week may be given by name (<code>JAN</code>, <code>MON</code>); day of
+ * week 0 and 7 are Sunday. If both day of month and day of week are restricted, a day
+ * matching either field matches, as in Unix cron.
+ * <p>
+ * {@link #next(long)} works on local time in milliseconds (see {@link CalendarMath})
+ * and jumps to the next matching month, day and time with bit operations instead of
+ * stepping through the seconds.
+ */
+public final class CronExpression {
+	private static final String[] MONTHS = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP",
+			"OCT", "NOV", "DEC" };
+	private static final String[] DAYS_OF_WEEK = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+	/** years searched for a matching day, e.g. February 29 on a Monday */
+	private static final int MAX_YEARS = 400;
+
+	private final String expression;
+	private final long seconds, minutes;
+	private final int hours, months;
+	/** bits 1 to 31 */
+	private final int daysOfMonth;
+	/** bit j is set if day j % 7 (0 = Sunday) of a week matches; bits 0 to 37 */
+	private final long weekPattern;
+	private final boolean anyDayOfMonth, anyDayOfWeek;
+
+	/**
+	 * @throws IllegalArgumentException if the expression is malformed.
+	 */
+	public CronExpression(String expression) {
+		String[] fields = expression.trim().split("\\s+");
+		if (fields.length == 5) {
+			String[] withSeconds = new String[6];
+			withSeconds[0] = "0";
+			System.arraycopy(fields, 0, withSeconds, 1, 5);
+			fields = withSeconds;
+		} else if (fields.length != 6) {
+			throw new IllegalArgumentException("Cron expression must have 5 or 6 fields: " + expression);
+		}
+		this.expression = expression.trim();
+		seconds = parse(fields[0], 0, 59, null);
+		minutes = parse(fields[1], 0, 59, null);
+		hours = (int) parse(fields[2], 0, 23, null);
+		daysOfMonth = (int) parse(fields[3], 1, 31, null);
+		months = (int) parse(fields[4], 1, 12, MONTHS);
+		long daysOfWeek = parse(fields[5], 0, 7, DAYS_OF_WEEK);
+		if ((daysOfWeek & (1 << 7)) != 0) {
+			daysOfWeek = (daysOfWeek | 1) & 0x7F;
+		}
+		long pattern = 0;
+		for (int day = 0; day < 38; day++) {
+			if ((daysOfWeek & (1L << (day % 7))) != 0) {
+				pattern |= 1L << day;
+			}
+		}
+		weekPattern = pattern;
+		anyDayOfMonth = isAny(fields[3]);
+		anyDayOfWeek = isAny(fields[5]);
+		if (daysOfMonth == 0 && !anyDayOfMonth || daysOfWeek == 0 && !anyDayOfWeek) {
+			throw new IllegalArgumentException("Cron expression matches no day: " + expression);
+		}
+	}
+
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Returns the first matching local time after the given local time.
+	 *
+	 * @param localMillis local time in milliseconds since 1970-01-01T00:00
+	 * @return local time in milliseconds, or {@link SchedulerIterator#NO_TIME} if no
+	 * time matches within 400 years.
+	 */
+	public long next(long localMillis) {
+		long t = Math.floorDiv(localMillis, CalendarMath.MILLIS_PER_SECOND) + 1;
+		long epochDay = Math.floorDiv(t, 86400);
+		int secondOfDay = Math.floorMod(t, 86400);
+		int ymd = CalendarMath.yearMonthDay(epochDay);
+		int year = CalendarMath.year(ymd);
+		int month = CalendarMath.month(ymd);
+		int day = CalendarMath.day(ymd);
+		int lastYear = year + MAX_YEARS;
+
+		while (year < lastYear) {
+			if ((months & (1 << month)) == 0) {
+				// first day of the next matching month
+				int next = Integer.numberOfTrailingZeros(months & (-1 << month));
+				if (next >= 32) {
+					year++;
+					month = Integer.numberOfTrailingZeros(months);
+				} else {
+					month = next;
+				}
+				day = 1;
+				secondOfDay = 0;
+				continue;
+			}
+			int days = matchingDays(year, month) & (-1 << day);
+			if (days == 0) {
+				month = nextMonth(month);
+				year = month == 1 ? year + 1 : year;
+				day = 1;
+				secondOfDay = 0;
+				continue;
+			}
+			int matchingDay = Integer.numberOfTrailingZeros(days);
+			if (matchingDay != day) {
+				day = matchingDay;
+				secondOfDay = 0;
+			}
+			int time = timeOfDay(secondOfDay);
+			if (time < 0) {
+				day++;
+				secondOfDay = 0;
+				if (day > CalendarMath.lengthOfMonth(year, month)) {
+					month = nextMonth(month);
+					year = month == 1 ? year + 1 : year;
+					day = 1;
+				}
+				continue;
+			}
+			return (CalendarMath.epochDay(year, month, day) * 86400 + time) * CalendarMath.MILLIS_PER_SECOND;
+		}
+		return SchedulerIterator.NO_TIME;
+	}
+
+	/**
+	 * @return days of the month matching day of month and day of week fields, bits 1 to 31.
+	 */
+	private int matchingDays(int year, int month) {
+		int length = CalendarMath.lengthOfMonth(year, month);
+		int inMonth = (int) ((1L << (length + 1)) - 2);
+		// day of week of day 1, 0 = Sunday; bit d of byWeek is day d of the month
+		int firstDayOfWeek = CalendarMath.dayOfWeek(CalendarMath.epochDay(year, month, 1)) - 1;
+		int byWeek = (int) ((weekPattern >>> firstDayOfWeek) << 1);
+		int matching;
+		if (anyDayOfMonth && anyDayOfWeek) {
+			matching = inMonth;
+		} else if (anyDayOfMonth) {
+			matching = byWeek;
+		} else if (anyDayOfWeek) {
+			matching = daysOfMonth;
+		} else {
+			matching = daysOfMonth | byWeek;
+		}
+		return matching & inMonth;
+	}
+
+	/**
+	 * @return first matching second of day at or after the given one, or -1.
+	 */
+	private int timeOfDay(int secondOfDay) {
+		int hour = secondOfDay / 3600;
+		int minute = secondOfDay / 60 % 60;
+		int second = secondOfDay % 60;
+		while (true) {
+			int h = nextBit(hours, hour);
+			if (h < 0) {
+				return -1;
+			}
+			if (h > hour) {
+				return h * 3600 + nextBit(minutes, 0) * 60 + nextBit(seconds, 0);
+			}
+			int m = nextBit(minutes, minute);
+			if (m < 0) {
+				hour++;
+				minute = 0;
+				second = 0;
+				continue;
+			}
+			if (m > minute) {
+				return h * 3600 + m * 60 + nextBit(seconds, 0);
+			}
+			int s = nextBit(seconds, second);
+			if (s < 0) {
+				minute++;
+				second = 0;
+				if (minute == 60) {
+					hour++;
+					minute = 0;
+				}
+				continue;
+			}
+			return h * 3600 + m * 60 + s;
+		}
+	}
+
+	private static int nextMonth(int month) {
+		return month == 12 ? 1 : month + 1;
+	}
+
+	private static int nextBit(long bits, int from) {
+		if (from >= 64) {
+			return -1;
+		}
+		long next = bits & (-1L << from);
+		return next == 0 ? -1 : Long.numberOfTrailingZeros(next);
+	}
+
+	private static boolean isAny(String field) {
+		return field.equals("*") || field.equals("?");
+	}
+
+	private static long parse(String field, int min, int max, String[] names) {
+		long bits = 0;
+		String[] parts = field.split(",");
+		for (int i = 0; i < parts.length; i++) {
+			String part = parts[i];
+			int step = 1;
+			int slash = part.indexOf('/');
+			if (slash >= 0) {
+				step = Integer.parseInt(part.substring(slash + 1));
+				part = part.substring(0, slash);
+				if (step <= 0) {
+					throw new IllegalArgumentException("Invalid step in cron field: " + field);
+				}
+			}
+			int from, to;
+			if (isAny(part)) {
+				from = min;
+				to = max;
+			} else {
+				int dash = part.indexOf('-');
+				from = value(dash >= 0 ? part.substring(0, dash) : part, names, min);
+				to = dash >= 0 ? value(part.substring(dash + 1), names, min) : (slash >= 0 ? max : from);
+			}
+			if (from < min || to > max || from > to) {
+				throw new IllegalArgumentException("Invalid range in cron field: " + field);
+			}
+			for (int value = from; value <= to; value += step) {
+				bits |= 1L << value;
+			}
+		}
+		return bits;
+	}
+
+	private static int value(String value, String[] names, int min) {
+		if (names != null) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equalsIgnoreCase(value)) {
+					// months are numbered from 1, days of week from 0
+					return i + (min == 1 ? 1 : 0);
+				}
+			}
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value in cron field: " + value);
+		}
+	}
+
+	public String toString() {
+		return expression;
+	}
+
+}
@@ -0,0 +1,90 @@
+package batchcontrol.service.iterators;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import batchcontrol.service.BatchControlImpl;
+
+/**
+ * A <code>CronIterator</code> returns the sequence of dates matching a
+ * {@link CronExpression} in local time.
+ * <p>
+ * A local time that occurs twice when clocks go back fires once. Local times skipped
+ * when clocks go forward are moved forward by the length of the gap; times are never
+ * returned out of order.
+ */
+public class CronIterator extends AbstractSchedulerIterator {
+	private final CronExpression expression;
+	private long local;
+	private long time;
+
+	public CronIterator(String expression, int id) {
+		this(new CronExpression(expression), new Date(), id);
+	}
+
+	public CronIterator(String expression, Date date, int id) {
+		this(new CronExpression(expression), date, id);
+	}
+
+	public CronIterator(CronExpression expression, Date date, int id) {
+		this(expression, date, TimeZone.getDefault(), id);
+	}
+
+	public CronIterator(CronExpression expression, Date date, TimeZone zone, int id) {
+		super(id, zone);
+		this.expression = expression;
+		// the first time may be the given date itself
+		time = date.getTime() - 1;
+		local = toLocalMillis(time);
+	}
+
+	public long nextEpochMillis() {
+		while (true) {
+			local = expression.next(local);
+			if (local == NO_TIME) {
+				return NO_TIME;
+			}
+			long next = toEpochMillis(local);
+			if (next > time) {
+				time = next;
+				return time;
+			}
+		}
+	}
+
+	public String toString() {
+		return "[Cron: " + expression + "]";
+	}
+
+	public CronExpression getExpression() {
+		return expression;
+	}
+
+	/**
+	 * @return the cron expression.
+	 */
+	public String getDays() {
+		return expression.getExpression();
+	}
+
+	public int getHour() {
+		return 0;
+	}
+
+	public int getMinute() {
+		return 0;
+	}
+
+	public int getSecond() {
+		return 0;
+	}
+
+	public String getType() {
+		return BatchControlImpl.CRON_TYPE;
+	}
+
+	public Object clone() {
+		return new CronIterator(this.expression, new Date(), this.zone, this.id);
+	}
+
+}
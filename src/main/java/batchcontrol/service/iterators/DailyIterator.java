@@ -1,7 +1,7 @@
 package batchcontrol.service.iterators;
 
-import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 import batchcontrol.service.BatchControlImpl;
 
@@ -9,35 +9,39 @@ import batchcontrol.service.BatchControlImpl;
  * A <code>DailyIterator</code> returns a sequence of dates on subsequent days
  * representing the same time each day.
  */
-public class DailyIterator implements SchedulerIterator {
+public class DailyIterator extends AbstractSchedulerIterator {
 	private final int hourOfDay, minute, second;
-	private final Calendar calendar = Calendar.getInstance();
-	private final int id;
-	private String state = SchedulerIterator.ACTIVE;
-	
+	private long epochDay;
+	private long time = NO_TIME;
 
 	public DailyIterator(int hourOfDay, int minute, int second, int id) {
 		this(hourOfDay, minute, second, new Date(), id);
 	}
 
 	public DailyIterator(int hourOfDay, int minute, int second, Date date, int id) {
-		this.id = id;
+		this(hourOfDay, minute, second, date, TimeZone.getDefault(), id);
+	}
+
+	public DailyIterator(int hourOfDay, int minute, int second, Date date, TimeZone zone, int id) {
+		super(id, zone);
 		this.hourOfDay = hourOfDay;
 		this.minute = minute;
 		this.second = second;
-		calendar.setTime(date);
-		calendar.set(Calendar.HOUR_OF_DAY, hourOfDay);
-		calendar.set(Calendar.MINUTE, minute);
-		calendar.set(Calendar.SECOND, second);
-		calendar.set(Calendar.MILLISECOND, 0);
-		if (!calendar.getTime().before(date)) {
-			calendar.add(Calendar.DATE, -1);
+		epochDay = CalendarMath.epochDay(toLocalMillis(date.getTime()));
+		if (toEpochMillis(epochDay, hourOfDay, minute, second) >= date.getTime()) {
+			epochDay--;
 		}
 	}
 
-	public Date next() {
-		calendar.add(Calendar.DATE, 1);
-		return calendar.getTime();
+	public long nextEpochMillis() {
+		long next;
+		do {
+			// a day skipped by the zone maps to the time of the following day
+			epochDay++;
+			next = toEpochMillis(epochDay, hourOfDay, minute, second);
+		} while (next <= time);
+		time = next;
+		return time;
 	}
 	
 	public String toString() {
@@ -64,20 +68,8 @@ public class DailyIterator implements SchedulerIterator {
 		return BatchControlImpl.DAILY_TYPE;
 	}
 
-	public int getId() {
-		return id;
-	}
-
 	public Object clone() {
-		return new DailyIterator(this.hourOfDay, this.minute, this.second, this.id);
-	}
-
-	public String getState() {
-		return state;
-	}
-
-	public void setState(String state) {
-		this.state = state;
+		return new DailyIterator(this.hourOfDay, this.minute, this.second, new Date(), this.zone, this.id);
 	}
 
 }
@@ -1,42 +1,35 @@
 package batchcontrol.service.iterators;
 
-import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 import batchcontrol.service.BatchControlImpl;
-
-public class FirstBusinessDayOfMonthIterator implements SchedulerIterator {
-	private final int hourOfDay, minute, second;
-	private final Calendar calendar = Calendar.getInstance();
-	private final int id;
-	private String state = SchedulerIterator.ACTIVE;
+import batchcontrol.service.calendar.BusinessCalendar;
+import batchcontrol.service.calendar.BusinessCalendars;
+
+/**
+ * A <code>FirstBusinessDayOfMonthIterator</code> returns a sequence of dates on the
+ * first business day of subsequent months; weekends and the holidays of the
+ * business calendar are skipped.
+ */
+public class FirstBusinessDayOfMonthIterator extends NthBusinessDayOfMonthIterator {
 	
 	public FirstBusinessDayOfMonthIterator(int hourOfDay, int minute, int second, int id) {
-		this(hourOfDay, minute, second, new Date(), id);
+		this(hourOfDay, minute, second, new Date(), BusinessCalendars.getDefault(), id);
 	}
 	
 	public FirstBusinessDayOfMonthIterator(int hourOfDay, int minute, int second, Date date, int id) {
-		this.id = id;
-		this.hourOfDay = hourOfDay;
-		this.minute = minute;
-		this.second = second;
-		calendar.setTime(date);
-		calendar.set(Calendar.HOUR_OF_DAY, hourOfDay);
-		calendar.set(Calendar.MINUTE, minute);
-		calendar.set(Calendar.SECOND, second);
-		calendar.set(Calendar.MILLISECOND, 0);
-		
-		rollToFirstBusinessDay(calendar);
-		if(calendar.getTime().before(date)) {
-			calendar.add(Calendar.MONTH, 1);
-			rollToFirstBusinessDay(calendar);
-		}
+		this(hourOfDay, minute, second, date, BusinessCalendars.getDefault(), id);
+	}
+
+	public FirstBusinessDayOfMonthIterator(int hourOfDay, int minute, int second, Date date, 
+			BusinessCalendar calendar, int id) {
+		this(hourOfDay, minute, second, date, calendar, TimeZone.getDefault(), id);
 	}
 
-	public Date next() {
-		calendar.add(Calendar.MONTH, 1);
-		rollToFirstBusinessDay(calendar);
-		return calendar.getTime();
+	public FirstBusinessDayOfMonthIterator(int hourOfDay, int minute, int second, Date date, 
+			BusinessCalendar calendar, TimeZone zone, int id) {
+		super(1, hourOfDay, minute, second, date, calendar, zone, id);
 	}
 	
 	public String toString() {
@@ -47,54 +40,13 @@ public class FirstBusinessDayOfMonthIterator implements SchedulerIterator {
 		return null;
 	}
 
-	public int getHour() {
-		return this.hourOfDay;
-	}
-
-	public int getMinute() {
-		return this.minute;
-	}
-
-	public int getSecond() {
-		return this.second;
-	}
-
 	public String getType() {
 		return BatchControlImpl.FIRST_BUSINESS_DAY_OF_MONTH_TYPE;
 	}
 
-	public int getId() {
-		return id;
-	}
-
 	public Object clone() {
-		return new FirstBusinessDayOfMonthIterator(this.hourOfDay, this.minute, this.second, this.id);
-	}
-
-	public String getState() {
-		return state;
-	}
-
-	public void setState(String state) {
-		this.state = state;
-	}
-
-	private boolean isWeekend(Calendar calendar) {
-		if(calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SATURDAY)	{
-			return true;
-		}
-		if(calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SUNDAY) {
-			return true;
-		}
-		return false;
-	}
-	
-	private void rollToFirstBusinessDay(Calendar calendar) {
-		calendar.set(Calendar.DAY_OF_MONTH, 1);
-		while(isWeekend(calendar)) {
-			calendar.add(Calendar.DATE, 1);
-		}
+		return new FirstBusinessDayOfMonthIterator(this.hourOfDay, this.minute, this.second, new Date(), 
+				this.calendar, this.zone, this.id);
 	}
 
 }
-
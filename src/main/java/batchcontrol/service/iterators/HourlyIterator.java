@@ -1,37 +1,39 @@
 package batchcontrol.service.iterators;
 
-import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 import batchcontrol.service.BatchControlImpl;
 
 
-public class HourlyIterator implements SchedulerIterator {
+public class HourlyIterator extends AbstractSchedulerIterator {
 	private final int minute, second;
-	private final Calendar calendar = Calendar.getInstance();
-	private final int id;
-	private String state = SchedulerIterator.ACTIVE;
+	private long time;
 
 	public HourlyIterator(int minute, int second, int id) {
 		this(minute, second, new Date(), id);
 	}
 
 	public HourlyIterator(int minute, int second, Date date, int id) {
-		this.id = id;
+		this(minute, second, date, TimeZone.getDefault(), id);
+	}
+
+	public HourlyIterator(int minute, int second, Date date, TimeZone zone, int id) {
+		super(id, zone);
 		this.minute = minute;
 		this.second = second;
-		calendar.setTime(date);
-		calendar.set(Calendar.MINUTE, minute);
-		calendar.set(Calendar.SECOND, second);
-		calendar.set(Calendar.MILLISECOND, 0);
-		if (calendar.getTime().after(date)) {
-			calendar.add(Calendar.HOUR, -1);
+		long local = toLocalMillis(date.getTime());
+		local = local - Math.floorMod(local, CalendarMath.MILLIS_PER_HOUR) + minute * CalendarMath.MILLIS_PER_MINUTE
+				+ second * CalendarMath.MILLIS_PER_SECOND;
+		time = toEpochMillis(local);
+		if (time > date.getTime()) {
+			time -= CalendarMath.MILLIS_PER_HOUR;
 		}
 	}
 	
-	public Date next() {
-		calendar.add(Calendar.HOUR, 1);
-		return calendar.getTime();
+	public long nextEpochMillis() {
+		time += CalendarMath.MILLIS_PER_HOUR;
+		return time;
 	}
 	
 	public String toString() {
@@ -58,20 +60,8 @@ public class HourlyIterator implements SchedulerIterator {
 		return BatchControlImpl.HOURLY_TYPE;
 	}
 
-	public int getId() {
-		return id;
-	}
-
 	public Object clone() {
-		return new HourlyIterator(this.minute, this.second, this.id);
-	}
-
-	public String getState() {
-		return state;
-	}
-
-	public void setState(String state) {
-		this.state = state;
+		return new HourlyIterator(this.minute, this.second, new Date(), this.zone, this.id);
 	}
 
 }
@@ -0,0 +1,52 @@
+package batchcontrol.service.iterators;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import batchcontrol.service.BatchControlImpl;
+import batchcontrol.service.calendar.BusinessCalendar;
+import batchcontrol.service.calendar.BusinessCalendars;
+
+/**
+ * A <code>LastBusinessDayOfMonthIterator</code> returns a sequence of dates on the
+ * last business day of subsequent months; weekends and the holidays of the
+ * business calendar are skipped.
+ */
+public class LastBusinessDayOfMonthIterator extends NthBusinessDayOfMonthIterator {
+	
+	public LastBusinessDayOfMonthIterator(int hourOfDay, int minute, int second, int id) {
+		this(hourOfDay, minute, second, new Date(), BusinessCalendars.getDefault(), id);
+	}
+	
+	public LastBusinessDayOfMonthIterator(int hourOfDay, int minute, int second, Date date, int id) {
+		this(hourOfDay, minute, second, date, BusinessCalendars.getDefault(), id);
+	}
+
+	public LastBusinessDayOfMonthIterator(int hourOfDay, int minute, int second, Date date, 
+			BusinessCalendar calendar, int id) {
+		this(hourOfDay, minute, second, date, calendar, TimeZone.getDefault(), id);
+	}
+
+	public LastBusinessDayOfMonthIterator(int hourOfDay, int minute, int second, Date date, 
+			BusinessCalendar calendar, TimeZone zone, int id) {
+		super(-1, hourOfDay, minute, second, date, calendar, zone, id);
+	}
+	
+	public String toString() {
+		return "[LastBusinessDayOfMonthIterator: h="+hourOfDay+", m="+minute+", s="+second+"]";
+	}
+
+	public String getDays() {
+		return null;
+	}
+
+	public String getType() {
+		return BatchControlImpl.LAST_BUSINESS_DAY_OF_MONTH_TYPE;
+	}
+
+	public Object clone() {
+		return new LastBusinessDayOfMonthIterator(this.hourOfDay, this.minute, this.second, new Date(), 
+				this.calendar, this.zone, this.id);
+	}
+
+}
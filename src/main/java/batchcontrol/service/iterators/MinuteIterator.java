@@ -1,35 +1,37 @@
 package batchcontrol.service.iterators;
 
-import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 import batchcontrol.service.BatchControlImpl;
 
 
-public class MinuteIterator implements SchedulerIterator {
+public class MinuteIterator extends AbstractSchedulerIterator {
 	private final int second;
-	private final Calendar calendar = Calendar.getInstance();
-	private final int id;
-	private String state = SchedulerIterator.ACTIVE;
+	private long time;
 
 	public MinuteIterator(int second, int id) {
 		this(second, new Date(), id);
 	}
 
 	public MinuteIterator(int second, Date date, int id) {
-		this.id = id;
+		this(second, date, TimeZone.getDefault(), id);
+	}
+
+	public MinuteIterator(int second, Date date, TimeZone zone, int id) {
+		super(id, zone);
 		this.second = second;
-		calendar.setTime(date);
-		calendar.set(Calendar.SECOND, second);
-		calendar.set(Calendar.MILLISECOND, 0);
-		if (calendar.getTime().after(date)) {
-			calendar.add(Calendar.MINUTE, -1);
+		long local = toLocalMillis(date.getTime());
+		local = local - Math.floorMod(local, CalendarMath.MILLIS_PER_MINUTE) + second * CalendarMath.MILLIS_PER_SECOND;
+		time = toEpochMillis(local);
+		if (time > date.getTime()) {
+			time -= CalendarMath.MILLIS_PER_MINUTE;
 		}
 	}
 	
-	public Date next() {
-		calendar.add(Calendar.MINUTE, 1);
-		return calendar.getTime();
+	public long nextEpochMillis() {
+		time += CalendarMath.MILLIS_PER_MINUTE;
+		return time;
 	}
 	
 	public String toString() {
@@ -55,22 +57,9 @@ public class MinuteIterator implements SchedulerIterator {
 	public String getType() {
 		return BatchControlImpl.MINUTE_TYPE;
 	}
-
-	public int getId() {
-		return id;
-	}
 	
 	public Object clone() {
-		return new MinuteIterator(this.second, this.id);
+		return new MinuteIterator(this.second, new Date(), this.zone, this.id);
 	}
-
-	public String getState() {
-		return state;
-	}
-
-	public void setState(String state) {
-		this.state = state;
-	}
-	
 	
 }
@@ -1,42 +1,51 @@
 package batchcontrol.service.iterators;
 
-import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 import batchcontrol.service.BatchControlImpl;
 
-public class MonthlyIterator implements SchedulerIterator {
+public class MonthlyIterator extends AbstractSchedulerIterator {
 	private final int dayOfMonth, hourOfDay, minute, second;
-	private final Calendar calendar = Calendar.getInstance();
-	private final int id;
-	private String state = SchedulerIterator.ACTIVE;
+	/** months since year 0: year * 12 + month - 1 */
+	private int month;
 	
 	public MonthlyIterator(int dayOfMonth, int hourOfDay, int minute, int second, int id) {
 		this(dayOfMonth, hourOfDay, minute, second, new Date(), id);
 	}
 
 	public MonthlyIterator(int dayOfMonth, int hourOfDay, int minute, int second, Date date, int id) {
-		this.id = id;
+		this(dayOfMonth, hourOfDay, minute, second, date, TimeZone.getDefault(), id);
+	}
+
+	public MonthlyIterator(int dayOfMonth, int hourOfDay, int minute, int second, Date date, TimeZone zone, int id) {
+		super(id, zone);
 		this.hourOfDay = hourOfDay;
 		this.minute = minute;
 		this.second = second;
 		this.dayOfMonth = dayOfMonth;
-		calendar.setTime(date);
-		calendar.set(Calendar.DAY_OF_MONTH, dayOfMonth);
-		calendar.set(Calendar.HOUR_OF_DAY, hourOfDay);
-		calendar.set(Calendar.MINUTE, minute);
-		calendar.set(Calendar.SECOND, second);
-		calendar.set(Calendar.MILLISECOND, 0);
+		int ymd = CalendarMath.yearMonthDay(CalendarMath.epochDay(toLocalMillis(date.getTime())));
+		month = CalendarMath.year(ymd) * 12 + CalendarMath.month(ymd) - 1;
 		
 		//go one month back to schedule for immediate execution
-		if (calendar.getTime().after(date)) {
-			calendar.add(Calendar.MONTH, -1);
+		if (time(month) > date.getTime()) {
+			month--;
 		}
 	}
 
-	public Date next() {
-		calendar.add(Calendar.MONTH, 1);
-		return calendar.getTime();
+	public long nextEpochMillis() {
+		month++;
+		return time(month);
+	}
+
+	/**
+	 * @return time of the schedule in the month; the day is clamped to the length of the month.
+	 */
+	private long time(int month) {
+		int year = Math.floorDiv(month, 12);
+		int monthOfYear = Math.floorMod(month, 12) + 1;
+		int day = Math.min(dayOfMonth, CalendarMath.lengthOfMonth(year, monthOfYear));
+		return toEpochMillis(CalendarMath.epochDay(year, monthOfYear, day), hourOfDay, minute, second);
 	}
 	
 	public String toString() {
@@ -63,20 +72,8 @@ public class MonthlyIterator implements SchedulerIterator {
 		return BatchControlImpl.MONTHLY_TYPE;
 	}
 
-	public int getId() {
-		return id;
-	}
-
 	public Object clone() {
-		return new MonthlyIterator(dayOfMonth, hourOfDay, minute, second, id);
-	}
-
-	public String getState() {
-		return state;
-	}
-
-	public void setState(String state) {
-		this.state = state;
+		return new MonthlyIterator(dayOfMonth, hourOfDay, minute, second, new Date(), zone, id);
 	}
 
 }
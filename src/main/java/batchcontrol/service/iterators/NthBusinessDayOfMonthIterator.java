@@ -0,0 +1,110 @@
+package batchcontrol.service.iterators;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import batchcontrol.service.BatchControlImpl;
+import batchcontrol.service.calendar.BusinessCalendar;
+import batchcontrol.service.calendar.BusinessCalendars;
+
+/**
+ * A <code>NthBusinessDayOfMonthIterator</code> returns a sequence of dates on the
+ * n-th business day of subsequent months, counted from the end of the month if n is
+ * negative. Months with less than |n| business days are skipped.
+ */
+public class NthBusinessDayOfMonthIterator extends AbstractSchedulerIterator {
+	/** months without the business day after which the iterator gives up */
+	private static final int MAX_SKIPPED_MONTHS = 120;
+
+	protected final int n, hourOfDay, minute, second;
+	protected final BusinessCalendar calendar;
+	/** months since year 0: year * 12 + month - 1 */
+	private int month;
+
+	public NthBusinessDayOfMonthIterator(int n, int hourOfDay, int minute, int second, int id) {
+		this(n, hourOfDay, minute, second, new Date(), BusinessCalendars.getDefault(), id);
+	}
+
+	public NthBusinessDayOfMonthIterator(int n, int hourOfDay, int minute, int second, Date date, int id) {
+		this(n, hourOfDay, minute, second, date, BusinessCalendars.getDefault(), id);
+	}
+
+	public NthBusinessDayOfMonthIterator(int n, int hourOfDay, int minute, int second, Date date,
+			BusinessCalendar calendar, int id) {
+		this(n, hourOfDay, minute, second, date, calendar, TimeZone.getDefault(), id);
+	}
+
+	public NthBusinessDayOfMonthIterator(int n, int hourOfDay, int minute, int second, Date date,
+			BusinessCalendar calendar, TimeZone zone, int id) {
+		super(id, zone);
+		if (n == 0) throw new IllegalArgumentException("n could not be 0 for business day iterator.");
+
+		this.n = n;
+		this.hourOfDay = hourOfDay;
+		this.minute = minute;
+		this.second = second;
+		this.calendar = calendar;
+		int ymd = CalendarMath.yearMonthDay(CalendarMath.epochDay(toLocalMillis(date.getTime())));
+		month = CalendarMath.year(ymd) * 12 + CalendarMath.month(ymd) - 1;
+
+		//go one month back to schedule for immediate execution
+		long time = time(month);
+		if (time != NO_TIME && time > date.getTime()) {
+			month--;
+		}
+	}
+
+	public long nextEpochMillis() {
+		for (int i = 0; i < MAX_SKIPPED_MONTHS; i++) {
+			month++;
+			long time = time(month);
+			if (time != NO_TIME) {
+				return time;
+			}
+		}
+		return NO_TIME;
+	}
+
+	/**
+	 * @return time of the schedule in the month, or NO_TIME if the month has not enough business days.
+	 */
+	private long time(int month) {
+		long epochDay = calendar.nthBusinessDayOfMonth(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1, n);
+		return epochDay == BusinessCalendar.NO_DAY ? NO_TIME : toEpochMillis(epochDay, hourOfDay, minute, second);
+	}
+
+	public String toString() {
+		return "[NthBusinessDayOfMonthIterator: n="+n+", h="+hourOfDay+", m="+minute+", s="+second
+				+", calendar="+calendar.getName()+"]";
+	}
+
+	public String getDays() {
+		return String.valueOf(n);
+	}
+
+	public int getHour() {
+		return this.hourOfDay;
+	}
+
+	public int getMinute() {
+		return this.minute;
+	}
+
+	public int getSecond() {
+		return this.second;
+	}
+
+	public BusinessCalendar getCalendar() {
+		return calendar;
+	}
+
+	public String getType() {
+		return BatchControlImpl.NTH_BUSINESS_DAY_OF_MONTH_TYPE;
+	}
+
+	public Object clone() {
+		return new NthBusinessDayOfMonthIterator(this.n, this.hourOfDay, this.minute, this.second, new Date(),
+				this.calendar, this.zone, this.id);
+	}
+
+}
@@ -1,8 +1,8 @@
 package batchcontrol.service.iterators;
 
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 import batchcontrol.service.BatchControlImpl;
 
@@ -11,42 +11,80 @@ import batchcontrol.service.BatchControlImpl;
  * subsequent days (restricted to a set of days, e.g. weekdays only)
  * representing the same time each day.
  */
-public class RestrictedDailyIterator implements SchedulerIterator {
-	private final int[] days;
+public class RestrictedDailyIterator extends AbstractSchedulerIterator {
+	/** bit <code>d - 1</code> is set if day of week <code>d</code> (1 = Sunday) is allowed */
+	private final int dayMask;
+	private final String days;
 	private final int hourOfDay, minute, second;
-	private final Calendar calendar = Calendar.getInstance();
-	private final int id;
-	private String state = SchedulerIterator.ACTIVE;
+	private long epochDay;
+	private long time = NO_TIME;
 
 	public RestrictedDailyIterator(int hourOfDay, int minute, int second, int[] days, int id) {
 		this(hourOfDay, minute, second, days, new Date(), id);
 	}
 	
 	public RestrictedDailyIterator(int hourOfDay, int minute, int second, int[] days, Date date, int id) {
+		this(hourOfDay, minute, second, days, date, TimeZone.getDefault(), id);
+	}
+
+	public RestrictedDailyIterator(int hourOfDay, int minute, int second, int[] days, Date date, TimeZone zone, int id) {
+		super(id, zone);
 		if(days.length==0) throw new IllegalArgumentException("days could not be empty for restricted daily iterator.");
 		
-		this.id = id;
 		this.hourOfDay = hourOfDay;
 		this.minute = minute;
 		this.second = second;
-		this.days = (int[]) days.clone();
-		Arrays.sort(this.days);
+		this.dayMask = toMask(days);
+		this.days = toString(dayMask);
 		
-		calendar.setTime(date);
-		calendar.set(Calendar.HOUR_OF_DAY, hourOfDay);
-		calendar.set(Calendar.MINUTE, minute);
-		calendar.set(Calendar.SECOND, second);
-		calendar.set(Calendar.MILLISECOND, 0);
-		if (!calendar.getTime().before(date)) {
-			calendar.add(Calendar.DATE, -1);
+		epochDay = CalendarMath.epochDay(toLocalMillis(date.getTime()));
+		if (toEpochMillis(epochDay, hourOfDay, minute, second) >= date.getTime()) {
+			epochDay--;
 		}
 	}
 
-	public Date next() {
+	public long nextEpochMillis() {
+		long next;
 		do {
-			calendar.add(Calendar.DATE, 1);
-		} while (Arrays.binarySearch(days, calendar.get(Calendar.DAY_OF_WEEK)) < 0);
-		return calendar.getTime();
+			int dayOfWeek = CalendarMath.dayOfWeek(epochDay);
+			// rotate the mask so that bit 0 is the day after the current one
+			int following = ((dayMask >>> dayOfWeek) | (dayMask << (7 - dayOfWeek))) & 0x7F;
+			epochDay += Integer.numberOfTrailingZeros(following) + 1;
+			// a day skipped by the zone maps to the time of the following day
+			next = toEpochMillis(epochDay, hourOfDay, minute, second);
+		} while (next <= time);
+		time = next;
+		return time;
+	}
+
+	private static int toMask(int[] days) {
+		int mask = 0;
+		for (int i = 0; i < days.length; i++) {
+			if (days[i] < Calendar.SUNDAY || days[i] > Calendar.SATURDAY) {
+				throw new IllegalArgumentException("Invalid day of week for restricted daily iterator: " + days[i]);
+			}
+			mask |= 1 << (days[i] - 1);
+		}
+		return mask;
+	}
+
+	private static String toString(int mask) {
+		StringBuilder days = new StringBuilder(7);
+		for (int day = Calendar.SUNDAY; day <= Calendar.SATURDAY; day++) {
+			if ((mask & (1 << (day - 1))) != 0) {
+				days.append(day);
+			}
+		}
+		return days.toString();
+	}
+
+	private static int[] toArray(int mask) {
+		int[] days = new int[Integer.bitCount(mask)];
+		for (int i = 0; i < days.length; i++) {
+			days[i] = Integer.numberOfTrailingZeros(mask) + 1;
+			mask &= mask - 1;
+		}
+		return days;
 	}
 
 	public String toString() {
@@ -54,10 +92,6 @@ public class RestrictedDailyIterator implements SchedulerIterator {
 	}
 
 	public String getDays() {
-		String days = "";
-		for(int i=0; i<this.days.length; i++) {
-			days += this.days[i];
-		}
 		return days;
 	}
 
@@ -77,21 +111,9 @@ public class RestrictedDailyIterator implements SchedulerIterator {
 		return BatchControlImpl.RESTRICTED_DAILY_TYPE;
 	}
 	
-	public int getId() {
-		return id;
-	}
-	
 	public Object clone() {
-		return new RestrictedDailyIterator(this.hourOfDay, this.minute, this.second, this.days, this.id);
-	}
-	
-	public String getState() {
-		return state;
-	}
-
-	public void setState(String state) {
-		this.state = state;
+		return new RestrictedDailyIterator(this.hourOfDay, this.minute, this.second, toArray(this.dayMask), new Date(), 
+				this.zone, this.id);
 	}
 	
 }
-
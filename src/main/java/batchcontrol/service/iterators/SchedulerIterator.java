@@ -1,8 +1,10 @@
 package batchcontrol.service.iterators;
 
 import java.util.Date;
+import java.util.TimeZone;
 
 import batchcontrol.service.SchedulerTask;
+import batchcontrol.service.calendar.BusinessCalendar;
 
 /**
  * Implementations of <code>ScheduleIterator</code> specify a schedule as a series of 
@@ -14,18 +16,37 @@ public interface SchedulerIterator {
 	public static final String ACTIVE  = "active";
 	public static final String UPDATED = "updated";
 	public static final String DELETED = "deleted";
+
+	/** Returned by {@link #nextEpochMillis()} when there are no more times */
+	public static final long NO_TIME = Long.MIN_VALUE;
 	
 	/**
 	 * Returns the next time that the related {@link SchedulerTask} should be run.
 	 * @return the next time of execution
 	 */
 	public Date next();
+
+	/**
+	 * Returns the next time that the related {@link SchedulerTask} should be run, 
+	 * without allocating. Advances the iterator exactly like {@link #next()}.
+	 * @return the next time of execution in the format returned by <code>Date.getTime()</code>, 
+	 * or {@link #NO_TIME}
+	 */
+	public long nextEpochMillis();
 	
 	public int getHour();
 	public int getMinute();
 	public int getSecond();
 	public String getDays();
 	public String getType();
+	/**
+	 * @return zone in which the local times of the schedule are interpreted.
+	 */
+	public TimeZone getZone();
+	/**
+	 * @return business calendar of the schedule, or null if the schedule does not depend on business days.
+	 */
+	public BusinessCalendar getCalendar();
 	public Object clone() throws CloneNotSupportedException;
 	public String getState();
 	public void setState(String state);
@@ -0,0 +1,95 @@
+package batchcontrol.service.iterators;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import batchcontrol.service.calendar.BusinessCalendar;
+
+/**
+ * A <code>SmearIterator</code> moves every time of another {@link SchedulerIterator}
+ * by a fixed offset, so that batches scheduled at the same wall-clock time do not
+ * all start at once.
+ */
+public class SmearIterator implements SchedulerIterator {
+	private final SchedulerIterator iterator;
+	private final long offset;
+
+	/**
+	 * @param iterator iterator whose times are moved
+	 * @param offset offset in milliseconds
+	 */
+	public SmearIterator(SchedulerIterator iterator, long offset) {
+		this.iterator = iterator;
+		this.offset = offset;
+	}
+
+	public Date next() {
+		long time = nextEpochMillis();
+		return time == NO_TIME ? null : new Date(time);
+	}
+
+	public long nextEpochMillis() {
+		long time = iterator.nextEpochMillis();
+		return time == NO_TIME ? NO_TIME : time + offset;
+	}
+
+	/**
+	 * @return offset in milliseconds.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	public SchedulerIterator getIterator() {
+		return iterator;
+	}
+
+	public String toString() {
+		return "[Smear: +" + offset + " ms " + iterator + "]";
+	}
+
+	public int getHour() {
+		return iterator.getHour();
+	}
+
+	public int getMinute() {
+		return iterator.getMinute();
+	}
+
+	public int getSecond() {
+		return iterator.getSecond();
+	}
+
+	public String getDays() {
+		return iterator.getDays();
+	}
+
+	public String getType() {
+		return iterator.getType();
+	}
+
+	public TimeZone getZone() {
+		return iterator.getZone();
+	}
+
+	public BusinessCalendar getCalendar() {
+		return iterator.getCalendar();
+	}
+
+	public Object clone() throws CloneNotSupportedException {
+		return new SmearIterator((SchedulerIterator) iterator.clone(), offset);
+	}
+
+	public String getState() {
+		return iterator.getState();
+	}
+
+	public void setState(String state) {
+		iterator.setState(state);
+	}
+
+	public int getId() {
+		return iterator.getId();
+	}
+
+}
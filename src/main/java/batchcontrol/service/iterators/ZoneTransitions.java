@@ -0,0 +1,168 @@
+package batchcontrol.service.iterators;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Offset transitions of a time zone from 1900 to 2200, precomputed from the
+ * <code>java.time</code> zone rules, so that converting between instants and local
+ * times is a binary search over a small array instead of a
+ * <code>TimeZone.getOffset</code> call. Times outside of the table, and zones without
+ * <code>java.time</code> rules, are converted with the <code>TimeZone</code>.
+ * <p>
+ * Local times are mapped to instants as follows:
+ * <ul>
+ * <li>overlap - a local time that occurs twice when clocks go back is mapped to the
+ * earlier instant, so a schedule fires once;</li>
+ * <li>gap - a local time that does not exist when clocks go forward is moved forward
+ * by the length of the gap, e.g. 02:30 becomes 03:30 when clocks go from 02:00 to
+ * 03:00, so a schedule is not skipped.</li>
+ * </ul>
+ * Instances are immutable and shared per zone id.
+ */
+public final class ZoneTransitions {
+	private static final long FROM = CalendarMath.localMillis(CalendarMath.epochDay(1900, 1, 1), 0, 0, 0);
+	private static final long TO = CalendarMath.localMillis(CalendarMath.epochDay(2200, 1, 1), 0, 0, 0);
+
+	private static final ConcurrentMap<String, ZoneTransitions> cache = new ConcurrentHashMap<String, ZoneTransitions>();
+
+	private final TimeZone zone;
+	/** instants of the transitions, ascending */
+	private final long[] instants;
+	/** local times at which the transitions happen, on the wall clock before the transition */
+	private final long[] locals;
+	/** offsets[i] is the offset before transition i, offsets[instants.length] the offset after the last one */
+	private final int[] offsets;
+
+	private ZoneTransitions(TimeZone zone, ZoneRules rules) {
+		this.zone = zone;
+		if (rules == null) {
+			instants = null;
+			locals = null;
+			offsets = null;
+			return;
+		}
+		long[] instants = new long[16];
+		int[] offsets = new int[17];
+		offsets[0] = rules.getOffset(Instant.ofEpochMilli(FROM)).getTotalSeconds() * 1000;
+		int size = 0;
+		for (ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochMilli(FROM));
+				transition != null && transition.toEpochSecond() * 1000 < TO;
+				transition = rules.nextTransition(transition.getInstant())) {
+			if (size == instants.length) {
+				instants = Arrays.copyOf(instants, size * 2);
+				offsets = Arrays.copyOf(offsets, size * 2 + 1);
+			}
+			instants[size] = transition.toEpochSecond() * 1000;
+			offsets[++size] = transition.getOffsetAfter().getTotalSeconds() * 1000;
+		}
+		this.instants = Arrays.copyOf(instants, size);
+		this.offsets = Arrays.copyOf(offsets, size + 1);
+		this.locals = new long[size];
+		for (int i = 0; i < size; i++) {
+			locals[i] = instants[i] + offsets[i];
+		}
+	}
+
+	/**
+	 * @return transitions of the zone.
+	 */
+	public static ZoneTransitions of(TimeZone zone) {
+		ZoneTransitions transitions = cache.get(zone.getID());
+		if (transitions == null) {
+			ZoneRules rules;
+			try {
+				rules = zone.toZoneId().getRules();
+			} catch (DateTimeException e) {
+				rules = null;
+			}
+			transitions = new ZoneTransitions((TimeZone) zone.clone(), rules);
+			ZoneTransitions previous = cache.putIfAbsent(zone.getID(), transitions);
+			if (previous != null) {
+				transitions = previous;
+			}
+		}
+		return transitions;
+	}
+
+	/**
+	 * Returns the zone with the id.
+	 *
+	 * @param id zone id, e.g. <code>Europe/London</code>
+	 * @throws IllegalArgumentException if the zone is unknown; unlike
+	 *         <code>TimeZone.getTimeZone</code>, an unknown id is not taken for GMT.
+	 */
+	public static TimeZone getZone(String id) {
+		try {
+			return TimeZone.getTimeZone(ZoneId.of(id.trim(), ZoneId.SHORT_IDS));
+		} catch (DateTimeException e) {
+			throw new IllegalArgumentException("Unknown time zone: " + id);
+		}
+	}
+
+	/**
+	 * @return copy of the zone.
+	 */
+	public TimeZone getZone() {
+		return (TimeZone) zone.clone();
+	}
+
+	/**
+	 * @return offset from UTC in milliseconds at the instant.
+	 */
+	public int getOffset(long epochMillis) {
+		if (offsets == null || epochMillis < FROM || epochMillis >= TO) {
+			return zone.getOffset(epochMillis);
+		}
+		int index = Arrays.binarySearch(instants, epochMillis);
+		// the offset after a transition applies from its instant
+		return offsets[index >= 0 ? index + 1 : -index - 1];
+	}
+
+	/**
+	 * @return local time of the instant.
+	 */
+	public long toLocalMillis(long epochMillis) {
+		return epochMillis + getOffset(epochMillis);
+	}
+
+	/**
+	 * Converts local time to an instant, see the class description for gaps and overlaps.
+	 *
+	 * @return epoch milliseconds.
+	 */
+	public long toEpochMillis(long localMillis) {
+		if (offsets == null || localMillis < FROM + CalendarMath.MILLIS_PER_DAY || localMillis >= TO - CalendarMath.MILLIS_PER_DAY) {
+			return CalendarMath.toEpochMillis(zone, localMillis);
+		}
+		int index = Arrays.binarySearch(locals, localMillis);
+		// number of transitions that happened at the local time on the previous wall clock
+		int count = index >= 0 ? index + 1 : -index - 1;
+		if (count > 0 && offsets[count] > offsets[count - 1] && localMillis < locals[count - 1]
+				+ offsets[count] - offsets[count - 1]) {
+			// gap: the offset before the transition moves the time forward
+			return localMillis - offsets[count - 1];
+		}
+		// an overlap is not counted until its second half ends, so the earlier instant is taken
+		return localMillis - offsets[count];
+	}
+
+	/**
+	 * @return number of transitions in the table.
+	 */
+	public int size() {
+		return instants == null ? 0 : instants.length;
+	}
+
+	public String toString() {
+		return "[ZoneTransitions: " + zone.getID() + ", transitions=" + size() + "]";
+	}
+
+}
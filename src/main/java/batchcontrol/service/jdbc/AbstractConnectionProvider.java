@@ -0,0 +1,65 @@
+package batchcontrol.service.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base {@link ConnectionProvider} that measures connection acquisition latency.
+ */
+public abstract class AbstractConnectionProvider implements ConnectionProvider {
+	private final AtomicLong acquireCount = new AtomicLong();
+	private final AtomicLong acquireNanos = new AtomicLong();
+	private final AtomicLong maxAcquireNanos = new AtomicLong();
+
+	public final Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		try {
+			return acquire();
+		} finally {
+			long nanos = System.nanoTime() - start;
+			acquireCount.incrementAndGet();
+			acquireNanos.addAndGet(nanos);
+			long max;
+			while (nanos > (max = maxAcquireNanos.get()) && !maxAcquireNanos.compareAndSet(max, nanos)) {
+			}
+		}
+	}
+
+	/**
+	 * @return open database connection.
+	 * @throws SQLException if connection could not be obtained.
+	 */
+	protected abstract Connection acquire() throws SQLException;
+
+	public void close() {
+	}
+
+	/**
+	 * @return number of connections acquired.
+	 */
+	public long getAcquireCount() {
+		return acquireCount.get();
+	}
+
+	/**
+	 * @return average connection acquisition time in microseconds.
+	 */
+	public long getAverageAcquireMicros() {
+		long count = acquireCount.get();
+		return count == 0 ? 0 : acquireNanos.get() / count / 1000;
+	}
+
+	/**
+	 * @return longest connection acquisition time in microseconds.
+	 */
+	public long getMaxAcquireMicros() {
+		return maxAcquireNanos.get() / 1000;
+	}
+
+	public String toString() {
+		return "[" + getClass().getSimpleName() + ": acquired=" + getAcquireCount() + ", avg=" 
+				+ getAverageAcquireMicros() + "us, max=" + getMaxAcquireMicros() + "us]";
+	}
+
+}
@@ -0,0 +1,23 @@
+package batchcontrol.service.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Provides database connections to the batch control service. Connections are 
+ * returned to the provider by closing them.
+ */
+public interface ConnectionProvider {
+
+	/**
+	 * @return open database connection.
+	 * @throws SQLException if connection could not be obtained.
+	 */
+	public Connection getConnection() throws SQLException;
+
+	/**
+	 * Releases resources held by the provider.
+	 */
+	public void close();
+
+}
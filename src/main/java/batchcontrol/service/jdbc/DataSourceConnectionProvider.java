@@ -0,0 +1,23 @@
+package batchcontrol.service.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+/**
+ * A {@link ConnectionProvider} backed by a given <code>DataSource</code>, for example 
+ * an embedded in-memory database used in tests.
+ */
+public class DataSourceConnectionProvider extends AbstractConnectionProvider {
+	private final DataSource dataSource;
+
+	public DataSourceConnectionProvider(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	protected Connection acquire() throws SQLException {
+		return dataSource.getConnection();
+	}
+
+}
@@ -0,0 +1,49 @@
+package batchcontrol.service.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A {@link ConnectionProvider} that looks up the container <code>DataSource</code> in 
+ * JNDI once and reuses it. The lookup is repeated only after it failed.
+ */
+public class JndiConnectionProvider extends AbstractConnectionProvider {
+	private static final Logger log = Logger.getLogger(JndiConnectionProvider.class);
+
+	private final String jndiName;
+	private volatile DataSource dataSource;
+
+	public JndiConnectionProvider(String jndiName) {
+		this.jndiName = jndiName;
+	}
+
+	protected Connection acquire() throws SQLException {
+		return getDataSource().getConnection();
+	}
+
+	private DataSource getDataSource() throws SQLException {
+		DataSource ds = dataSource;
+		if (ds == null) {
+			synchronized (this) {
+				ds = dataSource;
+				if (ds == null) {
+					try {
+						ds = (DataSource) new InitialContext().lookup(jndiName);
+						dataSource = ds;
+						log.debug("DataSource resolved: " + jndiName);
+					} catch (NamingException e) {
+						throw new SQLException("DataSource lookup failed: " + jndiName + ": " + e, e);
+					}
+				}
+			}
+		}
+		return ds;
+	}
+
+}
@@ -0,0 +1,154 @@
+package batchcontrol.service.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A lightweight {@link ConnectionProvider} for deployments without a container
+ * <code>DataSource</code>. Opens at most <code>maxSize</code> connections through
+ * <code>DriverManager</code> and keeps closed connections for reuse.
+ */
+public class PooledConnectionProvider extends AbstractConnectionProvider {
+	private static final Logger log = Logger.getLogger(PooledConnectionProvider.class);
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private final long timeoutMillis;
+	private final Semaphore permits;
+	private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+	private volatile boolean closed;
+
+	/**
+	 * @param url JDBC url
+	 * @param user database user, or null
+	 * @param password database password, or null
+	 * @param maxSize maximum number of open connections
+	 * @param timeoutMillis maximum time to wait for a free connection
+	 */
+	public PooledConnectionProvider(String url, String user, String password, int maxSize, long timeoutMillis) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.timeoutMillis = timeoutMillis;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	protected Connection acquire() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool is closed.");
+		}
+		try {
+			if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timed out waiting for a database connection after " + timeoutMillis + " ms.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a database connection.", e);
+		}
+		try {
+			Connection con;
+			while ((con = idle.poll()) != null) {
+				if (!con.isClosed()) {
+					return wrap(con);
+				}
+			}
+			con = user == null ? DriverManager.getConnection(url) : DriverManager.getConnection(url, user, password);
+			return wrap(con);
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	private Connection wrap(final Connection con) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+				new InvocationHandler() {
+					private boolean released;
+
+					public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if (name.equals("close")) {
+							if (!released) {
+								released = true;
+								release(con);
+							}
+							return null;
+						} else if (name.equals("isClosed")) {
+							return Boolean.valueOf(released || con.isClosed());
+						} else if (name.equals("equals")) {
+							return Boolean.valueOf(proxy == args[0]);
+						} else if (name.equals("hashCode")) {
+							return Integer.valueOf(System.identityHashCode(proxy));
+						} else if (name.equals("toString")) {
+							return "[Pooled " + con + (released ? ", released]" : "]");
+						} else if (released) {
+							throw new SQLException("Connection is closed.");
+						}
+						try {
+							return method.invoke(con, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+	}
+
+	private void release(Connection con) {
+		try {
+			if (closed || con.isClosed()) {
+				con.close();
+			} else {
+				if (!con.getAutoCommit()) {
+					con.rollback();
+					con.setAutoCommit(true);
+				}
+				idle.offer(con);
+			}
+		} catch (SQLException e) {
+			log.warn("Discarding database connection: " + e);
+			try {
+				con.close();
+			} catch (SQLException ignore) {
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Closes idle connections. Connections in use are closed when they are returned.
+	 */
+	public void close() {
+		closed = true;
+		Connection con;
+		while ((con = idle.poll()) != null) {
+			try {
+				con.close();
+			} catch (SQLException e) {
+				log.warn("Error closing database connection: " + e);
+			}
+		}
+	}
+
+	/**
+	 * @return number of idle connections.
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+}
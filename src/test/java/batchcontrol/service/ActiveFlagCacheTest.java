@@ -0,0 +1,86 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import batchcontrol.service.jdbc.EmbeddedDatabase;
+
+public class ActiveFlagCacheTest {
+
+	private EmbeddedDatabase database;
+	private BatchControlImpl service;
+
+	@Before
+	public void setUp() throws SQLException {
+		database = new EmbeddedDatabase();
+		database.insertBatch(1, "a", "batch.A", "host1", 1);
+		database.insertBatch(2, "b", "batch.B", "host1", 0);
+		database.insertBatch(3, "c", "batch.C", "host2", 1);
+		Properties properties = new Properties();
+		properties.setProperty("batches_host_name", "host1");
+		// changes stay in the status journal until they are flushed
+		properties.setProperty("batches_status_flush_interval", "3600000");
+		service = BatchControlImpl.createInstance(properties, database.getConnectionProvider());
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		database.close();
+	}
+
+	@Test
+	public void flagsAreReadAgainAfterTheTimeToLive() throws Exception {
+		ActiveFlagCache cache = new ActiveFlagCache(service, 200);
+		assertEquals(1, cache.get("batch.A"));
+		assertEquals(0, cache.get("batch.B"));
+		database.execute("update batches set active=0 where classname='batch.A'");
+		assertEquals(1, cache.get("batch.A"));
+		Thread.sleep(300);
+		assertEquals(0, cache.get("batch.A"));
+	}
+
+	@Test
+	public void invalidatedFlagsAreReadOnNextGet() throws Exception {
+		ActiveFlagCache cache = new ActiveFlagCache(service, 3600000);
+		assertEquals(0, cache.get("batch.B"));
+		database.execute("update batches set active=1 where classname='batch.B'");
+		assertEquals(0, cache.get("batch.B"));
+		cache.invalidate();
+		assertEquals(1, cache.get("batch.B"));
+	}
+
+	@Test
+	public void batchesOfOtherHostsAreReadOneByOne() throws Exception {
+		ActiveFlagCache cache = new ActiveFlagCache(service, 3600000);
+		assertEquals(1, cache.get("batch.C"));
+		database.execute("update batches set active=0 where classname='batch.C'");
+		assertEquals(0, cache.get("batch.C"));
+		assertEquals(-1, cache.get("batch.Unknown"));
+	}
+
+	@Test
+	public void cacheIsDisabledWithoutTimeToLive() throws Exception {
+		ActiveFlagCache cache = new ActiveFlagCache(service, 0);
+		assertEquals(1, cache.get("batch.A"));
+		database.execute("update batches set active=0 where classname='batch.A'");
+		assertEquals(0, cache.get("batch.A"));
+	}
+
+	@Test
+	public void pendingFlagsTakePrecedenceOverDatabase() throws Exception {
+		service.reloadBatches();
+		service.setActive("batch.A", 0);
+		// not written yet
+		assertEquals(Integer.valueOf(1), database.queryInt("select active from batches where classname='batch.A'"));
+		ActiveFlagCache cache = new ActiveFlagCache(service, 3600000);
+		assertEquals(0, cache.get("batch.A"));
+		assertEquals(0, cache.get("batch.B"));
+	}
+
+}
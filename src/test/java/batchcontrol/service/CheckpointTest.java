@@ -0,0 +1,150 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import batchcontrol.service.jdbc.EmbeddedDatabase;
+
+/**
+ * Runs a task that records a checkpoint after each of its items with a
+ * {@link FileCheckpointStore}, and stops or fails it in the middle.
+ */
+public class CheckpointTest {
+
+	private static final int ITEMS = 10;
+
+	private EmbeddedDatabase database;
+	private File directory;
+	private FileCheckpointStore store;
+	private Task task;
+
+	/**
+	 * Processes the items after the checkpoint, up to {@link CheckpointTest#ITEMS}.
+	 */
+	public static class Task extends SchedulerTask {
+		final List<Integer> processed = new ArrayList<Integer>();
+		String resumedFrom;
+		int stopAfter;
+		int failAfter;
+
+		protected String getName() {
+			return "checkpointed";
+		}
+
+		protected void process() {
+			resumedFrom = getCheckpoint();
+			int first = resumedFrom == null ? 1 : Integer.parseInt(resumedFrom) + 1;
+			for (int item = first; item <= ITEMS; item++) {
+				processed.add(Integer.valueOf(item));
+				if (item == failAfter) {
+					throw new IllegalStateException("item " + item + " failed");
+				}
+				if (item == stopAfter) {
+					setStop(true);
+				}
+				if (!checkpoint(String.valueOf(item))) {
+					return;
+				}
+			}
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("checkpoints", "");
+		directory.delete();
+		database = new EmbeddedDatabase();
+		database.insertBatch(1, "checkpointed", Task.class.getName(), "host1", 1);
+		Properties properties = new Properties();
+		properties.setProperty("batches_host_name", "host1");
+		properties.setProperty("batches_checkpoint_store", BatchControlImpl.FILE_CHECKPOINTS);
+		properties.setProperty("batches_checkpoint_dir", directory.getPath());
+		properties.setProperty("batches_checkpoint_interval", "0");
+		task = new Task();
+		task.setService(BatchControlImpl.createInstance(properties, database.getConnectionProvider()));
+		store = new FileCheckpointStore(directory.getPath());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.close();
+		File[] files = directory.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			files[i].delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void stoppedRunIsResumedAndCompletedRunClearsTheCheckpoint() throws IOException {
+		task.stopAfter = 4;
+		task.run();
+		assertEquals("4", store.load(Task.class.getName()));
+
+		task.stopAfter = 0;
+		task.setStop(false);
+		task.processed.clear();
+		task.run();
+		assertEquals("4", task.resumedFrom);
+		assertEquals(Integer.valueOf(5), task.processed.get(0));
+		assertEquals(ITEMS - 4, task.processed.size());
+		assertNull(store.load(Task.class.getName()));
+
+		// the next run starts from the beginning
+		task.processed.clear();
+		task.run();
+		assertNull(task.resumedFrom);
+		assertEquals(ITEMS, task.processed.size());
+	}
+
+	@Test
+	public void failedRunKeepsTheLatestCheckpoint() throws IOException {
+		task.failAfter = 7;
+		task.run();
+		// item 7 failed before its checkpoint
+		assertEquals("6", store.load(Task.class.getName()));
+
+		task.failAfter = 0;
+		task.processed.clear();
+		task.run();
+		assertEquals("6", task.resumedFrom);
+		assertEquals(Integer.valueOf(7), task.processed.get(0));
+		assertNull(store.load(Task.class.getName()));
+	}
+
+	@Test
+	public void checkpointOutsideTheRunIsRejected() {
+		try {
+			task.checkpoint("1");
+			fail("checkpoint recorded outside of process()");
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	@Test
+	public void storeKeepsOneFilePerBatch() throws IOException {
+		store.save("batch.A", "a-1");
+		store.save("batch/B", "b-1");
+		store.save("batch.A", "a-2");
+		assertEquals("a-2", store.load("batch.A"));
+		assertEquals("b-1", store.load("batch/B"));
+		assertEquals(2, directory.listFiles().length);
+		store.clear("batch.A");
+		assertNull(store.load("batch.A"));
+		store.clear("batch.A");
+		assertFalse(new File(directory, "batch.A.checkpoint").exists());
+	}
+
+}
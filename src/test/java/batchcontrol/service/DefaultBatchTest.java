@@ -0,0 +1,40 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import batchcontrol.service.iterators.StepIterator;
+
+public class DefaultBatchTest {
+
+	@Test
+	public void copiesWhileTheSchedulersAreReloaded() throws InterruptedException {
+		final DefaultBatch batch = new DefaultBatch("a", "host1", "batch.A");
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread reloader = new Thread() {
+			public void run() {
+				for (int i = 0; i < 20000; i++) {
+					batch.clearIterators();
+					for (int k = 0; k < 5; k++) {
+						batch.addSchedulerIterator(new StepIterator(0, 1000, k));
+					}
+				}
+			}
+		};
+		reloader.start();
+		try {
+			while (reloader.isAlive()) {
+				new BatchSnapshot(batch);
+				batch.clone();
+			}
+		} catch (Throwable e) {
+			failure.set(e);
+		}
+		reloader.join();
+		assertNull(failure.get());
+	}
+
+}
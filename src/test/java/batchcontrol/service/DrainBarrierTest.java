@@ -0,0 +1,96 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DrainBarrierTest {
+
+	private final DrainBarrier barrier = new DrainBarrier();
+
+	@Test
+	public void countsInTotalAndPerBatch() {
+		assertEquals(1, barrier.arrive("a"));
+		assertEquals(2, barrier.arrive("a"));
+		assertEquals(3, barrier.arrive("b"));
+		assertEquals(4, barrier.arrive(null));
+		assertEquals(2, barrier.getCount("a"));
+		assertEquals(1, barrier.getCount("b"));
+		assertEquals(0, barrier.getCount("c"));
+		assertEquals(3, barrier.depart("a"));
+		assertEquals(1, barrier.getCount("a"));
+		assertEquals(4 - 1, barrier.getCount());
+	}
+
+	@Test
+	public void awaitReturnsAtOnceWhenIdle() throws InterruptedException {
+		assertTrue(barrier.awaitQuiescence(0, TimeUnit.MILLISECONDS));
+		assertTrue(barrier.awaitBatch("a", 0, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void awaitTimesOutWhileProcessesRun() throws InterruptedException {
+		barrier.arrive("a");
+		assertFalse(barrier.awaitQuiescence(20, TimeUnit.MILLISECONDS));
+		assertFalse(barrier.awaitBatch("a", 20, TimeUnit.MILLISECONDS));
+		assertTrue(barrier.awaitBatch("b", 20, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void waitersWakeUpWhenProcessesDrain() throws InterruptedException {
+		for (int i = 0; i < 50; i++) {
+			barrier.arrive("a");
+			barrier.arrive("b");
+		}
+		final CountDownLatch batchDrained = new CountDownLatch(1);
+		final CountDownLatch allDrained = new CountDownLatch(1);
+		Thread batchWaiter = new Thread() {
+			public void run() {
+				try {
+					if (barrier.awaitBatch("a", 10, TimeUnit.SECONDS)) {
+						batchDrained.countDown();
+					}
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		Thread allWaiter = new Thread() {
+			public void run() {
+				try {
+					if (barrier.awaitQuiescence(10, TimeUnit.SECONDS)) {
+						allDrained.countDown();
+					}
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		batchWaiter.start();
+		allWaiter.start();
+		Thread[] departers = new Thread[4];
+		for (int t = 0; t < departers.length; t++) {
+			final String batch = t % 2 == 0 ? "a" : "b";
+			departers[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 25; i++) {
+						barrier.depart(batch);
+					}
+				}
+			};
+			departers[t].start();
+		}
+		for (Thread departer : departers) {
+			departer.join();
+		}
+		assertTrue(batchDrained.await(5, TimeUnit.SECONDS));
+		assertTrue(allDrained.await(5, TimeUnit.SECONDS));
+		assertEquals(0, barrier.getCount());
+		batchWaiter.join();
+		allWaiter.join();
+	}
+
+}
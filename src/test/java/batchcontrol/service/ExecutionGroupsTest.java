@@ -0,0 +1,147 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExecutionGroupsTest {
+
+	/** continuations handed to the executor, run by the test */
+	private final List<Runnable> continued = new ArrayList<Runnable>();
+	private final List<String> events = new ArrayList<String>();
+	private ExecutionGroups groups;
+	private ExecutionGroup bulk;
+	private ExecutionGroup billing;
+
+	@Before
+	public void setUp() {
+		groups = new ExecutionGroups(2, 60000, 1000, new Executor() {
+			public void execute(Runnable continuation) {
+				continued.add(continuation);
+			}
+		});
+		bulk = groups.add("reporting", 0, 10, 0);
+		billing = groups.add("billing", 0, 10, 1);
+	}
+
+	@Test
+	public void reservedGroupRunsWhileSharedPermitsAreFullOfWaiters() {
+		assertEquals(ExecutionGroups.ADMITTED, groups.acquire(bulk, task("bulk-0"), 0, 0, continuation("bulk-0")));
+		// the calling thread is not held by the queued executions
+		for (int i = 1; i <= 5; i++) {
+			assertEquals(ExecutionGroups.QUEUED, groups.acquire(bulk, task("bulk-" + i), 0, 0, continuation("bulk-" + i)));
+		}
+		assertEquals(5, bulk.getWaiting());
+
+		assertEquals(ExecutionGroups.ADMITTED, groups.acquire(billing, task("billing"), 0, 0, continuation("billing")));
+		assertEquals(2, groups.getRunning());
+
+		groups.release(billing);
+		assertEquals(0, continued.size());
+		groups.release(bulk);
+		assertEquals(1, continued.size());
+		continued.get(0).run();
+		assertEquals("[admitted bulk-1]", events.toString());
+		assertEquals(4, bulk.getWaiting());
+	}
+
+	@Test
+	public void queueOfGroupIsBounded() {
+		ExecutionGroups groups = new ExecutionGroups(1, 60000, 1000, new Executor() {
+			public void execute(Runnable continuation) {
+				continued.add(continuation);
+			}
+		});
+		ExecutionGroup group = groups.add(ExecutionGroups.DEFAULT_GROUP, 0, 1, 0);
+		assertEquals(ExecutionGroups.ADMITTED, groups.acquire(group, task("a"), 0, 0, continuation("a")));
+		assertEquals(ExecutionGroups.QUEUED, groups.acquire(group, task("b"), 0, 0, continuation("b")));
+		assertEquals(ExecutionGroups.REJECTED, groups.acquire(group, task("c"), 0, 0, continuation("c")));
+		assertEquals(1, group.getRejected());
+	}
+
+	@Test
+	public void earlierDueExecutionIsAdmittedFirst() {
+		assertEquals(ExecutionGroups.ADMITTED, groups.acquire(bulk, task("running"), 0, 0, continuation("running")));
+		groups.acquire(bulk, task("low"), 0, 0, continuation("low"));
+		groups.acquire(bulk, task("high"), 2, 0, continuation("high"));
+		groups.acquire(bulk, task("urgent"), 0, 1000, continuation("urgent"));
+		for (int i = 0; i < 3; i++) {
+			groups.release(bulk);
+			continued.remove(0).run();
+		}
+		assertEquals("[admitted urgent, admitted high, admitted low]", events.toString());
+	}
+
+	@Test
+	public void waitingExecutionsAreAgedByDueTime() throws InterruptedException {
+		ExecutionGroups groups = new ExecutionGroups(1, 60000, 100, new Executor() {
+			public void execute(Runnable continuation) {
+				continued.add(continuation);
+			}
+		});
+		ExecutionGroup group = groups.add(ExecutionGroups.DEFAULT_GROUP, 0, 10, 0);
+		assertEquals(ExecutionGroups.ADMITTED, groups.acquire(group, task("running"), 0, 0, continuation("running")));
+		groups.acquire(group, task("old-p0"), 0, 0, continuation("old-p0"));
+		groups.acquire(group, task("old-p1"), 1, 0, continuation("old-p1"));
+		// more than two aging steps
+		Thread.sleep(250);
+		// the old executions have waited long enough to go before two levels higher
+		groups.acquire(group, task("new-p2"), 2, 0, continuation("new-p2"));
+		// but not before five levels higher
+		groups.acquire(group, task("new-p5"), 5, 0, continuation("new-p5"));
+		groups.acquire(group, task("new-a"), 0, 0, continuation("new-a"));
+		groups.acquire(group, task("new-b"), 0, 0, continuation("new-b"));
+		groups.acquire(group, task("urgent"), 0, 1000, continuation("urgent"));
+		assertEquals(7, group.getWaiting());
+		for (int i = 0; i < 7; i++) {
+			groups.release(group);
+			continued.remove(0).run();
+		}
+		assertEquals("[admitted urgent, admitted new-p5, admitted old-p1, admitted old-p0, admitted new-p2, "
+				+ "admitted new-a, admitted new-b]", events.toString());
+	}
+
+	@Test
+	public void stoppedTaskLeavesTheQueue() {
+		SchedulerTask stopped = task("stopped");
+		groups.acquire(bulk, task("running"), 0, 0, continuation("running"));
+		groups.acquire(bulk, stopped, 0, 0, continuation("stopped"));
+		groups.acquire(bulk, task("next"), 0, 0, continuation("next"));
+
+		groups.cancel(stopped);
+		assertEquals("[cancelled stopped]", events.toString());
+		assertEquals(1, bulk.getWaiting());
+		groups.release(bulk);
+		continued.remove(0).run();
+		assertEquals("[cancelled stopped, admitted next]", events.toString());
+	}
+
+	private ExecutionGroups.Continuation continuation(final String name) {
+		return new ExecutionGroups.Continuation() {
+			public void admitted() {
+				events.add("admitted " + name);
+			}
+
+			public void cancelled() {
+				events.add("cancelled " + name);
+			}
+		};
+	}
+
+	private static SchedulerTask task(final String name) {
+		return new SchedulerTask() {
+			protected String getName() {
+				return name;
+			}
+
+			protected void process() {
+			}
+		};
+	}
+
+}
@@ -0,0 +1,148 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import batchcontrol.service.iterators.DailyIterator;
+import batchcontrol.service.iterators.SchedulerIterator;
+
+public class FireJournalTest {
+
+	private final SchedulerIterator first = new DailyIterator(3, 0, 0, 1);
+	private final SchedulerIterator second = new DailyIterator(4, 30, 0, 2);
+
+	private File file;
+	private FireJournal journal;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("fires", ".journal");
+		file.delete();
+		journal = FireJournal.open(file.getPath());
+	}
+
+	@After
+	public void tearDown() {
+		journal.close();
+		file.delete();
+		new File(file.getPath() + ".tmp").delete();
+	}
+
+	@Test
+	public void firesAreRestoredAfterReopening() throws IOException {
+		journal.recordFire(new SchedulerIterator[] { first, second }, 1000, 2000);
+		journal.recordFire(new SchedulerIterator[] { first }, 2000, 3000);
+		reopen();
+		assertEquals(2000, journal.get(first).lastFire);
+		assertEquals(3000, journal.get(first).nextFire);
+		assertEquals(1000, journal.get(second).lastFire);
+	}
+
+	@Test
+	public void changedScheduleIsNotRestored() throws IOException {
+		journal.recordFire(new SchedulerIterator[] { first }, 1000, 2000);
+		reopen();
+		assertNull(journal.get(new DailyIterator(5, 0, 0, first.getId())));
+	}
+
+	@Test
+	public void forgottenSchedulersAreNotRestored() throws IOException {
+		journal.recordFire(new SchedulerIterator[] { first, second }, 1000, 2000);
+		journal.forget(Collections.singletonList(first));
+		reopen();
+		assertNull(journal.get(first));
+		assertEquals(1000, journal.get(second).lastFire);
+	}
+
+	@Test
+	public void scheduledSchedulersKeepTheirRecord() throws IOException {
+		journal.recordFire(new SchedulerIterator[] { first }, 1000, 2000);
+		long before = System.currentTimeMillis();
+		journal.recordScheduled(Arrays.asList(first, second));
+		assertEquals(1000, journal.get(first).lastFire);
+		assertTrue(journal.get(second).lastFire >= before - 1);
+		assertEquals(SchedulerIterator.NO_TIME, journal.get(second).nextFire);
+	}
+
+	@Test
+	public void tornLastLineIsIgnored() throws IOException {
+		journal.recordFire(new SchedulerIterator[] { first, second }, 1000, 2000);
+		journal.close();
+		// a crash while writing the next fires of both schedulers
+		String record = "F\t" + first.getId() + "\t5000\t6000\t" + FireJournal.schedule(first) + "\n";
+		append(record + "F\t" + second.getId() + "\t5000\t6000\t" + FireJournal.schedule(second).substring(0, 3));
+		journal = FireJournal.open(file.getPath());
+		assertEquals(5000, journal.get(first).lastFire);
+		assertEquals(1000, journal.get(second).lastFire);
+
+		// the torn line is compacted away, so later records are not appended to it
+		journal.recordFire(new SchedulerIterator[] { second }, 7000, 8000);
+		reopen();
+		assertEquals(7000, journal.get(second).lastFire);
+		assertEquals(2, lines());
+	}
+
+	@Test
+	public void invalidLinesAreSkipped() throws IOException {
+		journal.recordFire(new SchedulerIterator[] { first }, 1000, 2000);
+		journal.close();
+		append("F\tx\t1\t2\tschedule\nD\n?\n\n");
+		journal = FireJournal.open(file.getPath());
+		assertEquals(1000, journal.get(first).lastFire);
+	}
+
+	@Test
+	public void journalIsCompacted() throws IOException {
+		for (int i = 0; i < 25000; i++) {
+			journal.recordFire(new SchedulerIterator[] { i % 2 == 0 ? first : second }, i, i + 1);
+		}
+		// compacted at 10000 records
+		assertTrue(String.valueOf(lines()), lines() <= 10002);
+		reopen();
+		assertEquals(2, lines());
+		assertEquals(24998, journal.get(first).lastFire);
+		assertEquals(24999, journal.get(second).lastFire);
+	}
+
+	private void reopen() throws IOException {
+		journal.close();
+		journal = FireJournal.open(file.getPath());
+	}
+
+	private void append(String text) throws IOException {
+		OutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private int lines() throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			int lines = 0;
+			while (reader.readLine() != null) {
+				lines++;
+			}
+			return lines;
+		} finally {
+			reader.close();
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import batchcontrol.service.iterators.DailyIterator;
+import batchcontrol.service.iterators.HourlyIterator;
+import batchcontrol.service.iterators.MinuteIterator;
+
+public class ForecastTest {
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+	/** 2021-06-01T00:00Z */
+	private static final long MIDNIGHT = 1622505600000L;
+	private static final long HOUR = 3600000L;
+
+	private static final String A = "batch.A";
+	private static final String B = "batch.B";
+	private static final String C = "batch.C";
+	private static final String D = "batch.D";
+	private static final String E = "batch.E";
+	private static final String F = "batch.F";
+
+	@Test
+	public void firesAreMergedInTimeAndNameOrder() {
+		List<Forecast.Fire> fires = forecast(true, true).toList();
+		List<String> expected = new ArrayList<String>();
+		for (int hour = 0; hour < 6; hour++) {
+			long time = MIDNIGHT + hour * HOUR;
+			// C has an hourly and a daily schedule at 03:00, it fires once
+			expected.add(fire(time, A));
+			expected.add(fire(time, C));
+			if (hour == 3) {
+				expected.add(fire(time, F));
+			}
+			expected.add(fire(time + 60000, E));
+			expected.add(fire(time + HOUR / 2, B));
+		}
+		assertEquals(expected, describe(fires));
+	}
+
+	@Test
+	public void iteratingHasNoSideEffects() {
+		Forecast forecast = forecast(true, true);
+		assertEquals(describe(forecast.toList()), describe(forecast.toList()));
+	}
+
+	@Test
+	public void inactiveAndUnsmearedBatchesOnRequest() {
+		List<Forecast.Fire> fires = forecast(false, false).toList();
+		int d = 0;
+		for (Forecast.Fire fire : fires) {
+			if (fire.getBatch().getTaskClassName().equals(D)) {
+				d++;
+			} else if (fire.getBatch().getTaskClassName().equals(E)) {
+				assertEquals(0, (fire.getTime() - MIDNIGHT) % HOUR);
+			}
+		}
+		// every minute of six hours
+		assertEquals(6 * 60, d);
+	}
+
+	@Test
+	public void hotSpotsAreSortedBySizeThenTime() {
+		Forecast forecast = forecast(true, true);
+		List<Forecast.HotSpot> hotSpots = forecast.getHotSpots(2);
+		assertEquals(6, hotSpots.size());
+		assertEquals(MIDNIGHT + 3 * HOUR, hotSpots.get(0).getTime());
+		assertEquals(3, hotSpots.get(0).getBatches().size());
+		assertEquals(F, hotSpots.get(0).getBatches().get(2).getTaskClassName());
+		long previous = 0;
+		for (int i = 1; i < hotSpots.size(); i++) {
+			assertEquals(2, hotSpots.get(i).getBatches().size());
+			assertEquals(A, hotSpots.get(i).getBatches().get(0).getTaskClassName());
+			assertEquals(C, hotSpots.get(i).getBatches().get(1).getTaskClassName());
+			assertEquals(true, hotSpots.get(i).getTime() > previous);
+			previous = hotSpots.get(i).getTime();
+		}
+
+		assertEquals(1, forecast.getHotSpots(3).size());
+		assertEquals(0, forecast.getHotSpots(4).size());
+		// every instant with a fire: on the hour, a minute past and on the half hour
+		assertEquals(6 * 3, forecast.getHotSpots(1).size());
+	}
+
+	/**
+	 * A and C fire every hour on the hour, B on the half hour, E on the hour smeared by
+	 * a minute, F at 03:00 and D, which is not active, every minute.
+	 */
+	private static Forecast forecast(boolean smeared, boolean scheduledOnly) {
+		Date start = new Date(MIDNIGHT);
+		List<BatchSnapshot> batches = new ArrayList<BatchSnapshot>();
+		// added in reverse order, the snapshot sorts them by name
+		DefaultBatch f = batch(F);
+		f.addSchedulerIterator(new DailyIterator(3, 0, 0, start, UTC, 6));
+		batches.add(new BatchSnapshot(f));
+		DefaultBatch e = batch(E);
+		e.addSchedulerIterator(new HourlyIterator(0, 0, start, UTC, 5));
+		e.setSmearOffset(60000);
+		batches.add(new BatchSnapshot(e));
+		DefaultBatch d = batch(D);
+		d.addSchedulerIterator(new MinuteIterator(0, start, UTC, 4));
+		d.setActive(0);
+		batches.add(new BatchSnapshot(d));
+		DefaultBatch c = batch(C);
+		c.addSchedulerIterator(new HourlyIterator(0, 0, start, UTC, 3));
+		c.addSchedulerIterator(new DailyIterator(3, 0, 0, start, UTC, 7));
+		batches.add(new BatchSnapshot(c));
+		DefaultBatch b = batch(B);
+		b.addSchedulerIterator(new HourlyIterator(30, 0, start, UTC, 2));
+		batches.add(new BatchSnapshot(b));
+		DefaultBatch a = batch(A);
+		a.addSchedulerIterator(new HourlyIterator(0, 0, start, UTC, 1));
+		batches.add(new BatchSnapshot(a));
+		return new Forecast(BatchControlSnapshot.of(1, batches), MIDNIGHT, MIDNIGHT + 6 * HOUR, smeared, scheduledOnly);
+	}
+
+	private static DefaultBatch batch(String taskClassName) {
+		DefaultBatch batch = new DefaultBatch(taskClassName.substring(6), "host1", taskClassName);
+		batch.setStatus(1);
+		batch.setActive(1);
+		return batch;
+	}
+
+	private static List<String> describe(List<Forecast.Fire> fires) {
+		List<String> described = new ArrayList<String>();
+		for (Forecast.Fire fire : fires) {
+			described.add(fire(fire.getTime(), fire.getBatch().getTaskClassName()));
+		}
+		return described;
+	}
+
+	private static String fire(long time, String taskClassName) {
+		return (time - MIDNIGHT) / 1000 + "s " + taskClassName;
+	}
+
+}
@@ -0,0 +1,122 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import batchcontrol.service.iterators.SchedulerIterator;
+import batchcontrol.service.jdbc.EmbeddedDatabase;
+
+public class IncrementalReloadTest {
+
+	private static final String A = ParallelStartupTest.Task1.class.getName();
+	private static final String B = ParallelStartupTest.Task2.class.getName();
+	private static final String C = ParallelStartupTest.Task3.class.getName();
+
+	private EmbeddedDatabase database;
+	private BatchControlImpl service;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new EmbeddedDatabase();
+		database.insertBatch(1, "a", A, "host1", 1);
+		database.insertScheduler(1, 1, BatchControlImpl.DAILY_TYPE, 3, 0, 0, null);
+		database.insertBatch(2, "b", B, "host1", 1);
+		database.insertScheduler(2, 2, BatchControlImpl.DAILY_TYPE, 3, 0, 0, null);
+		database.insertScheduler(3, 2, BatchControlImpl.DAILY_TYPE, 4, 0, 0, null);
+		Properties properties = new Properties();
+		properties.setProperty("batches_host_name", "host1");
+		properties.setProperty("batches_incremental_reload", "true");
+		service = BatchControlImpl.createInstance(properties, database.getConnectionProvider());
+		service.startService();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		service.stopService();
+		database.close();
+	}
+
+	@Test
+	public void unchangedBatchesKeepTheirSchedule() throws Exception {
+		SchedulerIterator a = schedulers(A).get(0);
+		SchedulerIterator b = schedulers(B).get(0);
+		service.reloadBatches();
+		assertSame(a, schedulers(A).get(0));
+		assertSame(b, schedulers(B).get(0));
+	}
+
+	@Test
+	public void updatedSchedulerIsApplied() throws Exception {
+		SchedulerIterator b = schedulers(B).get(0);
+		database.execute("update schedulers set s_hour=5, updated=? where id=1", later());
+		service.reloadBatches();
+		assertEquals(5, schedulers(A).get(0).getHour());
+		assertEquals(SchedulerIterator.UPDATED, schedulers(A).get(0).getState());
+		assertEquals(1, service.getLoadedBatch(A).getStatus());
+		assertSame(b, schedulers(B).get(0));
+	}
+
+	@Test
+	public void addedBatchIsStarted() throws Exception {
+		database.insertBatch(3, "c", C, "host1", 1);
+		database.insertScheduler(4, 3, BatchControlImpl.DAILY_TYPE, 3, 0, 0, null);
+		service.reloadBatches();
+		assertEquals(1, service.getLoadedBatch(C).getStatus());
+		assertEquals(1, schedulers(C).size());
+	}
+
+	@Test
+	public void deletedRowsAreFound() throws Exception {
+		SchedulerIterator a = schedulers(A).get(0);
+		database.execute("delete from schedulers where id=3");
+		service.reloadBatches();
+		assertEquals(1, schedulers(B).size());
+		assertEquals(3, schedulers(B).get(0).getHour());
+		assertSame(a, schedulers(A).get(0));
+
+		database.execute("delete from schedulers where batch_id=1");
+		database.execute("delete from batches where id=1");
+		service.reloadBatches();
+		assertNull(service.getLoadedBatch(A));
+		assertEquals(1, service.getSnapshot().getBatches().size());
+	}
+
+	@Test
+	public void batchMovedToAnotherServerIsRemoved() throws Exception {
+		database.execute("update batches set server='host2', updated=? where id=1", later());
+		service.reloadBatches();
+		assertNull(service.getLoadedBatch(A));
+		assertEquals(0, database.queryInt("select status from batches where id=1").intValue());
+	}
+
+	@Test
+	public void schemaWithoutUpdatedColumnsLoadsAllBatches() throws Exception {
+		database.execute("alter table batches drop column updated");
+		database.execute("alter table schedulers drop column updated");
+		SchedulerIterator b = schedulers(B).get(0);
+		database.execute("update schedulers set s_hour=5 where id=1");
+		service.reloadBatches();
+		assertEquals(5, schedulers(A).get(0).getHour());
+		assertSame(b, schedulers(B).get(0));
+	}
+
+	private List<SchedulerIterator> schedulers(String taskClassName) {
+		return service.getLoadedBatch(taskClassName).getSchedulerIterators();
+	}
+
+	/**
+	 * @return update time after the rows were inserted, as a clock with a coarse resolution would set it.
+	 */
+	private static java.sql.Timestamp later() {
+		return new java.sql.Timestamp(System.currentTimeMillis() + 1000);
+	}
+
+}
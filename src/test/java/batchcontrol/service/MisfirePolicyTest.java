@@ -0,0 +1,164 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import batchcontrol.service.engine.ScheduledTimeout;
+import batchcontrol.service.engine.SchedulingEngine;
+import batchcontrol.service.iterators.StepIterator;
+
+/**
+ * Schedules a minute schedule whose last 9 times were missed, and checks the time of
+ * the first execution each misfire policy schedules.
+ */
+public class MisfirePolicyTest {
+
+	private static final long MINUTE = 60000;
+
+	/** times scheduled on the engine */
+	private final List<Long> scheduled = new ArrayList<Long>();
+	private final SchedulingEngine engine = new SchedulingEngine() {
+		public ScheduledTimeout schedule(Runnable task, final long time) {
+			scheduled.add(Long.valueOf(time));
+			return new ScheduledTimeout() {
+				public boolean cancel() {
+					return true;
+				}
+
+				public long scheduledExecutionTime() {
+					return time;
+				}
+			};
+		}
+
+		public void shutdown() {
+		}
+	};
+	private long now;
+	/** time k of the schedule is base + k minutes; times 1 to 9 are missed */
+	private long base;
+
+	@Before
+	public void setUp() {
+		now = System.currentTimeMillis();
+		base = now - 10 * MINUTE + MINUTE / 2;
+	}
+
+	@Test
+	public void catchUpAllRunsTheFirstMissedTime() {
+		Scheduler scheduler = schedule(MisfirePolicy.DEFAULT);
+		assertEquals(time(1), scheduled.get(0).longValue());
+		assertEquals(1, scheduler.getStatistics().getMissed());
+		assertEquals(0, scheduler.getStatistics().getSkipped());
+	}
+
+	@Test
+	public void skipToNextWaitsForTheNextTime() {
+		Scheduler scheduler = schedule(MisfirePolicy.parse("skip_to_next"));
+		assertEquals(time(10), scheduled.get(0).longValue());
+		assertEquals(9, scheduler.getStatistics().getMissed());
+		assertEquals(9, scheduler.getStatistics().getSkipped());
+	}
+
+	@Test
+	public void fireNowOnceRunsNow() {
+		Scheduler scheduler = schedule(MisfirePolicy.parse("fire_now_once"));
+		long time = scheduled.get(0).longValue();
+		assertTrue(time >= now && time <= System.currentTimeMillis());
+		assertEquals(9, scheduler.getStatistics().getMissed());
+		assertEquals(8, scheduler.getStatistics().getSkipped());
+	}
+
+	@Test
+	public void coalesceRunsAtTheNextTime() {
+		Scheduler scheduler = schedule(MisfirePolicy.parse("coalesce"));
+		assertEquals(time(10), scheduled.get(0).longValue());
+		assertEquals(9, scheduler.getStatistics().getMissed());
+		assertEquals(9, scheduler.getStatistics().getSkipped());
+	}
+
+	@Test
+	public void coalesceWithoutNextTimeRunsTheLatestMissedTime() {
+		Scheduler scheduler = new Scheduler(engine, null);
+		scheduler.setMisfirePolicy(MisfirePolicy.parse("coalesce"), 1000);
+		scheduler.schedule(task(), new StepIterator(base, MINUTE, 1, 9));
+		assertEquals(time(9), scheduled.get(0).longValue());
+		assertEquals(9, scheduler.getStatistics().getMissed());
+		assertEquals(8, scheduler.getStatistics().getSkipped());
+	}
+
+	@Test
+	public void catchUpRunsTheLatestMissedTimes() {
+		Scheduler scheduler = schedule(MisfirePolicy.parse("catch_up:3"));
+		assertEquals(time(7), scheduled.get(0).longValue());
+		assertEquals(9, scheduler.getStatistics().getMissed());
+		assertEquals(6, scheduler.getStatistics().getSkipped());
+	}
+
+	@Test
+	public void catchUpZeroSkipsAllMissedTimes() {
+		Scheduler scheduler = schedule(MisfirePolicy.parse("catch_up:0"));
+		assertEquals(time(10), scheduled.get(0).longValue());
+		assertEquals(9, scheduler.getStatistics().getSkipped());
+	}
+
+	@Test
+	public void timesWithinTheThresholdAreNotMissed() {
+		Scheduler scheduler = new Scheduler(engine, null);
+		scheduler.setMisfirePolicy(MisfirePolicy.parse("skip_to_next"), 10 * MINUTE);
+		scheduler.schedule(task(), new StepIterator(base, MINUTE, 1));
+		assertEquals(time(1), scheduled.get(0).longValue());
+		assertEquals(0, scheduler.getStatistics().getMissed());
+	}
+
+	@Test
+	public void parsesPolicies() {
+		assertEquals(MisfirePolicy.CATCH_UP, MisfirePolicy.parse(" Catch_Up:5 ").getType());
+		assertEquals(5, MisfirePolicy.parse("catch_up:5").getLimit());
+		assertEquals("catch_up:5", MisfirePolicy.parse("catch_up:5").toString());
+		assertEquals(MisfirePolicy.COALESCE, MisfirePolicy.parse("COALESCE").getType());
+		assertEquals(MisfirePolicy.DEFAULT, MisfirePolicy.parse("catch_up_all"));
+		assertEquals(MisfirePolicy.FIRE_NOW_ONCE, MisfirePolicy.JOURNAL_DEFAULT.getType());
+		assertEquals(MisfirePolicy.MAX_CATCH_UP, MisfirePolicy.parse("catch_up:" + MisfirePolicy.MAX_CATCH_UP)
+				.getLimit());
+		for (String policy : new String[] { "catch_up", "catch_up:-1", "catch_up:x", "later",
+				"catch_up:" + (MisfirePolicy.MAX_CATCH_UP + 1) }) {
+			try {
+				MisfirePolicy.parse(policy);
+				fail("parsed " + policy);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	private Scheduler schedule(MisfirePolicy policy) {
+		Scheduler scheduler = new Scheduler(engine, null);
+		scheduler.setMisfirePolicy(policy, 1000);
+		scheduler.schedule(task(), new StepIterator(base, MINUTE, 1));
+		assertEquals(1, scheduled.size());
+		return scheduler;
+	}
+
+	private long time(int k) {
+		return base + k * MINUTE;
+	}
+
+	private static SchedulerTask task() {
+		return new SchedulerTask() {
+			protected String getName() {
+				return "misfire";
+			}
+
+			protected void process() {
+			}
+		};
+	}
+
+}
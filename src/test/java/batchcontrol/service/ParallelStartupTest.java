@@ -0,0 +1,114 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Test;
+
+import batchcontrol.service.jdbc.EmbeddedDatabase;
+
+/**
+ * Starts a mix of batches that start, are not active, have no schedule or fail to
+ * start, one after another and on a pool, and checks that both start the same ones.
+ */
+public class ParallelStartupTest {
+
+	private static final int STARTED = 8;
+
+	private EmbeddedDatabase database;
+	private BatchControlImpl service;
+
+	public static class Task extends SchedulerTask {
+		protected String getName() {
+			return getClass().getSimpleName();
+		}
+
+		protected void process() {
+		}
+	}
+
+	public static class Task1 extends Task {
+	}
+
+	public static class Task2 extends Task {
+	}
+
+	public static class Task3 extends Task {
+	}
+
+	public static class Task4 extends Task {
+	}
+
+	public static class Task5 extends Task {
+	}
+
+	public static class Task6 extends Task {
+	}
+
+	public static class Task7 extends Task {
+	}
+
+	public static class Task8 extends Task {
+	}
+
+	public static class Inactive extends Task {
+	}
+
+	public static class Unscheduled extends Task {
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (service != null) {
+			service.stopService();
+		}
+		database.close();
+	}
+
+	@Test
+	public void startsOneAfterAnother() throws Exception {
+		checkStartup(1);
+	}
+
+	@Test
+	public void startsOnAPool() throws Exception {
+		checkStartup(4);
+	}
+
+	private void checkStartup(int threads) throws Exception {
+		database = new EmbeddedDatabase();
+		for (int i = 1; i <= STARTED; i++) {
+			database.insertBatch(i, "task" + i, Task.class.getName() + i, "host1", 1);
+			database.insertScheduler(i, i, BatchControlImpl.DAILY_TYPE, 3, i, 0, null);
+		}
+		database.insertBatch(20, "inactive", Inactive.class.getName(), "host1", 0);
+		database.insertScheduler(20, 20, BatchControlImpl.DAILY_TYPE, 3, 0, 0, null);
+		database.insertBatch(21, "unscheduled", Unscheduled.class.getName(), "host1", 1);
+		database.insertBatch(22, "missing", "batchcontrol.service.Missing", "host1", 1);
+		database.insertScheduler(22, 22, BatchControlImpl.DAILY_TYPE, 3, 0, 0, null);
+		database.insertBatch(23, "elsewhere", Task1.class.getName() + "Elsewhere", "host2", 1);
+		Properties properties = new Properties();
+		properties.setProperty("batches_host_name", "host1");
+		properties.setProperty("batches_startup_threads", String.valueOf(threads));
+		service = BatchControlImpl.createInstance(properties, database.getConnectionProvider());
+		service.startService();
+
+		assertEquals(Integer.valueOf(STARTED), database.queryInt("select count(*) from batches where status=1"));
+		Map<String, BatchSnapshot> batches = service.getSnapshot().getBatches();
+		assertEquals(STARTED + 3, batches.size());
+		int scheduled = 0;
+		for (BatchSnapshot batch : batches.values()) {
+			scheduled += batch.getStatus();
+		}
+		assertEquals(STARTED, scheduled);
+		assertEquals(1, service.getSnapshot().getBatch(Task.class.getName() + 1).getStatus());
+		assertEquals(0, service.getSnapshot().getBatch("batchcontrol.service.Missing").getStatus());
+		// every batch of the host has a startup time, also those that failed to start
+		assertEquals(STARTED + 3, service.getStartupTimes().size());
+	}
+
+}
@@ -0,0 +1,158 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Runs {@link PartitionedSchedulerTask#process()} directly. With a parallelism of 1 the
+ * partitions run one after another in index order.
+ */
+public class PartitionedSchedulerTaskTest {
+
+	/**
+	 * Processes the partitions 0 to count - 1; partition <code>stopAt</code> stops the
+	 * task and partition <code>failAt</code> fails.
+	 */
+	private static class Task extends PartitionedSchedulerTask<Integer> {
+		final int count;
+		final int parallelism;
+		final boolean failFast;
+		int stopAt = -1;
+		int failAt = -1;
+		CyclicBarrier barrier;
+
+		Task(int count, int parallelism, boolean failFast) {
+			this.count = count;
+			this.parallelism = parallelism;
+			this.failFast = failFast;
+		}
+
+		protected String getName() {
+			return "partitioned";
+		}
+
+		protected List<Integer> partition() {
+			List<Integer> partitions = new ArrayList<Integer>();
+			for (int i = 0; i < count; i++) {
+				partitions.add(Integer.valueOf(i));
+			}
+			return partitions;
+		}
+
+		protected void processPartition(Integer partition, PartitionProgress progress) throws Exception {
+			if (barrier != null) {
+				barrier.await(5, TimeUnit.SECONDS);
+			}
+			if (partition.intValue() == failAt) {
+				throw new IllegalStateException("partition " + partition + " failed");
+			}
+			progress.setTotal(10);
+			progress.addProcessed(10);
+			if (partition.intValue() == stopAt) {
+				setStop(true);
+			}
+		}
+
+		protected int getParallelism() {
+			return parallelism;
+		}
+
+		protected boolean isFailFast() {
+			return failFast;
+		}
+	}
+
+	@Test
+	public void allPartitionsAreProcessed() {
+		Task task = new Task(8, 3, false);
+		task.process();
+		assertStates(task, "DDDDDDDD");
+		for (PartitionProgress progress : task.getPartitionProgress()) {
+			assertEquals(10, progress.getProcessed());
+			assertEquals(String.valueOf(progress.getIndex()), progress.getName());
+		}
+	}
+
+	@Test
+	public void partitionsRunInParallel() {
+		Task task = new Task(4, 4, false);
+		// each partition waits until all four run
+		task.barrier = new CyclicBarrier(4);
+		task.process();
+		assertStates(task, "DDDD");
+	}
+
+	@Test
+	public void noPartitions() {
+		Task task = new Task(0, 2, false);
+		task.process();
+		assertEquals(0, task.getPartitionProgress().size());
+	}
+
+	@Test
+	public void stoppedTaskSkipsPartitionsNotStarted() {
+		Task task = new Task(5, 1, false);
+		task.stopAt = 1;
+		task.process();
+		assertStates(task, "DDSSS");
+	}
+
+	@Test
+	public void failedPartitionDoesNotStopTheOthers() {
+		Task task = new Task(5, 1, false);
+		task.failAt = 1;
+		assertFails(task);
+		assertStates(task, "DFDDD");
+	}
+
+	@Test
+	public void failFastSkipsPartitionsNotStarted() {
+		Task task = new Task(5, 1, true);
+		task.failAt = 1;
+		assertFails(task);
+		assertStates(task, "DFSSS");
+		assertEquals("partition 1 failed", task.getPartitionProgress().get(1).getFailure().getMessage());
+	}
+
+	private static void assertFails(Task task) {
+		try {
+			task.process();
+			fail("run with a failed partition did not fail");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().indexOf("failed=1") >= 0);
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	/**
+	 * @param states state of each partition: D done, F failed, S skipped
+	 */
+	private static void assertStates(Task task, String states) {
+		StringBuilder actual = new StringBuilder();
+		for (PartitionProgress progress : task.getPartitionProgress()) {
+			switch (progress.getState()) {
+			case PartitionProgress.DONE:
+				actual.append('D');
+				break;
+			case PartitionProgress.FAILED:
+				actual.append('F');
+				break;
+			case PartitionProgress.SKIPPED:
+				actual.append('S');
+				break;
+			default:
+				actual.append('?');
+			}
+		}
+		assertEquals(states, actual.toString());
+	}
+
+}
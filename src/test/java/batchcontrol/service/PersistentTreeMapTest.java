@@ -0,0 +1,78 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class PersistentTreeMapTest {
+
+	@Test
+	public void changesLeaveTheOriginalMapUnchanged() {
+		PersistentTreeMap<String, Integer> empty = PersistentTreeMap.empty();
+		PersistentTreeMap<String, Integer> one = empty.plus("b", Integer.valueOf(1));
+		PersistentTreeMap<String, Integer> two = one.plus("a", Integer.valueOf(2));
+		PersistentTreeMap<String, Integer> replaced = two.plus("b", Integer.valueOf(3));
+		PersistentTreeMap<String, Integer> removed = replaced.minus("a");
+
+		assertEquals(0, empty.size());
+		assertEquals(Collections.singletonMap("b", Integer.valueOf(1)), one);
+		assertEquals(Integer.valueOf(1), two.get("b"));
+		assertEquals("a", two.firstKey());
+		assertEquals("b", two.lastKey());
+		assertEquals(Integer.valueOf(3), replaced.get("b"));
+		assertEquals(2, replaced.size());
+		assertEquals(Collections.singletonMap("b", Integer.valueOf(3)), removed);
+		assertNull(removed.get("a"));
+		assertSame(removed, removed.minus("a"));
+		assertSame(removed, removed.plus("b", removed.get("b")));
+	}
+
+	@Test
+	public void randomChangesMatchTreeMap() {
+		Random random = new Random(7);
+		TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+		PersistentTreeMap<String, Integer> map = PersistentTreeMap.empty();
+		for (int i = 0; i < 5000; i++) {
+			String key = "batch" + random.nextInt(500);
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.minus(key);
+			} else {
+				expected.put(key, Integer.valueOf(i));
+				map = map.plus(key, Integer.valueOf(i));
+			}
+		}
+		assertEquals(expected, map);
+		assertEquals(expected.size(), map.size());
+		assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(map.keySet()));
+		assertEquals(expected.firstKey(), map.firstKey());
+		assertEquals(expected.headMap("batch3"), map.headMap("batch3"));
+	}
+
+	@Test
+	public void snapshotSharesUnchangedBatches() {
+		List<BatchSnapshot> batches = new ArrayList<BatchSnapshot>();
+		for (int i = 0; i < 3; i++) {
+			batches.add(new BatchSnapshot(new DefaultBatch("b" + i, "host1", "batch" + i)));
+		}
+		BatchControlSnapshot snapshot = BatchControlSnapshot.of(1, batches);
+		BatchControlSnapshot next = snapshot.with(new BatchSnapshot(new DefaultBatch("b1", "host1", "batch1"))).without(
+				"batch2");
+
+		assertEquals(3, next.getVersion());
+		assertEquals(3, snapshot.getBatches().size());
+		assertEquals(2, next.getBatches().size());
+		assertSame(snapshot.getBatch("batch0"), next.getBatch("batch0"));
+		assertSame(batches.get(1), snapshot.getBatch("batch1"));
+		assertNull(next.getBatch("batch2"));
+	}
+
+}
@@ -0,0 +1,128 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import batchcontrol.service.iterators.HourlyIterator;
+
+public class SmearPlannerTest {
+
+	private static final long[] WINDOWS = { 1, 999, 1000, 60000, 3600000, 24 * 3600000L, Long.MAX_VALUE / 2 };
+
+	@Test
+	public void hashOffsetIsStableAndWithinTheWindow() {
+		for (int i = 0; i < 1000; i++) {
+			String name = "batch.Task" + i;
+			for (long window : WINDOWS) {
+				long offset = SmearPlanner.hashOffset(name, window);
+				assertTrue(name + " " + window + ": " + offset, offset >= 0 && offset < window);
+				assertEquals(offset, SmearPlanner.hashOffset(new String(name), window));
+			}
+		}
+		assertEquals(0, SmearPlanner.hashOffset("batch.Task", 0));
+		assertEquals(0, SmearPlanner.hashOffset("batch.Task", -1000));
+	}
+
+	@Test
+	public void hashOffsetsAreSpread() {
+		Set<Long> offsets = new HashSet<Long>();
+		for (int i = 0; i < 100; i++) {
+			offsets.add(Long.valueOf(SmearPlanner.hashOffset("batch.Task" + i, 3600000) / 60000));
+		}
+		// 100 similar names in 60 minutes
+		assertTrue(String.valueOf(offsets.size()), offsets.size() > 40);
+	}
+
+	@Test
+	public void hashModeUsesTheHashOffset() {
+		List<DefaultBatch> batches = batches(20, 60000);
+		SmearPlanner.plan(batches, batches, false);
+		for (DefaultBatch batch : batches) {
+			assertEquals(SmearPlanner.hashOffset(batch.getTaskClassName(), 60000), batch.getSmearOffset());
+		}
+	}
+
+	@Test
+	public void loadAwareModeIsDeterministic() {
+		List<DefaultBatch> first = batches(30, 600000);
+		SmearPlanner.plan(first, first, true);
+		List<DefaultBatch> second = batches(30, 600000);
+		Collections.reverse(second);
+		SmearPlanner.plan(second, second, true);
+		Collections.reverse(second);
+		for (int i = 0; i < first.size(); i++) {
+			assertEquals(first.get(i).getTaskClassName(), first.get(i).getSmearOffset(), second.get(i).getSmearOffset());
+		}
+	}
+
+	@Test
+	public void loadAwareModeSpreadsCollidingBatches() {
+		// all batches fire on the hour; there are more free seconds than batches
+		List<DefaultBatch> batches = batches(30, 60000);
+		SmearPlanner.plan(batches, batches, true);
+		Set<Long> offsets = new HashSet<Long>();
+		for (DefaultBatch batch : batches) {
+			long offset = batch.getSmearOffset();
+			assertTrue(batch.getTaskClassName() + ": " + offset, offset >= 0 && offset < 60000);
+			assertEquals(0, offset % 1000);
+			offsets.add(Long.valueOf(offset));
+		}
+		assertEquals(batches.size(), offsets.size());
+	}
+
+	@Test
+	public void offsetsStayWithinTheWindow() {
+		for (long window : new long[] { 1, 999, 1000, 1500, 5000, 24 * 3600000L }) {
+			List<DefaultBatch> batches = batches(10, window);
+			SmearPlanner.plan(batches, batches, true);
+			for (DefaultBatch batch : batches) {
+				long offset = batch.getSmearOffset();
+				assertTrue(window + ": " + offset, offset >= 0 && offset < window);
+			}
+		}
+	}
+
+	@Test
+	public void onlyPlannedBatchesMove() {
+		List<DefaultBatch> batches = batches(10, 60000);
+		DefaultBatch fixed = batches.get(0);
+		fixed.setSmearOffset(5000);
+		DefaultBatch inactive = batches.get(1);
+		inactive.setActive(0);
+		List<DefaultBatch> planned = new ArrayList<DefaultBatch>(batches.subList(1, batches.size()));
+		SmearPlanner.plan(batches, planned, true);
+		assertEquals(5000, fixed.getSmearOffset());
+		assertEquals(SmearPlanner.hashOffset(inactive.getTaskClassName(), 60000), inactive.getSmearOffset());
+		for (DefaultBatch batch : planned) {
+			if (batch != inactive) {
+				// the fixed batch already fires at second 5
+				assertTrue(batch.getTaskClassName(), batch.getSmearOffset() != 5000);
+			}
+		}
+	}
+
+	/**
+	 * @return scheduled, active batches that fire every hour on the hour.
+	 */
+	private static List<DefaultBatch> batches(int count, long window) {
+		List<DefaultBatch> batches = new ArrayList<DefaultBatch>();
+		for (int i = 0; i < count; i++) {
+			DefaultBatch batch = new DefaultBatch("task" + i, "host1", "batch.Task" + i);
+			batch.addSchedulerIterator(new HourlyIterator(0, 0, i));
+			batch.setStatus(1);
+			batch.setActive(1);
+			batch.setSmearWindow(window);
+			batches.add(batch);
+		}
+		return batches;
+	}
+
+}
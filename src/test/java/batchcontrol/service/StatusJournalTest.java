@@ -0,0 +1,116 @@
+package batchcontrol.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import batchcontrol.service.jdbc.EmbeddedDatabase;
+
+public class StatusJournalTest {
+
+	private EmbeddedDatabase database;
+	private StatusJournal journal;
+
+	@Before
+	public void setUp() throws SQLException {
+		database = new EmbeddedDatabase();
+		database.insertBatch(1, "a", "batch.A", "host1", 1);
+		database.insertBatch(2, "b", "batch.B", "host1", 1);
+		Properties properties = new Properties();
+		properties.setProperty("batches_host_name", "host1");
+		journal = new StatusJournal(BatchControlImpl.createInstance(properties, database.getConnectionProvider()), 0);
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		database.close();
+	}
+
+	@Test
+	public void changesAreWrittenThrough() throws Exception {
+		journal.recordStatus("a", 1);
+		journal.recordActive("batch.B", 0);
+		assertEquals(Integer.valueOf(1), status("a"));
+		assertEquals(Integer.valueOf(0), active("batch.B"));
+		assertEquals(Collections.emptyMap(), journal.getPendingActives());
+	}
+
+	@Test
+	public void deferredChangesAreCoalescedUntilTheOutermostResume() throws Exception {
+		journal.defer();
+		journal.recordStatus("a", 1);
+		journal.defer();
+		journal.recordStatus("a", 0);
+		journal.recordStatus("a", 1);
+		journal.recordActive("batch.A", 0);
+		journal.resume();
+		assertEquals(Integer.valueOf(0), status("a"));
+		assertEquals(Collections.singletonMap("batch.A", Integer.valueOf(0)), journal.getPendingActives());
+		journal.resume();
+		assertEquals(Integer.valueOf(1), status("a"));
+		assertEquals(Integer.valueOf(0), active("batch.A"));
+		assertEquals(Collections.emptyMap(), journal.getPendingActives());
+	}
+
+	@Test
+	public void failedFlushIsRolledBackAndKept() throws Exception {
+		journal.defer();
+		journal.recordStatus("a", 1);
+		journal.recordActive("batch.A", 0);
+		// the status update succeeds, the active update fails
+		database.execute("alter table batches alter column active rename to inactive");
+		try {
+			journal.resume();
+			fail("flushed without an active column");
+		} catch (Exception expected) {
+		}
+		assertEquals(Integer.valueOf(0), status("a"));
+		assertEquals(Collections.singletonMap("batch.A", Integer.valueOf(0)), journal.getPendingActives());
+
+		database.execute("alter table batches alter column inactive rename to active");
+		journal.flush();
+		assertEquals(Integer.valueOf(1), status("a"));
+		assertEquals(Integer.valueOf(0), active("batch.A"));
+	}
+
+	@Test
+	public void failedWriteThroughRestoresThePreviousChange() throws Exception {
+		database.execute("alter table batches alter column active rename to inactive");
+		journal.defer();
+		journal.recordActive("batch.A", 0);
+		try {
+			journal.resume();
+			fail("flushed without an active column");
+		} catch (Exception expected) {
+		}
+		try {
+			journal.recordActive("batch.A", 1);
+			fail("wrote through without an active column");
+		} catch (Exception expected) {
+		}
+		// the failed change is dropped, the earlier one is still pending
+		assertEquals(Collections.singletonMap("batch.A", Integer.valueOf(0)), journal.getPendingActives());
+		try {
+			journal.recordActive("batch.B", 0);
+			fail("wrote through without an active column");
+		} catch (Exception expected) {
+		}
+		assertEquals(Collections.singletonMap("batch.A", Integer.valueOf(0)), journal.getPendingActives());
+	}
+
+	private Integer status(String name) throws SQLException {
+		return database.queryInt("select status from batches where name=?", name);
+	}
+
+	private Integer active(String className) throws SQLException {
+		return database.queryInt("select active from batches where classname=?", className);
+	}
+
+}
@@ -0,0 +1,45 @@
+package batchcontrol.service.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RunOnceExecutorTest {
+
+	@Test
+	public void countsOnlyRejectionsOfAFullQueue() throws InterruptedException {
+		RunOnceExecutor executor = new RunOnceExecutor(1, 1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable blocking = new Runnable() {
+			public void run() {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		executor.execute(blocking);
+		executor.execute(blocking);
+		try {
+			executor.execute(blocking);
+			fail("queue is full");
+		} catch (RejectedExecutionException expected) {
+		}
+		assertEquals(1, executor.getRejectedCount());
+
+		executor.shutdown();
+		try {
+			executor.execute(blocking);
+			fail("executor was shut down");
+		} catch (RejectedExecutionException expected) {
+		}
+		assertEquals(1, executor.getRejectedCount());
+		release.countDown();
+	}
+
+}
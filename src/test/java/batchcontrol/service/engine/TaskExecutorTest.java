@@ -0,0 +1,60 @@
+package batchcontrol.service.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TaskExecutorTest {
+
+	private TaskExecutor executor;
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void platformThreadsAreBounded() throws InterruptedException {
+		executor = new TaskExecutor(0, 2);
+		Assume.assumeTrue(!executor.isVirtual());
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(6);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		for (int i = 0; i < 6; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					int now = running.incrementAndGet();
+					while (maxRunning.get() < now && !maxRunning.compareAndSet(maxRunning.get(), now)) {
+					}
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					running.decrementAndGet();
+					done.countDown();
+				}
+			});
+		}
+		Thread.sleep(200);
+		assertEquals(2, executor.getRunning());
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, maxRunning.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void needsAPlatformThread() {
+		executor = new TaskExecutor(0, 1);
+		new TaskExecutor(0, 0);
+	}
+
+}
@@ -0,0 +1,65 @@
+package batchcontrol.service.engine;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TimerSchedulingEngineTest {
+
+	@Test
+	public void concurrentEngineRunsTasksAtOnce() throws InterruptedException {
+		TimerSchedulingEngine engine = new TimerSchedulingEngine(true);
+		try {
+			final CountDownLatch started = new CountDownLatch(2);
+			final CountDownLatch release = new CountDownLatch(1);
+			Runnable blocking = new Runnable() {
+				public void run() {
+					started.countDown();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			long now = System.currentTimeMillis();
+			engine.schedule(blocking, now);
+			engine.schedule(blocking, now);
+			// the second task runs while the first one still blocks
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			release.countDown();
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+	@Test
+	public void defaultEngineRunsTasksOneAfterAnother() throws InterruptedException {
+		TimerSchedulingEngine engine = new TimerSchedulingEngine();
+		try {
+			final CountDownLatch started = new CountDownLatch(2);
+			final CountDownLatch release = new CountDownLatch(1);
+			Runnable blocking = new Runnable() {
+				public void run() {
+					started.countDown();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			long now = System.currentTimeMillis();
+			engine.schedule(blocking, now);
+			engine.schedule(blocking, now);
+			assertFalse(started.await(200, TimeUnit.MILLISECONDS));
+			release.countDown();
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+}
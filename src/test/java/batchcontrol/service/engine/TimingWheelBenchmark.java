@@ -0,0 +1,99 @@
+package batchcontrol.service.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import batchcontrol.service.iterators.DailyIterator;
+import batchcontrol.service.iterators.HourlyIterator;
+import batchcontrol.service.iterators.MinuteIterator;
+import batchcontrol.service.iterators.SchedulerIterator;
+
+/**
+ * Schedules 100k iterators on a single {@link TimingWheelEngine} and reports
+ * scheduling cost, firing lateness and the number of live threads.
+ * <p>
+ * Not part of the default test run: <code>mvn test -Pbenchmark</code>. The number of
+ * iterators and workers can be set with <code>-Dbenchmark.iterators</code> and
+ * <code>-Dbenchmark.workers</code>.
+ */
+public class TimingWheelBenchmark {
+
+	@Test
+	public void schedule100kIterators() throws InterruptedException {
+		int count = Integer.getInteger("benchmark.iterators", 100000).intValue();
+		int workers = Integer.getInteger("benchmark.workers", 8).intValue();
+		int threadsBefore = Thread.activeCount();
+
+		TimingWheelEngine engine = new TimingWheelEngine(10, 512, workers);
+		try {
+			// recurring schedules far in the future: measures scheduling and cancelling cost
+			List<SchedulerIterator> iterators = new ArrayList<SchedulerIterator>(count);
+			for (int i = 0; i < count; i++) {
+				int second = i % 60;
+				switch (i % 3) {
+				case 0:
+					iterators.add(new DailyIterator(i % 24, i % 60, second, i));
+					break;
+				case 1:
+					iterators.add(new HourlyIterator(i % 60, second, i));
+					break;
+				default:
+					iterators.add(new MinuteIterator(second, i));
+				}
+			}
+			Runnable noop = new Runnable() {
+				public void run() {
+				}
+			};
+			List<ScheduledTimeout> timeouts = new ArrayList<ScheduledTimeout>(count);
+			long start = System.nanoTime();
+			for (SchedulerIterator iterator : iterators) {
+				timeouts.add(engine.schedule(noop, iterator.nextEpochMillis()));
+			}
+			long scheduled = System.nanoTime();
+			System.out.println("Scheduled " + count + " iterators in " + millis(start, scheduled) + " ms, "
+					+ "threads: " + (Thread.activeCount() - threadsBefore));
+			for (ScheduledTimeout timeout : timeouts) {
+				timeout.cancel();
+			}
+			System.out.println("Cancelled " + count + " timeouts in " + millis(scheduled, System.nanoTime()) + " ms, "
+					+ "left in wheel: " + engine.size());
+			assertEquals(0, engine.size());
+
+			// short timeouts spread over two seconds: measures firing lateness
+			final CountDownLatch fired = new CountDownLatch(count);
+			final AtomicLong maxLateness = new AtomicLong();
+			final AtomicLong totalLateness = new AtomicLong();
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < count; i++) {
+				final long time = now + 100 + (i % 2000);
+				engine.schedule(new Runnable() {
+					public void run() {
+						long lateness = System.currentTimeMillis() - time;
+						totalLateness.addAndGet(lateness);
+						long max;
+						while (lateness > (max = maxLateness.get()) && !maxLateness.compareAndSet(max, lateness)) {
+						}
+						fired.countDown();
+					}
+				}, time);
+			}
+			fired.await();
+			System.out.println("Fired " + count + " timeouts: average lateness " + (totalLateness.get() / count)
+					+ " ms, max lateness " + maxLateness.get() + " ms, threads: " + (Thread.activeCount() - threadsBefore));
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+	private static long millis(long startNanos, long endNanos) {
+		return (endNanos - startNanos) / 1000000;
+	}
+
+}
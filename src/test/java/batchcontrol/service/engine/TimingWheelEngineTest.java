@@ -0,0 +1,103 @@
+package batchcontrol.service.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelEngineTest {
+
+	private static final Runnable NOOP = new Runnable() {
+		public void run() {
+		}
+	};
+
+	private TimingWheelEngine engine;
+
+	@Before
+	public void setUp() {
+		engine = new TimingWheelEngine(10, 512, 4);
+	}
+
+	@After
+	public void tearDown() {
+		engine.shutdown();
+	}
+
+	@Test
+	public void cancelledTimeoutsLeaveTheWheel() {
+		long now = System.currentTimeMillis();
+		List<ScheduledTimeout> timeouts = new ArrayList<ScheduledTimeout>();
+		for (int i = 0; i < 100000; i++) {
+			// up to two days ahead, so the overflow wheels are used as well
+			timeouts.add(engine.schedule(NOOP, now + 60000 + i * 1700L));
+		}
+		assertEquals(100000, engine.size());
+		for (ScheduledTimeout timeout : timeouts) {
+			assertTrue(timeout.cancel());
+		}
+		assertEquals(0, engine.size());
+		assertFalse(timeouts.get(0).cancel());
+	}
+
+	@Test
+	public void timeoutsFireOnceAndNotEarly() throws InterruptedException {
+		int count = 20000;
+		final CountDownLatch fired = new CountDownLatch(count);
+		final AtomicInteger early = new AtomicInteger();
+		final AtomicLong maxLateness = new AtomicLong();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			final long time = now + 50 + (i % 1000);
+			engine.schedule(new Runnable() {
+				public void run() {
+					long lateness = System.currentTimeMillis() - time;
+					if (lateness < 0) {
+						early.incrementAndGet();
+					}
+					long max;
+					while (lateness > (max = maxLateness.get()) && !maxLateness.compareAndSet(max, lateness)) {
+					}
+					fired.countDown();
+				}
+			}, time);
+		}
+		assertTrue("not all timeouts fired", fired.await(10, TimeUnit.SECONDS));
+		assertEquals(0, early.get());
+		assertEquals(0, engine.size());
+		assertTrue("max lateness " + maxLateness.get() + " ms", maxLateness.get() < 1000);
+	}
+
+	@Test
+	public void pastTimeRunsImmediately() throws InterruptedException {
+		final CountDownLatch fired = new CountDownLatch(1);
+		engine.schedule(new Runnable() {
+			public void run() {
+				fired.countDown();
+			}
+		}, System.currentTimeMillis() - 60000);
+		assertTrue(fired.await(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void shutDownEngineRejectsTimeouts() {
+		engine.shutdown();
+		try {
+			engine.schedule(NOOP, System.currentTimeMillis());
+			fail("scheduled on a shut down engine");
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package batchcontrol.service.iterators;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import batchcontrol.service.calendar.BusinessCalendar;
+
+/**
+ * Checks the business days of a calendar and the business day iterators across
+ * holidays and year boundaries, with <code>java.time</code> as the oracle.
+ */
+public class BusinessDayIteratorTest {
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	/**
+	 * Christmas to New Year are holidays, so the last business days of 2020 and the
+	 * first of 2021 move; 2021-03-05 and 2021-03-08 are days 63 and 66 of the year, on
+	 * both sides of a word of the bitset.
+	 */
+	private static final LocalDate[] HOLIDAYS = { LocalDate.of(2020, 1, 1), LocalDate.of(2020, 12, 24),
+			LocalDate.of(2020, 12, 25), LocalDate.of(2020, 12, 28), LocalDate.of(2020, 12, 29),
+			LocalDate.of(2020, 12, 30), LocalDate.of(2020, 12, 31), LocalDate.of(2021, 1, 1), LocalDate.of(2021, 1, 4),
+			LocalDate.of(2021, 3, 5), LocalDate.of(2021, 3, 8) };
+
+	private static final Set<LocalDate> HOLIDAY_SET = new HashSet<LocalDate>(Arrays.asList(HOLIDAYS));
+
+	private static final BusinessCalendar CALENDAR = new BusinessCalendar("test", BusinessCalendar.WEEKEND,
+			epochDays(HOLIDAYS));
+
+	@Test
+	public void businessDaysAgreeWithJavaTime() {
+		for (LocalDate day = LocalDate.of(2019, 12, 1); day.isBefore(LocalDate.of(2022, 2, 1)); day = day.plusDays(1)) {
+			assertEquals(day.toString(), isBusinessDay(day), CALENDAR.isBusinessDay(day.toEpochDay()));
+			LocalDate next = day.plusDays(1);
+			while (!isBusinessDay(next)) {
+				next = next.plusDays(1);
+			}
+			assertEquals("after " + day, next.toEpochDay(), CALENDAR.nextBusinessDay(day.toEpochDay()));
+		}
+	}
+
+	@Test
+	public void nextBusinessDaySkipsHolidaysIntoTheNextYear() {
+		assertEquals(LocalDate.of(2021, 1, 5).toEpochDay(), CALENDAR.nextBusinessDay(LocalDate.of(2020, 12, 23)
+				.toEpochDay()));
+		assertEquals(LocalDate.of(2020, 1, 2).toEpochDay(), CALENDAR.nextBusinessDay(LocalDate.of(2019, 12, 31)
+				.toEpochDay()));
+	}
+
+	@Test
+	public void nthBusinessDayOfMonthAgreesWithJavaTime() {
+		for (int year = 2020; year <= 2021; year++) {
+			for (int month = 1; month <= 12; month++) {
+				List<LocalDate> days = businessDays(year, month);
+				assertEquals(year + "-" + month, days.size(), CALENDAR.getBusinessDays(year, month));
+				for (int n = 1; n <= 23; n++) {
+					assertEquals(year + "-" + month + " n=" + n, n <= days.size() ? days.get(n - 1).toEpochDay()
+							: BusinessCalendar.NO_DAY, CALENDAR.nthBusinessDayOfMonth(year, month, n));
+					assertEquals(year + "-" + month + " n=" + -n, n <= days.size() ? days.get(days.size() - n)
+							.toEpochDay() : BusinessCalendar.NO_DAY, CALENDAR.nthBusinessDayOfMonth(year, month, -n));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void firstBusinessDayOfMonthAcrossNewYear() {
+		Date from = date(LocalDate.of(2020, 11, 15));
+		assertTimes(expected(1, from), new FirstBusinessDayOfMonthIterator(6, 30, 0, from, CALENDAR, UTC, 1));
+		assertEquals(LocalDate.of(2021, 1, 5).toEpochDay(), CALENDAR.nthBusinessDayOfMonth(2021, 1, 1));
+	}
+
+	@Test
+	public void lastBusinessDayOfMonthAcrossNewYear() {
+		Date from = date(LocalDate.of(2020, 11, 15));
+		assertTimes(expected(-1, from), new LastBusinessDayOfMonthIterator(6, 30, 0, from, CALENDAR, UTC, 1));
+		assertEquals(LocalDate.of(2020, 12, 23).toEpochDay(), CALENDAR.nthBusinessDayOfMonth(2020, 12, -1));
+	}
+
+	@Test
+	public void nthBusinessDayOfMonthSkipsShortMonths() {
+		int[] ns = { 2, 3, -2, -5, 21, 22, -22 };
+		Date[] starts = { date(LocalDate.of(2020, 11, 15)), date(LocalDate.of(2020, 12, 1)),
+				date(LocalDate.of(2021, 2, 28)) };
+		for (int i = 0; i < ns.length; i++) {
+			for (int j = 0; j < starts.length; j++) {
+				assertTimes(expected(ns[i], starts[j]), new NthBusinessDayOfMonthIterator(ns[i], 6, 30, 0, starts[j],
+						CALENDAR, UTC, 1));
+			}
+		}
+	}
+
+	private static void assertTimes(List<Long> expected, SchedulerIterator iterator) {
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(iterator + " #" + i, expected.get(i).longValue(), iterator.nextEpochMillis());
+		}
+	}
+
+	/**
+	 * @return times of the n-th business day at 06:30 UTC after the date, up to the end of 2021.
+	 */
+	private static List<Long> expected(int n, Date from) {
+		List<Long> times = new ArrayList<Long>();
+		for (LocalDate month = LocalDate.of(2020, 10, 1); month.getYear() < 2022; month = month.plusMonths(1)) {
+			List<LocalDate> days = businessDays(month.getYear(), month.getMonthValue());
+			if (Math.abs(n) > days.size()) {
+				continue;
+			}
+			LocalDate day = n > 0 ? days.get(n - 1) : days.get(days.size() + n);
+			long time = day.atTime(6, 30).toInstant(ZoneOffset.UTC).toEpochMilli();
+			if (time > from.getTime()) {
+				times.add(Long.valueOf(time));
+			}
+		}
+		return times;
+	}
+
+	private static List<LocalDate> businessDays(int year, int month) {
+		List<LocalDate> days = new ArrayList<LocalDate>();
+		for (LocalDate day = LocalDate.of(year, month, 1); day.getMonthValue() == month; day = day.plusDays(1)) {
+			if (isBusinessDay(day)) {
+				days.add(day);
+			}
+		}
+		return days;
+	}
+
+	private static boolean isBusinessDay(LocalDate day) {
+		return day.getDayOfWeek() != DayOfWeek.SATURDAY && day.getDayOfWeek() != DayOfWeek.SUNDAY
+				&& !HOLIDAY_SET.contains(day);
+	}
+
+	private static Date date(LocalDate day) {
+		return new Date(day.atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli());
+	}
+
+	private static long[] epochDays(LocalDate[] days) {
+		long[] epochDays = new long[days.length];
+		for (int i = 0; i < days.length; i++) {
+			epochDays[i] = days[i].toEpochDay();
+		}
+		return epochDays;
+	}
+
+}
@@ -0,0 +1,56 @@
+package batchcontrol.service.iterators;
+
+import org.junit.Test;
+
+/**
+ * Compares the heap-based {@link CompositeIterator} with the previous implementation
+ * based on sorted lists, for 10, 100 and 10,000 child iterators.
+ * <p>
+ * Not part of the default test run: <code>mvn test -Pbenchmark</code>. The number of
+ * calls measured per size can be set with <code>-Dbenchmark.calls</code>.
+ */
+public class CompositeIteratorBenchmark {
+
+	private static final int[] SIZES = { 10, 100, 10000 };
+
+	@Test
+	public void heapAgainstSortedLists() {
+		int calls = Integer.getInteger("benchmark.calls", 1000000).intValue();
+		for (int round = 0; round < 3; round++) {
+			boolean warmup = round < 2;
+			for (int n : SIZES) {
+				long heap = measure(new CompositeIterator(children(n)), calls);
+				long list = measure(new ListCompositeIterator(children(n)), calls);
+				if (!warmup) {
+					System.out.println("children=" + n + ": heap " + heap + " ns/op, sorted lists " + list + " ns/op");
+				}
+			}
+		}
+	}
+
+	private static long measure(SchedulerIterator iterator, int calls) {
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i++) {
+			checksum += iterator.nextEpochMillis();
+		}
+		long nanos = System.nanoTime() - start;
+		if (checksum == 42) {
+			System.out.println();
+		}
+		return nanos / calls;
+	}
+
+	/**
+	 * Child iterators with distinct periods, so instants coincide only occasionally.
+	 */
+	private static SchedulerIterator[] children(int n) {
+		SchedulerIterator[] children = new SchedulerIterator[n];
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < n; i++) {
+			children[i] = new StepIterator(start + i * 1000L, 60000L + i * 1000L, i);
+		}
+		return children;
+	}
+
+}
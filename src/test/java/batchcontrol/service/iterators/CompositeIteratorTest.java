@@ -0,0 +1,62 @@
+package batchcontrol.service.iterators;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Compares the heap-based {@link CompositeIterator} with the previous implementation
+ * based on sorted lists.
+ */
+public class CompositeIteratorTest {
+
+	private static final long START = 1700000000000L;
+
+	@Test
+	public void matchesSortedListImplementation() {
+		for (int n : new int[] { 1, 2, 10, 100, 1000, 10000 }) {
+			CompositeIterator heap = new CompositeIterator(children(n));
+			ListCompositeIterator list = new ListCompositeIterator(children(n));
+			// the sorted lists take linear time per call
+			int calls = n > 1000 ? 1000 : 20000;
+			for (int i = 0; i < calls; i++) {
+				assertEquals("children=" + n + ", call " + i, list.nextEpochMillis(), heap.nextEpochMillis());
+			}
+		}
+	}
+
+	@Test
+	public void removesDuplicateTimes() {
+		CompositeIterator iterator = new CompositeIterator(new SchedulerIterator[] { new StepIterator(START, 1000, 1),
+				new StepIterator(START, 2000, 2), new StepIterator(START, 1000, 3) });
+		long previous = iterator.nextEpochMillis();
+		assertEquals(START + 1000, previous);
+		for (int i = 0; i < 100; i++) {
+			long next = iterator.nextEpochMillis();
+			assertEquals(previous + 1000, next);
+			previous = next;
+		}
+	}
+
+	@Test
+	public void dateAndEpochMillisAgree() {
+		CompositeIterator a = new CompositeIterator(children(10));
+		CompositeIterator b = new CompositeIterator(children(10));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(a.nextEpochMillis(), b.next().getTime());
+		}
+	}
+
+	/**
+	 * Child iterators with distinct periods that are multiples of a second, so instants
+	 * coincide now and then.
+	 */
+	private static SchedulerIterator[] children(int n) {
+		SchedulerIterator[] children = new SchedulerIterator[n];
+		for (int i = 0; i < n; i++) {
+			children[i] = new StepIterator(START + (i % 13) * 1000L, 60000L + (i % 17) * 1000L, i);
+		}
+		return children;
+	}
+
+}
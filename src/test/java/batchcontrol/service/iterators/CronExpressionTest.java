@@ -0,0 +1,176 @@
+package batchcontrol.service.iterators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the bitset search of {@link CronExpression#next(long)} with a brute force
+ * search that tests the fields of every candidate second.
+ */
+public class CronExpressionTest {
+
+	private static final String[] EXPRESSIONS = { "* * * * *", "0 0 * * *", "*/15 * * * *", "30 2 * * 1-5",
+			"0 0 12 29 2 *", "0 0 0 31 * *", "0 0 9 1,15 * MON", "5/20 10-50/7 3,7,22 * JAN-MAR,DEC SUN,SAT",
+			"0 0 0 * * 7", "59 59 23 31 * *", "0 30 4 13 * FRI", "0 0 0 1 1 ?",
+			"0,30 * 0-1 * FEB *" };
+
+	private static final long FROM = LocalDate.of(1999, 1, 1).atStartOfDay().toEpochSecond(ZoneOffset.UTC) * 1000;
+	private static final long TO = LocalDate.of(2031, 1, 1).atStartOfDay().toEpochSecond(ZoneOffset.UTC) * 1000;
+
+	@Test
+	public void nextMatchesBruteForce() {
+		Random random = new Random(17);
+		for (String expression : EXPRESSIONS) {
+			CronExpression cron = new CronExpression(expression);
+			Matcher matcher = new Matcher(expression);
+			for (int i = 0; i < 50; i++) {
+				long time = FROM + (long) (random.nextDouble() * (TO - FROM));
+				// also from an exact second and from a match
+				if (i % 3 == 1) {
+					time -= time % 1000;
+				}
+				for (int j = 0; j < 5; j++) {
+					long expected = matcher.next(time);
+					assertEquals(expression + " after " + local(time), local(expected), local(cron.next(time)));
+					time = expected;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void fiveFieldsFireAtSecondZero() {
+		long time = LocalDateTime.of(2024, 5, 17, 10, 14, 30).toEpochSecond(ZoneOffset.UTC) * 1000;
+		assertEquals(LocalDateTime.of(2024, 5, 17, 10, 15, 0),
+				local(new CronExpression("*/5 * * * *").next(time)));
+	}
+
+	@Test
+	public void malformedExpressionsAreRejected() {
+		String[] malformed = { "* * * *", "60 * * * *", "* * * * * * *", "*/0 * * * *", "5-1 * * * *",
+				"* * * * FOO", "* 24 * * *" };
+		for (String expression : malformed) {
+			try {
+				new CronExpression(expression);
+				fail("accepted " + expression);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+
+	private static LocalDateTime local(long localMillis) {
+		return localMillis == SchedulerIterator.NO_TIME ? null
+				: LocalDateTime.ofEpochSecond(Math.floorDiv(localMillis, 1000L), 0, ZoneOffset.UTC);
+	}
+
+	/**
+	 * Tests each field of a candidate time against a set of values, like cron does.
+	 */
+	private static final class Matcher {
+		private static final String[] MONTHS = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP",
+				"OCT", "NOV", "DEC" };
+		private static final String[] DAYS = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+		private final boolean[] seconds, minutes, hours, daysOfMonth, months, daysOfWeek;
+		private final boolean anyDayOfMonth, anyDayOfWeek;
+
+		Matcher(String expression) {
+			String[] fields = expression.trim().split("\\s+");
+			if (fields.length == 5) {
+				fields = ("0 " + expression.trim()).split("\\s+");
+			}
+			seconds = values(fields[0], 0, 59, null);
+			minutes = values(fields[1], 0, 59, null);
+			hours = values(fields[2], 0, 23, null);
+			daysOfMonth = values(fields[3], 1, 31, null);
+			months = values(fields[4], 1, 12, MONTHS);
+			daysOfWeek = values(fields[5], 0, 7, DAYS);
+			daysOfWeek[0] |= daysOfWeek[7];
+			anyDayOfMonth = fields[3].equals("*") || fields[3].equals("?");
+			anyDayOfWeek = fields[5].equals("*") || fields[5].equals("?");
+		}
+
+		/**
+		 * @return first matching local time after the given one.
+		 */
+		long next(long localMillis) {
+			LocalDateTime time = LocalDateTime.ofEpochSecond(Math.floorDiv(localMillis, 1000L), 0, ZoneOffset.UTC)
+					.plusSeconds(1);
+			for (LocalDate day = time.toLocalDate(); day.getYear() < 2500; day = day.plusDays(1)) {
+				if (!matches(day)) {
+					continue;
+				}
+				for (int second = day.equals(time.toLocalDate()) ? time.toLocalTime().toSecondOfDay() : 0;
+						second < 86400; second++) {
+					if (hours[second / 3600] && minutes[second / 60 % 60] && seconds[second % 60]) {
+						return day.atStartOfDay().plusSeconds(second).toEpochSecond(ZoneOffset.UTC) * 1000;
+					}
+				}
+			}
+			return SchedulerIterator.NO_TIME;
+		}
+
+		private boolean matches(LocalDate day) {
+			if (!months[day.getMonthValue()]) {
+				return false;
+			}
+			boolean dayOfMonth = daysOfMonth[day.getDayOfMonth()];
+			boolean dayOfWeek = daysOfWeek[day.getDayOfWeek().getValue() % 7];
+			if (anyDayOfMonth && anyDayOfWeek) {
+				return true;
+			} else if (anyDayOfMonth) {
+				return dayOfWeek;
+			} else if (anyDayOfWeek) {
+				return dayOfMonth;
+			}
+			return dayOfMonth || dayOfWeek;
+		}
+
+		private static boolean[] values(String field, int min, int max, String[] names) {
+			boolean[] values = new boolean[max + 1];
+			for (String part : field.split(",")) {
+				int step = 1;
+				if (part.contains("/")) {
+					step = Integer.parseInt(part.substring(part.indexOf('/') + 1));
+				}
+				String range = part.contains("/") ? part.substring(0, part.indexOf('/')) : part;
+				int from, to;
+				if (range.equals("*") || range.equals("?")) {
+					from = min;
+					to = max;
+				} else if (range.contains("-")) {
+					from = value(range.substring(0, range.indexOf('-')), names, min);
+					to = value(range.substring(range.indexOf('-') + 1), names, min);
+				} else {
+					from = value(range, names, min);
+					to = part.contains("/") ? max : from;
+				}
+				for (int value = from; value <= to; value++) {
+					if ((value - from) % step == 0) {
+						values[value] = true;
+					}
+				}
+			}
+			return values;
+		}
+
+		private static int value(String value, String[] names, int min) {
+			if (names != null) {
+				for (int i = 0; i < names.length; i++) {
+					if (names[i].equalsIgnoreCase(value)) {
+						return i + min;
+					}
+				}
+			}
+			return Integer.parseInt(value);
+		}
+	}
+
+}
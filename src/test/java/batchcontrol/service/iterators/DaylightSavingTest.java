@@ -0,0 +1,129 @@
+package batchcontrol.service.iterators;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Checks the schedules of the iterators around the daylight saving transitions of a
+ * matrix of zones and times of day, from 1990 to 2040, with <code>java.time</code> as
+ * the oracle.
+ */
+public class DaylightSavingTest {
+
+	private static final String[] ZONES = { "UTC", "America/New_York", "America/Sao_Paulo", "Europe/London",
+			"Europe/Moscow", "Asia/Kolkata", "Australia/Sydney", "Australia/Lord_Howe", "Pacific/Apia",
+			"America/St_Johns" };
+	/** times of day: midnight, inside typical gaps and overlaps, and outside of them */
+	private static final int[][] TIMES = { { 0, 0 }, { 0, 30 }, { 1, 30 }, { 2, 0 }, { 2, 30 }, { 3, 0 }, { 12, 0 } };
+	private static final int FROM_YEAR = 1990;
+	private static final int TO_YEAR = 2040;
+
+	private static final long START = CalendarMath.localMillis(CalendarMath.epochDay(FROM_YEAR, 1, 1), 0, 0, 0);
+	private static final long END = CalendarMath.localMillis(CalendarMath.epochDay(TO_YEAR, 1, 1), 0, 0, 0);
+
+	/**
+	 * {@link ZoneTransitions} agree with java.time on offsets and on the instant of a
+	 * local time two hours around every transition, in steps of 15 minutes, including
+	 * the gap and overlap rules.
+	 */
+	@Test
+	public void transitionsAgreeWithJavaTime() {
+		for (String id : ZONES) {
+			ZoneTransitions transitions = ZoneTransitions.of(TimeZone.getTimeZone(id));
+			ZoneId zoneId = ZoneId.of(id);
+			Instant end = Instant.ofEpochMilli(END);
+			for (ZoneOffsetTransition transition = zoneId.getRules().nextTransition(Instant.ofEpochMilli(START));
+					transition != null && transition.getInstant().isBefore(end);
+					transition = zoneId.getRules().nextTransition(transition.getInstant())) {
+				long at = transition.toEpochSecond() * 1000;
+				for (long time = at - 2 * CalendarMath.MILLIS_PER_HOUR; time <= at + 2 * CalendarMath.MILLIS_PER_HOUR;
+						time += 15 * CalendarMath.MILLIS_PER_MINUTE) {
+					long expected = zoneId.getRules().getOffset(Instant.ofEpochMilli(time)).getTotalSeconds() * 1000L;
+					assertEquals(id + ": offset at " + Instant.ofEpochMilli(time), expected, transitions.getOffset(time));
+					// the same local time read as a wall-clock time of the zone
+					LocalDateTime local = LocalDateTime.ofEpochSecond(time / 1000, 0, ZoneOffset.UTC);
+					assertEquals(id + ": instant of local " + local, local.atZone(zoneId).toInstant().toEpochMilli(),
+							transitions.toEpochMillis(time));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Daily, restricted daily, cron and monthly schedules fire once per local day, at
+	 * the scheduled local time or, in a gap, at the time moved forward by the gap; a
+	 * day skipped by the zone does not fire twice on the following day.
+	 */
+	@Test
+	public void dailySchedulesFireAtTheLocalTime() {
+		for (String id : ZONES) {
+			TimeZone zone = TimeZone.getTimeZone(id);
+			for (int[] time : TIMES) {
+				checkDaily(id, new DailyIterator(time[0], time[1], 0, new Date(START), zone, 0), time, false);
+				checkDaily(id, new RestrictedDailyIterator(time[0], time[1], 0, new int[] { 1, 2, 3, 4, 5, 6, 7 },
+						new Date(START), zone, 0), time, false);
+				checkDaily(id, new CronIterator(new CronExpression(time[1] + " " + time[0] + " * * *"),
+						new Date(START), zone, 0), time, false);
+				checkDaily(id, new MonthlyIterator(31, time[0], time[1], 0, new Date(START), zone, 0), time, true);
+			}
+		}
+	}
+
+	/**
+	 * Hourly and minute schedules fire at a fixed interval of elapsed time.
+	 */
+	@Test
+	public void intervalSchedulesIgnoreTransitions() {
+		for (String id : ZONES) {
+			TimeZone zone = TimeZone.getTimeZone(id);
+			checkInterval(id, new HourlyIterator(15, 0, new Date(START), zone, 0), CalendarMath.MILLIS_PER_HOUR, END);
+			checkInterval(id, new MinuteIterator(0, new Date(START), zone, 0), CalendarMath.MILLIS_PER_MINUTE,
+					START + 400 * CalendarMath.MILLIS_PER_DAY);
+		}
+	}
+
+	/**
+	 * Compares the times of the iterator with the wall-clock times of java.time, which
+	 * moves a time in a gap forward by the length of the gap and takes the earlier
+	 * instant in an overlap.
+	 *
+	 * @param monthly true if the schedule fires on the last day of each month rather than every day
+	 */
+	private static void checkDaily(String id, SchedulerIterator iterator, int[] time, boolean monthly) {
+		ZoneId zoneId = ZoneId.of(id);
+		LocalDate date = LocalDate.of(FROM_YEAR - 1, 12, 30);
+		long previous = START - 1;
+		while (true) {
+			long expected = date.atTime(time[0], time[1]).atZone(zoneId).toInstant().toEpochMilli();
+			date = monthly ? date.plusMonths(1).withDayOfMonth(date.plusMonths(1).lengthOfMonth()) : date.plusDays(1);
+			if (expected <= previous) {
+				// before the start, or a day skipped by the zone which maps to the following day
+				continue;
+			}
+			if (expected >= END) {
+				break;
+			}
+			assertEquals(id + ": " + iterator + " after " + new Date(previous), expected, iterator.nextEpochMillis());
+			previous = expected;
+		}
+	}
+
+	private static void checkInterval(String id, SchedulerIterator iterator, long interval, long end) {
+		long previous = iterator.nextEpochMillis();
+		for (long next = iterator.nextEpochMillis(); next < end; next = iterator.nextEpochMillis()) {
+			assertEquals(id + ": " + iterator + " at " + new Date(next), interval, next - previous);
+			previous = next;
+		}
+	}
+
+}
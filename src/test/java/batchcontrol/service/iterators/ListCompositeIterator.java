@@ -0,0 +1,49 @@
+package batchcontrol.service.iterators;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The previous <code>CompositeIterator</code> implementation, based on sorted lists.
+ */
+public class ListCompositeIterator extends StepIterator {
+	private List<Date> orderedTimes = new ArrayList<Date>();
+	private List<SchedulerIterator> orderedIterators = new ArrayList<SchedulerIterator>();
+
+	public ListCompositeIterator(SchedulerIterator[] scheduleIterators) {
+		super(0, 0, 0);
+		for (int i = 0; i < scheduleIterators.length; i++) {
+			insert(scheduleIterators[i]);
+		}
+	}
+
+	private void insert(SchedulerIterator scheduleIterator) {
+		Date time = scheduleIterator.next();
+		if (time == null) {
+			return;
+		}
+		int index = Collections.binarySearch(orderedTimes, time);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		orderedTimes.add(index, time);
+		orderedIterators.add(index, scheduleIterator);
+	}
+
+	public synchronized Date next() {
+		Date next = null;
+		while (!orderedTimes.isEmpty() && (next == null || next.equals(orderedTimes.get(0)))) {
+			next = orderedTimes.remove(0);
+			insert(orderedIterators.remove(0));
+		}
+		return next;
+	}
+
+	public long nextEpochMillis() {
+		Date next = next();
+		return next == null ? NO_TIME : next.getTime();
+	}
+
+}
@@ -0,0 +1,93 @@
+package batchcontrol.service.iterators;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+import batchcontrol.service.calendar.BusinessCalendar;
+
+/**
+ * Iterator over the times <code>time + step</code>, <code>time + 2 * step</code>, ...,
+ * optionally limited to a number of times.
+ */
+public class StepIterator implements SchedulerIterator {
+	private long time;
+	private final long step;
+	private final int id;
+	private int remaining;
+
+	public StepIterator(long time, long step, int id) {
+		this(time, step, id, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param count number of times, after which {@link #NO_TIME} is returned
+	 */
+	public StepIterator(long time, long step, int id, int count) {
+		this.time = time;
+		this.step = step;
+		this.id = id;
+		this.remaining = count;
+	}
+
+	public Date next() {
+		time += step;
+		return new Date(time);
+	}
+
+	public long nextEpochMillis() {
+		if (remaining == 0) {
+			return NO_TIME;
+		}
+		remaining--;
+		time += step;
+		return time;
+	}
+
+	public int getHour() {
+		return 0;
+	}
+
+	public int getMinute() {
+		return 0;
+	}
+
+	public int getSecond() {
+		return 0;
+	}
+
+	public String getDays() {
+		return null;
+	}
+
+	public String getType() {
+		return null;
+	}
+
+	public TimeZone getZone() {
+		return TimeZone.getTimeZone("UTC");
+	}
+
+	public BusinessCalendar getCalendar() {
+		return null;
+	}
+
+	public Object clone() {
+		return new StepIterator(time, step, id, remaining);
+	}
+
+	public String getState() {
+		return ACTIVE;
+	}
+
+	public void setState(String state) {
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String toString() {
+		return "[StepIterator: time=" + time + ", step=" + step + "]";
+	}
+
+}
@@ -0,0 +1,100 @@
+package batchcontrol.service.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * An in-memory H2 database with the batches and schedulers tables of the service, a
+ * stand-in for the container database in tests. Each instance is a separate database
+ * that lives until {@link #close()}.
+ */
+public class EmbeddedDatabase {
+	private static final AtomicInteger databaseCount = new AtomicInteger();
+
+	private final String url;
+
+	public EmbeddedDatabase() throws SQLException {
+		url = "jdbc:h2:mem:batches" + databaseCount.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+		execute("create table batches (id int primary key, name varchar(100) not null, "
+				+ "classname varchar(200) not null, server varchar(100), active int default 0 not null, "
+				+ "status int default 0 not null, updated timestamp default current_timestamp)");
+		execute("create table schedulers (id int primary key, batch_id int not null, s_type varchar(10) not null, "
+				+ "s_hour int default 0 not null, s_minute int default 0 not null, s_second int default 0 not null, "
+				+ "s_days varchar(200), updated timestamp default current_timestamp)");
+	}
+
+	/**
+	 * @return JDBC url of the database.
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return provider of unpooled connections to the database.
+	 */
+	public ConnectionProvider getConnectionProvider() {
+		JdbcDataSource dataSource = new JdbcDataSource();
+		dataSource.setURL(url);
+		return new DataSourceConnectionProvider(dataSource);
+	}
+
+	public void insertBatch(int id, String name, String className, String server, int active) throws SQLException {
+		execute("insert into batches (id, name, classname, server, active) values (?, ?, ?, ?, ?)", Integer.valueOf(id),
+				name, className, server, Integer.valueOf(active));
+	}
+
+	public void insertScheduler(int id, int batchId, String type, int hour, int minute, int second, String days)
+			throws SQLException {
+		execute("insert into schedulers (id, batch_id, s_type, s_hour, s_minute, s_second, s_days) "
+				+ "values (?, ?, ?, ?, ?, ?, ?)", Integer.valueOf(id), Integer.valueOf(batchId), type,
+				Integer.valueOf(hour), Integer.valueOf(minute), Integer.valueOf(second), days);
+	}
+
+	/**
+	 * @return number of rows changed.
+	 */
+	public int execute(String sql, Object... parameters) throws SQLException {
+		Connection con = DriverManager.getConnection(url);
+		try {
+			PreparedStatement stmt = con.prepareStatement(sql);
+			for (int i = 0; i < parameters.length; i++) {
+				stmt.setObject(i + 1, parameters[i]);
+			}
+			return stmt.executeUpdate();
+		} finally {
+			con.close();
+		}
+	}
+
+	/**
+	 * @return the integer in the first column of the first row, or null if there is no row.
+	 */
+	public Integer queryInt(String sql, Object... parameters) throws SQLException {
+		Connection con = DriverManager.getConnection(url);
+		try {
+			PreparedStatement stmt = con.prepareStatement(sql);
+			for (int i = 0; i < parameters.length; i++) {
+				stmt.setObject(i + 1, parameters[i]);
+			}
+			ResultSet rs = stmt.executeQuery();
+			return rs.next() ? Integer.valueOf(rs.getInt(1)) : null;
+		} finally {
+			con.close();
+		}
+	}
+
+	/**
+	 * Drops the database.
+	 */
+	public void close() throws SQLException {
+		execute("shutdown");
+	}
+
+}
@@ -0,0 +1,104 @@
+package batchcontrol.service.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledConnectionProviderTest {
+
+	private EmbeddedDatabase database;
+	private PooledConnectionProvider pool;
+
+	@Before
+	public void setUp() throws SQLException {
+		database = new EmbeddedDatabase();
+		pool = new PooledConnectionProvider(database.getUrl(), null, null, 2, 200);
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		pool.close();
+		database.close();
+	}
+
+	@Test
+	public void acquireTimesOutWhenAllConnectionsAreInUse() throws SQLException {
+		Connection first = pool.getConnection();
+		Connection second = pool.getConnection();
+		long start = System.currentTimeMillis();
+		try {
+			pool.getConnection();
+			fail("acquired a third connection");
+		} catch (SQLException expected) {
+		}
+		assertTrue(System.currentTimeMillis() - start >= 200);
+		first.close();
+		assertNotNull(pool.getConnection());
+		second.close();
+	}
+
+	@Test
+	public void closedConnectionReturnsToThePool() throws SQLException {
+		Connection con = pool.getConnection();
+		assertEquals(0, pool.getIdleCount());
+		con.close();
+		con.close();
+		assertEquals(1, pool.getIdleCount());
+		assertTrue(con.isClosed());
+		try {
+			con.createStatement();
+			fail("used a returned connection");
+		} catch (SQLException expected) {
+		}
+		Connection reused = pool.getConnection();
+		assertEquals(0, pool.getIdleCount());
+		assertFalse(reused.isClosed());
+		reused.close();
+	}
+
+	@Test
+	public void uncommittedChangesAreRolledBackOnReturn() throws SQLException {
+		Connection con = pool.getConnection();
+		con.setAutoCommit(false);
+		con.createStatement().executeUpdate("insert into batches (id, name, classname) values (1, 'a', 'A')");
+		con.close();
+		Connection reused = pool.getConnection();
+		assertTrue(reused.getAutoCommit());
+		reused.close();
+		assertEquals(Integer.valueOf(0), database.queryInt("select count(*) from batches"));
+	}
+
+	@Test
+	public void returnedConnectionCanBeCompared() throws SQLException {
+		Connection con = pool.getConnection();
+		con.close();
+		assertTrue(con.equals(con));
+		assertFalse(con.equals(pool.getConnection()));
+		assertEquals(System.identityHashCode(con), con.hashCode());
+		assertNotNull(con.toString());
+	}
+
+	@Test
+	public void closedPoolRejectsAcquire() throws SQLException {
+		Connection con = pool.getConnection();
+		pool.close();
+		try {
+			pool.getConnection();
+			fail("acquired from a closed pool");
+		} catch (SQLException expected) {
+		}
+		// a connection in use is closed when it is returned
+		con.close();
+		assertEquals(0, pool.getIdleCount());
+	}
+
+}